@@ -20,8 +20,10 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
@@ -30,6 +32,8 @@ import java.util.zip.Inflater;
 //import uk.ac.ebi.jmzml.model.mzml.utilities.MSNumpress;
 import ms.numpress.MSNumpress;
 
+import com.digitalproteomics.oss.parsers.mzml.cv.CvTerms;
+
 
 /**
  * The structure into which encoded binary data goes. Byte ordering is always little endian 
@@ -46,9 +50,33 @@ public class BinaryDataArray {
     	this.encodedData = new StringBuilder();
     }
     
+    /**
+     * Creates an array whose cvParams are already known, e.g. when described by a {@code BinaryDataIndexer}
+     * 
+     * @param dataType type of data stored
+     * @param precision precision of the encoded values
+     * @param compression compression of the encoded values
+     */
+    public BinaryDataArray(DataType dataType, Precision precision, Compression compression){
+    	this();
+    	this.dataType = dataType;
+    	this.precision = precision;
+    	this.compression = compression;
+    }
+    
     /** appends to encoded data **/
     public void appendToEncodedData(String s){
     	this.encodedData.append(s);
+    	this.decodedDoubles = null;
+    }
+    
+    /** 
+     * Sets the base64 encoded data from raw bytes of a binary tag, replacing any appended text 
+     **/
+    public void setEncodedData(byte[] encoded){
+    	this.encodedData.setLength(0);
+    	this.encodedBytes = encoded;
+    	this.decodedDoubles = null;
     }
 
     /**
@@ -89,25 +117,73 @@ public class BinaryDataArray {
      * @return
      */
     public boolean setMemberByAccession(String acc) {
-    	if(this.dataType == DataType.UNKNOWN 
-    			&& ACCESSION_TO_DATA_TYPE.containsKey(acc)){
-    		this.dataType = ACCESSION_TO_DATA_TYPE.get(acc);
-    		return true;
+    	return this.setMemberByAccession(CvTerms.code(acc));
+    }
+
+    /**
+     * Sets data type, compression, or precision enum based on a {@code CvTerms} code
+     * @param code
+     * @return true if a member was set
+     */
+    public boolean setMemberByAccession(int code) {
+    	switch(code) {
+    		case CvTerms.MZ_ARRAY:
+    			return this.setDataTypeIfUnknown(DataType.MZ_VALUES);
+    		case CvTerms.INTENSITY_ARRAY:
+    			return this.setDataTypeIfUnknown(DataType.INTENSITY);
+    		case CvTerms.TIME_ARRAY:
+    			return this.setDataTypeIfUnknown(DataType.TIME_ARRAY);
+    		case CvTerms.CHARGE_ARRAY:
+    			return this.setDataTypeIfUnknown(DataType.CHARGE_ARRAY);
+    		case CvTerms.PRESSURE_ARRAY:
+    			return this.setDataTypeIfUnknown(DataType.PRESSURE_ARRAY);
+    		case CvTerms.NO_COMPRESSION:
+    			return this.setCompressionIfUnset(Compression.NONE);
+    		case CvTerms.ZLIB_COMPRESSION:
+    			return this.setCompressionIfUnset(Compression.ZLIB);
+    		case CvTerms.NUMPRESS_LINEAR:
+    			return this.setCompressionIfUnset(Compression.NUMPRESS_LINEAR);
+    		case CvTerms.NUMPRESS_PIC:
+    			return this.setCompressionIfUnset(Compression.NUMPRESS_PIC);
+    		case CvTerms.NUMPRESS_SLOF:
+    			return this.setCompressionIfUnset(Compression.NUMPRESS_SLOF);
+    		case CvTerms.FLOAT32BIT:
+    			return this.setPrecisionIfUnset(Precision.FLOAT32BIT);
+    		case CvTerms.FLOAT64BIT:
+    			return this.setPrecisionIfUnset(Precision.FLOAT64BIT);
+    		case CvTerms.INT32BIT:
+    			return this.setPrecisionIfUnset(Precision.INT32BIT);
+    		case CvTerms.INT64BIT:
+    			return this.setPrecisionIfUnset(Precision.INT64BIT);
+    		case CvTerms.NTSTRING:
+    			return this.setPrecisionIfUnset(Precision.NTSTRING);
+    		default:
+    			return false;
     	}
-    	
-    	if(this.compression == null 
-    			&& ACCESSION_TO_COMPRESSION.containsKey(acc)){
-    		this.compression = ACCESSION_TO_COMPRESSION.get(acc);
-    		return true;
+    }
+
+    private boolean setDataTypeIfUnknown(DataType dataType) {
+    	if(this.dataType != DataType.UNKNOWN){
+    		return false;
     	}
-    	
-    	if(this.precision == null
-    			&& ACCESSION_TO_PRECISION.containsKey(acc)){
-    		this.precision = ACCESSION_TO_PRECISION.get(acc);
-    		return true;
+    	this.dataType = dataType;
+    	return true;
+    }
+
+    private boolean setCompressionIfUnset(Compression compression) {
+    	if(this.compression != null){
+    		return false;
     	}
-    	
-    	return false;
+    	this.compression = compression;
+    	return true;
+    }
+
+    private boolean setPrecisionIfUnset(Precision precision) {
+    	if(this.precision != null){
+    		return false;
+    	}
+    	this.precision = precision;
+    	return true;
     }
     
     /**
@@ -133,14 +209,11 @@ public class BinaryDataArray {
      * @return a Number array representation of the binary data.
      */
     public Number[] getDataAsDecodedNumberArray() {
-    	if(this.encodedData.length() == 0){
+    	if(!this.hasEncodedData()){
     		return new Number[0];
     	}
     	
-    	byte[] encoded = Base64.getDecoder().decode(this.encodedData.toString()); 
-    	
-        // 2. Decompression of the data (if required)
-        byte[] data = this.needsDecompressing() ? BinaryDataArray.decompress(encoded) : encoded;
+        byte[] data = this.getDecompressedData();
         
         // 3a. if data has been numpress compressed then do the decompression...
         switch(this.compression) {
@@ -157,6 +230,179 @@ public class BinaryDataArray {
         // return the result
         return this.decode(data);
     }
+    
+    /**
+     * Retrieves the encoded data as primitive doubles without boxing each value. The data is decoded 
+     * once, and the same array is returned to every caller, e.g. builders sharing a spectrum's arrays.
+     * 
+     * @return a double array representation of the binary data, that must not be modified.
+     */
+    public double[] getDataAsDecodedDoubleArray() {
+    	if(this.decodedDoubles == null){
+    		this.decodedDoubles = this.decodeToDoubleArray();
+    	}
+    	return this.decodedDoubles;
+    }
+    
+    /**
+     * Random access to decoded values, e.g. for passing values to reducers without allocating a
+     * double array.
+     */
+    public interface DecodedValues {
+    	int size();
+    	double get(int index);
+    }
+    
+    /**
+     * Retrieves the data as a view of the decompressed bytes. Values are converted on access, so no 
+     * double array is allocated, except for numpress data that is decoded as a whole. An array already 
+     * decoded by {@code getDataAsDecodedDoubleArray} is reused.
+     * 
+     * @return values of the binary data
+     */
+    public DecodedValues getDecodedValues() {
+    	double[] decoded = this.decodedDoubles;
+    	if(decoded != null || !this.hasEncodedData()){
+    		return BinaryDataArray.valuesOf(decoded == null ? new double[0] : decoded);
+    	}
+    	
+    	switch(this.compression) {
+	    	case NUMPRESS_LINEAR:
+	    	case NUMPRESS_PIC:
+	    	case NUMPRESS_SLOF:
+	    		return BinaryDataArray.valuesOf(this.getDataAsDecodedDoubleArray());
+	    	default:
+	    		break;
+    	}
+    	
+    	ByteBuffer bb = ByteBuffer.wrap(this.getDecompressedData()).order(ByteOrder.LITTLE_ENDIAN);
+    	int length = bb.capacity();
+    	switch (this.precision) {
+	    	case FLOAT64BIT:
+	    		return new DecodedValues() {
+	    			@Override public int size() { return length >> 3; }
+	    			@Override public double get(int index) { return bb.getDouble(index << 3); }
+	    		};
+	    	case FLOAT32BIT:
+	    		return new DecodedValues() {
+	    			@Override public int size() { return length >> 2; }
+	    			@Override public double get(int index) { return bb.getFloat(index << 2); }
+	    		};
+	    	case INT64BIT:
+	    		return new DecodedValues() {
+	    			@Override public int size() { return length >> 3; }
+	    			@Override public double get(int index) { return bb.getLong(index << 3); }
+	    		};
+	    	case INT32BIT:
+	    		return new DecodedValues() {
+	    			@Override public int size() { return length >> 2; }
+	    			@Override public double get(int index) { return bb.getInt(index << 2); }
+	    		};
+	    	default:
+	    		throw new IllegalStateException("Cannot convert data with format by CV " + this.precision);
+    	}
+    }
+    
+    /**
+     * Finds an array of a spectrum by data type, e.g. its m/z or intensity array
+     * 
+     * @param data arrays of a spectrum, may be null
+     * @return the last array of the data type, or null if there is none
+     */
+    public static BinaryDataArray find(List<BinaryDataArray> data, DataType dataType) {
+    	BinaryDataArray found = null;
+    	if(data != null){
+    		for(BinaryDataArray arr : data){
+    			if(arr.getDataType() == dataType){
+    				found = arr;
+    			}
+    		}
+    	}
+    	return found;
+    }
+    
+    /**
+     * Gets the decoded values of an array of a spectrum by data type (See {@code getDecodedValues()})
+     * 
+     * @param data arrays of a spectrum, may be null
+     * @return values of the last array of the data type, or null if there is none
+     */
+    public static DecodedValues decodedValuesOf(List<BinaryDataArray> data, DataType dataType) {
+    	BinaryDataArray arr = BinaryDataArray.find(data, dataType);
+    	return arr == null ? null : arr.getDecodedValues();
+    }
+    
+    /** view of decoded values **/
+    public static DecodedValues valuesOf(double[] values) {
+    	return new DecodedValues() {
+    		@Override public int size() { return values.length; }
+    		@Override public double get(int index) { return values[index]; }
+    	};
+    }
+    
+    private double[] decodeToDoubleArray() {
+    	if(!this.hasEncodedData()){
+    		return new double[0];
+    	}
+    	
+    	byte[] data = this.getDecompressedData();
+    	
+    	switch(this.compression) {
+	    	case NUMPRESS_LINEAR:
+	    		return BinaryDataArray.numpressDecodeToDoubles(MSNumpress::decodeLinear, data, data.length * 2);
+	    	case NUMPRESS_PIC:
+	    		return BinaryDataArray.numpressDecodeToDoubles(MSNumpress::decodePic, data, (data.length - 8) / 2);
+	    	case NUMPRESS_SLOF:
+	    		return BinaryDataArray.numpressDecodeToDoubles(MSNumpress::decodeSlof, data, data.length * 2);
+	    	default:
+	    		break;
+    	}
+    	
+    	ByteBuffer bb = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    	double[] result;
+    	switch (this.precision) {
+	    	case FLOAT64BIT:
+	    		result = new double[data.length / 8];
+	    		bb.asDoubleBuffer().get(result);
+	    		return result;
+	    	case FLOAT32BIT:
+	    		result = new double[data.length / 4];
+	    		for(int i = 0; i < result.length; i++){
+	    			result[i] = bb.getFloat(i * 4);
+	    		}
+	    		return result;
+	    	case INT64BIT:
+	    		result = new double[data.length / 8];
+	    		for(int i = 0; i < result.length; i++){
+	    			result[i] = bb.getLong(i * 8);
+	    		}
+	    		return result;
+	    	case INT32BIT:
+	    		result = new double[data.length / 4];
+	    		for(int i = 0; i < result.length; i++){
+	    			result[i] = bb.getInt(i * 4);
+	    		}
+	    		return result;
+	    	default:
+	    		throw new IllegalStateException("Cannot convert data with format by CV " + this.precision);
+    	}
+    }
+    
+    /** checks if any base64 data was set or appended **/
+    protected boolean hasEncodedData() {
+    	return this.encodedBytes != null 
+    			? this.encodedBytes.length > 0 
+    			: this.encodedData.length() > 0;
+    }
+    
+    /** 1. base64 decoding, and 2. decompression of the data (if required) **/
+    protected byte[] getDecompressedData() {
+    	byte[] encoded = this.encodedBytes != null 
+    			? Base64.getDecoder().decode(this.encodedBytes) 
+    			: Base64.getDecoder().decode(this.encodedData.toString());
+    	
+    	return this.needsDecompressing() ? BinaryDataArray.decompress(encoded) : encoded;
+    }
 
 	/**
      * Converts the binary data representing the "null-terminated ASCII string"
@@ -177,10 +423,7 @@ public class BinaryDataArray {
                     "according to Precision " + Precision.NTSTRING + "!");
         }
 
-    	byte[] encoded = Base64.getDecoder().decode(this.encodedData.toString()); 
-    	
-        // 2. Decompression of the data (if required)
-        byte[] data = this.needsDecompressing() ? BinaryDataArray.decompress(encoded) : encoded;
+        byte[] data = this.getDecompressedData();
 
         // 3. convert the binary data into a String
         // since we are dealing with a "null terminated string" as defined
@@ -297,6 +540,18 @@ public class BinaryDataArray {
     	System.arraycopy(buffer, 0, result, 0, length);
     	return result;
     }
+    
+    /**
+     * Convenience method for decoding binary data encoded by MSNumpress into primitives.
+     * @param decoder  pass in a MSNumpress decode method
+     * @param data 
+     * @return data as double
+     */
+    public static double[] numpressDecodeToDoubles(MSNumpressDecoder decoder, byte[] data, int dataSize){
+    	double[] buffer = new double[dataSize];
+    	int length = decoder.decode(data, data.length, buffer);
+    	return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    }
 
     /**
      * Compressed source data using the Deflate algorithm.
@@ -497,6 +752,8 @@ public class BinaryDataArray {
 
     /** raw array of data **/
     protected StringBuilder encodedData;
+    /** raw base64 bytes, used instead of {@code encodedData} when read directly from file **/
+    protected byte[] encodedBytes;
     protected Integer encodedLength;
     
     /**
@@ -504,6 +761,9 @@ public class BinaryDataArray {
      */
     protected byte[] rawDecodedData;
     
+    /** memo of {@code getDataAsDecodedDoubleArray} **/
+    private double[] decodedDoubles;
+    
     /** type of compression of binary **/
     private Compression compression;
     /** type of precision of binary **/
@@ -0,0 +1,223 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Positional reads of raw xml bytes from an mzML file. Reads do not move the channel's position,
+ * so a single {@code FileChannel} can be shared by threads.
+ */
+public final class ElementReader {
+
+	private ElementReader() {
+	}
+
+	/**
+	 * Reads exactly {@code length} bytes starting at {@code offset}
+	 *
+	 * @throws EOFException if the file ends before all bytes are read
+	 */
+	public static byte[] readBytes(FileChannel channel, long offset, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		ByteBuffer bb = ByteBuffer.wrap(bytes);
+		while(bb.hasRemaining()){
+			if(channel.read(bb, offset + bb.position()) < 0){
+				throw new EOFException("File ended after " + bb.position() + " of " + length + " bytes at offset " + offset);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Reads an element starting at {@code offset} up to, and including, its end tag.
+	 * The file is read in chunks until the end tag is found.
+	 *
+	 * @param localName name of the element to read, e.g. spectrum
+	 * @return bytes of the element
+	 * @throws EOFException if the file ends before the end tag
+	 */
+	public static byte[] readElement(FileChannel channel, long offset, String localName) throws IOException {
+		byte[] endTag = ("</" + localName + ">").getBytes(StandardCharsets.US_ASCII);
+		byte[] bytes = new byte[CHUNK_SIZE];
+		int length = 0;
+
+		while(true){
+			if(length == bytes.length){
+				bytes = Arrays.copyOf(bytes, bytes.length << 1);
+			}
+
+			int read = channel.read(ByteBuffer.wrap(bytes, length, bytes.length - length), offset + length);
+			if(read < 0){
+				throw new EOFException("No " + new String(endTag, StandardCharsets.US_ASCII) + " found after offset " + offset);
+			}
+
+			// searches the overlap with the previous read for a split end tag
+			int end = indexOf(bytes, Math.max(0, length - endTag.length), length + read, endTag);
+			length += read;
+			if(end > -1){
+				return Arrays.copyOf(bytes, end + endTag.length);
+			}
+		}
+	}
+
+	/**
+	 * Finds the first occurrence of a pattern within {@code data[from, to)}
+	 *
+	 * @return index of the pattern, or -1 if not found
+	 */
+	public static int indexOf(byte[] data, int from, int to, byte[] pattern) {
+		int last = to - pattern.length;
+		outer: for(int i = from; i <= last; i++){
+			for(int j = 0; j < pattern.length; j++){
+				if(data[i + j] != pattern[j]){
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the last occurrence of a pattern ending before {@code before}, reading the file backwards in chunks
+	 *
+	 * @return offset of the pattern in the file, or -1 if not found
+	 */
+	public static long lastIndexOf(FileChannel channel, long before, byte[] pattern) throws IOException {
+		long end = before;
+		while(end > 0){
+			long start = Math.max(0, end - CHUNK_SIZE);
+			// overlaps the previous chunk for a split pattern
+			long to = Math.min(before, end + pattern.length - 1);
+			byte[] bytes = readBytes(channel, start, (int) (to - start));
+
+			outer: for(int i = bytes.length - pattern.length; i >= 0; i--){
+				for(int j = 0; j < pattern.length; j++){
+					if(bytes[i + j] != pattern[j]){
+						continue outer;
+					}
+				}
+				return start + i;
+			}
+			end = start;
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes elements, with their subtrees, from raw xml bytes without parsing them.
+	 * Removed elements must not nest within an element of the same name.
+	 *
+	 * @param data xml bytes
+	 * @param from index where the search for elements starts
+	 * @param localNames names of removed elements
+	 * @return data itself if no element was found, otherwise a pruned copy
+	 */
+	public static byte[] removeElements(byte[] data, int from, Collection<String> localNames) {
+		byte[][] starts = new byte[localNames.size()][];
+		byte[][] ends = new byte[localNames.size()][];
+		int n = 0;
+		for(String localName : localNames){
+			starts[n] = ("<" + localName).getBytes(StandardCharsets.US_ASCII);
+			ends[n++] = ("</" + localName).getBytes(StandardCharsets.US_ASCII);
+		}
+
+		byte[] pruned = null;
+		int length = 0;
+		int copied = 0;
+		int i = from;
+		while((i = indexOf(data, i, data.length, LT)) > -1){
+			int k = 0;
+			while(k < n && !isStartTag(data, i, starts[k])){
+				k++;
+			}
+			if(k == n){
+				i++;
+				continue;
+			}
+
+			// finds the end of the subtree, or of the empty element
+			int tagEnd = indexOf(data, i, data.length, GT);
+			int end;
+			if(tagEnd > 0 && data[tagEnd - 1] == '/'){
+				end = tagEnd + 1;
+			} else {
+				int endTag = indexOfEndTag(data, i, ends[k]);
+				int endTagEnd = endTag < 0 ? -1 : indexOf(data, endTag, data.length, GT);
+				if(endTagEnd < 0){
+					// unterminated, left for the xml parser to report
+					break;
+				}
+				end = endTagEnd + 1;
+			}
+
+			if(pruned == null){
+				pruned = new byte[data.length];
+			}
+			System.arraycopy(data, copied, pruned, length, i - copied);
+			length += i - copied;
+			copied = end;
+			i = end;
+		}
+
+		if(pruned == null){
+			return data;
+		}
+		System.arraycopy(data, copied, pruned, length, data.length - copied);
+		length += data.length - copied;
+		return Arrays.copyOf(pruned, length);
+	}
+
+	/** checks for a start tag, and not a longer name with the same prefix **/
+	private static boolean isStartTag(byte[] data, int i, byte[] start) {
+		int after = i + start.length;
+		if(after >= data.length || indexOf(data, i, after, start) != i){
+			return false;
+		}
+		byte b = data[after];
+		return b == '>' || b == '/' || isWhitespace(b);
+	}
+
+	/** finds an end tag, and not the end tag of a longer name with the same prefix **/
+	private static int indexOfEndTag(byte[] data, int from, byte[] end) {
+		int i = from;
+		while((i = indexOf(data, i, data.length, end)) > -1){
+			int after = i + end.length;
+			if(after < data.length && (data[after] == '>' || isWhitespace(data[after]))){
+				return i;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	private final static byte[] LT = {'<'};
+	private final static byte[] GT = {'>'};
+
+	/** bytes read per positional read **/
+	final static int CHUNK_SIZE = 16384;
+}
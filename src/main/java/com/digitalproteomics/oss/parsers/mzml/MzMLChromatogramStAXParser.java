@@ -15,141 +15,98 @@
  ******************************************************************************/
 package com.digitalproteomics.oss.parsers.mzml;
 
-import javax.xml.stream.FactoryConfigurationError;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
-import com.digitalproteomics.oss.parsers.mzml.builders.FromXMLStreamBuilder;
 import com.digitalproteomics.oss.parsers.mzml.builders.XMLChromatogramBuilder;
 import com.digitalproteomics.oss.parsers.mzml.model.Chromatogram;
-import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * A generic parser of a mzML file that iterates over chromatogram list.
+ * A generic parser of a mzML file that iterates over chromatogram list. For indexed files, iteration
+ * starts at the chromatogramList, and spectra are not read.
  */
-public class MzMLChromatogramStAXParser implements Iterable<Chromatogram> {
+public class MzMLChromatogramStAXParser implements Iterable<Chromatogram>, Closeable {
 
     /**
+     * No file is read until chromatograms are iterated, or read by random access.
+     *
      * @param xml path to mzml file
      */
     public MzMLChromatogramStAXParser(Path xml) {
         this.xml = xml;
+        this.parser = new MzMLStAXParser<Chromatogram>(xml, XMLChromatogramBuilder::new, false, false);
+    }
+
+    /** parses the index on first use **/
+    private MzMLStAXParser<Chromatogram> indexed() {
+        this.parser.loadIndex();
+        return this.parser;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.parser.close();
     }
 
     /** Used for debugging xml elements **/
     static void printElementState(XMLStreamReader xr) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("ElemState: ")
-                .append(xr.getEventType())
-                .append("\t")
-                .append(xr.hasName())
-                .append("\t")
-                .append(xr.isStartElement())
-                .append("\t")
-                .append(xr.isEndElement())
-                .append("\t")
-                .append(xr.isCharacters());
-
-        if (xr.hasName()) {
-            sb.append("\t").append(xr.getName());
-        }
-        if (xr.hasText()) {
-            sb.append("\t").append(xr.getText());
-        }
-
-        System.out.println(sb.toString());
+        MzMLStAXParser.printElementState(xr);
+    }
+
+    @Override
+    public Iterator<Chromatogram> iterator() {
+        return this.indexed().chromatogramIterator(XMLChromatogramBuilder::new);
     }
 
     /**
-     * Iterator over chromatogram tags, and parses FromXMLStreamBuilder built instances
+     * Grabs a chromatogram using random access to an indexed file
+     *
+     * @param index of chromatogram in the indexList
+     * @return chromatogram, or null if the file has no chromatogram index
      */
-    protected class FromXMLStreamIterator implements Iterator<Chromatogram> {
-        XMLStreamReader xr;
-
-        public FromXMLStreamIterator() throws XMLStreamException {
-            XMLInputFactory fac = XMLInputFactory.newInstance();
-            try {
-                this.xr = fac.createXMLStreamReader(Files.newInputStream(MzMLChromatogramStAXParser.this.xml, StandardOpenOption.READ));
-            } catch (FactoryConfigurationError | IOException e) {
-                LOGGER.log(Level.ERROR, e.getMessage());
-                System.exit(-1);
-            }
-            if (!this.moveToNextChromatogram()) {
-                LOGGER.log(Level.WARN,  "no chromatogram found in mzml file");
-            }
-        }
-
-        /**
-         * Jumps to first chromatogram xml tag.
-         * @return
-         * @throws XMLStreamException
-         */
-        public boolean moveToNextChromatogram() throws XMLStreamException {
-            while (this.xr.hasNext()) {
-                this.xr.next();
-                if (this.xr.getEventType() == XMLStreamConstants.START_ELEMENT
-                        && this.xr.getLocalName().equals("chromatogram")) {
-                    return true;
-                }
-            }
-            return false;
-        }
-
-        @Override
-        public boolean hasNext() {
-            return this.xr.getEventType() == XMLStreamConstants.START_ELEMENT
-                    && this.xr.getLocalName().equals("chromatogram");
-        }
-
-        @Override
-        public Chromatogram next() {
-            // assumes inside chromatogram based on initialization and hasNext
-            FromXMLStreamBuilder<Chromatogram> consumer = new XMLChromatogramBuilder(MzMLChromatogramStAXParser.this.xml.toString(),
-                    this.xr);
-            try {
-                while (this.xr.hasNext()) {
-                    this.xr.next();
-
-                    if (this.xr.getEventType() == XMLStreamConstants.END_ELEMENT
-                            && this.xr.getLocalName().equals("chromatogram")) {
-                        this.moveToNextChromatogram();
-                        return consumer.build();
-                    }
-
-                    consumer.accept(this.xr);
-                }
-            } catch (XMLStreamException e) {
-                LOGGER.log(Level.ERROR, e.toString());
-                // if xml parsing error, tries the next record.
-                return this.next();
-            }
-            // hasNext should be called before next to ensure there is another spectrum to process
-            return null;
-        }
+    public Chromatogram getChromatogramByIndex(int index) {
+        return this.indexed().getChromatogramByIndex(index, XMLChromatogramBuilder::new);
     }
 
-    @Override
-    public Iterator<Chromatogram> iterator() {
-        try {
-            return new FromXMLStreamIterator();
-        } catch (XMLStreamException e) {
-            LOGGER.log(Level.ERROR, e.toString());
-            return Collections.emptyIterator();
-        }
+    /**
+     * Grabs a chromatogram using the complete reference id of the indexList
+     *
+     * @param refId complete reference id string, e.g. the id attribute of the chromatogram tag
+     * @return chromatogram, or null if the id or chromatogram index was not found
+     */
+    public Chromatogram getChromatogramById(String refId) {
+        return this.indexed().getChromatogramById(refId, XMLChromatogramBuilder::new);
+    }
+
+    /**
+     * Grabs chromatograms by reference ids, reading only those chromatograms from the file
+     *
+     * @param refIds complete reference id strings
+     * @return chromatograms in the order of {@code refIds}, without ids that were not found
+     */
+    public List<Chromatogram> getChromatograms(Collection<String> refIds) {
+        return this.indexed().getChromatograms(refIds, XMLChromatogramBuilder::new);
+    }
+
+    /**
+     * Gets reference ids in the order of the chromatogram index
+     */
+    public List<String> getChromatogramIds() {
+        return this.indexed().getChromatogramIds();
     }
 
     /** path to mzml file **/
     protected Path xml;
 
+    /** indexing, and parsing of chromatograms, without an index until {@code indexed} is called **/
+    protected MzMLStAXParser<Chromatogram> parser;
+
     final static Logger LOGGER = LogManager.getLogger(MzMLChromatogramStAXParser.class);
 }
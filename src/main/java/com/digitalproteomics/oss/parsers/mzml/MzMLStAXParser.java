@@ -15,25 +15,34 @@
 ******************************************************************************/
 package com.digitalproteomics.oss.parsers.mzml;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
-import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLInputFactory;
@@ -45,15 +54,24 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DataType;
+import com.digitalproteomics.oss.parsers.mzml.builders.BinaryDataIndexer;
+import com.digitalproteomics.oss.parsers.mzml.builders.BinaryDataIndexer.BinaryDataSpan;
 import com.digitalproteomics.oss.parsers.mzml.builders.FromXMLStreamBuilder;
 import com.digitalproteomics.oss.parsers.mzml.builders.ReferenceableParamGroup;
 import com.digitalproteomics.oss.parsers.mzml.builders.SpectrumIndexer;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLStreamProjection;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
 
 /**
  * A generic parser of a mzML file. The parser is an iterable over spectrum tags,
  * and can random access to a spectrum tag using the indexedMzML's index tags. 
  *
  * If random access by scan time ranges is needed, then parseIndex and indexScanTimes must be flagged.
+ * 
+ * Random access uses positional reads of the file, and referenceable param groups parsed once from 
+ * the head of the file, so a parser can be shared between threads for random access.
  *
  * @param <T> an instance that can be built by a {@code FromXMLStreamBuilder}
  */
@@ -71,11 +89,12 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 			boolean indexScanTimes) {
 		this.xml = xml;
 		this.factory = factory;
-		this.refParams = new HashMap<>();
+		this.refParams = new ConcurrentHashMap<>();
 		
+		this.indexLoaded = parseIndex;
 		try {
 			if(parseIndex){
-				this.seekable = Files.newByteChannel(this.xml, StandardOpenOption.READ);
+				this.seekable = FileChannel.open(this.xml, StandardOpenOption.READ);
 				this.parseIndex(indexScanTimes);
 			}
 		} catch (IOException e) {
@@ -175,7 +194,13 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 					if(this.xr.getLocalName().equals("referenceableParamGroup")){
 						currGroup = new ReferenceableParamGroup(this.xr);
 					} else if(this.xr.getLocalName().equals("spectrum")){
+						// all groups precede the first spectrum
+						MzMLStAXParser.this.refParamsLoaded = true;
 						return true;
+					} else if(this.xr.getLocalName().equals("chromatogramList")){
+						// no spectra remain, and chromatograms are left to a ChromatogramIterator
+						MzMLStAXParser.this.refParamsLoaded = true;
+						return false;
 					} else if(currGroup != null){
 						currGroup.accept(this.xr);
 					}
@@ -183,6 +208,9 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 						&& this.xr.getLocalName().equals("referenceableParamGroup")){
 					MzMLStAXParser.this.refParams.put(currGroup.getId(), currGroup.build());
 					currGroup = null;
+				} else if(this.xr.getEventType() == XMLStreamConstants.END_ELEMENT 
+						&& this.xr.getLocalName().equals("spectrumList")){
+					return false;
 				}
 			}
 			return false;
@@ -197,45 +225,152 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 		@Override
 		public T next() {
 			// assumes inside spectrum based on initialization and hasNext
-			FromXMLStreamBuilder<T> consumer = MzMLStAXParser.this.factory.create(MzMLStAXParser.this.xml.toString(), 
-					this.xr);
 			try {
-				while(this.xr.hasNext()) {
-					this.xr.next();
-				
-					if(this.xr.getEventType() == XMLStreamConstants.END_ELEMENT 
-							&& this.xr.getLocalName().equals("spectrum")){
-						this.moveToNextSpectrum();
-						return consumer.build();
-					}
-					
-					if(this.xr.getEventType() == XMLStreamConstants.START_ELEMENT 
-							&& this.xr.getLocalName().equals("referenceableParamGroupRef")){
-						ReferenceableParamGroup group = MzMLStAXParser.this.refParams.get(this.xr.getAttributeValue(null, "ref"));
-						if(group == null){
-							LOGGER.log(Level.ERROR, "ReferencableParamGroup id :" + this.xr.getAttributeValue(null, "ref") + " was not found in file");
-						} else {
-							XMLStreamReader refXr = group.getParams();
-							while(refXr.hasNext()){
-								refXr.next();
-								consumer.accept(refXr);
-							}
-						}
-						
-					} else {
-						consumer.accept(this.xr);
-					}
+				T built = MzMLStAXParser.this.buildElement(this.xr, MzMLStAXParser.this.factory);
+				this.moveToNextSpectrum();
+				return built;
+			} catch(XMLStreamException e){
+				LOGGER.log(Level.ERROR, e.toString());
+				// if xml parsing error, tries the next record.
+				return this.next();
+			}
+		}
+	}
+	
+	/**
+	 * Iterator over chromatogram tags, and parses FromXMLStreamBuilder built instances. Iteration stops
+	 * at the end of the chromatogramList.
+	 */
+	protected class ChromatogramIterator<C> implements Iterator<C> {
+		XMLStreamReader xr;
+		FromXMLStreamBuilderFactory<C> chromatogramFactory;
+		
+		/**
+		 * @param xr reader at any state before the first chromatogram
+		 * @param chromatogramFactory factory of chromatogram builders
+		 */
+		public ChromatogramIterator(XMLStreamReader xr, FromXMLStreamBuilderFactory<C> chromatogramFactory) throws XMLStreamException {
+			this.xr = xr;
+			this.chromatogramFactory = chromatogramFactory;
+			if (!this.moveToNextChromatogram()){
+				LOGGER.log(Level.WARN,  "no chromatogram found in mzml file");
+			}
+		}
+		
+		/**
+		 * Jumps to the next chromatogram xml tag
+		 */
+		public boolean moveToNextChromatogram() throws XMLStreamException {
+			if(this.xr.getEventType() == XMLStreamConstants.END_ELEMENT
+					&& this.xr.getLocalName().equals("chromatogramList")){
+				return false;
+			}
+			
+			while(this.xr.hasNext()){
+				this.xr.next();
+				if(this.xr.getEventType() == XMLStreamConstants.START_ELEMENT
+						&& this.xr.getLocalName().equals("chromatogram")){
+					return true;
+				} else if(this.xr.getEventType() == XMLStreamConstants.END_ELEMENT
+						&& this.xr.getLocalName().equals("chromatogramList")){
+					// a reader seeked to the chromatogramList has no content after it
+					return false;
 				}
+			}
+			return false;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return this.xr.getEventType() == XMLStreamConstants.START_ELEMENT 
+					&& this.xr.getLocalName().equals("chromatogram");
+		}
+		
+		@Override
+		public C next() {
+			try {
+				C built = MzMLStAXParser.this.buildElement(this.xr, this.chromatogramFactory);
+				this.moveToNextChromatogram();
+				return built;
 			} catch(XMLStreamException e){
 				LOGGER.log(Level.ERROR, e.toString());
 				// if xml parsing error, tries the next record.
 				return this.next();
 			}
-			// hasNext should be called before next to ensure there is another spectrum to process
-			return null;
 		}
 	}
 	
+	/**
+	 * Builds an instance from the events of an element. Events pass through the builder's projection, 
+	 * and referenceable param groups are replayed.
+	 * 
+	 * @param xr reader at the start of the element, which is left at the end of the element
+	 * @param elementFactory factory of the builder
+	 * @return built instance, or null if the file ended before the element
+	 */
+	protected <S> S buildElement(XMLStreamReader xr, FromXMLStreamBuilderFactory<S> elementFactory) throws XMLStreamException {
+		return this.buildElement(xr, elementFactory.create(this.xml.toString(), xr));
+	}
+	
+	/**
+	 * Builds an instance from raw bytes of one element. Subtrees skipped by the builder's projection are 
+	 * removed from the bytes before parsing.
+	 * 
+	 * @param bytes of the element, starting at its start tag
+	 * @param elementFactory factory of the builder
+	 * @return built instance, or null if the bytes end before the element
+	 */
+	protected <S> S buildElement(byte[] bytes, FromXMLStreamBuilderFactory<S> elementFactory) throws XMLStreamException {
+		XMLStreamReader xr = IN_FACTORY.createXMLStreamReader(new ByteArrayInputStream(bytes));
+		xr.nextTag();
+		
+		FromXMLStreamBuilder<S> builder = elementFactory.create(this.xml.toString(), xr);
+		XMLStreamProjection projection = builder.getProjection();
+		if(!projection.getSkippedElements().isEmpty()){
+			// attribute values cannot contain '<', so pruning after the first byte leaves the start tag intact
+			byte[] pruned = ElementReader.removeElements(bytes, 1, projection.getSkippedElements());
+			if(pruned != bytes){
+				xr = IN_FACTORY.createXMLStreamReader(new ByteArrayInputStream(pruned));
+				xr.nextTag();
+			}
+		}
+		return this.buildElement(xr, builder);
+	}
+	
+	/**
+	 * @param xr reader at the start of the element, which is left at the end of the element
+	 * @param builder created from the start of the element
+	 */
+	private <S> S buildElement(XMLStreamReader xr, FromXMLStreamBuilder<S> builder) throws XMLStreamException {
+		String localName = xr.getLocalName();
+		XMLStreamProjection projection = builder.getProjection();
+		Consumer<XMLStreamReader> consumer = projection.filter(builder);
+		
+		while(xr.hasNext()) {
+			xr.next();
+		
+			if(xr.getEventType() == XMLStreamConstants.END_ELEMENT 
+					&& xr.getLocalName().equals(localName)){
+				return builder.build();
+			}
+			
+			if(projection.skipSubtree(xr)){
+				continue;
+			}
+			
+			if(xr.getEventType() == XMLStreamConstants.START_ELEMENT 
+					&& xr.getLocalName().equals("referenceableParamGroupRef")){
+				this.acceptReferenceableParams(this.getReferenceableParamGroups(), 
+						xr.getAttributeValue(null, "ref"), 
+						consumer);
+			} else {
+				consumer.accept(xr);
+			}
+		}
+		// hasNext should be called before next to ensure there is another element to process
+		return null;
+	}
+	
 	@Override
 	public Iterator<T> iterator() {
 		try {
@@ -246,36 +381,154 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 		}
 	}
 	
-	private class StartElementFilter implements javax.xml.stream.StreamFilter {
-		@Override
-		public boolean accept(XMLStreamReader reader) {
-			return reader.getEventType() == XMLStreamConstants.START_ELEMENT;
+	/**
+	 * Iterates over chromatograms. For indexed files, reading starts at the chromatogramList, 
+	 * so no spectra are read.
+	 * 
+	 * @param chromatogramFactory factory of chromatogram builders, e.g. {@code XMLChromatogramBuilder::new}
+	 */
+	public <C> Iterator<C> chromatogramIterator(FromXMLStreamBuilderFactory<C> chromatogramFactory) {
+		try {
+			return new ChromatogramIterator<C>(IN_FACTORY.createXMLStreamReader(this.openChromatogramList()), 
+					chromatogramFactory);
+		} catch (IOException | XMLStreamException e){
+			LOGGER.log(Level.ERROR, e.toString());
+			return Collections.emptyIterator();
+		}
+	}
+	
+	/**
+	 * Passes every spectrum, and then every chromatogram, to sinks using one read of the file
+	 * 
+	 * @param spectrumSink receives spectra built by the parser's factory
+	 * @param chromatogramFactory factory of chromatogram builders, e.g. {@code XMLChromatogramBuilder::new}
+	 * @param chromatogramSink receives chromatograms
+	 */
+	public <C> void forEach(Consumer<? super T> spectrumSink, 
+			FromXMLStreamBuilderFactory<C> chromatogramFactory, 
+			Consumer<? super C> chromatogramSink) {
+		FromXMLStreamIterator spectra;
+		try {
+			spectra = new FromXMLStreamIterator();
+			spectra.forEachRemaining(spectrumSink);
+			
+			// the reader is left after the spectrumList
+			new ChromatogramIterator<C>(spectra.xr, chromatogramFactory).forEachRemaining(chromatogramSink);
+		} catch (XMLStreamException e){
+			LOGGER.log(Level.ERROR, e.toString());
+		}
+	}
+	
+	/**
+	 * Opens the file at its chromatogramList using the chromatogram index, or at the start of the file
+	 * if there is no chromatogram index.
+	 */
+	protected InputStream openChromatogramList() throws IOException {
+		InputStream is = Files.newInputStream(this.xml, StandardOpenOption.READ);
+		if(this.chromatogramOffsets == null || this.chromatogramOffsets.size() == 0){
+			return is;
+		}
+		
+		long listOffset = ElementReader.lastIndexOf(this.seekable, 
+				this.chromatogramOffsets.getOffsets().get(0), 
+				CHROMATOGRAM_LIST_TAG);
+		if(listOffset < 0){
+			LOGGER.log(Level.WARN, "No chromatogramList tag precedes the indexed chromatograms. Reading from start of file.");
+			return is;
+		}
+		
+		long skipped = 0;
+		while(skipped < listOffset){
+			long n = is.skip(listOffset - skipped);
+			if(n <= 0){
+				is.close();
+				throw new EOFException("Could not skip to chromatogramList at offset " + listOffset);
+			}
+			skipped += n;
 		}
+		return is;
 	}
 	
 	/**
 	 * Loads {@code indexToOffset} and {@code idToOffset} for random access to spectra. 
 	 * 
+	 *  1) Parses the indexList (See {@code readIndexList}) 
+	 *  2) Sets the spectrum and chromatogram indexers
+	 *  3) Iterates over the xml file to gather scanTimes [optional]  
+	 */
+	protected void parseIndex(boolean indexScanTimes) throws XMLStreamException {
+		// 1) parse the indexList
+		Map<String, SpectrumIndexer> indexers;
+		try {
+			indexers = MzMLStAXParser.readIndexList(this.xml, this.seekable);
+		} catch (IOException e) {
+			LOGGER.log(Level.ERROR, e.toString());
+			return;
+		}
+		
+		// 2) sets indexers
+		this.spectrumOffsets = indexers.get("spectrum");
+		this.chromatogramOffsets = indexers.get("chromatogram");
+			
+		// 3) sets the scan time offsets available
+		if(indexScanTimes && this.spectrumOffsets != null){
+			try {
+				this.spectrumOffsets.setScanTimeToOffsets(this.xml);
+			} catch (IOException e) {
+				LOGGER.log(Level.ERROR, e.toString());
+				return;
+			}
+		}
+		
+	}
+	
+	/**
+	 * Parses the indexList of a parser constructed without it, once. Unlike the constructor, an unreadable
+	 * file, or a file without an index, is only logged, so callers can check the file themselves, e.g. with
+	 * {@code Files.size}, and keep a process alive when one of many files cannot be read.
+	 * 
+	 * @return true if the file has a spectrum or chromatogram index
+	 */
+	public synchronized boolean loadIndex() {
+		if(!this.indexLoaded){
+			this.indexLoaded = true;
+			try {
+				Map<String, SpectrumIndexer> indexers = MzMLStAXParser.readIndexList(this.xml, this.getSeekable());
+				this.spectrumOffsets = indexers.get("spectrum");
+				this.chromatogramOffsets = indexers.get("chromatogram");
+			} catch (IOException e) {
+				LOGGER.log(Level.ERROR, e.toString());
+			} catch (XMLStreamException e) {
+				LOGGER.log(Level.DEBUG, "No random access. " + e.getMessage());
+			}
+		}
+		return this.spectrumOffsets != null || this.chromatogramOffsets != null;
+	}
+	
+	/**
+	 * Parses every index of an indexedmzML's indexList. 
+	 * 
 	 *  1) Checks for an indexedmzML,
 	 *  2) Finds indexList by backtracking from end of file
-	 *  3) Parses indexList to construct {@code spectrumOffsets} Indexer member
-	 *  4) Iterates over the xml file to gather scanTimes [optional]  
+	 *  3) Parses indexList to construct an Indexer for each index
+	 *  
+	 * @param xml path to mzml file
+	 * @param seekable channel of the file, whose position is moved
+	 * @return indexers by the name of the index, e.g. spectrum or chromatogram
+	 * @throws XMLStreamException if the file has no index
 	 */
-	protected void parseIndex(boolean indexScanTimes) throws XMLStreamException {
+	static Map<String, SpectrumIndexer> readIndexList(Path xml, FileChannel seekable) throws XMLStreamException, IOException {
 		XMLInputFactory xmlFac = XMLInputFactory.newInstance();
 		
 		// 1) find indexedmzML
-		try(InputStream is = Files.newInputStream(this.xml, StandardOpenOption.READ)) {
-			XMLStreamReader xr = xmlFac.createFilteredReader(xmlFac.createXMLStreamReader(is), new StartElementFilter());
+		try(InputStream is = Files.newInputStream(xml, StandardOpenOption.READ)) {
+			XMLStreamReader xr = xmlFac.createFilteredReader(xmlFac.createXMLStreamReader(is), 
+					reader -> reader.getEventType() == XMLStreamConstants.START_ELEMENT);
 			if (xr.getLocalName().equals("mzML")) {
 				throw new XMLStreamException("mzML file with no indexing");
 			} else if(!xr.getLocalName().equals("indexedmzML")){
 				throw new XMLStreamException("No indexedmzML tag found.");
 			}
-			
-		} catch (IOException e) {
-			LOGGER.log(Level.ERROR, e.toString());
-			return;
 		}
 
 		// 2) find indexList and sets seekable to be at the new offset
@@ -293,42 +546,36 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 
 		endFilePass : for(long offsetFromEnd = 1024; offsetFromEnd <= MzMLStAXParser.MAX_MEGABYTE_FROM_END * (1024 * 1024); offsetFromEnd = offsetFromEnd << 1 ) {
 			// finds first "<indexList" character sequence			
-			try {
-				offsetFromStart = Math.max(0, this.seekable.size() - offsetFromEnd);
+			offsetFromStart = Math.max(0, seekable.size() - offsetFromEnd);
+			
+			seekable = seekable.position(offsetFromStart);
+			int bytesRead = 0;
+			CharSequence seq;
+			bb.clear();
+			while (bytesRead > -1) {
+				// fills the buffer
+				do {
+					bytesRead = seekable.read(bb);
+				} while( bb.hasRemaining() && bytesRead > -1);
+				bb.flip();
 				
-				this.seekable = this.seekable.position(offsetFromStart);
-				int bytesRead = 0;
-				CharSequence seq;
-				bb.clear();
-				while (bytesRead > -1) {
-					// fills the buffer
-					do {
-						bytesRead = this.seekable.read(bb);
-					} while( bb.hasRemaining() && bytesRead > -1);
-					bb.flip();
-					
-					// converts to a char buffer to pattern match
-					seq = decoder.decode(bb);
-					indexListFind = indexListTag.matcher(seq);
-					if(indexListFind.find()){
-						offsetFromStart += indexListFind.start();
-						hasIndexList = true;
-						this.seekable = this.seekable.position(offsetFromStart);	
-						break endFilePass;
-					}
-					
-					// shifts only by bbRead to find again on the overlap
-					offsetFromStart += bbRead;
-					
-					if(bytesRead > -1) {
-						bb.position(bbRead);
-						bb.compact(); // compacts upto overlap
-					}
+				// converts to a char buffer to pattern match
+				seq = decoder.decode(bb);
+				indexListFind = indexListTag.matcher(seq);
+				if(indexListFind.find()){
+					offsetFromStart += indexListFind.start();
+					hasIndexList = true;
+					seekable = seekable.position(offsetFromStart);	
+					break endFilePass;
 				}
 				
-			} catch (IOException e){
-				LOGGER.log(Level.ERROR, e.toString());
-				return;	
+				// shifts only by bbRead to find again on the overlap
+				offsetFromStart += bbRead;
+				
+				if(bytesRead > -1) {
+					bb.position(bbRead);
+					bb.compact(); // compacts upto overlap
+				}
 			}
 		} 
 		
@@ -336,11 +583,11 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 			throw new XMLStreamException("Could not find indexList starting at the end of file.");
 		}
 		
-		// 3) parse and set indexer
+		// 3) parse indexers
+		Map<String, SpectrumIndexer> indexers = new HashMap<>();
 		SpectrumIndexer indexer = null;
-		InputStream is = Channels.newInputStream(this.seekable);
+		InputStream is = Channels.newInputStream(seekable);
 		xr = xmlFac.createXMLStreamReader(is);
-		hasIndexList = false;
 		while (xr.hasNext()) {
 			xr.next();
 			
@@ -349,69 +596,217 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 			}
 	
 			if(xr.getEventType() == XMLStreamConstants.START_ELEMENT) {
-				if(xr.getLocalName().equals("indexList")){
-					hasIndexList = true;
-				} else if(xr.getLocalName().equals("index")){
+				if(xr.getLocalName().equals("index")){
 					indexer = new SpectrumIndexer(xr);
 				}
 			} else if(xr.getEventType() == XMLStreamConstants.END_ELEMENT) {
 				if(xr.getLocalName().equals("indexList")){
-					hasIndexList = false;
 					break;
 				} else if(xr.getLocalName().equals("index")){
-					if(indexer.getName().equals("spectrum")) {
-						this.spectrumOffsets = indexer;
-					}
+					indexers.put(indexer.getName(), indexer);
 					indexer = null;
 				}
 			}			
 		}
-			
-		// 4) sets the scan time offsets available
-		if(indexScanTimes && this.spectrumOffsets != null){
-			try {
-				this.spectrumOffsets.setScanTimeToOffsets(this.xml);
-			} catch (IOException e) {
-				LOGGER.log(Level.ERROR, e.toString());
-				return;
-			}
+		return indexers;
+	}
+
+	/**
+	 * Replays the params of a referenceable param group to a builder
+	 * 
+	 * @param groups referenceable param groups by id
+	 * @param ref id of the group
+	 * @param consumer builder, or projection filter of a builder, receiving the group's cvParams
+	 */
+	protected void acceptReferenceableParams(Map<String, ReferenceableParamGroup> groups, 
+			String ref, 
+			Consumer<XMLStreamReader> consumer) throws XMLStreamException {
+		ReferenceableParamGroup group = groups.get(ref);
+		if(group == null){
+			LOGGER.log(Level.ERROR, "ReferencableParamGroup id :" + ref + " was not found in file");
+			return;
 		}
 		
+		XMLStreamReader refXr = group.getParams();
+		while(refXr.hasNext()){
+			refXr.next();
+			consumer.accept(refXr);
+		}
 	}
-
-	private T getNextSpectrumFromSeekable() {
-		FromXMLStreamBuilder<T> spectrumBuilder = null;
-		try {
-			InputStream is = Channels.newInputStream(this.seekable);
-			XMLStreamReader xr = XMLInputFactory.newInstance()
-				.createXMLStreamReader(is);
+	
+	/**
+	 * Gets the referenceable param groups of the file. The groups are parsed once from the head of the 
+	 * file, and are shared by all random access calls.
+	 * 
+	 * @return groups by id
+	 */
+	protected Map<String, ReferenceableParamGroup> getReferenceableParamGroups() {
+		if(!this.refParamsLoaded){
+			synchronized(this.refParams){
+				if(!this.refParamsLoaded){
+					this.loadReferenceableParamGroups();
+					this.refParamsLoaded = true;
+				}
+			}
+		}
+		return this.refParams;
+	}
+	
+	/**
+	 * Parses the referenceableParamGroupList, and stops before any run data is read
+	 */
+	private void loadReferenceableParamGroups() {
+		try(InputStream is = Files.newInputStream(this.xml, StandardOpenOption.READ)) {
+			XMLStreamReader xr = IN_FACTORY.createXMLStreamReader(is);
+			ReferenceableParamGroup currGroup = null;
 			
-			while (xr.hasNext()) {
+			while(xr.hasNext()){
 				xr.next();
-				
-				if (spectrumBuilder != null) {
-					spectrumBuilder.accept(xr);
-				}
-
-				if(xr.getEventType() == XMLStreamReader.START_ELEMENT){
-					if(xr.getLocalName().equals("spectrum")) {
-						spectrumBuilder = this.factory.create(this.xml.toString(), xr);
-					} else if( xr.getLocalName().equals("referenceableParamGroupRef")) {
-						LOGGER.log(Level.WARN, "Random access to spectra will not parse referenceable params");
+				if(xr.getEventType() == XMLStreamConstants.START_ELEMENT){
+					if(xr.getLocalName().equals("referenceableParamGroup")){
+						currGroup = new ReferenceableParamGroup(xr);
+					} else if(currGroup != null){
+						currGroup.accept(xr);
+					} else if(xr.getLocalName().equals("run")){
+						return;
+					}
+				} else if(xr.getEventType() == XMLStreamConstants.END_ELEMENT){
+					if(xr.getLocalName().equals("referenceableParamGroup")){
+						this.refParams.put(currGroup.getId(), currGroup.build());
+						currGroup = null;
+					} else if(xr.getLocalName().equals("referenceableParamGroupList")){
+						return;
 					}
-				} else if(xr.getEventType() == XMLStreamReader.END_ELEMENT) {
-					if(xr.getLocalName().equals("spectrum")) {
-						return spectrumBuilder.build();
-					}					
 				}
 			}
-		} catch (XMLStreamException | FactoryConfigurationError e) {
+		} catch (IOException | XMLStreamException e) {
+			LOGGER.log(Level.ERROR, "Referenceable param groups could not be parsed. " + e.toString());
+		}
+	}
+
+	/**
+	 * Builds a spectrum from a positional read of the file. Reads do not move the channel position, 
+	 * so random access is safe to share between threads.
+	 * 
+	 * @param offset of the spectrum tag
+	 */
+	private T getSpectrumFromOffset(long offset) {
+		try {
+			return this.buildElement(ElementReader.readElement(this.getSeekable(), offset, "spectrum"), this.factory);
+		} catch (IOException | XMLStreamException | FactoryConfigurationError e) {
+			LOGGER.log(Level.ERROR, e.toString());
+		} 
+		return null;
+	}
+	
+	/**
+	 * Opens the file for positional reads, if no index was parsed
+	 */
+	private synchronized FileChannel getSeekable() throws IOException {
+		if(this.seekable == null){
+			this.seekable = FileChannel.open(this.xml, StandardOpenOption.READ);
+		}
+		return this.seekable;
+	}
+	
+	/**
+	 * Builds the i-th chromatogram of the index. The read is bounded by the offset of the next chromatogram.
+	 */
+	private <C> C getChromatogramFromIndex(int i, FromXMLStreamBuilderFactory<C> chromatogramFactory) {
+		List<Long> offsets = this.chromatogramOffsets.getOffsets();
+		long offset = offsets.get(i);
+		try {
+			byte[] bytes = i + 1 < offsets.size()
+					? ElementReader.readBytes(this.seekable, offset, (int) (offsets.get(i + 1) - offset))
+					: ElementReader.readElement(this.seekable, offset, "chromatogram");
+			return this.buildElement(bytes, chromatogramFactory);
+		} catch (IOException | XMLStreamException | FactoryConfigurationError e) {
 			LOGGER.log(Level.ERROR, e.toString());
 		} 
-
 		return null;
 	}
 	
+	/**
+	 * Grabs a chromatogram using random access to a file
+	 * 
+	 * @param index of chromatogram in the indexList
+	 * @param chromatogramFactory factory of chromatogram builders, e.g. {@code XMLChromatogramBuilder::new}
+	 * @return built chromatogram, or null if there is no chromatogram index
+	 */
+	public <C> C getChromatogramByIndex(int index, FromXMLStreamBuilderFactory<C> chromatogramFactory) {
+		if(this.chromatogramOffsets == null){
+			LOGGER.log(Level.ERROR, "No chromatogram index was set for seekable file.");
+			return null;
+		}
+		return this.getChromatogramFromIndex(index, chromatogramFactory);
+	}
+	
+	/**
+	 * Grabs a chromatogram using the reference id of the indexList
+	 * 
+	 * @param refId complete reference id string
+	 * @param chromatogramFactory factory of chromatogram builders, e.g. {@code XMLChromatogramBuilder::new}
+	 * @return built chromatogram, or null if the id or chromatogram index was not found
+	 */
+	public <C> C getChromatogramById(String refId, FromXMLStreamBuilderFactory<C> chromatogramFactory) {
+		int index = this.getChromatogramIndex(refId);
+		return index < 0 ? null : this.getChromatogramFromIndex(index, chromatogramFactory);
+	}
+	
+	/**
+	 * Grabs chromatograms by reference ids. Chromatograms are read in file order, and returned in the order
+	 * of {@code refIds}. Ids that are not in the index are logged and left out.
+	 * 
+	 * @param refIds complete reference id strings
+	 * @param chromatogramFactory factory of chromatogram builders, e.g. {@code XMLChromatogramBuilder::new}
+	 */
+	public <C> List<C> getChromatograms(Collection<String> refIds, FromXMLStreamBuilderFactory<C> chromatogramFactory) {
+		int[] indices = refIds.stream()
+				.mapToInt(this::getChromatogramIndex)
+				.filter(i -> i > -1)
+				.toArray();
+		
+		Map<Integer, C> byIndex = new HashMap<>();
+		IntStream.of(indices).sorted().distinct()
+			.forEach(i -> byIndex.put(i, this.getChromatogramFromIndex(i, chromatogramFactory)));
+		
+		List<C> chromatograms = new ArrayList<>(indices.length);
+		for(int i : indices){
+			chromatograms.add(byIndex.get(i));
+		}
+		return chromatograms;
+	}
+	
+	/**
+	 * Gets the position of a chromatogram in the chromatogram index
+	 * 
+	 * @return index, or -1 if the id or the chromatogram index was not found
+	 */
+	public int getChromatogramIndex(String refId) {
+		if(this.chromatogramOffsets == null){
+			LOGGER.log(Level.ERROR, "No chromatogram index was set for seekable file.");
+			return -1;
+		}
+		
+		Long offset = this.chromatogramOffsets.getIdToOffsets().get(refId);
+		if(offset == null){
+			LOGGER.log(Level.WARN, "Chromatogram id " + refId + " was not found in the index");
+			return -1;
+		}
+		return Collections.binarySearch(this.chromatogramOffsets.getOffsets(), offset);
+	}
+	
+	/**
+	 * Gets reference ids of chromatograms in the order of the chromatogram index
+	 * 
+	 * @return ids, or an empty list if there is no chromatogram index
+	 */
+	public List<String> getChromatogramIds() {
+		return this.chromatogramOffsets == null 
+				? Collections.emptyList() 
+				: Collections.unmodifiableList(this.chromatogramOffsets.getIds());
+	}
+	
 	/**
 	 * Grabs a spectrum using random access to a file
 	 *  
@@ -419,16 +814,36 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 	 * @return new instance of T using factory passed into the constructor
 	 */
 	public T getSpectrumByIndex(int index) {
+		long offset;
 		try {
-			this.seekable = this.seekable.position(this.spectrumOffsets.getOffsets().get(index));
-		} catch (IOException e) {
-			LOGGER.log(Level.ERROR, e.toString());
-			return null;
+			offset = this.spectrumOffsets.getOffsets().get(index);
 		} catch (NullPointerException e1 ) {
 			LOGGER.log(Level.ERROR, "No index was set for seekable file. " + e1.toString());
 			return null;
 		}
-		return this.getNextSpectrumFromSeekable();
+		return this.getSpectrumFromOffset(offset);
+	}
+	
+	/**
+	 * Grabs a spectrum from a known offset of its spectrum tag, e.g. one kept by a persisted index.
+	 * The index of the file need not be parsed.
+	 * 
+	 * @param offset of the spectrum tag
+	 * @return new instance of T using factory passed into the constructor, or null if the read failed
+	 */
+	public T getSpectrumByOffset(long offset) {
+		return this.getSpectrumFromOffset(offset);
+	}
+	
+	/**
+	 * @param index of spectrum in the indexList
+	 * @return offset of the spectrum tag, or -1 if there is no index, or the index has no such spectrum
+	 */
+	public long getSpectrumOffset(int index) {
+		if(this.spectrumOffsets == null || index < 0 || index >= this.spectrumOffsets.size()){
+			return -1;
+		}
+		return this.spectrumOffsets.getOffsets().get(index);
 	}
 	
 	/**
@@ -439,16 +854,14 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 	 * @return new instance of T using factory passed into the constructor
 	 */
 	public T getSpectrumById(String refId) {	
+		long offset;
 		try {
-			this.seekable = this.seekable.position(this.spectrumOffsets.getIdToOffsets().get(refId));
-		} catch (IOException e) {
-			LOGGER.log(Level.ERROR, e.toString());
-			return null;
+			offset = this.spectrumOffsets.getIdToOffsets().get(refId);
 		} catch (NullPointerException e1 ) {
 			LOGGER.log(Level.ERROR, "ID was not found or no index was set for seekable file. " + e1.toString());
 			return null;
 		}
-		return this.getNextSpectrumFromSeekable();
+		return this.getSpectrumFromOffset(offset);
 	}
 	
 	/**
@@ -467,16 +880,7 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 		
 		List<T> spectra = new ArrayList<T>();
 		for(Map.Entry<Double, Long> offset : this.spectrumOffsets.getScanTimesToOffsets().subMap(low, true, high, true).entrySet()){
-			try {
-				this.seekable = this.seekable.position(offset.getValue());
-			} catch (IOException e) {
-				LOGGER.log(Level.ERROR, e.toString());
-				return null;
-			} catch (NullPointerException e1 ) {
-				LOGGER.log(Level.ERROR, "Scan times was not set or no index was set for seekable file. " + e1.getMessage());
-				return null;
-			}
-			spectra.add(this.getNextSpectrumFromSeekable());	
+			spectra.add(this.getSpectrumFromOffset(offset.getValue()));	
 		}
 		return spectra;
 	}
@@ -509,25 +913,223 @@ public class MzMLStAXParser<T> implements Iterable<T>, Closeable {
 		return indices;
 	}
 	
+	/**
+	 * Loads the links of spectra to their parents, e.g. of an MS2 to its MS1 survey scan. Links were set 
+	 * with the scan time index if it was flagged, otherwise they are set by one pass over the file.
+	 * 
+	 * @return true if links are available
+	 */
+	public synchronized boolean loadParentIndex() {
+		if(this.spectrumOffsets == null){
+			LOGGER.log(Level.ERROR, "No spectrum index was set for seekable file. Cannot link parents");
+			return false;
+		}
+		
+		if(this.spectrumOffsets.getParentIndices() == null){
+			try {
+				this.spectrumOffsets.setParentIndices(this.xml);
+			} catch (IOException e) {
+				LOGGER.log(Level.ERROR, e.toString());
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the parent of a spectrum, i.e. the spectrum of its precursor's spectrumRef, or else the latest 
+	 * preceding spectrum of a lower ms level. Loads links on first use (See {@code loadParentIndex}).
+	 * 
+	 * @param index of spectrum in the indexList
+	 * @return index of the parent, or -1 if the spectrum has no parent, e.g. MS1, or links are not available
+	 */
+	public int getParentIndex(int index) {
+		if(!this.loadParentIndex()){
+			return -1;
+		}
+		return this.spectrumOffsets.getParentIndices()[index];
+	}
+	
+	/**
+	 * Grabs the parent of a spectrum using random access. Recently used parents are cached, as many spectra
+	 * share a parent, so the returned instance may be shared with other callers.
+	 * 
+	 * @param index of spectrum in the indexList
+	 * @return parent, or null if the spectrum has no parent
+	 */
+	public T getParentSpectrum(int index) {
+		int parent = this.getParentIndex(index);
+		if(parent < 0){
+			return null;
+		}
+		
+		T spectrum = this.parentCache.get(parent);
+		if(spectrum == null){
+			spectrum = this.getSpectrumByIndex(parent);
+			if(spectrum != null){
+				this.parentCache.put(parent, spectrum);
+			}
+		}
+		return spectrum;
+	}
+	
+	/**
+	 * Grabs the ancestors of a spectrum using cached random access (See {@code getParentSpectrum}), 
+	 * e.g. the MS2 and the MS1 of an MS3
+	 * 
+	 * @param index of spectrum in the indexList
+	 * @return parent first, and the spectrum without a parent last. Empty if the spectrum has no parent
+	 */
+	public List<T> getPrecursorChain(int index) {
+		List<T> chain = new ArrayList<>();
+		int[] parents = this.loadParentIndex() ? this.spectrumOffsets.getParentIndices() : null;
+		// a bounded walk, in case of cyclic spectrumRefs
+		for(int i = index, n = 0; parents != null && parents[i] > -1 && n < parents.length; i = parents[i], n++){
+			chain.add(this.getParentSpectrum(i));
+		}
+		return chain;
+	}
+	
+	/**
+	 * Loads the binary data index needed by {@code getPeaksByIndex}. The index is read from 
+	 * {@code index} if it exists and is current, otherwise the index is built and written to {@code index}. 
+	 * 
+	 * @param index path of the persisted index, or null to keep the index in memory only
+	 * @return true if the index is available
+	 */
+	public boolean loadBinaryDataIndex(Path index) {
+		if(this.spectrumOffsets == null){
+			LOGGER.log(Level.ERROR, "No spectrum index was set for seekable file. Cannot index binary data");
+			return false;
+		}
+		
+		if(index != null && Files.exists(index)){
+			try {
+				this.binaryDataOffsets = BinaryDataIndexer.read(index, this.xml);
+				return true;
+			} catch (IOException e) {
+				LOGGER.log(Level.WARN, "Rebuilding binary data index. " + e.getMessage());
+			}
+		}
+		
+		try {
+			this.binaryDataOffsets = BinaryDataIndexer.build(this.xml, this.seekable, this.spectrumOffsets, this.getReferenceableParamGroups());
+			if(index != null){
+				this.binaryDataOffsets.write(index);
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.ERROR, e.toString());
+			return this.binaryDataOffsets != null;
+		}
+		return true;
+	}
+	
+	/**
+	 * Builds the binary data index in memory (See {@code loadBinaryDataIndex(Path)})
+	 */
+	public boolean loadBinaryDataIndex() {
+		return this.loadBinaryDataIndex(null);
+	}
+	
+	/**
+	 * Grabs the peaks of a spectrum by decoding only its binary data, using one read of the file.
+	 * Requires {@code loadBinaryDataIndex}.
+	 * 
+	 * @param index of spectrum in the indexList
+	 * @return spectrum with a header of only the file name, index, and reference id
+	 */
+	public Spectrum getPeaksByIndex(int index) {
+		if(this.binaryDataOffsets == null){
+			LOGGER.log(Level.ERROR, "No binary data index was loaded for seekable file.");
+			return null;
+		}
+		
+		BinaryDataSpan[] spans = this.binaryDataOffsets.getSpans(index);
+		SpectrumHeader header = new SpectrumHeader(this.xml.toString(), index, this.spectrumOffsets.getIds().get(index));
+		if(spans.length == 0){
+			return new Spectrum(header, new double[0], new double[0]);
+		}
+		
+		// a single read covers all arrays of the spectrum
+		long start = spans[0].getOffset();
+		long end = spans[spans.length - 1].getOffset() + spans[spans.length - 1].getLength();
+		byte[] bytes;
+		try {
+			bytes = ElementReader.readBytes(this.seekable, start, (int) (end - start));
+		} catch (IOException e) {
+			LOGGER.log(Level.ERROR, e.toString());
+			return null;
+		}
+		
+		double[] mz = null;
+		double[] intensities = null;
+		for(BinaryDataSpan span : spans){
+			if(span.getDataType() != DataType.MZ_VALUES && span.getDataType() != DataType.INTENSITY){
+				continue;
+			}
+			
+			int from = (int) (span.getOffset() - start);
+			double[] values = span.toBinaryDataArray(Arrays.copyOfRange(bytes, from, from + span.getLength()))
+					.getDataAsDecodedDoubleArray();
+			if(span.getDataType() == DataType.MZ_VALUES){
+				mz = values;
+			} else {
+				intensities = values;
+			}
+		}
+		
+		if(mz == null || intensities == null){
+			LOGGER.log(Level.WARN, "m/z array and intensity was not present for spectrum: " + header.getId());
+			return new Spectrum(header, new double[0], new double[0]);
+		}
+		return new Spectrum(header, mz, intensities);
+	}
+	
 	/** 
 	 * maximum number of bytes from file end containing indexList.  
 	 **/
 	private final static int MAX_MEGABYTE_FROM_END = 32;
 	
+	/** parents kept by {@code getParentSpectrum} **/
+	private final static int PARENT_CACHE_SIZE = 8;
+	
 	/** path to mzml file **/
 	protected Path xml;
 	
 	/** file handle used for random access **/
-	protected SeekableByteChannel seekable;
+	protected FileChannel seekable;
 	
 	/** data structures for indexing **/
 	protected SpectrumIndexer spectrumOffsets;
 	
+	/** true once the indexList was parsed, or its parsing was attempted **/
+	private boolean indexLoaded;
+	
+	/** offsets of chromatograms, null if the file has no chromatogram index **/
+	protected SpectrumIndexer chromatogramOffsets;
+	
+	/** optional index of binary data within spectra **/
+	protected BinaryDataIndexer binaryDataOffsets;
+	
 	/** accumulates XML reader events by id **/
 	protected Map<String, ReferenceableParamGroup> refParams;
 	
+	/** true once all referenceable param groups of the file are in {@code refParams} **/
+	protected volatile boolean refParamsLoaded;
+	
 	/** factory for constructing objects **/
 	private FromXMLStreamBuilderFactory<T> factory;
 	
+	/** recently used parents by index, in access order **/
+	@SuppressWarnings("serial")
+	private final Map<Integer, T> parentCache = Collections.synchronizedMap(new LinkedHashMap<Integer, T>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, T> eldest) {
+			return this.size() > PARENT_CACHE_SIZE;
+		}
+	});
+	
 	final static Logger LOGGER = LogManager.getLogger(MzMLStAXParser.class);
+	final static XMLInputFactory IN_FACTORY = XMLInputFactory.newFactory();
+	final static byte[] CHROMATOGRAM_LIST_TAG = "<chromatogramList".getBytes(StandardCharsets.US_ASCII);
 }
@@ -0,0 +1,113 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.builders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
+import com.digitalproteomics.oss.parsers.mzml.cv.CvTerms;
+
+/**
+ * Collects the binary data arrays of a spectrum or chromatogram from xml events
+ */
+public class BinaryDataCollector implements Consumer<XMLStreamReader> {
+
+	/** binary data, null until a binaryDataArrayList is started **/
+	protected List<BinaryDataArray> data;
+
+	/** private members are used to retain nesting state **/
+	private BinaryDataArray currData;
+	private boolean inBinaryNesting;
+
+	@Override
+	public void accept(XMLStreamReader xr) {
+		if(xr.getEventType() == XMLStreamConstants.START_ELEMENT) {
+			if(xr.getLocalName().equals("binaryDataArrayList")){
+
+				this.data = new ArrayList<BinaryDataArray>(Integer.valueOf(xr.getAttributeValue(null, "count")));
+
+			} else if(xr.getLocalName().equals("binaryDataArray")){
+
+				this.currData = new BinaryDataArray();
+				this.currData.setEncodedLength(Integer.valueOf(xr.getAttributeValue(null, "encodedLength")));
+
+			} else if(xr.getLocalName().equals("cvParam")
+					&& this.currData != null) {
+
+				this.currData.setMemberByAccession(xr.getAttributeValue(null, "accession"));
+
+			} else if(xr.getLocalName().equals("binary")
+					&& this.currData != null){
+
+				this.inBinaryNesting = true;
+
+			}
+		} else if(xr.getEventType() == XMLStreamConstants.CHARACTERS
+				&& this.inBinaryNesting){
+
+			this.currData.appendToEncodedData(xr.getText());
+
+		} else if(xr.getEventType() == XMLStreamConstants.END_ELEMENT){
+			if(xr.getLocalName().equals("binaryDataArray")){
+
+				this.data.add(this.currData);
+				this.currData = null;
+
+			} else if(xr.getLocalName().equals("binary")) {
+
+				this.inBinaryNesting = false;
+
+			}
+		}
+	}
+
+	/**
+	 * Gets the collected arrays
+	 * @return arrays, or null if no binaryDataArrayList was consumed
+	 */
+	public List<BinaryDataArray> getData() {
+		return this.data;
+	}
+
+	/** elements and cvParams of binary data arrays **/
+	public final static XMLStreamProjection PROJECTION = new XMLStreamProjection(
+			Arrays.asList("binaryDataArrayList", "binaryDataArray", "cvParam", "binary"),
+			null,
+			new int[]{
+				CvTerms.MZ_ARRAY,
+				CvTerms.INTENSITY_ARRAY,
+				CvTerms.CHARGE_ARRAY,
+				CvTerms.TIME_ARRAY,
+				CvTerms.PRESSURE_ARRAY,
+				CvTerms.FLOAT32BIT,
+				CvTerms.FLOAT64BIT,
+				CvTerms.INT32BIT,
+				CvTerms.INT64BIT,
+				CvTerms.NTSTRING,
+				CvTerms.NO_COMPRESSION,
+				CvTerms.ZLIB_COMPRESSION,
+				CvTerms.NUMPRESS_LINEAR,
+				CvTerms.NUMPRESS_PIC,
+				CvTerms.NUMPRESS_SLOF
+			},
+			true);
+}
@@ -0,0 +1,359 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.builders;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.Compression;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DataType;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.Precision;
+import com.digitalproteomics.oss.parsers.mzml.ElementReader;
+
+/**
+ * An extended index of the byte offset and length of each binary tag's text within a spectrum,
+ * together with the array's data type, precision and compression. Peaks can then be decoded from
+ * a single read of the file without parsing the spectrum's xml.
+ *
+ * The index is built from the offsets of a {@code SpectrumIndexer}, and can be persisted next to the mzML file.
+ */
+public class BinaryDataIndexer {
+
+	/**
+	 * Location and encoding of the base64 text of a binary tag
+	 */
+	public static class BinaryDataSpan {
+		final long offset;
+		final int length;
+		final DataType dataType;
+		final Precision precision;
+		final Compression compression;
+
+		public BinaryDataSpan(long offset, int length, DataType dataType, Precision precision, Compression compression) {
+			this.offset = offset;
+			this.length = length;
+			this.dataType = dataType;
+			this.precision = precision;
+			this.compression = compression;
+		}
+
+		/** creates an array of encoded bytes read from this span **/
+		public BinaryDataArray toBinaryDataArray(byte[] encoded) {
+			BinaryDataArray arr = new BinaryDataArray(this.dataType, this.precision, this.compression);
+			arr.setEncodedData(encoded);
+			return arr;
+		}
+
+		public long getOffset() {
+			return this.offset;
+		}
+
+		public int getLength() {
+			return this.length;
+		}
+
+		public DataType getDataType() {
+			return this.dataType;
+		}
+
+		public Precision getPrecision() {
+			return this.precision;
+		}
+
+		public Compression getCompression() {
+			return this.compression;
+		}
+	}
+
+	protected List<BinaryDataSpan[]> spans;
+
+	/** size and modification time of the indexed mzML, used to detect stale persisted indices **/
+	protected long fileSize;
+	protected long lastModified;
+
+	protected BinaryDataIndexer(long fileSize, long lastModified, List<BinaryDataSpan[]> spans) {
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.spans = spans;
+	}
+
+	/**
+	 * Collates the cvParams of each binaryDataArray, including params of referenceable param groups.
+	 */
+	private static class XMLBinaryDataDescriptionBuilder implements FromXMLStreamBuilder<List<BinaryDataArray>> {
+
+		protected List<BinaryDataArray> data = new ArrayList<>();
+		protected Map<String, ReferenceableParamGroup> refParams;
+		private BinaryDataArray currData;
+
+		public XMLBinaryDataDescriptionBuilder(Map<String, ReferenceableParamGroup> refParams) {
+			this.refParams = refParams;
+		}
+
+		@Override
+		public void accept(XMLStreamReader xr) {
+			if(xr.getEventType() == XMLStreamConstants.START_ELEMENT) {
+				if(xr.getLocalName().equals("binaryDataArray")){
+					this.currData = new BinaryDataArray();
+				} else if(this.currData != null && xr.getLocalName().equals("cvParam")) {
+					this.currData.setMemberByAccession(xr.getAttributeValue(null, "accession"));
+				} else if(this.currData != null && xr.getLocalName().equals("referenceableParamGroupRef")) {
+					ReferenceableParamGroup group = this.refParams.get(xr.getAttributeValue(null, "ref"));
+					if(group == null) {
+						LOGGER.log(Level.ERROR, "ReferencableParamGroup id :" + xr.getAttributeValue(null, "ref") + " was not found in file");
+						return;
+					}
+					try {
+						XMLStreamReader refXr = group.getParams();
+						while(refXr.hasNext()){
+							refXr.next();
+							this.accept(refXr);
+						}
+					} catch (XMLStreamException e) {
+						LOGGER.log(Level.ERROR, e.toString());
+					}
+				}
+			} else if(xr.getEventType() == XMLStreamConstants.END_ELEMENT
+					&& xr.getLocalName().equals("binaryDataArray")) {
+				this.data.add(this.currData);
+				this.currData = null;
+			}
+		}
+
+		@Override
+		public List<BinaryDataArray> build() {
+			return this.data;
+		}
+	}
+
+	/**
+	 * Builds the index by reading every spectrum located by the spectrum offsets.
+	 *
+	 * @param xml path to mzml file
+	 * @param channel open channel of {@code xml} used for positional reads
+	 * @param spectrumOffsets offsets of spectrum tags
+	 * @param refParams referenceable param groups of the file, may be empty
+	 * @throws IOException
+	 */
+	public static BinaryDataIndexer build(Path xml,
+			FileChannel channel,
+			SpectrumIndexer spectrumOffsets,
+			Map<String, ReferenceableParamGroup> refParams) throws IOException {
+
+		List<Long> offsets = spectrumOffsets.getOffsets();
+		List<BinaryDataSpan[]> spans = new ArrayList<>(offsets.size());
+
+		for(int i = 0; i < offsets.size(); i++){
+			long offset = offsets.get(i);
+			long next = i + 1 < offsets.size() ? offsets.get(i + 1) : -1;
+
+			// the next offset bounds the read, otherwise reads up to the end tag
+			byte[] bytes = next > offset
+					? ElementReader.readBytes(channel, offset, (int) (next - offset))
+					: ElementReader.readElement(channel, offset, "spectrum");
+
+			spans.add(BinaryDataIndexer.indexSpectrum(bytes, offset, refParams));
+		}
+
+		return new BinaryDataIndexer(Files.size(xml), Files.getLastModifiedTime(xml).toMillis(), spans);
+	}
+
+	/**
+	 * Pairs the text of each binary tag with the cvParams of its binaryDataArray
+	 */
+	private static BinaryDataSpan[] indexSpectrum(byte[] bytes, long offset, Map<String, ReferenceableParamGroup> refParams) throws IOException {
+		List<BinaryDataArray> described;
+		try {
+			XMLStreamReader xr = IN_FACTORY.createXMLStreamReader(new ByteArrayInputStream(bytes), "ISO-8859-1");
+			XMLBinaryDataDescriptionBuilder builder = new XMLBinaryDataDescriptionBuilder(refParams);
+			while(xr.hasNext()){
+				xr.next();
+				builder.accept(xr);
+				if(xr.getEventType() == XMLStreamConstants.END_ELEMENT
+						&& xr.getLocalName().equals("spectrum")){
+					break;
+				}
+			}
+			described = builder.build();
+		} catch (XMLStreamException e) {
+			throw new IOException("Spectrum at offset " + offset + " could not be parsed: " + e.getMessage(), e);
+		}
+
+		BinaryDataSpan[] result = new BinaryDataSpan[described.size()];
+		int pos = 0;
+		for(int k = 0; k < result.length; k++){
+			int start = BinaryDataIndexer.findBinaryStart(bytes, pos);
+			if(start < 0){
+				throw new IOException("Missing binary tag for array " + k + " of spectrum at offset " + offset);
+			}
+
+			int end;
+			if(bytes[start - 2] == '/'){
+				// self closing <binary/>
+				end = start;
+			} else {
+				end = ElementReader.indexOf(bytes, start, bytes.length, BINARY_END_TAG);
+				if(end < 0){
+					throw new IOException("Unclosed binary tag for array " + k + " of spectrum at offset " + offset);
+				}
+			}
+
+			BinaryDataArray arr = described.get(k);
+			result[k] = new BinaryDataSpan(offset + start, end - start, arr.getDataType(), arr.getPrecision(), arr.getCompression());
+			pos = end;
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the first character of text after a binary start tag, skipping binaryDataArray tags
+	 *
+	 * @return index after the start tag's closing bracket, or -1
+	 */
+	private static int findBinaryStart(byte[] bytes, int from) {
+		int i = from;
+		while((i = ElementReader.indexOf(bytes, i, bytes.length, BINARY_START_TAG)) > -1){
+			int after = i + BINARY_START_TAG.length;
+			if(after < bytes.length
+					&& (bytes[after] == '>' || bytes[after] == '/' || Character.isWhitespace(bytes[after]))) {
+				while(after < bytes.length && bytes[after] != '>'){
+					after++;
+				}
+				return after + 1;
+			}
+			i = after;
+		}
+		return -1;
+	}
+
+	/**
+	 * Persists the index
+	 *
+	 * @param index path of index file
+	 * @throws IOException
+	 */
+	public void write(Path index) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(index)))) {
+			out.writeInt(MAGIC);
+			out.writeLong(this.fileSize);
+			out.writeLong(this.lastModified);
+			out.writeInt(this.spans.size());
+			for(BinaryDataSpan[] arrays : this.spans){
+				if(arrays.length > MAX_ARRAYS){
+					throw new IOException("A spectrum has " + arrays.length + " binary data arrays, at most " + MAX_ARRAYS + " are indexed");
+				}
+				out.writeShort(arrays.length);
+				for(BinaryDataSpan span : arrays){
+					out.writeLong(span.offset);
+					out.writeInt(span.length);
+					out.writeByte(span.dataType.ordinal());
+					out.writeByte(span.precision == null ? -1 : span.precision.ordinal());
+					out.writeByte(span.compression == null ? -1 : span.compression.ordinal());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads a persisted index
+	 *
+	 * @param index path of index file
+	 * @param xml path to the indexed mzml file
+	 * @throws IOException if the index cannot be read, or is stale to the mzml file
+	 */
+	public static BinaryDataIndexer read(Path index, Path xml) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+			if(in.readInt() != MAGIC){
+				throw new IOException("Not a binary data index: " + index);
+			}
+
+			long fileSize = in.readLong();
+			long lastModified = in.readLong();
+			if(fileSize != Files.size(xml) || lastModified != Files.getLastModifiedTime(xml).toMillis()){
+				throw new IOException("Binary data index " + index + " is stale for " + xml);
+			}
+
+			int count = in.readInt();
+			List<BinaryDataSpan[]> spans = new ArrayList<>(count);
+			for(int i = 0; i < count; i++){
+				BinaryDataSpan[] arrays = new BinaryDataSpan[in.readUnsignedShort()];
+				for(int k = 0; k < arrays.length; k++){
+					long offset = in.readLong();
+					int length = in.readInt();
+					DataType dataType = DataType.values()[in.readByte()];
+					byte precision = in.readByte();
+					byte compression = in.readByte();
+					arrays[k] = new BinaryDataSpan(offset,
+							length,
+							dataType,
+							precision < 0 ? null : Precision.values()[precision],
+							compression < 0 ? null : Compression.values()[compression]);
+				}
+				spans.add(arrays);
+			}
+			return new BinaryDataIndexer(fileSize, lastModified, spans);
+		}
+	}
+
+	/**
+	 * Gets the binary spans of a spectrum
+	 *
+	 * @param index of spectrum in the indexList
+	 */
+	public BinaryDataSpan[] getSpans(int index) {
+		return this.spans.get(index);
+	}
+
+	public List<BinaryDataSpan[]> getSpans() {
+		return Collections.unmodifiableList(this.spans);
+	}
+
+	public int size() {
+		return this.spans.size();
+	}
+
+	/** "BDI2", array counts are unsigned shorts **/
+	final static int MAGIC = 0x42444932;
+	/** largest array count of a spectrum, written as an unsigned short **/
+	final static int MAX_ARRAYS = 0xFFFF;
+	final static byte[] BINARY_START_TAG = "<binary".getBytes(StandardCharsets.US_ASCII);
+	final static byte[] BINARY_END_TAG = "</binary>".getBytes(StandardCharsets.US_ASCII);
+
+	final static Logger LOGGER = LogManager.getLogger(BinaryDataIndexer.class);
+	final static XMLInputFactory IN_FACTORY = XMLInputFactory.newFactory();
+}
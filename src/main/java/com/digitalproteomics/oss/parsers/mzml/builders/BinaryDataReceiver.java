@@ -0,0 +1,36 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.builders;
+
+import java.util.List;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
+
+/**
+ * A builder that can take binary data arrays collected by another consumer instead of collecting them
+ * from xml events. Arrays shared between builders are decoded once.
+ *
+ * A {@code FanOutBuilderFactory} withholds the events of binaryDataArrayList from receivers, and calls
+ * {@code acceptBinaryData} before {@code build}.
+ */
+public interface BinaryDataReceiver {
+
+	/**
+	 * @param data arrays of the spectrum, or null if there was no binaryDataArrayList. Arrays are shared,
+	 * and must not be modified.
+	 */
+	void acceptBinaryData(List<BinaryDataArray> data);
+}
@@ -0,0 +1,345 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.builders;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.digitalproteomics.oss.parsers.mzml.model.CvParam;
+
+/**
+ * Replays pre-parsed cvParams as xml stream events, so a {@code FromXMLStreamBuilder} consumes them
+ * as if read from the file. Each cvParam produces a start and an end element, followed by the end of document.
+ *
+ * No xml is parsed; the reader only walks the list of params.
+ */
+public class CvParamStreamReader implements XMLStreamReader {
+
+	protected final List<CvParam> params;
+
+	/** position of the current param, -1 before the first **/
+	private int pos;
+	private int eventType;
+
+	public CvParamStreamReader(List<CvParam> params) {
+		this.params = params;
+		this.pos = -1;
+		this.eventType = XMLStreamConstants.START_DOCUMENT;
+	}
+
+	private CvParam current() {
+		if(this.eventType != XMLStreamConstants.START_ELEMENT && this.eventType != XMLStreamConstants.END_ELEMENT){
+			throw new IllegalStateException("Current state is not an element");
+		}
+		return this.params.get(this.pos);
+	}
+
+	private CvParam currentStart() {
+		if(this.eventType != XMLStreamConstants.START_ELEMENT){
+			throw new IllegalStateException("Current state is not a start element");
+		}
+		return this.params.get(this.pos);
+	}
+
+	@Override
+	public int next() throws XMLStreamException {
+		if(!this.hasNext()){
+			throw new NoSuchElementException("No more cvParams to replay");
+		}
+
+		if(this.eventType == XMLStreamConstants.START_ELEMENT){
+			this.eventType = XMLStreamConstants.END_ELEMENT;
+		} else if(this.pos + 1 < this.params.size()){
+			this.pos++;
+			this.eventType = XMLStreamConstants.START_ELEMENT;
+		} else {
+			this.eventType = XMLStreamConstants.END_DOCUMENT;
+		}
+		return this.eventType;
+	}
+
+	@Override
+	public boolean hasNext() throws XMLStreamException {
+		return this.eventType != XMLStreamConstants.END_DOCUMENT;
+	}
+
+	@Override
+	public int getEventType() {
+		return this.eventType;
+	}
+
+	@Override
+	public String getLocalName() {
+		this.current();
+		return CV_PARAM;
+	}
+
+	@Override
+	public QName getName() {
+		this.current();
+		return CV_PARAM_QNAME;
+	}
+
+	@Override
+	public boolean hasName() {
+		return this.isStartElement() || this.isEndElement();
+	}
+
+	@Override
+	public String getAttributeValue(String namespaceURI, String localName) {
+		return this.currentStart().getAttribute(localName);
+	}
+
+	@Override
+	public int getAttributeCount() {
+		return this.currentStart().getAttributeCount();
+	}
+
+	@Override
+	public QName getAttributeName(int index) {
+		return new QName(this.currentStart().getAttributeName(index));
+	}
+
+	@Override
+	public String getAttributeNamespace(int index) {
+		this.currentStart();
+		return null;
+	}
+
+	@Override
+	public String getAttributeLocalName(int index) {
+		return this.currentStart().getAttributeName(index);
+	}
+
+	@Override
+	public String getAttributePrefix(int index) {
+		this.currentStart();
+		return "";
+	}
+
+	@Override
+	public String getAttributeType(int index) {
+		this.currentStart();
+		return "CDATA";
+	}
+
+	@Override
+	public String getAttributeValue(int index) {
+		return this.currentStart().getAttributeValue(index);
+	}
+
+	@Override
+	public boolean isAttributeSpecified(int index) {
+		this.currentStart();
+		return true;
+	}
+
+	@Override
+	public boolean isStartElement() {
+		return this.eventType == XMLStreamConstants.START_ELEMENT;
+	}
+
+	@Override
+	public boolean isEndElement() {
+		return this.eventType == XMLStreamConstants.END_ELEMENT;
+	}
+
+	@Override
+	public boolean isCharacters() {
+		return false;
+	}
+
+	@Override
+	public boolean isWhiteSpace() {
+		return false;
+	}
+
+	@Override
+	public boolean hasText() {
+		return false;
+	}
+
+	@Override
+	public String getText() {
+		throw new IllegalStateException("Replayed cvParams have no text");
+	}
+
+	@Override
+	public char[] getTextCharacters() {
+		throw new IllegalStateException("Replayed cvParams have no text");
+	}
+
+	@Override
+	public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+		throw new IllegalStateException("Replayed cvParams have no text");
+	}
+
+	@Override
+	public int getTextStart() {
+		throw new IllegalStateException("Replayed cvParams have no text");
+	}
+
+	@Override
+	public int getTextLength() {
+		throw new IllegalStateException("Replayed cvParams have no text");
+	}
+
+	@Override
+	public String getElementText() throws XMLStreamException {
+		this.currentStart();
+		this.next();
+		return "";
+	}
+
+	@Override
+	public int nextTag() throws XMLStreamException {
+		int event = this.next();
+		if(event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT){
+			throw new XMLStreamException("Expected start or end element, but reached end of cvParams");
+		}
+		return event;
+	}
+
+	@Override
+	public void require(int type, String namespaceURI, String localName) throws XMLStreamException {
+		if(type != this.eventType
+				|| (localName != null && !(this.hasName() && CV_PARAM.equals(localName)))){
+			throw new XMLStreamException("Required event " + type + " " + localName + " does not match state " + this.eventType);
+		}
+	}
+
+	@Override
+	public Object getProperty(String name) {
+		return null;
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+	}
+
+	@Override
+	public String getNamespaceURI(String prefix) {
+		return null;
+	}
+
+	@Override
+	public int getNamespaceCount() {
+		return 0;
+	}
+
+	@Override
+	public String getNamespacePrefix(int index) {
+		throw new IndexOutOfBoundsException("Replayed cvParams have no namespaces");
+	}
+
+	@Override
+	public String getNamespaceURI(int index) {
+		throw new IndexOutOfBoundsException("Replayed cvParams have no namespaces");
+	}
+
+	@Override
+	public NamespaceContext getNamespaceContext() {
+		return null;
+	}
+
+	@Override
+	public String getNamespaceURI() {
+		return null;
+	}
+
+	@Override
+	public String getPrefix() {
+		return "";
+	}
+
+	@Override
+	public String getEncoding() {
+		return null;
+	}
+
+	@Override
+	public Location getLocation() {
+		return NO_LOCATION;
+	}
+
+	@Override
+	public String getVersion() {
+		return null;
+	}
+
+	@Override
+	public boolean isStandalone() {
+		return false;
+	}
+
+	@Override
+	public boolean standaloneSet() {
+		return false;
+	}
+
+	@Override
+	public String getCharacterEncodingScheme() {
+		return null;
+	}
+
+	@Override
+	public String getPITarget() {
+		return null;
+	}
+
+	@Override
+	public String getPIData() {
+		return null;
+	}
+
+	final static String CV_PARAM = "cvParam";
+	final static QName CV_PARAM_QNAME = new QName(CV_PARAM);
+
+	/** replayed events have no position in a file **/
+	final static Location NO_LOCATION = new Location() {
+		@Override
+		public int getLineNumber() {
+			return -1;
+		}
+
+		@Override
+		public int getColumnNumber() {
+			return -1;
+		}
+
+		@Override
+		public int getCharacterOffset() {
+			return -1;
+		}
+
+		@Override
+		public String getPublicId() {
+			return null;
+		}
+
+		@Override
+		public String getSystemId() {
+			return null;
+		}
+	};
+}
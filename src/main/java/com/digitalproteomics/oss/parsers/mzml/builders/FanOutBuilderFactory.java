@@ -0,0 +1,221 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.builders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser.FromXMLStreamBuilderFactory;
+
+/**
+ * Drives several builder factories from one pass over a file. Each spectrum's xml events are shared by
+ * all builders, and every builder only receives the events of its own projection.
+ *
+ * Binary data is collected once per spectrum, and handed to builders implementing {@code BinaryDataReceiver},
+ * so arrays needed by several builders are decoded only once.
+ *
+ * <pre>
+ * FanOutBuilderFactory fanOut = new FanOutBuilderFactory();
+ * Slot&lt;SpectrumHeader&gt; headers = fanOut.add(XMLSpectrumHeaderBuilder::new);
+ * fanOut.add(XMLSpectrumBuilder::new, spectrum -&gt; ...);
+ *
+ * for(FanOutBuilderFactory.Result r : new MzMLStAXParser&lt;&gt;(xml, fanOut)){
+ *     SpectrumHeader h = r.get(headers);
+ * }
+ * </pre>
+ *
+ * All factories must be added before parsing starts.
+ */
+public class FanOutBuilderFactory implements FromXMLStreamBuilderFactory<FanOutBuilderFactory.Result> {
+
+	protected final List<Slot<?>> slots = new ArrayList<>();
+
+	/**
+	 * Adds a factory whose built instances are kept in each {@code Result}
+	 *
+	 * @return handle for getting built instances from a {@code Result}
+	 */
+	public <S> Slot<S> add(FromXMLStreamBuilderFactory<S> factory) {
+		return this.add(factory, null);
+	}
+
+	/**
+	 * Adds a factory whose built instances are passed to a sink, as well as kept in each {@code Result}
+	 *
+	 * @param sink receives each built instance, may be null
+	 * @return handle for getting built instances from a {@code Result}
+	 */
+	public <S> Slot<S> add(FromXMLStreamBuilderFactory<S> factory, Consumer<? super S> sink) {
+		Slot<S> slot = new Slot<>(this, this.slots.size(), factory, sink);
+		this.slots.add(slot);
+		return slot;
+	}
+
+	@Override
+	public FromXMLStreamBuilder<Result> create(String fileName, XMLStreamReader xr) {
+		return new FanOutBuilder(fileName, xr);
+	}
+
+	/**
+	 * Typed handle of a factory added to a {@code FanOutBuilderFactory}
+	 */
+	public static final class Slot<S> {
+		private final FanOutBuilderFactory owner;
+		private final int position;
+		private final FromXMLStreamBuilderFactory<S> factory;
+		private final Consumer<? super S> sink;
+
+		private Slot(FanOutBuilderFactory owner, int position, FromXMLStreamBuilderFactory<S> factory, Consumer<? super S> sink) {
+			this.owner = owner;
+			this.position = position;
+			this.factory = factory;
+			this.sink = sink;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void sink(Object value) {
+			if(this.sink != null){
+				this.sink.accept((S) value);
+			}
+		}
+	}
+
+	/**
+	 * Instances built from one spectrum, by slot
+	 */
+	public static final class Result {
+		private final FanOutBuilderFactory owner;
+		private final Object[] values;
+
+		private Result(FanOutBuilderFactory owner, Object[] values) {
+			this.owner = owner;
+			this.values = values;
+		}
+
+		/**
+		 * @throws IllegalArgumentException if the slot was added to another factory
+		 */
+		@SuppressWarnings("unchecked")
+		public <S> S get(Slot<S> slot) {
+			if(slot.owner != this.owner){
+				throw new IllegalArgumentException("Slot was not added to the factory of this result");
+			}
+			return (S) this.values[slot.position];
+		}
+
+		public int size() {
+			return this.values.length;
+		}
+	}
+
+	/**
+	 * Dispatches events of one spectrum to a builder of each slot. Subtrees skipped by a builder's projection
+	 * are withheld from that builder, even if another builder needs them.
+	 */
+	private class FanOutBuilder implements FromXMLStreamBuilder<Result> {
+
+		private final FromXMLStreamBuilder<?>[] builders;
+		private final List<Consumer<XMLStreamReader>> filters;
+		private final XMLStreamProjection[] projections;
+		private final boolean[] receivers;
+		/** depth within a subtree withheld from a builder, 0 when outside **/
+		private final int[] skipDepths;
+		/** shared collector of binary data, null without receivers **/
+		private final BinaryDataCollector collector;
+		private final XMLStreamProjection projection;
+
+		FanOutBuilder(String fileName, XMLStreamReader xr) {
+			int n = FanOutBuilderFactory.this.slots.size();
+			this.builders = new FromXMLStreamBuilder<?>[n];
+			this.filters = new ArrayList<>(n);
+			this.projections = new XMLStreamProjection[n];
+			this.receivers = new boolean[n];
+			this.skipDepths = new int[n];
+
+			XMLStreamProjection union = null;
+			boolean hasReceiver = false;
+			for(int i = 0; i < n; i++){
+				FromXMLStreamBuilder<?> builder = FanOutBuilderFactory.this.slots.get(i).factory.create(fileName, xr);
+				this.builders[i] = builder;
+				this.projections[i] = builder.getProjection();
+				this.filters.add(this.projections[i].filter(builder));
+				this.receivers[i] = builder instanceof BinaryDataReceiver;
+				hasReceiver |= this.receivers[i];
+				union = union == null ? this.projections[i] : union.union(this.projections[i]);
+			}
+
+			if(hasReceiver){
+				this.collector = new BinaryDataCollector();
+				union = union.union(BinaryDataCollector.PROJECTION);
+			} else {
+				this.collector = null;
+			}
+			this.projection = union == null ? XMLStreamProjection.ALL : union;
+		}
+
+		@Override
+		public XMLStreamProjection getProjection() {
+			return this.projection;
+		}
+
+		@Override
+		public void accept(XMLStreamReader xr) {
+			if(this.collector != null){
+				this.collector.accept(xr);
+			}
+
+			for(int i = 0; i < this.builders.length; i++){
+				if(this.skipDepths[i] > 0){
+					if(xr.getEventType() == XMLStreamConstants.START_ELEMENT){
+						this.skipDepths[i]++;
+					} else if(xr.getEventType() == XMLStreamConstants.END_ELEMENT){
+						this.skipDepths[i]--;
+					}
+					continue;
+				}
+
+				if(xr.getEventType() == XMLStreamConstants.START_ELEMENT
+						&& (this.projections[i].skipsElement(xr.getLocalName())
+								|| (this.receivers[i] && xr.getLocalName().equals("binaryDataArrayList")))){
+					this.skipDepths[i] = 1;
+					continue;
+				}
+
+				this.filters.get(i).accept(xr);
+			}
+		}
+
+		@Override
+		public Result build() {
+			List<BinaryDataArray> data = this.collector == null ? null : this.collector.getData();
+
+			Object[] values = new Object[this.builders.length];
+			for(int i = 0; i < this.builders.length; i++){
+				if(this.receivers[i]){
+					((BinaryDataReceiver) this.builders[i]).acceptBinaryData(data);
+				}
+				values[i] = this.builders[i].build();
+				FanOutBuilderFactory.this.slots.get(i).sink(values[i]);
+			}
+			return new Result(FanOutBuilderFactory.this, values);
+		}
+	}
+}
@@ -38,4 +38,14 @@ public interface FromXMLStreamBuilder<S> extends Consumer<XMLStreamReader> {
 	default boolean buildsFromChromatogramTags() {
 		return false;
 	}
+
+	/**
+	 * Declares the xml events consumed by the builder. Events outside of the projection are not passed
+	 * to {@code accept}, and may not be parsed at all.
+	 * 
+	 * @return {@code XMLStreamProjection.ALL} by default
+	 */
+	default XMLStreamProjection getProjection() {
+		return XMLStreamProjection.ALL;
+	}
 }
\ No newline at end of file
@@ -15,84 +15,58 @@
 ******************************************************************************/
 package com.digitalproteomics.oss.parsers.mzml.builders;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-import javax.xml.stream.FactoryConfigurationError;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
-import javax.xml.stream.XMLStreamWriter;
 
-import org.apache.logging.log4j.Level;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
+import com.digitalproteomics.oss.parsers.mzml.model.CvParam;
 
 /**
- * Captures only cvParam tags and its attributes and stores the elements in a byte array of a ReferenceableParamGroup
- *  within an mzML file. The params are pulled via a {@code XMLStreamReader} using {@code getParams()} method.
+ * Captures only cvParam tags and its attributes of a ReferenceableParamGroup within an mzML file. 
+ * The params are kept as an immutable list, and are replayed via a {@code XMLStreamReader} using {@code getParams()} method.
  */
 public class ReferenceableParamGroup implements FromXMLStreamBuilder<ReferenceableParamGroup> {
 	
 	
 	public ReferenceableParamGroup(XMLStreamReader xr){
 		this.id = xr.getAttributeValue(null, "id");
-		
-		this.baos = new ByteArrayOutputStream();
-		try {
-			this.xmlw = OUT_FACTORY.createXMLStreamWriter(this.baos);
-			this.xmlw.writeStartElement(xr.getLocalName());
-		} catch (XMLStreamException e) {
-			LOGGER.log(Level.ERROR, e.toString());
-		}
+		this.params = new ArrayList<>();
 	}
 	
 	@Override
 	public void accept(XMLStreamReader xr) {
 		if( xr.getEventType() == XMLStreamConstants.START_ELEMENT 
 				&& xr.getLocalName().equals("cvParam")){
-			try {
-				this.xmlw.writeStartElement(xr.getLocalName());
-				for(int i = 0; i < xr.getAttributeCount(); i++){
-					this.xmlw.writeAttribute(xr.getAttributeLocalName(i), xr.getAttributeValue(i));
-				}
-				this.xmlw.writeEndElement();
-			} catch (XMLStreamException e) {
-				LOGGER.log(Level.ERROR, e.toString());
+			String[] names = new String[xr.getAttributeCount()];
+			String[] values = new String[names.length];
+			for(int i = 0; i < names.length; i++){
+				names[i] = xr.getAttributeLocalName(i);
+				values[i] = xr.getAttributeValue(i);
 			}
+			this.params.add(new CvParam(names, values));
 		}
 	}
 
 	@Override
 	public ReferenceableParamGroup build() {
-		try {
-			this.xmlw.writeEndElement();
-			this.xmlw.close();
-			this.baos.flush();
-		} catch (IOException | XMLStreamException e) {
-			LOGGER.log(Level.ERROR, e.toString());
-			return null;
-		}
-		
+		this.params = Collections.unmodifiableList(this.params);
 		return this;
 	}
 	
 	/** 
-	 * Gets referenced param group as a new stream of XML elements 
-	 * 
+	 * Gets referenced param group as a new stream of XML elements. The stream replays the 
+	 * pre-parsed params, and does not parse xml.
 	 **/
 	public XMLStreamReader getParams(){
-		try {
-			return IN_FACTORY.createXMLStreamReader(new ByteArrayInputStream(this.baos.toByteArray()));
-		} catch (XMLStreamException | FactoryConfigurationError e) {
-			LOGGER.log(Level.ERROR, e.toString());
-			return null;
-		}
+		return new CvParamStreamReader(this.params);
+	}
+	
+	/** Gets the pre-parsed params of the group **/
+	public List<CvParam> getCvParams(){
+		return this.params;
 	}
 	
 	public String getId(){
@@ -102,12 +76,6 @@ public class ReferenceableParamGroup implements FromXMLStreamBuilder<Referenceab
 	/** name of value used in group **/
 	protected String id;
 	
-	/** byte stream contains XML elements **/
-	private ByteArrayOutputStream baos;
-	/** xml writer to the bytestream **/
-	private XMLStreamWriter xmlw;
-	
-	final static Logger LOGGER = LogManager.getLogger(MzMLStAXParser.class);
-	final static XMLInputFactory IN_FACTORY = XMLInputFactory.newFactory();
-	final static XMLOutputFactory OUT_FACTORY = XMLOutputFactory.newFactory();
+	/** params of the group, immutable once built **/
+	private List<CvParam> params;
 }
@@ -18,6 +18,7 @@ package com.digitalproteomics.oss.parsers.mzml.builders;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
+import com.digitalproteomics.oss.parsers.mzml.cv.CvRegistry;
+import com.digitalproteomics.oss.parsers.mzml.cv.CvTerms;
 
 /**
  * A class to map spectrum references to byte offsets within an mzml file. The class parses xml events of 
@@ -41,8 +44,10 @@ import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
 public class SpectrumIndexer implements FromXMLStreamBuilder<SpectrumIndexer> {
 	protected Map<String, Long> idToOffsets;
 	protected List<Long> offsets;
+	protected List<String> ids;
 	protected NavigableMap<Double,Long> scanTimeToOffsets;
 	protected String name;
+	protected int[] parentIndices;
 	
 	private String currId;
 	private long currOffset;
@@ -53,6 +58,7 @@ public class SpectrumIndexer implements FromXMLStreamBuilder<SpectrumIndexer> {
 		this.name = xr.getAttributeValue(null, "name");
 		this.idToOffsets = new HashMap<String, Long>();
 		this.offsets = new ArrayList<Long>();
+		this.ids = new ArrayList<String>();
 	}
 	
 	@Override
@@ -72,6 +78,7 @@ public class SpectrumIndexer implements FromXMLStreamBuilder<SpectrumIndexer> {
 			
 			this.idToOffsets.put(this.currId, this.currOffset);
 			this.offsets.add(this.currOffset);
+			this.ids.add(this.currId);
 			this.currId = null;
 			this.currOffset = -1;
 			
@@ -79,11 +86,14 @@ public class SpectrumIndexer implements FromXMLStreamBuilder<SpectrumIndexer> {
 	}
 	
 	/** 
-	 * Holds Id and ScanTime for finding offsets 
+	 * Holds Id, ScanTime and precursor information for finding offsets and parents 
 	 **/
 	private class RefIdAndScanTime {
 		final String refId;
 		double scanTime;
+		int msLevel;
+		/** spectrumRef of the first precursor, or null **/
+		String precursorRef;
 		
 		public RefIdAndScanTime(String refId){
 			this.refId = refId;
@@ -104,7 +114,7 @@ public class SpectrumIndexer implements FromXMLStreamBuilder<SpectrumIndexer> {
 	}
 	
 	/**
-	 * Collates ScanTime and Id information by consuming spectrum xml elements. 
+	 * Collates ScanTime, Id, ms level and precursor spectrumRef information by consuming spectrum xml elements. 
 	 */
 	private class XMLSpectrumScanTimeBuilder implements FromXMLStreamBuilder<RefIdAndScanTime> {
 
@@ -116,15 +126,33 @@ public class SpectrumIndexer implements FromXMLStreamBuilder<SpectrumIndexer> {
 
 		@Override
 		public void accept(XMLStreamReader xr) {
-			if(xr.getEventType() == XMLStreamConstants.START_ELEMENT 
-				&& xr.getLocalName().equals("cvParam") 
-				&&  xr.getAttributeValue(null, "accession").equals("MS:1000016")){
-				double norm = xr.getAttributeValue(null, "unitAccession")
-						.equals("UO:0000031") 
-					? 60.0 
-					: 1.0;
-				this.header.setRT(norm * Double.valueOf(xr.getAttributeValue(null, "value")));
+			if(xr.getEventType() != XMLStreamConstants.START_ELEMENT){
+				return;
 			}
+			
+			if(xr.getLocalName().equals("precursor")){
+				if(this.header.precursorRef == null){
+					this.header.precursorRef = xr.getAttributeValue(null, "spectrumRef");
+				}
+			} else if(xr.getLocalName().equals("cvParam")){
+				switch(CvTerms.code(xr.getAttributeValue(null, "accession"))){
+					case CvTerms.SCAN_START_TIME:
+						// normalize to seconds
+						double norm = CvRegistry.getConversionFactor(xr.getAttributeValue(null, "unitAccession"));
+						this.header.setRT(norm * Double.valueOf(xr.getAttributeValue(null, "value")));
+						break;
+					case CvTerms.MS_LEVEL:
+						this.header.msLevel = Integer.valueOf(xr.getAttributeValue(null, "value"));
+						break;
+					default:
+						break;
+				}
+			}
+		}
+
+		@Override
+		public XMLStreamProjection getProjection() {
+			return SCAN_TIME_PROJECTION;
 		}
 
 		@Override
@@ -134,14 +162,47 @@ public class SpectrumIndexer implements FromXMLStreamBuilder<SpectrumIndexer> {
 	}
 	
 	/** 
-	 * Sets offsets for start scan times by iterating over all spectrum xml elements.
+	 * Sets offsets for start scan times by iterating over all spectrum xml elements. Parents of spectra
+	 * (See {@code getParentIndices}) are set by the same pass.
 	 * 
 	 * Only scan times that match an index will be recorded!
 	 * 
 	 * @throws IOException 
 	 **/
 	public void setScanTimeToOffsets(Path xml) throws IOException{
-		this.scanTimeToOffsets = new TreeMap<Double,Long>();
+		this.indexSpectra(xml, true);
+	}
+	
+	/**
+	 * Sets parents of spectra by iterating over all spectrum xml elements, without indexing scan times.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setParentIndices(Path xml) throws IOException{
+		this.indexSpectra(xml, false);
+	}
+	
+	/**
+	 * Iterates over all spectrum xml elements once. The parent of a spectrum is the spectrum of its first
+	 * precursor's spectrumRef, or else the latest preceding spectrum of a lower ms level, e.g. the MS1 survey scan
+	 * before an MS2.
+	 * 
+	 * @param scanTimes true if scan times are indexed too
+	 */
+	private void indexSpectra(Path xml, boolean scanTimes) throws IOException{
+		if(scanTimes){
+			this.scanTimeToOffsets = new TreeMap<Double,Long>();
+		}
+		
+		Map<String, Integer> positions = new HashMap<>(this.ids.size() * 2);
+		for(int i = 0; i < this.ids.size(); i++){
+			positions.put(this.ids.get(i), i);
+		}
+		int[] parents = new int[this.ids.size()];
+		Arrays.fill(parents, -1);
+		// latest spectrum of each ms level
+		int[] latest = new int[MAX_MS_LEVEL + 1];
+		Arrays.fill(latest, -1);
 		
 		MzMLStAXParser<RefIdAndScanTime> parser = new MzMLStAXParser<RefIdAndScanTime>(xml, 
 				XMLSpectrumScanTimeBuilder::new, 
@@ -149,16 +210,33 @@ public class SpectrumIndexer implements FromXMLStreamBuilder<SpectrumIndexer> {
 				false);
 		
 		for(RefIdAndScanTime r : parser){
-			if(r.getOffset() != null){
-				this.scanTimeToOffsets.put(r.getScanTime(), r.getOffset());	
-			} else {
+			Integer position = positions.get(r.refId);
+			if(position == null){
 				LOGGER.log(Level.WARN, "IndexList is not complete. Scan start time " 
 						+ r.getScanTime() 
 						+ " was not found, but no matching reference id in index.");
+				continue;
+			}
+			
+			if(scanTimes){
+				this.scanTimeToOffsets.put(r.getScanTime(), r.getOffset());
 			}
+			
+			int level = Math.min(Math.max(r.msLevel, 0), MAX_MS_LEVEL);
+			Integer referenced = r.precursorRef == null ? null : positions.get(r.precursorRef);
+			// some converters reference the spectrum itself
+			if(referenced != null && !referenced.equals(position)){
+				parents[position] = referenced;
+			} else {
+				for(int l = level - 1; l > 0 && parents[position] < 0; l--){
+					parents[position] = latest[l];
+				}
+			}
+			latest[level] = position;
 		}
 		
 		parser.close();
+		this.parentIndices = parents;
 	}
 	
 	@Override
@@ -174,6 +252,21 @@ public class SpectrumIndexer implements FromXMLStreamBuilder<SpectrumIndexer> {
 		return this.offsets;
 	}
 	
+	/** reference ids in the order of {@code getOffsets()} **/
+	public List<String> getIds() {
+		return this.ids;
+	}
+	
+	/**
+	 * Gets the parent of each spectrum, by position in {@code getOffsets()}
+	 * 
+	 * @return index of each spectrum's parent, or -1 for spectra without a parent, e.g. MS1. 
+	 * Null until parents are set (See {@code setParentIndices})
+	 */
+	public int[] getParentIndices(){
+		return this.parentIndices;
+	}
+	
 	public NavigableMap<Double, Long> getScanTimesToOffsets(){
 		return this.scanTimeToOffsets;
 	}
@@ -185,4 +278,14 @@ public class SpectrumIndexer implements FromXMLStreamBuilder<SpectrumIndexer> {
 	public int size(){
 		return this.offsets.size();
 	}
-}
\ No newline at end of file
+
+	/** highest ms level linked to parents, higher levels are linked as this level **/
+	final static int MAX_MS_LEVEL = 16;
+	
+	/** only the scan start time, ms level and precursors are consumed when indexing scan times **/
+	final static XMLStreamProjection SCAN_TIME_PROJECTION = new XMLStreamProjection(
+			Arrays.asList("cvParam", "precursor"),
+			Arrays.asList("binaryDataArrayList", "productList", "isolationWindow", "selectedIonList", "activation"),
+			new int[]{ CvTerms.SCAN_START_TIME, CvTerms.MS_LEVEL },
+			false);
+}
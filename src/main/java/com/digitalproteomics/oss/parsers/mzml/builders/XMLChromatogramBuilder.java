@@ -7,12 +7,18 @@ import java.util.List;
 import java.util.stream.IntStream;
 
 import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
+import com.digitalproteomics.oss.parsers.mzml.cv.CvTerms;
 import com.digitalproteomics.oss.parsers.mzml.model.Chromatogram;
 
 public class XMLChromatogramBuilder implements FromXMLStreamBuilder<Chromatogram> {
 
     protected Chromatogram currChromatogram;
 
+    /**
+     * builds the transition of the chromatogram header
+     */
+    protected XMLChromatogramHeaderBuilder headerBuilder;
+
     /**
      * binary data associated with a spectrum
      */
@@ -30,6 +36,7 @@ public class XMLChromatogramBuilder implements FromXMLStreamBuilder<Chromatogram
      */
     public XMLChromatogramBuilder(String filename, XMLStreamReader xr) {
         this.currChromatogram = new Chromatogram(xr.getAttributeValue(null, "id"));
+        this.headerBuilder = new XMLChromatogramHeaderBuilder(filename, xr);
     }
 
     @Override
@@ -67,16 +74,19 @@ public class XMLChromatogramBuilder implements FromXMLStreamBuilder<Chromatogram
         this.currChromatogram.setTimes(times);
         this.currChromatogram.setIntensities(intensities);
         this.currChromatogram.setPressures(pressures);
+        this.currChromatogram.setHeader(this.headerBuilder.build());
 
         return this.currChromatogram;
     }
 
     @Override
     public void accept(XMLStreamReader xr) {
+        this.headerBuilder.accept(xr);
+
         if ((xr.getEventType() == XMLStreamConstants.START_ELEMENT)
                 && xr.getLocalName().equals("cvParam")) {
 
-            if (xr.getAttributeValue(null, "accession").equals("MS:1000235")) {
+            if (CvTerms.code(xr.getAttributeValue(null, "accession")) == CvTerms.TOTAL_ION_CURRENT_CHROMATOGRAM) {
                 this.currChromatogram.setId(xr.getAttributeValue(null, "name"));
             }
         }
@@ -0,0 +1,136 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.builders;
+
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import com.digitalproteomics.oss.parsers.mzml.cv.CvTerms;
+import com.digitalproteomics.oss.parsers.mzml.model.ChromatogramHeader;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+/**
+ * Collates {@code ChromatogramHeader} information by consuming XML elements. Binary data is skipped.
+ *
+ * The precursor m/z is the isolation window target of the precursor, or the selected ion m/z if no
+ * isolation window is given.
+ */
+public class XMLChromatogramHeaderBuilder implements FromXMLStreamBuilder<ChromatogramHeader> {
+
+	protected ChromatogramHeader currHeader;
+
+	/** private members are used to retain nesting state **/
+	private boolean inPrecursor;
+	private boolean inProduct;
+
+	/**
+	 * Constructor for a ChromatogramHeader
+	 *
+	 * @param fileName - origin of xml data
+	 * @param xr - initial state used for building ChromatogramHeader
+	 */
+	public XMLChromatogramHeaderBuilder(String fileName, XMLStreamReader xr) {
+		this.currHeader = new ChromatogramHeader(fileName,
+				Integer.valueOf(xr.getAttributeValue(null, "index")),
+				xr.getAttributeValue(null, "id"));
+	}
+
+	@Override
+	public boolean buildsFromSpectrumTags() {
+		return false;
+	}
+
+	@Override
+	public boolean buildsFromChromatogramTags() {
+		return true;
+	}
+
+	@Override
+	public void accept(XMLStreamReader xr) {
+		if(xr.getEventType() == XMLStreamConstants.START_ELEMENT) {
+			if(xr.getLocalName().equals("precursor")){
+				this.inPrecursor = true;
+			} else if(xr.getLocalName().equals("product")){
+				this.inProduct = true;
+			} else if(xr.getLocalName().equals("cvParam")){
+				this.acceptCvParam(xr);
+			}
+		} else if(xr.getEventType() == XMLStreamConstants.END_ELEMENT) {
+			if(xr.getLocalName().equals("precursor")){
+				this.inPrecursor = false;
+			} else if(xr.getLocalName().equals("product")){
+				this.inProduct = false;
+			}
+		}
+	}
+
+	private void acceptCvParam(XMLStreamReader xr) {
+		switch(CvTerms.code(xr.getAttributeValue(null, "accession"))) {
+			case CvTerms.ISOLATION_WINDOW_TARGET_MZ:
+				if(this.inPrecursor){
+					this.currHeader.setPrecursorMz(Double.valueOf(xr.getAttributeValue(null, "value")));
+				} else if(this.inProduct){
+					this.currHeader.setProductMz(Double.valueOf(xr.getAttributeValue(null, "value")));
+				}
+				break;
+			case CvTerms.SELECTED_ION_MZ:
+				if(this.inPrecursor && Double.isNaN(this.currHeader.getPrecursorMz())){
+					this.currHeader.setPrecursorMz(Double.valueOf(xr.getAttributeValue(null, "value")));
+				}
+				break;
+			case CvTerms.COLLISION_ENERGY:
+				this.currHeader.setCollisionEnergy(Double.valueOf(xr.getAttributeValue(null, "value")));
+				break;
+			case CvTerms.POSITIVE_SCAN:
+				this.currHeader.setPolarity(SpectrumHeader.Polarity.POSITIVE);
+				break;
+			case CvTerms.NEGATIVE_SCAN:
+				this.currHeader.setPolarity(SpectrumHeader.Polarity.NEGATIVE);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Consumes only transition cvParams, and skips binary data. Subclasses consuming other events must
+	 * override the projection.
+	 */
+	@Override
+	public XMLStreamProjection getProjection() {
+		return PROJECTION;
+	}
+
+	@Override
+	public ChromatogramHeader build() {
+		return this.currHeader;
+	}
+
+	/** precursor, product and cvParams of header fields **/
+	final static XMLStreamProjection PROJECTION = new XMLStreamProjection(
+			Arrays.asList("cvParam", "precursor", "product"),
+			Arrays.asList("binaryDataArrayList"),
+			new int[]{
+				CvTerms.ISOLATION_WINDOW_TARGET_MZ,
+				CvTerms.SELECTED_ION_MZ,
+				CvTerms.COLLISION_ENERGY,
+				CvTerms.POSITIVE_SCAN,
+				CvTerms.NEGATIVE_SCAN
+			},
+			false);
+}
@@ -0,0 +1,88 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.builders;
+
+import java.util.function.IntFunction;
+
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DataType;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DecodedValues;
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser.FromXMLStreamBuilderFactory;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+import com.digitalproteomics.oss.parsers.mzml.processing.PeakFilter;
+
+/**
+ * Builds spectra of only the peaks selected by a {@code PeakFilter}, applied while decoding
+ *
+ * <pre>
+ * PeakFilter top150 = new PeakFilter().setTopN(150);
+ * MzMLStAXParser&lt;Spectrum&gt; p = new MzMLStAXParser&lt;&gt;(xml,
+ *     XMLFilteredSpectrumBuilder.factory(msLevel -&gt; msLevel == 2 ? top150 : null));
+ * </pre>
+ */
+public class XMLFilteredSpectrumBuilder extends XMLSpectrumDataBuilder<Spectrum> {
+	final static Logger LOGGER = LogManager.getLogger(XMLFilteredSpectrumBuilder.class);
+
+	/**
+	 * filter by ms level, null keeps all peaks
+	 */
+	protected IntFunction<PeakFilter> filters;
+
+	public XMLFilteredSpectrumBuilder(String fileName, XMLStreamReader xr, IntFunction<PeakFilter> filters) {
+		super(fileName, xr);
+		this.filters = filters;
+	}
+
+	/**
+	 * Creates a factory of builders applying one filter to all spectra
+	 */
+	public static FromXMLStreamBuilderFactory<Spectrum> factory(PeakFilter filter) {
+		return XMLFilteredSpectrumBuilder.factory(msLevel -> filter);
+	}
+
+	/**
+	 * Creates a factory of builders choosing a filter by the ms level of a spectrum
+	 *
+	 * @param filters gets the filter of an ms level, or null to keep all peaks
+	 */
+	public static FromXMLStreamBuilderFactory<Spectrum> factory(IntFunction<PeakFilter> filters) {
+		return (fileName, xr) -> new XMLFilteredSpectrumBuilder(fileName, xr, filters);
+	}
+
+	@Override
+	public Spectrum build() {
+		DecodedValues mz = this.getDecodedValues(DataType.MZ_VALUES);
+		DecodedValues intensities = this.getDecodedValues(DataType.INTENSITY);
+
+		SpectrumHeader h = this.headerBuilder.build();
+
+		if(mz == null || intensities == null){
+			LOGGER.log(Level.WARN, "m/z array and intensity was not present for spectrum: " + h.getId());
+			return new Spectrum(h, new double[0], new double[0]);
+		}
+
+		PeakFilter filter = this.filters.apply(h.getMsLevel());
+		return (filter == null ? NO_FILTER : filter).apply(h, mz, intensities);
+	}
+
+	final static PeakFilter NO_FILTER = new PeakFilter();
+}
@@ -0,0 +1,98 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.builders;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.xml.stream.XMLStreamReader;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DataType;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DecodedValues;
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser.FromXMLStreamBuilderFactory;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+import com.digitalproteomics.oss.parsers.mzml.processing.PeakConsumer;
+
+/**
+ * Passes the peaks of a spectrum to a {@code PeakConsumer} while decoding its binary data, and builds
+ * only the spectrum header. Values are read from the decompressed bytes, so no peak arrays are allocated.
+ *
+ * <pre>
+ * PeakConsumer binning = (mz, intensity) -&gt; bins[(int) (mz / width)] += intensity;
+ * MzMLStAXParser&lt;SpectrumHeader&gt; p = new MzMLStAXParser&lt;&gt;(xml, XMLPeakVisitorBuilder.factory(binning));
+ * for(SpectrumHeader h : p){
+ *     // peaks of h were passed to binning
+ * }
+ * </pre>
+ */
+public class XMLPeakVisitorBuilder extends XMLSpectrumDataBuilder<SpectrumHeader> {
+
+	protected PeakConsumer consumer;
+	/** spectra failing the filter are not decoded, nor passed to the consumer **/
+	protected Predicate<? super SpectrumHeader> filter;
+
+	public XMLPeakVisitorBuilder(String fileName, XMLStreamReader xr, PeakConsumer consumer,
+			Predicate<? super SpectrumHeader> filter) {
+		super(fileName, xr);
+		this.consumer = consumer;
+		this.filter = filter;
+	}
+
+	/**
+	 * Creates a factory of builders passing the peaks of every spectrum to one consumer
+	 */
+	public static FromXMLStreamBuilderFactory<SpectrumHeader> factory(PeakConsumer consumer) {
+		return XMLPeakVisitorBuilder.factory(consumer, h -> true);
+	}
+
+	/**
+	 * Creates a factory of builders passing the peaks of selected spectra to one consumer, e.g.
+	 * {@code h -> h.getMsLevel() == 1}
+	 */
+	public static FromXMLStreamBuilderFactory<SpectrumHeader> factory(PeakConsumer consumer,
+			Predicate<? super SpectrumHeader> filter) {
+		return (fileName, xr) -> new XMLPeakVisitorBuilder(fileName, xr, consumer, filter);
+	}
+
+	@Override
+	public SpectrumHeader build() {
+		SpectrumHeader header = this.headerBuilder.build();
+		if(this.filter.test(header)){
+			XMLPeakVisitorBuilder.visit(header, this.data, this.consumer);
+		}
+		return header;
+	}
+
+	/**
+	 * Passes the peaks of binary data arrays to a consumer, between calls of {@code begin} and {@code end}
+	 *
+	 * @param data binary data arrays of a spectrum, may be null
+	 * @return number of peaks passed, 0 if either the m/z or the intensity array is missing
+	 */
+	public static int visit(SpectrumHeader header, List<BinaryDataArray> data, PeakConsumer consumer) {
+		DecodedValues mz = BinaryDataArray.decodedValuesOf(data, DataType.MZ_VALUES);
+		DecodedValues intensities = BinaryDataArray.decodedValuesOf(data, DataType.INTENSITY);
+
+		int n = mz == null || intensities == null ? 0 : Math.min(mz.size(), intensities.size());
+		consumer.begin(header);
+		for(int i = 0; i < n; i++){
+			consumer.accept(mz.get(i), intensities.get(i));
+		}
+		consumer.end(header);
+		return n;
+	}
+}
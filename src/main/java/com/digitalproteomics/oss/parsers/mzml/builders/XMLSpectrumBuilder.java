@@ -15,85 +15,42 @@
 ******************************************************************************/
 package com.digitalproteomics.oss.parsers.mzml.builders;
 
-import java.util.ArrayList;
 import java.util.List;
-import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamReader;
 
-import org.apache.logging.log4j.Level;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
 import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
-import com.digitalproteomics.oss.parsers.mzml.model.Peak;
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
 import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
-import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
 
 /**
  * Collates binary array data for constructing a spectrum 
  */
-public class XMLSpectrumBuilder implements FromXMLStreamBuilder<Spectrum>{
-	final static Logger LOGGER = LogManager.getLogger(XMLSpectrumBuilder.class);
+public class XMLSpectrumBuilder extends XMLSpectrumDataBuilder<Spectrum> {
 	
-	/**
-	 * binary data associated with a spectrum
-	 */
-	protected List<BinaryDataArray> data;
-	/**
-	 * a parser for building the spectrum header 
-	 */
-	protected XMLSpectrumHeaderBuilder headerBuilder;
-	
-	/** private members are used to retain nesting state **/
-	private BinaryDataArray currData;
-	private boolean inBinaryNesting;
+	/** events consumed, all events unless the builder was created by {@code projected} **/
+	private XMLStreamProjection projection = XMLStreamProjection.ALL;
 	
 	public XMLSpectrumBuilder(String fileName, XMLStreamReader xr) {
-		this.headerBuilder = new XMLSpectrumHeaderBuilder(fileName, xr);
+		super(fileName, xr);
+	}
+	
+	/**
+	 * Creates a builder consuming only header cvParams and binary data arrays, e.g. as the factory
+	 * {@code XMLSpectrumBuilder::projected}
+	 */
+	public static XMLSpectrumBuilder projected(String fileName, XMLStreamReader xr) {
+		XMLSpectrumBuilder builder = new XMLSpectrumBuilder(fileName, xr);
+		builder.projection = PROJECTION;
+		return builder;
 	}
 	
+	/**
+	 * Consumes every event, so subclasses may consume other elements, or only header cvParams and
+	 * binary data arrays if the builder was created by {@code projected}
+	 */
 	@Override
-	public void accept(XMLStreamReader xr) {
-		this.headerBuilder.accept(xr);
-		
-		if(xr.getEventType() == XMLStreamConstants.START_ELEMENT) {
-			if(xr.getLocalName().equals("binaryDataArrayList")){
-
-				this.data = new ArrayList<BinaryDataArray>(Integer.valueOf(xr.getAttributeValue(null, "count")));
-				
-			} else if(xr.getLocalName().equals("binaryDataArray")){
-				
-				this.currData = new BinaryDataArray();
-				this.currData.setEncodedLength(Integer.valueOf(xr.getAttributeValue(null, "encodedLength")));
-				
-			} else if(xr.getLocalName().equals("cvParam") 
-					&& this.currData != null) {
-				
-				this.currData.setMemberByAccession(xr.getAttributeValue(null, "accession"));
-				
-			} else if(xr.getLocalName().equals("binary")
-					&& this.currData != null){
-				
-				this.inBinaryNesting = true;
-				
-			}
-		} else if(xr.getEventType() == XMLStreamConstants.CHARACTERS 
-				&& this.inBinaryNesting){
-			
-			this.currData.appendToEncodedData(xr.getText());
-			
-		} else if(xr.getEventType() == XMLStreamConstants.END_ELEMENT){
-			if(xr.getLocalName().equals("binaryDataArray")){
-				
-				this.data.add(this.currData);
-				this.currData = null;
-				
-			} else if(xr.getLocalName().equals("binary")) {
-				
-				this.inBinaryNesting = false;
-				
-			}
-		}
+	public XMLStreamProjection getProjection() {
+		return this.projection;
 	}
 	
 	/** 
@@ -106,33 +63,9 @@ public class XMLSpectrumBuilder implements FromXMLStreamBuilder<Spectrum>{
 	
 	@Override
 	public Spectrum build(){
-		Number[] masses = null;
-		Number[] intensities = null;
-		
-		for(BinaryDataArray arr : this.data){
-			switch(arr.getDataType()){
-				case INTENSITY:
-					intensities = arr.getDataAsDecodedNumberArray();
-					break;
-				case MZ_VALUES:
-					masses = arr.getDataAsDecodedNumberArray();
-					break;
-				default:
-					break;
-			}
-		}
-		
-		SpectrumHeader h = this.headerBuilder.build();
-		
-		if(masses == null || intensities == null){
-			LOGGER.log(Level.WARN, "m/z array and intensity was not present for spectrum: " + h.getId());
-			return new Spectrum(h, new Number[0], new Number[0]);
-		} else {
-			List<Peak> peaks = new ArrayList<Peak>(masses.length);
-			for(int i=0; i < masses.length; i++){
-				peaks.add(new Peak(masses[i].doubleValue(), intensities[i].doubleValue()));
-			}
-			return new Spectrum(h, peaks);
-		}
+		return new EncodedSpectrum(this.headerBuilder.build(), this.data).decode();
 	}
+	
+	/** header cvParams and binary data arrays **/
+	final static XMLStreamProjection PROJECTION = XMLSpectrumHeaderBuilder.PROJECTION.union(BinaryDataCollector.PROJECTION);
 }
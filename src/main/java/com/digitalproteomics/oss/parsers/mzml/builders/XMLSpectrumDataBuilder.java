@@ -0,0 +1,79 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.builders;
+
+import java.util.List;
+import javax.xml.stream.XMLStreamReader;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DataType;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DecodedValues;
+
+/**
+ * Collates a spectrum header and its binary data arrays, for subclasses building an instance of T from them.
+ * Binary data is either collected from xml events, or received already collected (See {@code BinaryDataReceiver}).
+ *
+ * @param <T> an instance built from the header and binary data of a spectrum
+ */
+public abstract class XMLSpectrumDataBuilder<T> implements FromXMLStreamBuilder<T>, BinaryDataReceiver {
+
+	/**
+	 * binary data associated with a spectrum
+	 */
+	protected List<BinaryDataArray> data;
+	/**
+	 * a parser for building the spectrum header
+	 */
+	protected XMLSpectrumHeaderBuilder headerBuilder;
+	/**
+	 * collects binary data from xml events
+	 */
+	protected BinaryDataCollector dataCollector;
+
+	protected XMLSpectrumDataBuilder(String fileName, XMLStreamReader xr) {
+		this.headerBuilder = new XMLSpectrumHeaderBuilder(fileName, xr);
+		this.dataCollector = new BinaryDataCollector();
+	}
+
+	@Override
+	public void accept(XMLStreamReader xr) {
+		this.headerBuilder.accept(xr);
+		this.dataCollector.accept(xr);
+		this.data = this.dataCollector.getData();
+	}
+
+	@Override
+	public void acceptBinaryData(List<BinaryDataArray> data) {
+		this.data = data;
+	}
+
+	/**
+	 * Consumes header cvParams and binary data arrays
+	 */
+	@Override
+	public XMLStreamProjection getProjection() {
+		return XMLSpectrumBuilder.PROJECTION;
+	}
+
+	/**
+	 * Gets a view of the decoded values of an array
+	 *
+	 * @return values, or null if the spectrum has no array of the data type
+	 */
+	protected DecodedValues getDecodedValues(DataType dataType) {
+		return BinaryDataArray.decodedValuesOf(this.data, dataType);
+	}
+}
@@ -15,9 +15,13 @@
 ******************************************************************************/
 package com.digitalproteomics.oss.parsers.mzml.builders;
 
+import java.util.Arrays;
+
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamReader;
 
+import com.digitalproteomics.oss.parsers.mzml.cv.CvRegistry;
+import com.digitalproteomics.oss.parsers.mzml.cv.CvTerms;
 import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
 
 /**
@@ -29,6 +33,9 @@ public class XMLSpectrumHeaderBuilder implements FromXMLStreamBuilder<SpectrumHe
 
 	protected SpectrumHeader currHeader;
 
+	/** events consumed, all events unless the builder was created by {@code projected} **/
+	private XMLStreamProjection projection = XMLStreamProjection.ALL;
+
 	/** 
 	 * Constructor for a SpectrumHeader
 	 * 
@@ -41,32 +48,123 @@ public class XMLSpectrumHeaderBuilder implements FromXMLStreamBuilder<SpectrumHe
 				xr.getAttributeValue(null, "id"));
 	}
 
+	/**
+	 * Creates a builder consuming only header cvParams, which skips binary data, e.g. as the factory
+	 * {@code XMLSpectrumHeaderBuilder::projected}
+	 *
+	 * @param fileName - origin of xml data
+	 * @param xr - initial state used for building SpectrumHeader
+	 */
+	public static XMLSpectrumHeaderBuilder projected(String fileName, XMLStreamReader xr) {
+		XMLSpectrumHeaderBuilder builder = new XMLSpectrumHeaderBuilder(fileName, xr);
+		builder.projection = PROJECTION;
+		return builder;
+	}
+
 	@Override
 	public void accept(XMLStreamReader xr) {
 		if((xr.getEventType() == XMLStreamConstants.START_ELEMENT) 
 				&& xr.getLocalName().equals("cvParam")) {
 			
-			if (xr.getAttributeValue(null, "accession").equals("MS:1000511")) {
-				this.currHeader.setMsLevel(Integer.valueOf(xr.getAttributeValue(null, "value")));
-			} else if(xr.getAttributeValue(null, "accession").equals("MS:1000016")) {
-				// normalize to seconds if unit is a minute
-				double norm = xr.getAttributeValue(null, "unitAccession")
-						.equals("UO:0000031") 
-					? 60.0 
-					: 1.0;
-				this.currHeader.setScanStartTime(norm * Double.valueOf(xr.getAttributeValue(null, "value")));
-			} else if(xr.getAttributeValue(null, "accession").equals("MS:1000744")) {
-				this.currHeader.setSelectedIonMz(Double.valueOf(xr.getAttributeValue(null, "value")));
-			} else if(xr.getAttributeValue(null, "accession").equals("MS:1000041")) {
-				this.currHeader.setSelectedIonCharge(Integer.valueOf(xr.getAttributeValue(null, "value")));
-			} else if(xr.getAttributeValue(null, "accession").equals("MS:1000042")) {
-				this.currHeader.setSelectedIonIntensity(Double.valueOf(xr.getAttributeValue(null, "value")));
+			switch(CvTerms.code(xr.getAttributeValue(null, "accession"))) {
+				case CvTerms.MS_LEVEL:
+					this.currHeader.setMsLevel(Integer.valueOf(xr.getAttributeValue(null, "value")));
+					break;
+				case CvTerms.SCAN_START_TIME:
+					// normalize to seconds
+					double norm = CvRegistry.getConversionFactor(xr.getAttributeValue(null, "unitAccession"));
+					this.currHeader.setScanStartTime(norm * Double.valueOf(xr.getAttributeValue(null, "value")));
+					break;
+				case CvTerms.SELECTED_ION_MZ:
+					this.currHeader.setSelectedIonMz(Double.valueOf(xr.getAttributeValue(null, "value")));
+					break;
+				case CvTerms.CHARGE_STATE:
+					this.currHeader.setSelectedIonCharge(Integer.valueOf(xr.getAttributeValue(null, "value")));
+					break;
+				case CvTerms.PEAK_INTENSITY:
+					this.currHeader.setSelectedIonIntensity(Double.valueOf(xr.getAttributeValue(null, "value")));
+					break;
+				case CvTerms.POSITIVE_SCAN:
+					this.currHeader.setPolarity(SpectrumHeader.Polarity.POSITIVE);
+					break;
+				case CvTerms.NEGATIVE_SCAN:
+					this.currHeader.setPolarity(SpectrumHeader.Polarity.NEGATIVE);
+					break;
+				case CvTerms.TOTAL_ION_CURRENT:
+					this.currHeader.setTotalIonCurrent(Double.valueOf(xr.getAttributeValue(null, "value")));
+					break;
+				case CvTerms.BASE_PEAK_MZ:
+					this.currHeader.setBasePeakMz(Double.valueOf(xr.getAttributeValue(null, "value")));
+					break;
+				case CvTerms.BASE_PEAK_INTENSITY:
+					this.currHeader.setBasePeakIntensity(Double.valueOf(xr.getAttributeValue(null, "value")));
+					break;
+				case CvTerms.LOWEST_OBSERVED_MZ:
+					this.currHeader.setLowestObservedMz(Double.valueOf(xr.getAttributeValue(null, "value")));
+					break;
+				case CvTerms.HIGHEST_OBSERVED_MZ:
+					this.currHeader.setHighestObservedMz(Double.valueOf(xr.getAttributeValue(null, "value")));
+					break;
+				case CvTerms.ISOLATION_WINDOW_TARGET_MZ:
+					// the first isolation window is of the first precursor
+					if(Double.isNaN(this.currHeader.getIsolationWindowTargetMz())){
+						this.currHeader.setIsolationWindowTargetMz(Double.valueOf(xr.getAttributeValue(null, "value")));
+					}
+					break;
+				case CvTerms.ISOLATION_WINDOW_LOWER_OFFSET:
+					if(Double.isNaN(this.currHeader.getIsolationWindowLowerOffset())){
+						this.currHeader.setIsolationWindowLowerOffset(Double.valueOf(xr.getAttributeValue(null, "value")));
+					}
+					break;
+				case CvTerms.ISOLATION_WINDOW_UPPER_OFFSET:
+					if(Double.isNaN(this.currHeader.getIsolationWindowUpperOffset())){
+						this.currHeader.setIsolationWindowUpperOffset(Double.valueOf(xr.getAttributeValue(null, "value")));
+					}
+					break;
+				case CvTerms.FAIMS_COMPENSATION_VOLTAGE:
+					this.currHeader.setCompensationVoltage(Double.valueOf(xr.getAttributeValue(null, "value")));
+					break;
+				default:
+					break;
 			}
 		}
 	}
 
+	/**
+	 * Consumes every event, so subclasses may consume other elements, or only header cvParams if
+	 * the builder was created by {@code projected}
+	 */
+	@Override
+	public XMLStreamProjection getProjection() {
+		return this.projection;
+	}
+
 	@Override
 	public SpectrumHeader build(){
 		return this.currHeader;
 	}
+
+	/** cvParams of header fields **/
+	final static XMLStreamProjection PROJECTION = new XMLStreamProjection(
+			Arrays.asList("cvParam"),
+			Arrays.asList("binaryDataArrayList"),
+			new int[]{
+				CvTerms.MS_LEVEL,
+				CvTerms.SCAN_START_TIME,
+				CvTerms.SELECTED_ION_MZ,
+				CvTerms.CHARGE_STATE,
+				CvTerms.PEAK_INTENSITY,
+				CvTerms.POSITIVE_SCAN,
+				CvTerms.NEGATIVE_SCAN,
+				CvTerms.TOTAL_ION_CURRENT,
+				CvTerms.BASE_PEAK_MZ,
+				CvTerms.BASE_PEAK_INTENSITY,
+				CvTerms.LOWEST_OBSERVED_MZ,
+				CvTerms.HIGHEST_OBSERVED_MZ,
+				CvTerms.ISOLATION_WINDOW_TARGET_MZ,
+				CvTerms.ISOLATION_WINDOW_LOWER_OFFSET,
+				CvTerms.ISOLATION_WINDOW_UPPER_OFFSET,
+				CvTerms.FAIMS_COMPENSATION_VOLTAGE
+			},
+			false);
 }
@@ -0,0 +1,132 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.builders;
+
+import java.util.function.Supplier;
+
+import javax.xml.stream.XMLStreamReader;
+
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser.FromXMLStreamBuilderFactory;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumSummary;
+import com.digitalproteomics.oss.parsers.mzml.processing.PeakConsumer;
+import com.digitalproteomics.oss.parsers.mzml.processing.PeakReducer;
+
+/**
+ * Summarizes a spectrum's peaks (See {@code SpectrumSummary}) while decoding its binary data. Values are read
+ * from the decompressed bytes, and no m/z or intensity array is allocated.
+ *
+ * Use {@code XMLSpectrumSummaryBuilder::new} for the standard summary, or {@code factory} to add reducers:
+ *
+ * <pre>
+ * MzMLStAXParser&lt;SpectrumSummary&gt; p = new MzMLStAXParser&lt;&gt;(xml,
+ *     XMLSpectrumSummaryBuilder.factory(() -&gt; new PeakReducer[]{ PeakReducers.intensityQuantiles(0.01, 0.5, 0.9) }));
+ * </pre>
+ */
+public class XMLSpectrumSummaryBuilder extends XMLSpectrumDataBuilder<SpectrumSummary> {
+
+	/**
+	 * additional reducers, reset for this spectrum
+	 */
+	protected PeakReducer[] reducers;
+
+	public XMLSpectrumSummaryBuilder(String fileName, XMLStreamReader xr) {
+		this(fileName, xr, NO_REDUCERS);
+	}
+
+	public XMLSpectrumSummaryBuilder(String fileName, XMLStreamReader xr, PeakReducer[] reducers) {
+		super(fileName, xr);
+		this.reducers = reducers;
+	}
+
+	/**
+	 * Creates a factory of builders with reducers. Reducers are created once per thread, and reused for
+	 * every spectrum built on that thread.
+	 *
+	 * @param reducers creates the reducers of a thread
+	 */
+	public static FromXMLStreamBuilderFactory<SpectrumSummary> factory(Supplier<PeakReducer[]> reducers) {
+		ThreadLocal<PeakReducer[]> perThread = ThreadLocal.withInitial(reducers);
+		return (fileName, xr) -> new XMLSpectrumSummaryBuilder(fileName, xr, perThread.get());
+	}
+
+	@Override
+	public SpectrumSummary build() {
+		SpectrumHeader header = this.headerBuilder.build();
+		Summarizer summarizer = new Summarizer(this.reducers);
+		int n = XMLPeakVisitorBuilder.visit(header, this.data, summarizer);
+
+		int size = 0;
+		for(PeakReducer reducer : this.reducers){
+			size += reducer.size();
+		}
+		double[] reduced = new double[size];
+		int offset = 0;
+		for(PeakReducer reducer : this.reducers){
+			reducer.write(reduced, offset);
+			offset += reducer.size();
+		}
+
+		return new SpectrumSummary(header, n, summarizer.tic, summarizer.basePeakMz, summarizer.basePeakIntensity,
+				summarizer.lowestMz, summarizer.highestMz, reduced);
+	}
+
+	/**
+	 * Accumulates the standard summary of visited peaks, and passes each peak on to the reducers
+	 */
+	private static class Summarizer implements PeakConsumer {
+		private final PeakReducer[] reducers;
+		private boolean first = true;
+		private double tic;
+		private double basePeakMz = Double.NaN;
+		private double basePeakIntensity;
+		private double lowestMz = Double.NaN;
+		private double highestMz = Double.NaN;
+
+		Summarizer(PeakReducer[] reducers) {
+			this.reducers = reducers;
+		}
+
+		@Override
+		public void begin(SpectrumHeader header) {
+			for(PeakReducer reducer : this.reducers){
+				reducer.reset();
+			}
+		}
+
+		@Override
+		public void accept(double mz, double intensity) {
+			this.tic += intensity;
+			if(intensity > this.basePeakIntensity || this.first){
+				this.basePeakMz = mz;
+				this.basePeakIntensity = intensity;
+				this.first = false;
+			}
+			// m/z arrays are usually, but not necessarily, sorted
+			if(!(mz >= this.lowestMz)){
+				this.lowestMz = mz;
+			}
+			if(!(mz <= this.highestMz)){
+				this.highestMz = mz;
+			}
+			for(PeakReducer reducer : this.reducers){
+				reducer.accept(mz, intensity);
+			}
+		}
+	}
+
+	final static PeakReducer[] NO_REDUCERS = new PeakReducer[0];
+}
@@ -0,0 +1,242 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.builders;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.digitalproteomics.oss.parsers.mzml.cv.CvTerms;
+
+/**
+ * Declares the xml events a {@code FromXMLStreamBuilder} consumes, so a parser can drop everything else
+ * before it reaches the builder:
+ *
+ *  1) skipped elements are removed with their whole subtree, e.g. binaryDataArrayList for header only builders,
+ *  2) only start and end events of the listed elements are delivered,
+ *  3) only cvParams with the listed accessions are delivered, including cvParams of referenceable param groups,
+ *  4) text is delivered only if requested, and whitespace only text is never delivered.
+ *
+ * Random access removes skipped subtrees from the raw bytes of a spectrum before they are tokenised.
+ * Skipped elements must not nest within an element of the same name.
+ */
+public final class XMLStreamProjection {
+
+	/**
+	 * @param elements local names of elements delivered, or null for all elements
+	 * @param skippedElements local names of elements whose subtrees are never delivered, or null for none
+	 * @param accessions accessions of cvParams delivered, or null for all cvParams
+	 * @param text true if character data is delivered
+	 */
+	public XMLStreamProjection(Collection<String> elements,
+			Collection<String> skippedElements,
+			Collection<String> accessions,
+			boolean text) {
+		this(elements,
+				skippedElements,
+				accessions == null ? null : accessions.stream().mapToInt(CvTerms::code).toArray(),
+				text);
+	}
+
+	/**
+	 * @param elements local names of elements delivered, or null for all elements
+	 * @param skippedElements local names of elements whose subtrees are never delivered, or null for none
+	 * @param accessions {@code CvTerms} codes of cvParams delivered, or null for all cvParams
+	 * @param text true if character data is delivered
+	 */
+	public XMLStreamProjection(Collection<String> elements,
+			Collection<String> skippedElements,
+			int[] accessions,
+			boolean text) {
+		this.elements = elements == null ? null : Collections.unmodifiableSet(new HashSet<>(elements));
+		this.skippedElements = skippedElements == null
+				? Collections.emptySet()
+				: Collections.unmodifiableSet(new HashSet<>(skippedElements));
+		this.accessions = accessions == null ? null : IntStream.of(accessions).distinct().sorted().toArray();
+		this.text = text;
+	}
+
+	/** delivers every event, which is the default of a {@code FromXMLStreamBuilder} **/
+	public static final XMLStreamProjection ALL = new XMLStreamProjection(null, null, (int[]) null, true);
+
+	public boolean isAll() {
+		return this.elements == null
+				&& this.skippedElements.isEmpty()
+				&& this.accessions == null
+				&& this.text;
+	}
+
+	/** local names of elements delivered, or null for all elements **/
+	public Set<String> getElements() {
+		return this.elements;
+	}
+
+	public Set<String> getSkippedElements() {
+		return this.skippedElements;
+	}
+
+	/** sorted codes of cvParams delivered, or null for all cvParams **/
+	public int[] getAccessions() {
+		return this.accessions == null ? null : this.accessions.clone();
+	}
+
+	public boolean acceptsText() {
+		return this.text;
+	}
+
+	public boolean acceptsElement(String localName) {
+		return this.elements == null || this.elements.contains(localName);
+	}
+
+	public boolean skipsElement(String localName) {
+		return this.skippedElements.contains(localName);
+	}
+
+	public boolean acceptsAccession(int code) {
+		return this.accessions == null || Arrays.binarySearch(this.accessions, code) > -1;
+	}
+
+	/**
+	 * Combines two projections so that every event needed by either one is delivered
+	 */
+	public XMLStreamProjection union(XMLStreamProjection other) {
+		if(this.isAll() || other.isAll()){
+			return ALL;
+		}
+
+		Set<String> elements = null;
+		if(this.elements != null && other.elements != null){
+			elements = new HashSet<>(this.elements);
+			elements.addAll(other.elements);
+			// delivers the bounds of subtrees skipped by either projection, so a consumer dispatching to both,
+			// e.g. a fan-out builder, can withhold a subtree from the projection skipping it
+			elements.addAll(this.skippedElements);
+			elements.addAll(other.skippedElements);
+		}
+
+		// a subtree is skipped only if neither projection needs it
+		Set<String> skipped = new HashSet<>(this.skippedElements);
+		skipped.retainAll(other.skippedElements);
+
+		int[] accessions = null;
+		if(this.accessions != null && other.accessions != null){
+			accessions = IntStream.concat(IntStream.of(this.accessions), IntStream.of(other.accessions)).toArray();
+		}
+
+		return new XMLStreamProjection(elements, skipped, accessions, this.text || other.text);
+	}
+
+	/**
+	 * Moves the reader past the subtree of a skipped element.
+	 *
+	 * @param xr reader at any state
+	 * @return true if the reader was at the start of a skipped element, and is now at its end element
+	 */
+	public boolean skipSubtree(XMLStreamReader xr) throws XMLStreamException {
+		if(this.skippedElements.isEmpty()
+				|| xr.getEventType() != XMLStreamConstants.START_ELEMENT
+				|| !this.skipsElement(xr.getLocalName())){
+			return false;
+		}
+
+		int depth = 1;
+		while(depth > 0 && xr.hasNext()){
+			int event = xr.next();
+			if(event == XMLStreamConstants.START_ELEMENT){
+				depth++;
+			} else if(event == XMLStreamConstants.END_ELEMENT){
+				depth--;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Wraps a consumer to only receive events of this projection. Subtrees are not skipped by the wrapper
+	 * (See {@code skipSubtree}).
+	 *
+	 * @return the consumer itself if all events are delivered, otherwise a new stateful filter used for one spectrum
+	 */
+	public Consumer<XMLStreamReader> filter(Consumer<XMLStreamReader> consumer) {
+		return this.isAll() ? consumer : new Filter(consumer);
+	}
+
+	/**
+	 * Filters events for a consumer. The end of a cvParam is delivered only if its start was delivered.
+	 */
+	private class Filter implements Consumer<XMLStreamReader> {
+
+		private final Consumer<XMLStreamReader> consumer;
+		private boolean inAcceptedCvParam;
+
+		Filter(Consumer<XMLStreamReader> consumer) {
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void accept(XMLStreamReader xr) {
+			switch(xr.getEventType()) {
+				case XMLStreamConstants.START_ELEMENT:
+					if(xr.getLocalName().equals("cvParam")){
+						this.inAcceptedCvParam = acceptsElement("cvParam")
+								&& acceptsAccession(CvTerms.code(xr.getAttributeValue(null, "accession")));
+						if(this.inAcceptedCvParam){
+							this.consumer.accept(xr);
+						}
+					} else if(acceptsElement(xr.getLocalName())){
+						this.consumer.accept(xr);
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if(xr.getLocalName().equals("cvParam")){
+						if(this.inAcceptedCvParam){
+							this.consumer.accept(xr);
+						}
+						this.inAcceptedCvParam = false;
+					} else if(acceptsElement(xr.getLocalName())){
+						this.consumer.accept(xr);
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+					if(text && !xr.isWhiteSpace()){
+						this.consumer.accept(xr);
+					}
+					break;
+				default:
+					// whitespace, comments and processing instructions
+					break;
+			}
+		}
+	}
+
+	/** local names of elements delivered, null for all **/
+	private final Set<String> elements;
+	/** local names of elements never delivered with their subtree **/
+	private final Set<String> skippedElements;
+	/** sorted codes of cvParams delivered, null for all **/
+	private final int[] accessions;
+	/** delivers character data **/
+	private final boolean text;
+}
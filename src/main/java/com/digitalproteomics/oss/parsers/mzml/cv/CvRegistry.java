@@ -0,0 +1,283 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.cv;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the PSI-MS controlled vocabulary bundled as psi-ms.obo. Terms are kept in compact arrays
+ * sorted by {@code CvTerms} code, and each term is assigned a small integer id by its position.
+ *
+ * The obo is parsed once on the first call to {@code getInstance()}. Unit conversion factors do not
+ * need the obo, and are available without loading the registry.
+ */
+public class CvRegistry {
+
+	/** codes of terms, sorted **/
+	private final int[] codes;
+	/** names of terms by id **/
+	private final String[] names;
+	/** ids of is_a parents by id **/
+	private final int[][] parents;
+	/** codes of has_units relationships by id **/
+	private final int[][] units;
+	/** obsolete flags by id **/
+	private final boolean[] obsolete;
+
+	protected CvRegistry(int[] codes, String[] names, int[][] parents, int[][] units, boolean[] obsolete) {
+		this.codes = codes;
+		this.names = names;
+		this.parents = parents;
+		this.units = units;
+		this.obsolete = obsolete;
+	}
+
+	/** lazily loads the bundled vocabulary **/
+	private static class Holder {
+		static final CvRegistry INSTANCE = CvRegistry.loadBundled();
+	}
+
+	/**
+	 * Gets the registry of the bundled psi-ms.obo
+	 */
+	public static CvRegistry getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	private static CvRegistry loadBundled() {
+		try(InputStream is = CvRegistry.class.getResourceAsStream(OBO_RESOURCE)) {
+			if(is == null){
+				throw new IllegalStateException("Controlled vocabulary " + OBO_RESOURCE + " was not found on the classpath");
+			}
+			return CvRegistry.parse(is);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** term fields collected while parsing **/
+	private static class ParsedTerm {
+		int code = CvTerms.UNKNOWN;
+		String name;
+		List<Integer> parents = new ArrayList<>(2);
+		List<Integer> units = new ArrayList<>(0);
+		boolean obsolete;
+	}
+
+	/**
+	 * Parses [Term] stanzas of an obo file. Only terms with MS or UO accessions are kept.
+	 *
+	 * @param is obo file stream, closed by caller
+	 */
+	public static CvRegistry parse(InputStream is) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+		List<ParsedTerm> terms = new ArrayList<>();
+		ParsedTerm curr = null;
+
+		String line;
+		while((line = reader.readLine()) != null){
+			if(line.startsWith("[")){
+				curr = line.equals("[Term]") ? new ParsedTerm() : null;
+				if(curr != null){
+					terms.add(curr);
+				}
+			} else if(curr == null){
+				continue;
+			} else if(line.startsWith("id: ")){
+				curr.code = CvTerms.code(CvRegistry.firstToken(line, 4));
+			} else if(line.startsWith("name: ")){
+				curr.name = line.substring(6).trim();
+			} else if(line.startsWith("is_a: ")){
+				curr.parents.add(CvTerms.code(CvRegistry.firstToken(line, 6)));
+			} else if(line.startsWith("relationship: has_units ")){
+				curr.units.add(CvTerms.code(CvRegistry.firstToken(line, 24)));
+			} else if(line.startsWith("is_obsolete: true")){
+				curr.obsolete = true;
+			}
+		}
+
+		terms.removeIf(t -> t.code == CvTerms.UNKNOWN);
+		terms.sort((a, b) -> Integer.compare(a.code, b.code));
+
+		int[] codes = terms.stream().mapToInt(t -> t.code).toArray();
+		String[] names = new String[codes.length];
+		int[][] parents = new int[codes.length][];
+		int[][] units = new int[codes.length][];
+		boolean[] obsolete = new boolean[codes.length];
+
+		for(int id = 0; id < codes.length; id++){
+			ParsedTerm t = terms.get(id);
+			names[id] = t.name;
+			obsolete[id] = t.obsolete;
+			// parents outside of the registry, e.g. UO:0000000, are dropped
+			parents[id] = t.parents.stream()
+					.mapToInt(code -> Arrays.binarySearch(codes, code))
+					.filter(parentId -> parentId >= 0)
+					.toArray();
+			units[id] = t.units.stream()
+					.mapToInt(Integer::intValue)
+					.filter(code -> code != CvTerms.UNKNOWN)
+					.toArray();
+		}
+
+		return new CvRegistry(codes, names, parents, units, obsolete);
+	}
+
+	private static String firstToken(String line, int start) {
+		int end = start;
+		while(end < line.length() && !Character.isWhitespace(line.charAt(end))){
+			end++;
+		}
+		return line.substring(start, end);
+	}
+
+	/**
+	 * Gets the small integer id of a term
+	 *
+	 * @param code {@code CvTerms} code of the term
+	 * @return id within [0, size()), or -1 if the term is not in the registry
+	 */
+	public int getId(int code) {
+		int id = Arrays.binarySearch(this.codes, code);
+		return id < 0 ? -1 : id;
+	}
+
+	/**
+	 * Gets the small integer id of a term
+	 *
+	 * @param accession of the term, e.g. "MS:1000511"
+	 * @return id within [0, size()), or -1 if the term is not in the registry
+	 */
+	public int getId(String accession) {
+		return this.getId(CvTerms.code(accession));
+	}
+
+	/** Gets the code of a term by its id **/
+	public int getCode(int id) {
+		return this.codes[id];
+	}
+
+	/** Gets the name of a term, or null if the term is not in the registry **/
+	public String getName(int code) {
+		int id = this.getId(code);
+		return id < 0 ? null : this.names[id];
+	}
+
+	/** Checks if a term is flagged as obsolete **/
+	public boolean isObsolete(int code) {
+		int id = this.getId(code);
+		return id >= 0 && this.obsolete[id];
+	}
+
+	/**
+	 * Gets codes of the direct is_a parents of a term
+	 */
+	public int[] getParents(int code) {
+		int id = this.getId(code);
+		return id < 0
+				? new int[0]
+				: Arrays.stream(this.parents[id]).map(parentId -> this.codes[parentId]).toArray();
+	}
+
+	/**
+	 * Gets codes of the units a term may be reported in
+	 */
+	public int[] getUnits(int code) {
+		int id = this.getId(code);
+		return id < 0 ? new int[0] : this.units[id].clone();
+	}
+
+	/**
+	 * Checks if a term is, or descends via is_a from, an ancestor term
+	 *
+	 * @param code of the term
+	 * @param ancestor code of the ancestor term
+	 */
+	public boolean isA(int code, int ancestor) {
+		if(code == ancestor){
+			return true;
+		}
+
+		int id = this.getId(code);
+		int ancestorId = this.getId(ancestor);
+		return id >= 0 && ancestorId >= 0 && this.isA(id, ancestorId, new boolean[this.codes.length]);
+	}
+
+	private boolean isA(int id, int ancestorId, boolean[] visited) {
+		if(id == ancestorId){
+			return true;
+		}
+		visited[id] = true;
+		for(int parentId : this.parents[id]){
+			if(!visited[parentId] && this.isA(parentId, ancestorId, visited)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** number of terms in the registry **/
+	public int size() {
+		return this.codes.length;
+	}
+
+	/**
+	 * Gets the factor converting a value in a unit to the base unit of its dimension:
+	 * seconds for time, and daltons for mass.
+	 *
+	 * @param unitCode code of the unit, e.g. {@code CvTerms.UO_MINUTE}
+	 * @return factor, or 1.0 for unknown units
+	 */
+	public static double getConversionFactor(int unitCode) {
+		Double factor = CONVERSION_FACTORS.get(unitCode);
+		return factor == null ? 1.0 : factor;
+	}
+
+	/**
+	 * Gets the factor converting a value in a unit to the base unit of its dimension
+	 *
+	 * @param unitAccession accession of the unit, e.g. "UO:0000031", may be null
+	 * @return factor, or 1.0 for unknown or missing units
+	 */
+	public static double getConversionFactor(String unitAccession) {
+		return CvRegistry.getConversionFactor(CvTerms.code(unitAccession));
+	}
+
+	/** factors to base units of time (second) and mass (dalton) **/
+	private static final Map<Integer, Double> CONVERSION_FACTORS = new HashMap<Integer, Double>(){{
+		put(CvTerms.UO_SECOND, 1.0);
+		put(CvTerms.UO_MINUTE, 60.0);
+		put(CvTerms.UO_HOUR, 3600.0);
+		put(CvTerms.UO_MILLISECOND, 1e-3);
+		put(CvTerms.UO_MICROSECOND, 1e-6);
+		put(CvTerms.UO_NANOSECOND, 1e-9);
+		put(CvTerms.UO_DALTON, 1.0);
+		put(CvTerms.UO_KILODALTON, 1000.0);
+	}};
+
+	/** bundled vocabulary **/
+	final static String OBO_RESOURCE = "/psi-ms.obo";
+}
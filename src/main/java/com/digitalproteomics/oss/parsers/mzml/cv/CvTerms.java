@@ -0,0 +1,145 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.cv;
+
+/**
+ * Integer codes of controlled vocabulary accessions. A code is the accession number plus an offset
+ * for the ontology prefix, so codes are compile time constants that builders can {@code switch} on:
+ *
+ * <pre>
+ * switch(CvTerms.code(xr.getAttributeValue(null, "accession"))) {
+ *     case CvTerms.MS_LEVEL:
+ *         ...
+ * }
+ * </pre>
+ *
+ * Parsing a code requires no lookup, and only accessions of the MS and UO ontologies are supported.
+ */
+public final class CvTerms {
+
+	private CvTerms() {
+	}
+
+	/** code of accessions that are missing, malformed, or of an unsupported ontology **/
+	public static final int UNKNOWN = -1;
+
+	/** offset of codes in the Unit Ontology **/
+	public static final int UO = 1 << 24;
+
+	///// ///// ///// ///// ///// ///// ///// ///// ///// /////
+	// spectrum header terms
+
+	public static final int SCAN_START_TIME = 1000016;
+	public static final int CHARGE_STATE = 1000041;
+	public static final int PEAK_INTENSITY = 1000042;
+	public static final int COLLISION_ENERGY = 1000045;
+	public static final int NEGATIVE_SCAN = 1000129;
+	public static final int POSITIVE_SCAN = 1000130;
+	public static final int TOTAL_ION_CURRENT = 1000285;
+	public static final int SCAN_POLARITY = 1000465;
+	public static final int BASE_PEAK_MZ = 1000504;
+	public static final int BASE_PEAK_INTENSITY = 1000505;
+	public static final int MS_LEVEL = 1000511;
+	public static final int HIGHEST_OBSERVED_MZ = 1000527;
+	public static final int LOWEST_OBSERVED_MZ = 1000528;
+	public static final int SELECTED_ION_MZ = 1000744;
+	public static final int ISOLATION_WINDOW_TARGET_MZ = 1000827;
+	public static final int ISOLATION_WINDOW_LOWER_OFFSET = 1000828;
+	public static final int ISOLATION_WINDOW_UPPER_OFFSET = 1000829;
+	public static final int FAIMS_COMPENSATION_VOLTAGE = 1001581;
+
+	///// ///// ///// ///// ///// ///// ///// ///// ///// /////
+	// chromatogram terms
+
+	public static final int TOTAL_ION_CURRENT_CHROMATOGRAM = 1000235;
+
+	///// ///// ///// ///// ///// ///// ///// ///// ///// /////
+	// binary data array terms
+
+	public static final int MZ_ARRAY = 1000514;
+	public static final int INTENSITY_ARRAY = 1000515;
+	public static final int CHARGE_ARRAY = 1000516;
+	public static final int TIME_ARRAY = 1000595;
+	public static final int PRESSURE_ARRAY = 1000821;
+	public static final int INT32BIT = 1000519;
+	public static final int FLOAT32BIT = 1000521;
+	public static final int INT64BIT = 1000522;
+	public static final int FLOAT64BIT = 1000523;
+	public static final int NTSTRING = 1001479;
+	public static final int ZLIB_COMPRESSION = 1000574;
+	public static final int NO_COMPRESSION = 1000576;
+	public static final int NUMPRESS_LINEAR = 1002312;
+	public static final int NUMPRESS_PIC = 1002313;
+	public static final int NUMPRESS_SLOF = 1002314;
+
+	///// ///// ///// ///// ///// ///// ///// ///// ///// /////
+	// unit terms
+
+	public static final int UO_SECOND = UO + 10;
+	public static final int UO_MILLISECOND = UO + 28;
+	public static final int UO_MICROSECOND = UO + 29;
+	public static final int UO_MINUTE = UO + 31;
+	public static final int UO_HOUR = UO + 32;
+	public static final int UO_NANOSECOND = UO + 150;
+	public static final int UO_DALTON = UO + 221;
+	public static final int UO_KILODALTON = UO + 222;
+
+	/**
+	 * Gets the code of an accession, e.g. "MS:1000511" is 1000511
+	 *
+	 * @param accession of a MS or UO term, may be null
+	 * @return code, or {@code UNKNOWN}
+	 */
+	public static int code(String accession) {
+		if(accession == null || accession.length() < 4 || accession.charAt(2) != ':'){
+			return UNKNOWN;
+		}
+
+		int base;
+		if(accession.charAt(0) == 'M' && accession.charAt(1) == 'S'){
+			base = 0;
+		} else if(accession.charAt(0) == 'U' && accession.charAt(1) == 'O'){
+			base = UO;
+		} else {
+			return UNKNOWN;
+		}
+
+		int n = 0;
+		for(int i = 3; i < accession.length(); i++){
+			int d = accession.charAt(i) - '0';
+			if(d < 0 || d > 9){
+				return UNKNOWN;
+			}
+			n = n * 10 + d;
+			if(n >= UO){
+				return UNKNOWN;
+			}
+		}
+		return base + n;
+	}
+
+	/**
+	 * Gets the accession of a code, e.g. 1000511 is "MS:1000511"
+	 */
+	public static String accession(int code) {
+		if(code < 0){
+			throw new IllegalArgumentException("No accession for code " + code);
+		}
+		return code >= UO
+				? String.format("UO:%07d", code - UO)
+				: String.format("MS:%07d", code);
+	}
+}
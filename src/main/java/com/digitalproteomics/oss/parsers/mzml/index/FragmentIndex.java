@@ -0,0 +1,344 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLPeakVisitorBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+import com.digitalproteomics.oss.parsers.mzml.processing.PeakConsumer;
+
+/**
+ * Inverted index of fragment peaks: for each discretized m/z bin, the spectra with a peak in the bin.
+ * Posting lists are stored in compressed sparse row form, as one array of bin offsets and one array of spectrum
+ * ordinals, so the index holds 4 bytes per distinct (bin, spectrum) pair.
+ *
+ * Queries count the fragments shared by each spectrum without rescanning any peaks. A peak matches a fragment
+ * if its bin intersects the fragment's tolerance window, so matches are exact to within one bin width.
+ *
+ * <pre>
+ * FragmentIndex.Builder builder = new FragmentIndex.Builder(0.02);
+ * for(SpectrumHeader h : new MzMLStAXParser&lt;&gt;(xml, XMLPeakVisitorBuilder.factory(builder, h -&gt; h.getMsLevel() == 2))){
+ * }
+ * FragmentIndex index = builder.build();
+ * FragmentIndex.Candidates candidates = index.query(fragmentMz, 0.02, 6);
+ * </pre>
+ */
+public class FragmentIndex {
+
+	/**
+	 * Spectra sharing fragments with a query, by decreasing number of shared fragments
+	 */
+	public static class Candidates {
+		private final int[] spectra;
+		private final int[] shared;
+
+		Candidates(int[] spectra, int[] shared) {
+			this.spectra = spectra;
+			this.shared = shared;
+		}
+
+		/** @return ordinals of spectra in the index (See {@code FragmentIndex.getSpectrumIndex}) **/
+		public int[] getSpectra() {
+			return this.spectra;
+		}
+
+		/** @return number of query fragments matched by each spectrum **/
+		public int[] getSharedCounts() {
+			return this.shared;
+		}
+
+		public int size() {
+			return this.spectra.length;
+		}
+	}
+
+	/**
+	 * Collects postings from peaks passed by a {@code XMLPeakVisitorBuilder}, or from {@code add}
+	 */
+	public static class Builder implements PeakConsumer {
+		private final double binWidth;
+		private double minIntensity = 0;
+
+		private int[] bins = new int[INITIAL_CAPACITY];
+		private int[] spectra = new int[INITIAL_CAPACITY];
+		private int size;
+
+		private final List<String> ids = new ArrayList<>();
+		private int[] indices = new int[INITIAL_CAPACITY];
+		/** ordinal of the spectrum being added **/
+		private int current = -1;
+		private int lastBin;
+
+		/**
+		 * @param binWidth m/z width of a bin, e.g. the fragment tolerance
+		 */
+		public Builder(double binWidth) {
+			this.binWidth = binWidth;
+		}
+
+		/**
+		 * Leaves out peaks below an intensity, 0 by default
+		 */
+		public Builder setMinIntensity(double minIntensity) {
+			this.minIntensity = minIntensity;
+			return this;
+		}
+
+		@Override
+		public void begin(SpectrumHeader header) {
+			this.current = this.ids.size();
+			this.ids.add(header.getId());
+			if(this.current == this.indices.length){
+				this.indices = Arrays.copyOf(this.indices, this.current << 1);
+			}
+			this.indices[this.current] = header.getIndex();
+			this.lastBin = Integer.MIN_VALUE;
+		}
+
+		@Override
+		public void accept(double mz, double intensity) {
+			if(intensity < this.minIntensity || intensity <= 0){
+				return;
+			}
+			int bin = (int) Math.floor(mz / this.binWidth);
+			// sorted peaks of a spectrum in one bin are posted once
+			if(bin == this.lastBin){
+				return;
+			}
+			this.lastBin = bin;
+
+			if(this.size == this.bins.length){
+				this.bins = Arrays.copyOf(this.bins, this.size << 1);
+				this.spectra = Arrays.copyOf(this.spectra, this.size << 1);
+			}
+			this.bins[this.size] = bin;
+			this.spectra[this.size++] = this.current;
+		}
+
+		/**
+		 * Adds the peaks of a spectrum
+		 */
+		public void add(SpectrumHeader header, double[] mz, double[] intensities) {
+			this.begin(header);
+			for(int i = 0; i < mz.length; i++){
+				this.accept(mz[i], intensities[i]);
+			}
+			this.end(header);
+		}
+
+		/**
+		 * Sorts postings by bin with a counting sort. Spectra within a bin are in ascending order.
+		 */
+		public FragmentIndex build() {
+			if(this.size == 0){
+				return new FragmentIndex(this.binWidth, 0, new int[]{0}, new int[0], this.ids,
+						Arrays.copyOf(this.indices, this.ids.size()));
+			}
+
+			int minBin = Integer.MAX_VALUE;
+			int maxBin = Integer.MIN_VALUE;
+			for(int i = 0; i < this.size; i++){
+				minBin = Math.min(minBin, this.bins[i]);
+				maxBin = Math.max(maxBin, this.bins[i]);
+			}
+
+			int[] offsets = new int[maxBin - minBin + 2];
+			for(int i = 0; i < this.size; i++){
+				offsets[this.bins[i] - minBin + 1]++;
+			}
+			for(int b = 1; b < offsets.length; b++){
+				offsets[b] += offsets[b - 1];
+			}
+
+			int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+			int[] postings = new int[this.size];
+			int written = 0;
+			for(int i = 0; i < this.size; i++){
+				int b = this.bins[i] - minBin;
+				// an unsorted spectrum can post a bin twice, which is skipped as the last posting of the bin
+				if(next[b] > offsets[b] && postings[next[b] - 1] == this.spectra[i]){
+					continue;
+				}
+				postings[next[b]++] = this.spectra[i];
+				written++;
+			}
+
+			if(written < this.size){
+				// compacts bins left with gaps by skipped duplicates
+				int[] compact = new int[written];
+				int k = 0;
+				for(int b = 0; b < next.length; b++){
+					int from = offsets[b];
+					offsets[b] = k;
+					for(int i = from; i < next[b]; i++){
+						compact[k++] = postings[i];
+					}
+				}
+				offsets[next.length] = k;
+				postings = compact;
+			}
+
+			return new FragmentIndex(this.binWidth, minBin, offsets, postings, this.ids,
+					Arrays.copyOf(this.indices, this.ids.size()));
+		}
+	}
+
+	private final double binWidth;
+	/** bin of the first offset **/
+	private final int minBin;
+	/** postings of bin {@code minBin + b} are {@code postings[offsets[b], offsets[b + 1])} **/
+	private final int[] offsets;
+	private final int[] postings;
+
+	/** reference id and index in the indexList, by ordinal **/
+	private final List<String> ids;
+	private final int[] indices;
+
+	/** query state reused by a thread **/
+	private final ThreadLocal<int[][]> scratch;
+
+	private FragmentIndex(double binWidth, int minBin, int[] offsets, int[] postings, List<String> ids, int[] indices) {
+		this.binWidth = binWidth;
+		this.minBin = minBin;
+		this.offsets = offsets;
+		this.postings = postings;
+		this.ids = ids;
+		this.indices = indices;
+		this.scratch = ThreadLocal.withInitial(() -> new int[][]{new int[ids.size()], new int[ids.size()], new int[1]});
+	}
+
+	/**
+	 * Builds an index of the MS2 spectra of a file
+	 *
+	 * @param binWidth m/z width of a bin
+	 */
+	public static FragmentIndex build(Path xml, double binWidth) throws IOException {
+		Builder builder = new Builder(binWidth);
+		try(MzMLStAXParser<SpectrumHeader> parser = new MzMLStAXParser<>(xml,
+				XMLPeakVisitorBuilder.factory(builder, h -> h.getMsLevel() == 2), false, false)){
+			for(@SuppressWarnings("unused") SpectrumHeader header : parser){
+				// peaks are posted by the builder
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Finds spectra sharing at least {@code minShared} fragments with a query. Each query fragment is
+	 * counted at most once per spectrum.
+	 *
+	 * @param fragmentMz m/z of query fragments, e.g. theoretical fragment ions
+	 * @param tolerance m/z tolerance in Da
+	 * @param minShared minimum number of shared fragments, at least 1
+	 */
+	public Candidates query(double[] fragmentMz, double tolerance, int minShared) {
+		int[][] state = this.scratch.get();
+		int[] counts = state[0];
+		int[] seenBy = state[1];
+		int[] touched = new int[INITIAL_CAPACITY];
+		int touchedSize = 0;
+
+		// fragment stamps start after those of previous queries of this thread
+		int stamp = state[2][0];
+		if(stamp > Integer.MAX_VALUE - fragmentMz.length - 1){
+			Arrays.fill(seenBy, 0);
+			stamp = 0;
+		}
+
+		for(double mz : fragmentMz){
+			stamp++;
+			int from = Math.max((int) Math.floor((mz - tolerance) / this.binWidth) - this.minBin, 0);
+			int to = Math.min((int) Math.floor((mz + tolerance) / this.binWidth) - this.minBin, this.offsets.length - 2);
+			for(int b = from; b <= to; b++){
+				for(int p = this.offsets[b]; p < this.offsets[b + 1]; p++){
+					int s = this.postings[p];
+					if(seenBy[s] == stamp){
+						continue;
+					}
+					seenBy[s] = stamp;
+					if(counts[s]++ == 0){
+						if(touchedSize == touched.length){
+							touched = Arrays.copyOf(touched, touchedSize << 1);
+						}
+						touched[touchedSize++] = s;
+					}
+				}
+			}
+		}
+		state[2][0] = stamp;
+
+		int n = 0;
+		for(int i = 0; i < touchedSize; i++){
+			if(counts[touched[i]] >= minShared){
+				touched[n++] = touched[i];
+			} else {
+				counts[touched[i]] = 0;
+			}
+		}
+
+		Integer[] order = new Integer[n];
+		for(int i = 0; i < n; i++){
+			order[i] = touched[i];
+		}
+		Arrays.sort(order, (a, b) -> counts[a] != counts[b] ? Integer.compare(counts[b], counts[a]) : Integer.compare(a, b));
+
+		int[] spectra = new int[n];
+		int[] shared = new int[n];
+		for(int i = 0; i < n; i++){
+			spectra[i] = order[i];
+			shared[i] = counts[order[i]];
+			counts[order[i]] = 0;
+		}
+		return new Candidates(spectra, shared);
+	}
+
+	/** index in the indexList of an indexed spectrum **/
+	public int getSpectrumIndex(int ordinal) {
+		return this.indices[ordinal];
+	}
+
+	/** reference id of an indexed spectrum **/
+	public String getSpectrumId(int ordinal) {
+		return this.ids.get(ordinal);
+	}
+
+	/** number of indexed spectra **/
+	public int getSpectrumCount() {
+		return this.ids.size();
+	}
+
+	/** number of (bin, spectrum) postings **/
+	public int getPostingCount() {
+		return this.postings.length;
+	}
+
+	public double getBinWidth() {
+		return this.binWidth;
+	}
+
+	public List<String> getSpectrumIds() {
+		return Collections.unmodifiableList(this.ids);
+	}
+
+	final static int INITIAL_CAPACITY = 16;
+}
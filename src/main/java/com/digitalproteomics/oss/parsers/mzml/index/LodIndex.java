@@ -0,0 +1,275 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.index;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
+import com.digitalproteomics.oss.parsers.mzml.ElementReader;
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLChromatogramBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.Chromatogram;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+
+/**
+ * Persisted level-of-detail pyramids ({@code LodPyramid}) of every spectrum's peaks and every chromatogram
+ * of a file, built from one read of the file. Each pyramid is a zlib compressed block located by a directory,
+ * and only the directory is read when the index is opened.
+ *
+ * <pre>
+ * LodIndex lod = LodIndex.load(xml, Paths.get(xml + ".lod"));
+ * LodPyramid.Envelope tic = lod.getChromatogramPyramid("TIC").query(0, 3600, 800);
+ * lod.close();
+ * </pre>
+ */
+public class LodIndex implements Closeable {
+
+	/** block locations of spectra, in file order **/
+	private final long[] spectrumOffsets;
+	private final int[] spectrumLengths;
+	/** block locations of chromatograms, by reference id **/
+	private final Map<String, long[]> chromatogramBlocks;
+	private final List<String> chromatogramIds;
+
+	private final FileChannel channel;
+
+	private LodIndex(long[] spectrumOffsets, int[] spectrumLengths, List<String> chromatogramIds,
+			Map<String, long[]> chromatogramBlocks, FileChannel channel) {
+		this.spectrumOffsets = spectrumOffsets;
+		this.spectrumLengths = spectrumLengths;
+		this.chromatogramIds = chromatogramIds;
+		this.chromatogramBlocks = chromatogramBlocks;
+		this.channel = channel;
+	}
+
+	/**
+	 * Opens the index at {@code index} if it exists and is current, otherwise builds the index and writes it
+	 * to {@code index}.
+	 */
+	public static LodIndex load(Path xml, Path index) throws IOException {
+		if(Files.exists(index)){
+			try {
+				return LodIndex.open(index, xml);
+			} catch (IOException e) {
+				LOGGER.log(Level.WARN, "Rebuilding level of detail index. " + e.getMessage());
+			}
+		}
+		LodIndex.build(xml, index);
+		return LodIndex.open(index, xml);
+	}
+
+	/**
+	 * Builds pyramids of all spectra and chromatograms from one read of a file, and writes them to {@code index}
+	 */
+	public static void build(Path xml, Path index) throws IOException {
+		// stats the file before parsing, so a missing file surfaces as an IOException
+		long size = Files.size(xml);
+		long lastModified = Files.getLastModifiedTime(xml).toMillis();
+
+		// written beside the index and moved over it, so a failed build leaves no partial index
+		Path absolute = index.toAbsolutePath();
+		Path written = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+		boolean moved = false;
+		try {
+			try(MzMLStAXParser<Spectrum> parser = new MzMLStAXParser<>(xml, XMLSpectrumBuilder::projected, false, false);
+					CountingOutputStream counter = new CountingOutputStream(Files.newOutputStream(written));
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(counter))) {
+
+				out.writeInt(MAGIC);
+				out.writeLong(size);
+				out.writeLong(lastModified);
+
+				List<long[]> spectra = new ArrayList<>();
+				List<String> ids = new ArrayList<>();
+				List<long[]> chromatograms = new ArrayList<>();
+				try {
+					parser.forEach(
+							s -> spectra.add(writeBlock(out, counter, LodPyramid.of(s.getMzArray(), s.getIntensityArray()))),
+							XMLChromatogramBuilder::new,
+							c -> {
+								ids.add(c.getHeader().getId());
+								chromatograms.add(writeBlock(out, counter, LodIndex.pyramidOf(c)));
+							});
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+
+				out.flush();
+				long directory = counter.count;
+				out.writeInt(spectra.size());
+				for(long[] block : spectra){
+					out.writeLong(block[0]);
+					out.writeInt((int) block[1]);
+				}
+				out.writeInt(ids.size());
+				for(int i = 0; i < ids.size(); i++){
+					out.writeUTF(ids.get(i));
+					out.writeLong(chromatograms.get(i)[0]);
+					out.writeInt((int) chromatograms.get(i)[1]);
+				}
+				out.writeLong(directory);
+			}
+			Files.move(written, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		} finally {
+			if(!moved){
+				Files.deleteIfExists(written);
+			}
+		}
+	}
+
+	/**
+	 * Opens a persisted index, reading only its directory
+	 *
+	 * @param index path of index file
+	 * @param xml path to the indexed mzml file
+	 * @throws IOException if the index cannot be read, or is stale to the mzml file
+	 */
+	public static LodIndex open(Path index, Path xml) throws IOException {
+		FileChannel channel = FileChannel.open(index, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.wrap(ElementReader.readBytes(channel, 0, HEADER_SIZE));
+			if(header.getInt() != MAGIC){
+				throw new IOException("Not a level of detail index: " + index);
+			}
+			if(header.getLong() != Files.size(xml) || header.getLong() != Files.getLastModifiedTime(xml).toMillis()){
+				throw new IOException("Level of detail index " + index + " is stale for " + xml);
+			}
+
+			long directory = ByteBuffer.wrap(ElementReader.readBytes(channel, channel.size() - 8, 8)).getLong();
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+					ElementReader.readBytes(channel, directory, (int) (channel.size() - 8 - directory))));
+
+			int spectra = in.readInt();
+			long[] offsets = new long[spectra];
+			int[] lengths = new int[spectra];
+			for(int i = 0; i < spectra; i++){
+				offsets[i] = in.readLong();
+				lengths[i] = in.readInt();
+			}
+
+			int chromatograms = in.readInt();
+			List<String> ids = new ArrayList<>(chromatograms);
+			Map<String, long[]> blocks = new HashMap<>();
+			for(int i = 0; i < chromatograms; i++){
+				String id = in.readUTF();
+				ids.add(id);
+				blocks.put(id, new long[]{in.readLong(), in.readInt()});
+			}
+			return new LodIndex(offsets, lengths, ids, blocks, channel);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the pyramid of a spectrum's peaks, with m/z as x
+	 *
+	 * @param index of spectrum in the file
+	 */
+	public LodPyramid getSpectrumPyramid(int index) throws IOException {
+		return this.readBlock(this.spectrumOffsets[index], this.spectrumLengths[index]);
+	}
+
+	/**
+	 * Reads the pyramid of a chromatogram, with time as x
+	 *
+	 * @param refId reference id of the chromatogram
+	 * @return pyramid, or null if there is no chromatogram with the id
+	 */
+	public LodPyramid getChromatogramPyramid(String refId) throws IOException {
+		long[] block = this.chromatogramBlocks.get(refId);
+		return block == null ? null : this.readBlock(block[0], (int) block[1]);
+	}
+
+	public int getSpectrumCount() {
+		return this.spectrumOffsets.length;
+	}
+
+	/** reference ids of chromatograms in file order **/
+	public List<String> getChromatogramIds() {
+		return Collections.unmodifiableList(this.chromatogramIds);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	private LodPyramid readBlock(long offset, int length) throws IOException {
+		byte[] bytes = BinaryDataArray.decompress(ElementReader.readBytes(this.channel, offset, length));
+		return LodPyramid.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	/**
+	 * Writes a compressed pyramid
+	 *
+	 * @return offset and length of the block
+	 */
+	private static long[] writeBlock(DataOutputStream out, CountingOutputStream counter, LodPyramid pyramid) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			pyramid.write(new DataOutputStream(bytes));
+			byte[] compressed = BinaryDataArray.compress(bytes.toByteArray());
+
+			out.flush();
+			long offset = counter.count;
+			out.write(compressed);
+			return new long[]{offset, compressed.length};
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** chromatograms without arrays have an empty pyramid **/
+	private static LodPyramid pyramidOf(Chromatogram c) {
+		if(c.getTimes() == null || c.getIntensities() == null){
+			return LodPyramid.of(new double[0], new double[0]);
+		}
+		return LodPyramid.of(c.getTimes(), c.getIntensities());
+	}
+
+	/** "LOD1" **/
+	final static int MAGIC = 0x4c4f4431;
+	/** magic, file size, and modification time **/
+	final static int HEADER_SIZE = 4 + 8 + 8;
+
+	final static Logger LOGGER = LogManager.getLogger(LodIndex.class);
+}
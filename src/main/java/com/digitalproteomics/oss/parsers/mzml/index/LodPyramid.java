@@ -0,0 +1,235 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Multi-resolution min/max envelope of a series, e.g. the m/z and intensity arrays of a spectrum, or the
+ * times and intensities of a chromatogram. Level 1 summarizes {@code FANOUT} points per bucket, and every
+ * further level summarizes {@code FANOUT} buckets of the level below, up to a single bucket.
+ *
+ * An envelope of any x range is served from the finest level fitting the requested number of pixels, so
+ * rendering costs O(pixels) rather than O(points). Points of the series must be in ascending x order.
+ */
+public class LodPyramid {
+
+	/**
+	 * Buckets of one level, or of a query, as primitive arrays
+	 */
+	public static class Envelope {
+		private final double[] xStart;
+		private final double[] xEnd;
+		private final double[] min;
+		private final double[] max;
+
+		Envelope(double[] xStart, double[] xEnd, double[] min, double[] max) {
+			this.xStart = xStart;
+			this.xEnd = xEnd;
+			this.min = min;
+			this.max = max;
+		}
+
+		/** @return x of the first point of each bucket **/
+		public double[] getXStart() {
+			return this.xStart;
+		}
+
+		/** @return x of the last point of each bucket **/
+		public double[] getXEnd() {
+			return this.xEnd;
+		}
+
+		/** @return smallest y of each bucket **/
+		public double[] getMin() {
+			return this.min;
+		}
+
+		/** @return largest y of each bucket **/
+		public double[] getMax() {
+			return this.max;
+		}
+
+		public int size() {
+			return this.min.length;
+		}
+
+		private Envelope range(int from, int to) {
+			return new Envelope(Arrays.copyOfRange(this.xStart, from, to),
+					Arrays.copyOfRange(this.xEnd, from, to),
+					Arrays.copyOfRange(this.min, from, to),
+					Arrays.copyOfRange(this.max, from, to));
+		}
+	}
+
+	/** number of points of the summarized series **/
+	private final int sourceLength;
+	/** levels from the finest, level 1, to a single bucket **/
+	private final Envelope[] levels;
+
+	private LodPyramid(int sourceLength, Envelope[] levels) {
+		this.sourceLength = sourceLength;
+		this.levels = levels;
+	}
+
+	/**
+	 * Builds all levels of a series
+	 *
+	 * @param x ascending x values
+	 * @param y values paired with x
+	 * @throws IllegalArgumentException if the arrays are not of the same length
+	 */
+	public static LodPyramid of(double[] x, double[] y) {
+		if(x.length != y.length){
+			throw new IllegalArgumentException("Cannot build a pyramid from unequal lengths of x and y");
+		}
+
+		int count = 0;
+		for(int n = x.length; n > 1; n = (n + FANOUT - 1) / FANOUT){
+			count++;
+		}
+		if(x.length == 1){
+			count = 1;
+		}
+
+		Envelope[] levels = new Envelope[count];
+		double[] xStart = x;
+		double[] xEnd = x;
+		double[] min = y;
+		double[] max = y;
+		for(int k = 0; k < count; k++){
+			int n = (min.length + FANOUT - 1) / FANOUT;
+			Envelope level = new Envelope(new double[n], new double[n], new double[n], new double[n]);
+			for(int b = 0; b < n; b++){
+				int from = b * FANOUT;
+				int to = Math.min(from + FANOUT, min.length);
+				double lo = min[from];
+				double hi = max[from];
+				for(int i = from + 1; i < to; i++){
+					lo = Math.min(lo, min[i]);
+					hi = Math.max(hi, max[i]);
+				}
+				level.xStart[b] = xStart[from];
+				level.xEnd[b] = xEnd[to - 1];
+				level.min[b] = lo;
+				level.max[b] = hi;
+			}
+			levels[k] = level;
+			xStart = level.xStart;
+			xEnd = level.xEnd;
+			min = level.min;
+			max = level.max;
+		}
+		return new LodPyramid(x.length, levels);
+	}
+
+	/**
+	 * Gets the buckets intersecting {@code [xLow, xHigh]} from the finest level with at most {@code pixels}
+	 * buckets in the range. The coarsest level has one bucket.
+	 *
+	 * @return buckets in ascending x order, empty if the series is empty
+	 */
+	public Envelope query(double xLow, double xHigh, int pixels) {
+		for(Envelope level : this.levels){
+			int from = lowerBound(level.xEnd, xLow);
+			int to = upperBound(level.xStart, xHigh);
+			if(to - from <= pixels || level == this.levels[this.levels.length - 1]){
+				return level.range(from, Math.max(from, to));
+			}
+		}
+		return new Envelope(new double[0], new double[0], new double[0], new double[0]);
+	}
+
+	/**
+	 * @param level from 1, the finest, to {@code getLevelCount()}
+	 */
+	public Envelope getLevel(int level) {
+		return this.levels[level - 1];
+	}
+
+	public int getLevelCount() {
+		return this.levels.length;
+	}
+
+	public int getSourceLength() {
+		return this.sourceLength;
+	}
+
+	/** first position with a value of at least {@code key} **/
+	private static int lowerBound(double[] values, double key) {
+		int from = 0;
+		int to = values.length;
+		while(from < to){
+			int mid = (from + to) >>> 1;
+			if(values[mid] < key){
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	/** first position with a value greater than {@code key} **/
+	private static int upperBound(double[] values, double key) {
+		int from = 0;
+		int to = values.length;
+		while(from < to){
+			int mid = (from + to) >>> 1;
+			if(values[mid] <= key){
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(this.sourceLength);
+		out.writeInt(this.levels.length);
+		for(Envelope level : this.levels){
+			out.writeInt(level.size());
+			for(double[] values : new double[][]{level.xStart, level.xEnd, level.min, level.max}){
+				for(double v : values){
+					out.writeDouble(v);
+				}
+			}
+		}
+	}
+
+	static LodPyramid read(DataInputStream in) throws IOException {
+		int sourceLength = in.readInt();
+		Envelope[] levels = new Envelope[in.readInt()];
+		for(int k = 0; k < levels.length; k++){
+			int n = in.readInt();
+			double[][] values = new double[4][n];
+			for(double[] v : values){
+				for(int i = 0; i < n; i++){
+					v[i] = in.readDouble();
+				}
+			}
+			levels[k] = new Envelope(values[0], values[1], values[2], values[3]);
+		}
+		return new LodPyramid(sourceLength, levels);
+	}
+
+	/** points, or buckets, summarized by a bucket of the next level **/
+	final static int FANOUT = 4;
+}
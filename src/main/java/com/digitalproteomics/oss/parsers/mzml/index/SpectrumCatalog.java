@@ -0,0 +1,845 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.index;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.digitalproteomics.oss.parsers.mzml.ElementReader;
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser.FromXMLStreamBuilderFactory;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+import com.digitalproteomics.oss.parsers.mzml.processing.ParallelPipeline;
+
+/**
+ * A persisted catalog of the spectra of many files. Each spectrum is cataloged by its offset, scan start time,
+ * MS level and precursor m/z, and is named by a 64 bit id packing the ordinal of its file and its index in the file.
+ * The catalog is one file of primitive columns, memory mapped on open, so queries across files run without
+ * reading any mzml file, and resolve to positional reads of the matched spectrum tags.
+ *
+ * <pre>
+ * SpectrumCatalog catalog = SpectrumCatalog.load(xmls, Paths.get("runs.catalog"));
+ * long[] ids = catalog.findByPrecursor(445.12, 10, 2);
+ * try(SpectrumCatalog.Reader&lt;Spectrum&gt; reader = catalog.newReader(XMLSpectrumBuilder::new, 8)) {
+ *     List&lt;Spectrum&gt; spectra = reader.get(ids);
+ * }
+ * </pre>
+ *
+ * Files without an indexList are cataloged for queries, but have no offsets, so their spectra are not read.
+ * The columns of a catalog are mapped as one buffer, and are limited to 2GB, i.e. about 37 million spectra.
+ */
+public class SpectrumCatalog {
+
+	/**
+	 * A cataloged mzml file, and the size and modification time it was cataloged at
+	 */
+	public static class CatalogedFile {
+		private final Path path;
+		private final long size;
+		private final long lastModified;
+		/** position of the file's first spectrum in the catalog **/
+		private final int first;
+		private final int spectrumCount;
+
+		CatalogedFile(Path path, long size, long lastModified, int first, int spectrumCount) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.first = first;
+			this.spectrumCount = spectrumCount;
+		}
+
+		public Path getPath() {
+			return this.path;
+		}
+
+		public int getSpectrumCount() {
+			return this.spectrumCount;
+		}
+
+		/** checks if the file changed, or was removed, since it was cataloged **/
+		public boolean isStale() {
+			try {
+				return this.size != Files.size(this.path)
+						|| this.lastModified != Files.getLastModifiedTime(this.path).toMillis();
+			} catch (IOException e) {
+				return true;
+			}
+		}
+	}
+
+	private final CatalogedFile[] files;
+	/** number of spectra, and of spectra with a precursor m/z **/
+	private final int size;
+	private final int precursorCount;
+
+	/** columns, by their start within the mapped buffer **/
+	private final MappedByteBuffer columns;
+	private final int ids;
+	private final int offsets;
+	private final int scanTimes;
+	private final int precursorMzs;
+	private final int sortedScanTimes;
+	private final int sortedPrecursorMzs;
+	private final int scanTimeOrder;
+	private final int precursorOrder;
+	private final int msLevels;
+
+	private SpectrumCatalog(CatalogedFile[] files, int size, int precursorCount, MappedByteBuffer columns) {
+		this.files = files;
+		this.size = size;
+		this.precursorCount = precursorCount;
+		this.columns = columns;
+		this.ids = 0;
+		this.offsets = this.ids + (size << 3);
+		this.scanTimes = this.offsets + (size << 3);
+		this.precursorMzs = this.scanTimes + (size << 3);
+		this.sortedScanTimes = this.precursorMzs + (size << 3);
+		this.sortedPrecursorMzs = this.sortedScanTimes + (size << 3);
+		this.scanTimeOrder = this.sortedPrecursorMzs + (precursorCount << 3);
+		this.precursorOrder = this.scanTimeOrder + (size << 2);
+		this.msLevels = this.precursorOrder + (precursorCount << 2);
+	}
+
+	/** bytes of the columns of a catalog **/
+	private static long columnsLength(int size, int precursorCount) {
+		return 5L * size * 8 + (long) precursorCount * 8 + (long) size * 4 + (long) precursorCount * 4 + size;
+	}
+
+	/**
+	 * Opens the catalog at {@code catalog} if it exists and is current for {@code xmls}, otherwise builds the
+	 * catalog and writes it to {@code catalog}. Files that are current in an existing catalog are not read again.
+	 *
+	 * @param xmls mzml files, whose order gives the file ordinals of spectrum ids
+	 */
+	public static SpectrumCatalog load(List<Path> xmls, Path catalog) throws IOException {
+		SpectrumCatalog previous = null;
+		if(Files.exists(catalog)){
+			try {
+				previous = SpectrumCatalog.open(catalog);
+				if(previous.isCurrent(xmls)){
+					return previous;
+				}
+				LOGGER.log(Level.WARN, "Rebuilding spectrum catalog of changed files.");
+			} catch (IOException e) {
+				LOGGER.log(Level.WARN, "Rebuilding spectrum catalog. " + e.getMessage());
+			}
+		}
+		SpectrumCatalog.build(xmls, catalog, previous, ParallelPipeline.defaultThreads());
+		return SpectrumCatalog.open(catalog);
+	}
+
+	/**
+	 * Builds a catalog from the spectrum headers of each file, and writes it to {@code catalog}. Files are read
+	 * on {@code threads} threads, and binary data is skipped.
+	 *
+	 * @param xmls mzml files, whose order gives the file ordinals of spectrum ids
+	 * @param previous catalog whose current files are copied rather than read, or null
+	 */
+	public static void build(List<Path> xmls, Path catalog, SpectrumCatalog previous, int threads) throws IOException {
+		Map<Path, Integer> reusable = new HashMap<>();
+		if(previous != null){
+			for(int f = 0; f < previous.files.length; f++){
+				if(!previous.files[f].isStale()){
+					reusable.put(previous.files[f].path, f);
+				}
+			}
+		}
+
+		List<FileRecords> records = new ArrayList<>(xmls.size());
+		Iterator<Path> paths = xmls.iterator();
+		try {
+			ParallelPipeline.mapOrdered(paths, xml -> {
+				Path absolute = xml.toAbsolutePath();
+				Integer f = reusable.get(absolute);
+				return f != null ? previous.copy(f) : FileRecords.read(absolute);
+			}, records::add, threads);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		SpectrumCatalog.write(records, catalog);
+	}
+
+	/**
+	 * Opens a persisted catalog, mapping its columns. Files are not checked for changes, see {@code isCurrent}.
+	 *
+	 * @param catalog path of catalog file
+	 * @throws IOException if the catalog cannot be read
+	 */
+	public static SpectrumCatalog open(Path catalog) throws IOException {
+		try(FileChannel channel = FileChannel.open(catalog, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.wrap(ElementReader.readBytes(channel, 0, HEADER_SIZE));
+			if(header.getInt() != MAGIC){
+				throw new IOException("Not a spectrum catalog: " + catalog);
+			}
+			int fileCount = header.getInt();
+			int size = header.getInt();
+			int precursorCount = header.getInt();
+			long columnsStart = header.getLong();
+
+			long length = SpectrumCatalog.columnsLength(size, precursorCount);
+			if(channel.size() != columnsStart + length){
+				throw new IOException("Spectrum catalog " + catalog + " is truncated");
+			}
+
+			byte[] bytes = ElementReader.readBytes(channel, HEADER_SIZE, (int) (columnsStart - HEADER_SIZE));
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			CatalogedFile[] files = new CatalogedFile[fileCount];
+			int first = 0;
+			for(int f = 0; f < fileCount; f++){
+				files[f] = new CatalogedFile(Paths.get(in.readUTF()), in.readLong(), in.readLong(), first, in.readInt());
+				first += files[f].spectrumCount;
+			}
+
+			// the mapping stays valid once the channel is closed
+			MappedByteBuffer columns = channel.map(FileChannel.MapMode.READ_ONLY, columnsStart, length);
+			return new SpectrumCatalog(files, size, precursorCount, columns);
+		}
+	}
+
+	/**
+	 * Checks that the catalog has exactly {@code xmls}, in order, and that none changed since it was cataloged
+	 */
+	public boolean isCurrent(List<Path> xmls) {
+		if(xmls.size() != this.files.length){
+			return false;
+		}
+		for(int f = 0; f < this.files.length; f++){
+			if(!this.files[f].path.equals(xmls.get(f).toAbsolutePath()) || this.files[f].isStale()){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds spectra of any MS level by precursor m/z
+	 *
+	 * @param ppm tolerance in parts per million of {@code mz}
+	 * @return ids in precursor m/z order
+	 */
+	public long[] findByPrecursor(double mz, double ppm) {
+		return this.findByPrecursor(mz, ppm, 0);
+	}
+
+	/**
+	 * Finds spectra by precursor m/z
+	 *
+	 * @param ppm tolerance in parts per million of {@code mz}
+	 * @param msLevel of matched spectra, or 0 for any level
+	 * @return ids in precursor m/z order
+	 */
+	public long[] findByPrecursor(double mz, double ppm, int msLevel) {
+		double tolerance = mz * ppm * 1e-6;
+		double high = mz + tolerance;
+		int from = this.lowerBound(this.sortedPrecursorMzs, this.precursorCount, mz - tolerance);
+		int to = from;
+		while(to < this.precursorCount && this.columns.getDouble(this.sortedPrecursorMzs + (to << 3)) <= high){
+			to++;
+		}
+		return this.collect(this.precursorOrder, from, to, msLevel);
+	}
+
+	/**
+	 * Finds spectra of any MS level by scan start time
+	 *
+	 * @param low scan start time inclusive
+	 * @param high scan start time inclusive
+	 * @return ids in scan start time order
+	 */
+	public long[] findByScanTime(double low, double high) {
+		return this.findByScanTime(low, high, 0);
+	}
+
+	/**
+	 * Finds spectra by scan start time
+	 *
+	 * @param low scan start time inclusive
+	 * @param high scan start time inclusive
+	 * @param msLevel of matched spectra, or 0 for any level
+	 * @return ids in scan start time order
+	 */
+	public long[] findByScanTime(double low, double high, int msLevel) {
+		int from = this.lowerBound(this.sortedScanTimes, this.size, low);
+		int to = from;
+		while(to < this.size && this.columns.getDouble(this.sortedScanTimes + (to << 3)) <= high){
+			to++;
+		}
+		return this.collect(this.scanTimeOrder, from, to, msLevel);
+	}
+
+	/** ids of the positions held by {@code order[from, to)}, filtered by MS level **/
+	private long[] collect(int order, int from, int to, int msLevel) {
+		long[] found = new long[to - from];
+		int n = 0;
+		for(int i = from; i < to; i++){
+			int position = this.columns.getInt(order + (i << 2));
+			if(msLevel == 0 || this.columns.get(this.msLevels + position) == msLevel){
+				found[n++] = this.columns.getLong(this.ids + (position << 3));
+			}
+		}
+		return n == found.length ? found : Arrays.copyOf(found, n);
+	}
+
+	/** first position of a sorted double column with a value of at least low **/
+	private int lowerBound(int column, int length, double low) {
+		int from = 0;
+		int to = length;
+		while(from < to){
+			int mid = (from + to) >>> 1;
+			if(this.columns.getDouble(column + (mid << 3)) < low){
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * Finds the position of a spectrum in the catalog. Ids are stored in ascending order.
+	 *
+	 * @throws IllegalArgumentException if the spectrum is not cataloged
+	 */
+	private int position(long id) {
+		int from = 0;
+		int to = this.size;
+		while(from < to){
+			int mid = (from + to) >>> 1;
+			long midId = this.columns.getLong(this.ids + (mid << 3));
+			if(midId < id){
+				from = mid + 1;
+			} else if(midId > id){
+				to = mid;
+			} else {
+				return mid;
+			}
+		}
+		throw new IllegalArgumentException("Spectrum " + SpectrumCatalog.getSpectrumIndex(id) + " of file "
+				+ SpectrumCatalog.getFileOrdinal(id) + " is not cataloged");
+	}
+
+	public double getScanTime(long id) {
+		return this.columns.getDouble(this.scanTimes + (this.position(id) << 3));
+	}
+
+	public int getMsLevel(long id) {
+		return this.columns.get(this.msLevels + this.position(id));
+	}
+
+	/** @return precursor m/z, or NaN for spectra without a precursor **/
+	public double getPrecursorMz(long id) {
+		return this.columns.getDouble(this.precursorMzs + (this.position(id) << 3));
+	}
+
+	/** @return offset of the spectrum tag, or -1 if the file has no index **/
+	public long getOffset(long id) {
+		return this.columns.getLong(this.offsets + (this.position(id) << 3));
+	}
+
+	/** @return all ids, ordered by file and then spectrum index **/
+	public long[] getIds() {
+		long[] all = new long[this.size];
+		for(int i = 0; i < this.size; i++){
+			all[i] = this.columns.getLong(this.ids + (i << 3));
+		}
+		return all;
+	}
+
+	public CatalogedFile getFile(int ordinal) {
+		return this.files[ordinal];
+	}
+
+	public List<CatalogedFile> getFiles() {
+		return Collections.unmodifiableList(Arrays.asList(this.files));
+	}
+
+	/** @return number of cataloged spectra **/
+	public int size() {
+		return this.size;
+	}
+
+	/** packs the ordinal of a file, and the index of a spectrum in the file, into an id **/
+	public static long toId(int fileOrdinal, int spectrumIndex) {
+		return ((long) fileOrdinal << 32) | (spectrumIndex & 0xFFFFFFFFL);
+	}
+
+	public static int getFileOrdinal(long id) {
+		return (int) (id >>> 32);
+	}
+
+	public static int getSpectrumIndex(long id) {
+		return (int) id;
+	}
+
+	/**
+	 * Creates a reader of cataloged spectra
+	 *
+	 * @param factory of spectrum builders, e.g. {@code XMLSpectrumBuilder::new}
+	 * @param maxOpenFiles bound on the files held open by the reader
+	 */
+	public <T> Reader<T> newReader(FromXMLStreamBuilderFactory<T> factory, int maxOpenFiles) {
+		return new Reader<>(factory, maxOpenFiles);
+	}
+
+	/**
+	 * Reads cataloged spectra by positional reads at their cataloged offsets. Files are opened on demand,
+	 * and at most {@code maxOpenFiles} are held open, closing the least recently used idle file first.
+	 * Readers are thread safe, and a thread needing another file waits while all open files are being read.
+	 */
+	public class Reader<T> implements Closeable {
+
+		private final FromXMLStreamBuilderFactory<T> factory;
+		private final int maxOpenFiles;
+		/** open files by ordinal, in access order **/
+		private final LinkedHashMap<Integer, Handle<T>> handles = new LinkedHashMap<>(16, 0.75f, true);
+		private boolean closed;
+
+		Reader(FromXMLStreamBuilderFactory<T> factory, int maxOpenFiles) {
+			if(maxOpenFiles < 1){
+				throw new IllegalArgumentException("At least one file must be open for reads");
+			}
+			this.factory = factory;
+			this.maxOpenFiles = maxOpenFiles;
+		}
+
+		/**
+		 * Reads a spectrum
+		 *
+		 * @return spectrum, or null if its file has no index, or the read failed
+		 * @throws IllegalArgumentException if the spectrum is not cataloged
+		 * @throws IllegalStateException if the file changed since it was cataloged
+		 */
+		public T get(long id) {
+			long offset = SpectrumCatalog.this.getOffset(id);
+			int f = SpectrumCatalog.getFileOrdinal(id);
+			if(offset < 0){
+				LOGGER.log(Level.ERROR, "No offset was cataloged for spectra of " + SpectrumCatalog.this.files[f].path);
+				return null;
+			}
+
+			Handle<T> handle = this.acquire(f);
+			try {
+				return handle.parser.getSpectrumByOffset(offset);
+			} finally {
+				this.release(handle);
+			}
+		}
+
+		/**
+		 * Reads spectra on the calling thread
+		 *
+		 * @return spectra in the order of {@code ids}
+		 */
+		public List<T> get(long[] ids) {
+			return this.get(ids, 1);
+		}
+
+		/**
+		 * Reads spectra on {@code threads} threads. Reads are issued in file and offset order, so each file is
+		 * read forwards, and is opened once while it is read.
+		 *
+		 * @return spectra in the order of {@code ids}
+		 */
+		public List<T> get(long[] ids, int threads) {
+			Integer[] order = new Integer[ids.length];
+			for(int i = 0; i < ids.length; i++){
+				order[i] = i;
+			}
+			Arrays.sort(order, Comparator.comparingLong(i -> ids[i]));
+
+			List<T> read = new ArrayList<>(ids.length);
+			ParallelPipeline.mapOrdered(Arrays.asList(order).iterator(), i -> this.get(ids[i]), read::add, threads);
+
+			List<T> spectra = new ArrayList<>(Collections.<T>nCopies(ids.length, null));
+			for(int i = 0; i < order.length; i++){
+				spectra.set(order[i], read.get(i));
+			}
+			return spectra;
+		}
+
+		/** @return number of files held open **/
+		public synchronized int getOpenFileCount() {
+			return this.handles.size();
+		}
+
+		private Handle<T> acquire(int f) {
+			Handle<T> handle = this.reserve(f);
+			if(handle.parser != null){
+				return handle;
+			}
+
+			// opens the file outside the monitor, so reads of other files are not blocked
+			MzMLStAXParser<T> parser;
+			try {
+				CatalogedFile file = SpectrumCatalog.this.files[f];
+				if(file.isStale()){
+					throw new IllegalStateException("Spectrum catalog is stale for " + file.path);
+				}
+				parser = new MzMLStAXParser<>(file.path, this.factory, false, false);
+			} catch (RuntimeException e) {
+				this.abandon(f);
+				throw e;
+			}
+			this.opened(handle, parser);
+			return handle;
+		}
+
+		/**
+		 * Leases the open handle of a file, or reserves a handle without a parser for the caller to open
+		 */
+		private synchronized Handle<T> reserve(int f) {
+			while(true){
+				if(this.closed){
+					throw new IllegalStateException("Reader is closed");
+				}
+
+				Handle<T> handle = this.handles.get(f);
+				if(handle != null && handle.parser != null){
+					handle.leases++;
+					return handle;
+				}
+
+				// waits while another thread opens the file
+				if(handle == null && (this.handles.size() < this.maxOpenFiles || this.evictIdle())){
+					handle = new Handle<>();
+					handle.leases++;
+					this.handles.put(f, handle);
+					return handle;
+				}
+
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+
+		private synchronized void opened(Handle<T> handle, MzMLStAXParser<T> parser) {
+			handle.parser = parser;
+			this.notifyAll();
+		}
+
+		/** drops the reserved handle of a file that could not be opened **/
+		private synchronized void abandon(int f) {
+			this.handles.remove(f);
+			this.notifyAll();
+		}
+
+		private synchronized void release(Handle<T> handle) {
+			handle.leases--;
+			this.notifyAll();
+		}
+
+		/** closes the least recently used file that is not being read **/
+		private boolean evictIdle() {
+			Iterator<Handle<T>> open = this.handles.values().iterator();
+			while(open.hasNext()){
+				Handle<T> handle = open.next();
+				if(handle.leases == 0){
+					open.remove();
+					handle.close();
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Closes all open files. Reads in progress finish before their files are closed.
+		 */
+		@Override
+		public synchronized void close() {
+			this.closed = true;
+			while(true){
+				this.evictIdle();
+				if(this.handles.isEmpty()){
+					break;
+				}
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+
+	/** an open file, and the number of reads in progress **/
+	private static class Handle<T> {
+		/** null while the file is being opened **/
+		private MzMLStAXParser<T> parser;
+		private int leases;
+
+		private void close() {
+			try {
+				this.parser.close();
+			} catch (IOException e) {
+				LOGGER.log(Level.WARN, "File could not be closed. " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Spectra of one file in index order, read from its headers or copied from a previous catalog
+	 */
+	private static class FileRecords {
+		private final Path path;
+		private final long size;
+		private final long lastModified;
+		private int count;
+		private int[] indices = new int[INITIAL_CAPACITY];
+		private long[] offsets = new long[INITIAL_CAPACITY];
+		private double[] scanTimes = new double[INITIAL_CAPACITY];
+		private double[] precursorMzs = new double[INITIAL_CAPACITY];
+		private byte[] msLevels = new byte[INITIAL_CAPACITY];
+
+		FileRecords(Path path, long size, long lastModified) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Reads the spectrum headers of a file, and the offsets of its indexList if it has one
+		 */
+		static FileRecords read(Path xml) {
+			// stats the file before parsing, so a missing or unreadable file surfaces as an IOException
+			FileRecords records;
+			try {
+				records = new FileRecords(xml, Files.size(xml), Files.getLastModifiedTime(xml).toMillis());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			try(MzMLStAXParser<SpectrumHeader> parser = new MzMLStAXParser<>(xml, XMLSpectrumHeaderBuilder::projected, false, false)) {
+				// files without an index are cataloged without offsets
+				parser.loadIndex();
+				for(SpectrumHeader header : parser){
+					double precursorMz = header.getMsLevel() > 1 && header.getSelectedIonMz() > 0
+							? header.getSelectedIonMz()
+							: header.getIsolationWindowTargetMz();
+					records.add(header.getIndex(), parser.getSpectrumOffset(header.getIndex()), header.getScanStartTime(),
+							header.getMsLevel() > 1 ? precursorMz : Double.NaN, header.getMsLevel());
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			records.sort();
+			return records;
+		}
+
+		void add(int index, long offset, double scanTime, double precursorMz, int msLevel) {
+			if(this.count == this.indices.length){
+				int capacity = this.count << 1;
+				this.indices = Arrays.copyOf(this.indices, capacity);
+				this.offsets = Arrays.copyOf(this.offsets, capacity);
+				this.scanTimes = Arrays.copyOf(this.scanTimes, capacity);
+				this.precursorMzs = Arrays.copyOf(this.precursorMzs, capacity);
+				this.msLevels = Arrays.copyOf(this.msLevels, capacity);
+			}
+			this.indices[this.count] = index;
+			this.offsets[this.count] = offset;
+			this.scanTimes[this.count] = scanTime;
+			this.precursorMzs[this.count] = precursorMz;
+			this.msLevels[this.count] = (byte) msLevel;
+			this.count++;
+		}
+
+		/** orders spectra by index, as spectrum tags may be out of index order **/
+		private void sort() {
+			for(int i = 1; i < this.count; i++){
+				if(this.indices[i - 1] > this.indices[i]){
+					FileRecords sorted = new FileRecords(this.path, this.size, this.lastModified);
+					Integer[] order = new Integer[this.count];
+					for(int j = 0; j < this.count; j++){
+						order[j] = j;
+					}
+					Arrays.sort(order, Comparator.comparingInt(j -> this.indices[j]));
+					for(int j : order){
+						sorted.add(this.indices[j], this.offsets[j], this.scanTimes[j], this.precursorMzs[j], this.msLevels[j]);
+					}
+					this.indices = sorted.indices;
+					this.offsets = sorted.offsets;
+					this.scanTimes = sorted.scanTimes;
+					this.precursorMzs = sorted.precursorMzs;
+					this.msLevels = sorted.msLevels;
+					return;
+				}
+			}
+		}
+	}
+
+	/** copies the records of a current file of this catalog **/
+	private FileRecords copy(int f) {
+		CatalogedFile file = this.files[f];
+		FileRecords records = new FileRecords(file.path, file.size, file.lastModified);
+		for(int i = file.first; i < file.first + file.spectrumCount; i++){
+			records.add(SpectrumCatalog.getSpectrumIndex(this.columns.getLong(this.ids + (i << 3))),
+					this.columns.getLong(this.offsets + (i << 3)),
+					this.columns.getDouble(this.scanTimes + (i << 3)),
+					this.columns.getDouble(this.precursorMzs + (i << 3)),
+					this.columns.get(this.msLevels + i));
+		}
+		return records;
+	}
+
+	/**
+	 * Writes the header, the file table, and the columns of all files
+	 */
+	private static void write(List<FileRecords> records, Path catalog) throws IOException {
+		ByteArrayOutputStream table = new ByteArrayOutputStream();
+		DataOutputStream tableOut = new DataOutputStream(table);
+		long total = 0;
+		for(FileRecords r : records){
+			tableOut.writeUTF(r.path.toString());
+			tableOut.writeLong(r.size);
+			tableOut.writeLong(r.lastModified);
+			tableOut.writeInt(r.count);
+			total += r.count;
+		}
+		tableOut.flush();
+		if(total > MAX_SPECTRA){
+			throw new IllegalArgumentException("At most " + MAX_SPECTRA + " spectra are cataloged, not " + total);
+		}
+		int size = (int) total;
+
+		// flattens the files into catalog positions
+		long[] ids = new long[size];
+		double[] scanTimes = new double[size];
+		double[] precursorMzs = new double[size];
+		int n = 0;
+		int precursorCount = 0;
+		for(int f = 0; f < records.size(); f++){
+			FileRecords r = records.get(f);
+			for(int i = 0; i < r.count; i++, n++){
+				ids[n] = SpectrumCatalog.toId(f, r.indices[i]);
+				scanTimes[n] = r.scanTimes[i];
+				precursorMzs[n] = r.precursorMzs[i];
+				if(!Double.isNaN(r.precursorMzs[i])){
+					precursorCount++;
+				}
+			}
+		}
+
+		Integer[] byScanTime = new Integer[size];
+		Integer[] byPrecursorMz = new Integer[precursorCount];
+		for(int i = 0, p = 0; i < size; i++){
+			byScanTime[i] = i;
+			if(!Double.isNaN(precursorMzs[i])){
+				byPrecursorMz[p++] = i;
+			}
+		}
+		Arrays.sort(byScanTime, Comparator.comparingDouble(i -> scanTimes[i]));
+		Arrays.sort(byPrecursorMz, Comparator.comparingDouble(i -> precursorMzs[i]));
+
+		// aligns the columns to 8 bytes
+		long columnsStart = (HEADER_SIZE + table.size() + 7) & ~7L;
+		// written beside the catalog and moved over it, as a previous catalog may still map the file
+		Path absolute = catalog.toAbsolutePath();
+		Path written = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+		boolean moved = false;
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(written)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(records.size());
+				out.writeInt(size);
+				out.writeInt(precursorCount);
+				out.writeLong(columnsStart);
+				table.writeTo(out);
+				for(long i = HEADER_SIZE + table.size(); i < columnsStart; i++){
+					out.writeByte(0);
+				}
+
+				for(long id : ids){
+					out.writeLong(id);
+				}
+				for(FileRecords r : records){
+					for(int i = 0; i < r.count; i++){
+						out.writeLong(r.offsets[i]);
+					}
+				}
+				for(double t : scanTimes){
+					out.writeDouble(t);
+				}
+				for(double mz : precursorMzs){
+					out.writeDouble(mz);
+				}
+				for(int i : byScanTime){
+					out.writeDouble(scanTimes[i]);
+				}
+				for(int i : byPrecursorMz){
+					out.writeDouble(precursorMzs[i]);
+				}
+				for(int i : byScanTime){
+					out.writeInt(i);
+				}
+				for(int i : byPrecursorMz){
+					out.writeInt(i);
+				}
+				for(FileRecords r : records){
+					out.write(r.msLevels, 0, r.count);
+				}
+			}
+			Files.move(written, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		} finally {
+			if(!moved){
+				Files.deleteIfExists(written);
+			}
+		}
+	}
+
+	final static int MAGIC = 0x53434154;
+	/** magic, file count, spectrum count, precursor count, and start of the columns **/
+	final static int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+	/** the largest spectrum count whose columns can be mapped as one buffer **/
+	final static int MAX_SPECTRA = Integer.MAX_VALUE / 57;
+	final static int INITIAL_CAPACITY = 16;
+
+	final static Logger LOGGER = LogManager.getLogger(SpectrumCatalog.class);
+}
@@ -0,0 +1,575 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.index;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
+import com.digitalproteomics.oss.parsers.mzml.ElementReader;
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLEncodedSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.processing.MsLevelIterator;
+import com.digitalproteomics.oss.parsers.mzml.processing.ParallelPipeline;
+
+/**
+ * A persisted index of the peaks of a file bucketed into tiles of a retention time by m/z grid. Each tile
+ * is stored as a zlib compressed block of primitive arrays, and summarized by its peak count, and maximum and
+ * summed intensity. Region queries read and inflate only the tiles they intersect, and heatmaps are rendered
+ * from tile summaries without reading any block.
+ *
+ * <pre>
+ * TileIndex tiles = TileIndex.load(xml, Paths.get(xml + ".tiles"), 60, 10);
+ * TileIndex.Region region = tiles.query(1200, 1260, 500, 505);
+ * double[][] maxima = tiles.getMaxima(0, 3600, 400, 1600);
+ * tiles.close();
+ * </pre>
+ *
+ * Only spectra of one MS level are indexed, and peaks with zero intensity are left out.
+ */
+public class TileIndex implements Closeable {
+
+	/**
+	 * Location and summary of a tile's block
+	 */
+	public static class Tile {
+		final int rtBin;
+		final int mzBin;
+		final long offset;
+		final int length;
+		final int peakCount;
+		final double maxIntensity;
+		final double sumIntensity;
+
+		Tile(int rtBin, int mzBin, long offset, int length, int peakCount, double maxIntensity, double sumIntensity) {
+			this.rtBin = rtBin;
+			this.mzBin = mzBin;
+			this.offset = offset;
+			this.length = length;
+			this.peakCount = peakCount;
+			this.maxIntensity = maxIntensity;
+			this.sumIntensity = sumIntensity;
+		}
+
+		public int getRtBin() {
+			return this.rtBin;
+		}
+
+		public int getMzBin() {
+			return this.mzBin;
+		}
+
+		public int getPeakCount() {
+			return this.peakCount;
+		}
+
+		public double getMaxIntensity() {
+			return this.maxIntensity;
+		}
+
+		public double getSumIntensity() {
+			return this.sumIntensity;
+		}
+
+		private long key() {
+			return TileIndex.key(this.rtBin, this.mzBin);
+		}
+	}
+
+	/**
+	 * Peaks within a region as primitive arrays, ordered by tile and then by spectrum
+	 */
+	public static class Region {
+		private final int[] spectra;
+		private final double[] times;
+		private final double[] mz;
+		private final double[] intensities;
+
+		Region(int[] spectra, double[] times, double[] mz, double[] intensities) {
+			this.spectra = spectra;
+			this.times = times;
+			this.mz = mz;
+			this.intensities = intensities;
+		}
+
+		/** @return index of each peak's spectrum in the indexList **/
+		public int[] getSpectrumIndices() {
+			return this.spectra;
+		}
+
+		/** @return scan start time of each peak's spectrum **/
+		public double[] getTimes() {
+			return this.times;
+		}
+
+		public double[] getMz() {
+			return this.mz;
+		}
+
+		public double[] getIntensities() {
+			return this.intensities;
+		}
+
+		public int size() {
+			return this.mz.length;
+		}
+	}
+
+	private final double rtWidth;
+	private final double mzWidth;
+	private final int msLevel;
+
+	/** index in the indexList, and scan start time, of each indexed spectrum **/
+	private final int[] spectrumIndices;
+	private final double[] scanTimes;
+
+	/** tiles sorted by retention time bin, and then m/z bin **/
+	private final Tile[] tiles;
+	private final long[] keys;
+	/** extent of the tiles, to which query bounds are clamped **/
+	private int minRtBin = Integer.MAX_VALUE;
+	private int maxRtBin = Integer.MIN_VALUE;
+	private int minMzBin = Integer.MAX_VALUE;
+	private int maxMzBin = Integer.MIN_VALUE;
+
+	private final FileChannel channel;
+
+	private TileIndex(double rtWidth, double mzWidth, int msLevel, int[] spectrumIndices, double[] scanTimes,
+			Tile[] tiles, FileChannel channel) {
+		this.rtWidth = rtWidth;
+		this.mzWidth = mzWidth;
+		this.msLevel = msLevel;
+		this.spectrumIndices = spectrumIndices;
+		this.scanTimes = scanTimes;
+		this.tiles = tiles;
+		this.channel = channel;
+		this.keys = new long[tiles.length];
+		for(int i = 0; i < tiles.length; i++){
+			this.keys[i] = tiles[i].key();
+			this.minRtBin = Math.min(this.minRtBin, tiles[i].rtBin);
+			this.maxRtBin = Math.max(this.maxRtBin, tiles[i].rtBin);
+			this.minMzBin = Math.min(this.minMzBin, tiles[i].mzBin);
+			this.maxMzBin = Math.max(this.maxMzBin, tiles[i].mzBin);
+		}
+	}
+
+	/**
+	 * Opens the index of MS1 spectra at {@code index} if it exists and is current for the tile sizes, otherwise
+	 * builds the index and writes it to {@code index}.
+	 *
+	 * @param rtWidth width of a tile in units of the scan start time
+	 * @param mzWidth width of a tile in m/z
+	 */
+	public static TileIndex load(Path xml, Path index, double rtWidth, double mzWidth) throws IOException {
+		if(Files.exists(index)){
+			try {
+				TileIndex tiles = TileIndex.open(index, xml);
+				if(tiles.rtWidth == rtWidth && tiles.mzWidth == mzWidth && tiles.msLevel == 1){
+					return tiles;
+				}
+				tiles.close();
+				LOGGER.log(Level.WARN, "Rebuilding tile index with other tile sizes.");
+			} catch (IOException e) {
+				LOGGER.log(Level.WARN, "Rebuilding tile index. " + e.getMessage());
+			}
+		}
+		TileIndex.build(xml, index, rtWidth, mzWidth, 1, ParallelPipeline.defaultThreads());
+		return TileIndex.open(index, xml);
+	}
+
+	/**
+	 * Builds an index from one pass over a file, and writes it to {@code index}. Spectra are decoded on
+	 * {@code threads} threads, and tiles of a retention time bin are written once a spectrum of a later bin is read.
+	 *
+	 * @param msLevel of indexed spectra
+	 */
+	public static void build(Path xml, Path index, double rtWidth, double mzWidth, int msLevel, int threads) throws IOException {
+		// stats the file before parsing, so a missing file surfaces as an IOException
+		long size = Files.size(xml);
+		long lastModified = Files.getLastModifiedTime(xml).toMillis();
+
+		// written beside the index and moved over it, so a failed build leaves no partial index
+		Path absolute = index.toAbsolutePath();
+		Path written = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+		boolean moved = false;
+		try {
+			try(MzMLStAXParser<EncodedSpectrum> parser = new MzMLStAXParser<>(xml, XMLEncodedSpectrumBuilder::new, false, false);
+					CountingOutputStream counter = new CountingOutputStream(Files.newOutputStream(written));
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(counter))) {
+
+				out.writeInt(MAGIC);
+				out.writeLong(size);
+				out.writeLong(lastModified);
+				out.writeDouble(rtWidth);
+				out.writeDouble(mzWidth);
+				out.writeInt(msLevel);
+
+				TileWriter writer = new TileWriter(out, counter, rtWidth, mzWidth);
+				Iterator<EncodedSpectrum> spectra = parser.iterator();
+				Iterator<EncodedSpectrum> selected = new MsLevelIterator(spectra, msLevel);
+
+				try {
+					ParallelPipeline.mapOrdered(selected, EncodedSpectrum::decode, writer::add, threads);
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+				writer.finish();
+			}
+			Files.move(written, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		} finally {
+			if(!moved){
+				Files.deleteIfExists(written);
+			}
+		}
+	}
+
+	/**
+	 * Opens a persisted index, reading only its directory
+	 *
+	 * @param index path of index file
+	 * @param xml path to the indexed mzml file
+	 * @throws IOException if the index cannot be read, or is stale to the mzml file
+	 */
+	public static TileIndex open(Path index, Path xml) throws IOException {
+		FileChannel channel = FileChannel.open(index, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.wrap(ElementReader.readBytes(channel, 0, HEADER_SIZE));
+			if(header.getInt() != MAGIC){
+				throw new IOException("Not a tile index: " + index);
+			}
+			long fileSize = header.getLong();
+			long lastModified = header.getLong();
+			if(fileSize != Files.size(xml) || lastModified != Files.getLastModifiedTime(xml).toMillis()){
+				throw new IOException("Tile index " + index + " is stale for " + xml);
+			}
+			double rtWidth = header.getDouble();
+			double mzWidth = header.getDouble();
+			int msLevel = header.getInt();
+
+			// the directory is written after the blocks, and located by the last long of the file
+			long directory = ByteBuffer.wrap(ElementReader.readBytes(channel, channel.size() - 8, 8)).getLong();
+			byte[] bytes = ElementReader.readBytes(channel, directory, (int) (channel.size() - 8 - directory));
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+			int spectra = in.readInt();
+			int[] spectrumIndices = new int[spectra];
+			double[] scanTimes = new double[spectra];
+			for(int i = 0; i < spectra; i++){
+				spectrumIndices[i] = in.readInt();
+				scanTimes[i] = in.readDouble();
+			}
+
+			Tile[] tiles = new Tile[in.readInt()];
+			for(int i = 0; i < tiles.length; i++){
+				tiles[i] = new Tile(in.readInt(), in.readInt(), in.readLong(), in.readInt(), in.readInt(),
+						in.readDouble(), in.readDouble());
+			}
+			return new TileIndex(rtWidth, mzWidth, msLevel, spectrumIndices, scanTimes, tiles, channel);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the peaks within a region, reading only the intersected tiles
+	 *
+	 * @param rtLow scan start time inclusive
+	 * @param rtHigh scan start time inclusive
+	 * @param mzLow m/z inclusive
+	 * @param mzHigh m/z inclusive
+	 */
+	public Region query(double rtLow, double rtHigh, double mzLow, double mzHigh) throws IOException {
+		PeakBuffer peaks = new PeakBuffer();
+		for(Tile tile : this.getTiles(rtLow, rtHigh, mzLow, mzHigh)){
+			ByteBuffer block = ByteBuffer.wrap(BinaryDataArray.decompress(
+					ElementReader.readBytes(this.channel, tile.offset, tile.length)))
+					.order(ByteOrder.LITTLE_ENDIAN);
+
+			int n = tile.peakCount;
+			for(int i = 0; i < n; i++){
+				int spectrum = block.getInt(i << 2);
+				double mz = block.getDouble((n << 2) + (i << 3));
+				double rt = this.scanTimes[spectrum];
+				if(rt >= rtLow && rt <= rtHigh && mz >= mzLow && mz <= mzHigh){
+					peaks.add(spectrum, mz, block.getDouble((n << 2) + (n << 3) + (i << 3)));
+				}
+			}
+		}
+
+		int[] spectra = new int[peaks.size];
+		double[] times = new double[peaks.size];
+		for(int i = 0; i < peaks.size; i++){
+			spectra[i] = this.spectrumIndices[peaks.spectra[i]];
+			times[i] = this.scanTimes[peaks.spectra[i]];
+		}
+		return new Region(spectra, times, Arrays.copyOf(peaks.mz, peaks.size), Arrays.copyOf(peaks.intensities, peaks.size));
+	}
+
+	/**
+	 * Gets summaries of the tiles intersecting a region, without reading any block
+	 *
+	 * @return tiles ordered by retention time bin, and then m/z bin
+	 */
+	public List<Tile> getTiles(double rtLow, double rtHigh, double mzLow, double mzHigh) {
+		List<Tile> found = new ArrayList<>();
+		int mzFrom = Math.max(this.mzBin(mzLow), this.minMzBin);
+		int mzTo = Math.min(this.mzBin(mzHigh), this.maxMzBin);
+		int rtTo = Math.min(this.rtBin(rtHigh), this.maxRtBin);
+		for(int rt = Math.max(this.rtBin(rtLow), this.minRtBin); rt <= rtTo; rt++){
+			for(int i = this.lowerBound(key(rt, mzFrom)); i < this.tiles.length && this.keys[i] <= key(rt, mzTo); i++){
+				found.add(this.tiles[i]);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Gets the maximum intensity of each tile within a region, e.g. for rendering a heatmap.
+	 * No block is read.
+	 *
+	 * @return maxima by retention time bin, and then m/z bin, starting with the bins of the lower bounds.
+	 * Bounds are clamped to the bins of the index, so unbounded regions span the indexed bins only.
+	 */
+	public double[][] getMaxima(double rtLow, double rtHigh, double mzLow, double mzHigh) {
+		int rtFrom = Math.max(this.rtBin(rtLow), this.minRtBin);
+		int rtTo = Math.min(this.rtBin(rtHigh), this.maxRtBin);
+		int mzFrom = Math.max(this.mzBin(mzLow), this.minMzBin);
+		int mzTo = Math.min(this.mzBin(mzHigh), this.maxMzBin);
+		if(rtFrom > rtTo || mzFrom > mzTo){
+			return new double[0][0];
+		}
+		double[][] maxima = new double[rtTo - rtFrom + 1][mzTo - mzFrom + 1];
+		for(Tile tile : this.getTiles(rtLow, rtHigh, mzLow, mzHigh)){
+			double[] row = maxima[tile.rtBin - rtFrom];
+			row[tile.mzBin - mzFrom] = Math.max(row[tile.mzBin - mzFrom], tile.maxIntensity);
+		}
+		return maxima;
+	}
+
+	public double getRtWidth() {
+		return this.rtWidth;
+	}
+
+	public double getMzWidth() {
+		return this.mzWidth;
+	}
+
+	public int getMsLevel() {
+		return this.msLevel;
+	}
+
+	/** number of indexed spectra **/
+	public int getSpectrumCount() {
+		return this.scanTimes.length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	private int rtBin(double rt) {
+		return (int) Math.floor(rt / this.rtWidth);
+	}
+
+	private int mzBin(double mz) {
+		return (int) Math.floor(mz / this.mzWidth);
+	}
+
+	/** orders by retention time bin, and then m/z bin, preserving the sign of both **/
+	private static long key(int rtBin, int mzBin) {
+		return ((long) rtBin << 32) | ((mzBin ^ Integer.MIN_VALUE) & 0xffffffffL);
+	}
+
+	/** first tile with a key of at least {@code key} **/
+	private int lowerBound(long key) {
+		int from = 0;
+		int to = this.keys.length;
+		while(from < to){
+			int mid = (from + to) >>> 1;
+			if(this.keys[mid] < key){
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	/** growing primitive arrays of peaks **/
+	private static class PeakBuffer {
+		int[] spectra = new int[INITIAL_CAPACITY];
+		double[] mz = new double[INITIAL_CAPACITY];
+		double[] intensities = new double[INITIAL_CAPACITY];
+		int size;
+
+		void add(int spectrum, double mz, double intensity) {
+			if(this.size == this.mz.length){
+				this.spectra = Arrays.copyOf(this.spectra, this.size << 1);
+				this.mz = Arrays.copyOf(this.mz, this.size << 1);
+				this.intensities = Arrays.copyOf(this.intensities, this.size << 1);
+			}
+			this.spectra[this.size] = spectrum;
+			this.mz[this.size] = mz;
+			this.intensities[this.size++] = intensity;
+		}
+	}
+
+	/**
+	 * Buckets decoded spectra into tiles, and writes the blocks of a retention time bin once a later bin is
+	 * started. The directory is written last.
+	 */
+	private static class TileWriter {
+		private final DataOutputStream out;
+		private final CountingOutputStream counter;
+		private final double rtWidth;
+		private final double mzWidth;
+
+		/** open tiles of retention time bins, by m/z bin **/
+		private final TreeMap<Integer, Map<Integer, PeakBuffer>> open = new TreeMap<>();
+		private final List<Tile> written = new ArrayList<>();
+
+		private int[] spectrumIndices = new int[INITIAL_CAPACITY];
+		private double[] scanTimes = new double[INITIAL_CAPACITY];
+		private int spectra;
+
+		TileWriter(DataOutputStream out, CountingOutputStream counter, double rtWidth, double mzWidth) {
+			this.out = out;
+			this.counter = counter;
+			this.rtWidth = rtWidth;
+			this.mzWidth = mzWidth;
+		}
+
+		void add(Spectrum s) {
+			if(this.spectra == this.scanTimes.length){
+				this.spectrumIndices = Arrays.copyOf(this.spectrumIndices, this.spectra << 1);
+				this.scanTimes = Arrays.copyOf(this.scanTimes, this.spectra << 1);
+			}
+			double rt = s.getHeader().getScanStartTime();
+			this.spectrumIndices[this.spectra] = s.getHeader().getIndex();
+			this.scanTimes[this.spectra] = rt;
+
+			int rtBin = (int) Math.floor(rt / this.rtWidth);
+			try {
+				// spectra are in retention time order, so earlier bins are complete
+				while(!this.open.isEmpty() && this.open.firstKey() < rtBin){
+					this.flush(this.open.firstKey(), this.open.remove(this.open.firstKey()));
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			Map<Integer, PeakBuffer> row = this.open.computeIfAbsent(rtBin, k -> new HashMap<>());
+			double[] mz = s.getMzArray();
+			double[] intensities = s.getIntensityArray();
+			for(int i = 0; i < mz.length; i++){
+				if(intensities[i] != 0){
+					row.computeIfAbsent((int) Math.floor(mz[i] / this.mzWidth), k -> new PeakBuffer())
+						.add(this.spectra, mz[i], intensities[i]);
+				}
+			}
+			this.spectra++;
+		}
+
+		private void flush(int rtBin, Map<Integer, PeakBuffer> row) throws IOException {
+			for(Map.Entry<Integer, PeakBuffer> e : new TreeMap<>(row).entrySet()){
+				PeakBuffer peaks = e.getValue();
+				ByteBuffer block = ByteBuffer.allocate(peaks.size * 20).order(ByteOrder.LITTLE_ENDIAN);
+				double max = 0;
+				double sum = 0;
+				for(int i = 0; i < peaks.size; i++){
+					block.putInt(peaks.spectra[i]);
+				}
+				for(int i = 0; i < peaks.size; i++){
+					block.putDouble(peaks.mz[i]);
+				}
+				for(int i = 0; i < peaks.size; i++){
+					block.putDouble(peaks.intensities[i]);
+					max = Math.max(max, peaks.intensities[i]);
+					sum += peaks.intensities[i];
+				}
+
+				byte[] compressed = BinaryDataArray.compress(block.array());
+				this.out.flush();
+				long offset = this.counter.count;
+				this.out.write(compressed);
+				this.written.add(new Tile(rtBin, e.getKey(), offset, compressed.length, peaks.size, max, sum));
+			}
+		}
+
+		void finish() throws IOException {
+			while(!this.open.isEmpty()){
+				this.flush(this.open.firstKey(), this.open.remove(this.open.firstKey()));
+			}
+			// a spectrum out of retention time order can write a second block for a tile
+			this.written.sort((a, b) -> Long.compare(a.key(), b.key()));
+
+			this.out.flush();
+			long directory = this.counter.count;
+			this.out.writeInt(this.spectra);
+			for(int i = 0; i < this.spectra; i++){
+				this.out.writeInt(this.spectrumIndices[i]);
+				this.out.writeDouble(this.scanTimes[i]);
+			}
+			this.out.writeInt(this.written.size());
+			for(Tile tile : this.written){
+				this.out.writeInt(tile.rtBin);
+				this.out.writeInt(tile.mzBin);
+				this.out.writeLong(tile.offset);
+				this.out.writeInt(tile.length);
+				this.out.writeInt(tile.peakCount);
+				this.out.writeDouble(tile.maxIntensity);
+				this.out.writeDouble(tile.sumIntensity);
+			}
+			this.out.writeLong(directory);
+		}
+	}
+
+	/** "TIX1" **/
+	final static int MAGIC = 0x54495831;
+	/** magic, file size, modification time, tile sizes, and ms level **/
+	final static int HEADER_SIZE = 4 + 8 + 8 + 8 + 8 + 4;
+	final static int INITIAL_CAPACITY = 16;
+
+	final static Logger LOGGER = LogManager.getLogger(TileIndex.class);
+}
@@ -0,0 +1,178 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLChromatogramBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLChromatogramHeaderBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.Chromatogram;
+import com.digitalproteomics.oss.parsers.mzml.model.ChromatogramHeader;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+/**
+ * Index of SRM/MRM transitions (Q1/Q3 m/z) of the chromatograms of a file. The index is built from
+ * chromatogram headers only, so no binary data is read or decoded until a matched chromatogram is requested.
+ *
+ * <pre>
+ * TransitionIndex transitions = new TransitionIndex(parser);
+ * for(TransitionIndex.Transition t : transitions.find(456.7, 678.9, 0.01, 0.01)){
+ *     double[] intensities = t.getChromatogram().getIntensities();
+ * }
+ * </pre>
+ *
+ * Chromatograms without both a precursor and a product m/z are not indexed.
+ */
+public class TransitionIndex {
+
+	protected final MzMLStAXParser<?> parser;
+
+	/** transitions sorted by precursor, and then product m/z **/
+	private final Transition[] transitions;
+	/** precursor m/z of each transition, for binary search **/
+	private final double[] precursorMzs;
+
+	/**
+	 * Reads the chromatogram headers of a file. For indexed files, spectra are not read.
+	 *
+	 * @param parser used for reading headers, and later for reading matched chromatograms
+	 */
+	public TransitionIndex(MzMLStAXParser<?> parser) {
+		this.parser = parser;
+
+		List<Transition> found = new ArrayList<>();
+		Iterator<ChromatogramHeader> headers = parser.chromatogramIterator(XMLChromatogramHeaderBuilder::new);
+		while(headers.hasNext()){
+			ChromatogramHeader header = headers.next();
+			if(header.isTransition()){
+				found.add(new Transition(header));
+			}
+		}
+		Collections.sort(found, Comparator.<Transition>comparingDouble(t -> t.header.getPrecursorMz())
+				.thenComparingDouble(t -> t.header.getProductMz()));
+
+		this.transitions = found.toArray(new Transition[found.size()]);
+		this.precursorMzs = new double[this.transitions.length];
+		for(int i = 0; i < this.transitions.length; i++){
+			this.precursorMzs[i] = this.transitions[i].header.getPrecursorMz();
+		}
+	}
+
+	/**
+	 * Finds transitions of any polarity within tolerances
+	 *
+	 * @param precursorMz Q1 m/z
+	 * @param productMz Q3 m/z
+	 * @param precursorTolerance absolute Q1 tolerance in m/z
+	 * @param productTolerance absolute Q3 tolerance in m/z
+	 * @return matches ordered by precursor, and then product m/z
+	 */
+	public List<Transition> find(double precursorMz, double productMz, double precursorTolerance, double productTolerance) {
+		return this.find(precursorMz, productMz, precursorTolerance, productTolerance, null);
+	}
+
+	/**
+	 * Finds transitions within tolerances
+	 *
+	 * @param polarity of matched transitions, or null for any polarity
+	 * @return matches ordered by precursor, and then product m/z
+	 */
+	public List<Transition> find(double precursorMz, double productMz, double precursorTolerance, double productTolerance,
+			SpectrumHeader.Polarity polarity) {
+		List<Transition> matches = new ArrayList<>();
+		double high = precursorMz + precursorTolerance;
+		for(int i = this.lowerBound(precursorMz - precursorTolerance); i < this.transitions.length && this.precursorMzs[i] <= high; i++){
+			ChromatogramHeader header = this.transitions[i].header;
+			if(Math.abs(header.getProductMz() - productMz) <= productTolerance
+					&& (polarity == null || header.getPolarity() == polarity)){
+				matches.add(this.transitions[i]);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Finds transitions of a precursor, for any product
+	 *
+	 * @return matches ordered by precursor, and then product m/z
+	 */
+	public List<Transition> findByPrecursor(double precursorMz, double precursorTolerance) {
+		return this.find(precursorMz, 0, precursorTolerance, Double.POSITIVE_INFINITY, null);
+	}
+
+	/**
+	 * @return all transitions ordered by precursor, and then product m/z
+	 */
+	public List<Transition> getTransitions() {
+		List<Transition> all = new ArrayList<>(this.transitions.length);
+		Collections.addAll(all, this.transitions);
+		return all;
+	}
+
+	public int size() {
+		return this.transitions.length;
+	}
+
+	/** first position with a precursor m/z of at least low **/
+	private int lowerBound(double low) {
+		int from = 0;
+		int to = this.precursorMzs.length;
+		while(from < to){
+			int mid = (from + to) >>> 1;
+			if(this.precursorMzs[mid] < low){
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * Indexed transition, whose chromatogram arrays are read and decoded on first access
+	 */
+	public class Transition {
+
+		private final ChromatogramHeader header;
+		private Chromatogram chromatogram;
+
+		Transition(ChromatogramHeader header) {
+			this.header = header;
+		}
+
+		public ChromatogramHeader getHeader() {
+			return this.header;
+		}
+
+		/**
+		 * Reads the chromatogram using random access, once
+		 *
+		 * @return chromatogram, or null if the file has no chromatogram index
+		 */
+		public synchronized Chromatogram getChromatogram() {
+			if(this.chromatogram == null){
+				this.chromatogram = TransitionIndex.this.parser.getChromatogramByIndex(this.header.getIndex(),
+						XMLChromatogramBuilder::new);
+			}
+			return this.chromatogram;
+		}
+	}
+}
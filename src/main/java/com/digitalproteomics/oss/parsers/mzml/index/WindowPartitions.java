@@ -0,0 +1,292 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+/**
+ * Partitions the spectra of a DIA or FAIMS run by precursor isolation window and/or FAIMS compensation voltage.
+ * Partitions are discovered from spectrum headers only, and each partition keeps the indices of its spectra in
+ * file order. A partition is then read as its own stream by random access, so partitions can be processed in
+ * parallel without buffering the run.
+ *
+ * Headers are read by a pass of their own, not by the index build of {@code MzMLStAXParser}. A random access
+ * parser reads only the indexList unless scan times are indexed, and the scan time pass of
+ * {@code SpectrumIndexer} skips isolation windows, so the index build has no header pass to share.
+ *
+ * <pre>
+ * WindowPartitions partitions = new WindowPartitions(xml, true, true);
+ * partitions.forEach(parser, (window, spectra) -&gt; {
+ *     // spectra of one window, in file order
+ * }, 4);
+ * </pre>
+ *
+ * Spectra are also partitioned by ms level, so MS1 spectra of a DIA cycle form their own partitions.
+ */
+public class WindowPartitions {
+
+	/**
+	 * Key of a partition. Fields that are not partitioned by, or not reported, are NaN.
+	 */
+	public static class Window {
+		private final int msLevel;
+		private final double targetMz;
+		private final double lowerOffset;
+		private final double upperOffset;
+		private final double compensationVoltage;
+
+		Window(int msLevel, double targetMz, double lowerOffset, double upperOffset, double compensationVoltage) {
+			this.msLevel = msLevel;
+			this.targetMz = targetMz;
+			this.lowerOffset = lowerOffset;
+			this.upperOffset = upperOffset;
+			this.compensationVoltage = compensationVoltage;
+		}
+
+		public int getMsLevel() {
+			return this.msLevel;
+		}
+
+		public double getTargetMz() {
+			return this.targetMz;
+		}
+
+		public double getLowerOffset() {
+			return this.lowerOffset;
+		}
+
+		public double getUpperOffset() {
+			return this.upperOffset;
+		}
+
+		public double getCompensationVoltage() {
+			return this.compensationVoltage;
+		}
+
+		/** lower bound of the isolation window, or the target if no offset was reported **/
+		public double getLowMz() {
+			return Double.isNaN(this.lowerOffset) ? this.targetMz : this.targetMz - this.lowerOffset;
+		}
+
+		/** upper bound of the isolation window, or the target if no offset was reported **/
+		public double getHighMz() {
+			return Double.isNaN(this.upperOffset) ? this.targetMz : this.targetMz + this.upperOffset;
+		}
+
+		/** checks if an isolation window contains a m/z **/
+		public boolean contains(double mz) {
+			return mz >= this.getLowMz() && mz <= this.getHighMz();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Window)){
+				return false;
+			}
+			Window w = (Window) o;
+			return this.msLevel == w.msLevel
+					&& round(this.targetMz) == round(w.targetMz)
+					&& round(this.lowerOffset) == round(w.lowerOffset)
+					&& round(this.upperOffset) == round(w.upperOffset)
+					&& round(this.compensationVoltage) == round(w.compensationVoltage);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(new long[]{this.msLevel, round(this.targetMz), round(this.lowerOffset),
+					round(this.upperOffset), round(this.compensationVoltage)});
+		}
+
+		@Override
+		public String toString() {
+			return "MS" + this.msLevel + " " + this.getLowMz() + "-" + this.getHighMz() + " CV " + this.compensationVoltage;
+		}
+
+		/** values equal to within {@code KEY_PRECISION} share a key, and NaN is its own key **/
+		private static long round(double value) {
+			return Double.isNaN(value) ? Long.MIN_VALUE : Math.round(value / KEY_PRECISION);
+		}
+	}
+
+	/** growable spectrum indices of a partition **/
+	private static class Indices {
+		int[] values = new int[INITIAL_CAPACITY];
+		int size;
+
+		void add(int index) {
+			if(this.size == this.values.length){
+				this.values = Arrays.copyOf(this.values, this.size << 1);
+			}
+			this.values[this.size++] = index;
+		}
+	}
+
+	/** partitions in order of ms level, compensation voltage, and then isolation window **/
+	private final Map<Window, int[]> partitions;
+
+	/**
+	 * Reads the spectrum headers of a file once
+	 *
+	 * @param xml path to mzml file
+	 * @param byIsolationWindow partitions by isolation window target and offsets
+	 * @param byCompensationVoltage partitions by FAIMS compensation voltage
+	 */
+	public WindowPartitions(Path xml, boolean byIsolationWindow, boolean byCompensationVoltage) throws IOException {
+		Map<Window, Indices> found = new LinkedHashMap<>();
+		try(MzMLStAXParser<SpectrumHeader> parser = new MzMLStAXParser<>(xml, XMLSpectrumHeaderBuilder::projected, false, false)){
+			for(SpectrumHeader h : parser){
+				Window window = new Window(h.getMsLevel(),
+						byIsolationWindow ? h.getIsolationWindowTargetMz() : Double.NaN,
+						byIsolationWindow ? h.getIsolationWindowLowerOffset() : Double.NaN,
+						byIsolationWindow ? h.getIsolationWindowUpperOffset() : Double.NaN,
+						byCompensationVoltage ? h.getCompensationVoltage() : Double.NaN);
+
+				found.computeIfAbsent(window, w -> new Indices()).add(h.getIndex());
+			}
+		}
+
+		List<Window> windows = new ArrayList<>(found.keySet());
+		// NaN sorts last
+		Collections.sort(windows, Comparator.comparingInt(Window::getMsLevel)
+				.thenComparingDouble(Window::getCompensationVoltage)
+				.thenComparingDouble(Window::getTargetMz));
+		this.partitions = new LinkedHashMap<>();
+		for(Window w : windows){
+			Indices indices = found.get(w);
+			this.partitions.put(w, Arrays.copyOf(indices.values, indices.size));
+		}
+	}
+
+	/**
+	 * @return windows in order of ms level, compensation voltage, and then isolation window target
+	 */
+	public List<Window> getWindows() {
+		return new ArrayList<>(this.partitions.keySet());
+	}
+
+	/**
+	 * @return indices of the spectra of a window in file order, or an empty array for unknown windows
+	 */
+	public int[] getSpectrumIndices(Window window) {
+		int[] indices = this.partitions.get(window);
+		return indices == null ? new int[0] : indices.clone();
+	}
+
+	/**
+	 * Finds the windows of an ms level containing a m/z, e.g. the DIA windows fragmenting a precursor
+	 */
+	public List<Window> findWindows(int msLevel, double mz) {
+		List<Window> windows = new ArrayList<>();
+		for(Window w : this.partitions.keySet()){
+			if(w.msLevel == msLevel && w.contains(mz)){
+				windows.add(w);
+			}
+		}
+		return windows;
+	}
+
+	/** number of partitions **/
+	public int size() {
+		return this.partitions.size();
+	}
+
+	/**
+	 * Reads the spectra of a window in file order, one by random access per call of {@code next}
+	 *
+	 * @param parser parser with random access to the file of the partitions
+	 */
+	public <T> Iterator<T> iterator(Window window, MzMLStAXParser<T> parser) {
+		int[] indices = this.partitions.getOrDefault(window, new int[0]);
+		return new Iterator<T>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return this.next < indices.length;
+			}
+
+			@Override
+			public T next() {
+				if(!this.hasNext()){
+					throw new NoSuchElementException();
+				}
+				return parser.getSpectrumByIndex(indices[this.next++]);
+			}
+		};
+	}
+
+	/**
+	 * Passes each partition's stream to a consumer, with partitions processed in parallel. Random access reads
+	 * do not move the file position, so one parser is shared by the partitions' threads.
+	 *
+	 * @param parser parser with random access to the file of the partitions
+	 * @param consumer receives a window and the iterator of its spectra, must be thread safe
+	 * @param threads number of partitions processed at once, 1 processes them on the calling thread
+	 * @throws IllegalStateException if the consumer threw a checked exception, unchecked exceptions are rethrown
+	 */
+	public <T> void forEach(MzMLStAXParser<T> parser, BiConsumer<Window, Iterator<T>> consumer, int threads) {
+		if(threads <= 1){
+			for(Window w : this.partitions.keySet()){
+				consumer.accept(w, this.iterator(w, parser));
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for(Window w : this.partitions.keySet()){
+				futures.add(executor.submit(() -> consumer.accept(w, this.iterator(w, parser))));
+			}
+			for(Future<?> f : futures){
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a partition", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** m/z and voltage differences below are the same window **/
+	final static double KEY_PRECISION = 1e-4;
+	final static int INITIAL_CAPACITY = 16;
+}
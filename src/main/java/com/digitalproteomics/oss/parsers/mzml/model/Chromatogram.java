@@ -25,6 +25,11 @@ public class Chromatogram {
      */
     double[] pressures;
 
+    /**
+     * Precursor and product of the chromatogram, if any.
+     */
+    ChromatogramHeader header;
+
     /**
      * Full constructor for storing chromatogram values.
      * @param id identifier of the chromatagram data
@@ -64,4 +69,12 @@ public class Chromatogram {
     public void setPressures(double[] pressures) {
         this.pressures = pressures;
     }
+
+    public ChromatogramHeader getHeader() {
+        return header;
+    }
+
+    public void setHeader(ChromatogramHeader header) {
+        this.header = header;
+    }
 }
@@ -0,0 +1,100 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.model;
+
+/**
+ * Container for header chromatogram data, e.g. the transition of a SRM/MRM chromatogram. Index starts with 0.
+ */
+public class ChromatogramHeader {
+
+	/** chromatogram file **/
+	private String fileName;
+	/** index of chromatogram in a file **/
+	private int index;
+	/** reference id of the chromatogram **/
+	private String id;
+	/**
+	 * precursor (Q1) isolation window target m/z, accession="MS:1000827", NaN if there is no precursor
+	 */
+	private double precursorMz = Double.NaN;
+	/**
+	 * product (Q3) isolation window target m/z, accession="MS:1000827", NaN if there is no product
+	 */
+	private double productMz = Double.NaN;
+	/**
+	 * collision energy, accession="MS:1000045", NaN if not reported
+	 */
+	private double collisionEnergy = Double.NaN;
+	/**
+	 * polarity, accession="MS:1000130" or "MS:1000129"
+	 */
+	private SpectrumHeader.Polarity polarity = SpectrumHeader.Polarity.UNKNOWN;
+
+	public ChromatogramHeader(String fileName, int index, String id) {
+		this.fileName = fileName;
+		this.index = index;
+		this.id = id;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public double getPrecursorMz() {
+		return precursorMz;
+	}
+
+	public void setPrecursorMz(double precursorMz) {
+		this.precursorMz = precursorMz;
+	}
+
+	public double getProductMz() {
+		return productMz;
+	}
+
+	public void setProductMz(double productMz) {
+		this.productMz = productMz;
+	}
+
+	public double getCollisionEnergy() {
+		return collisionEnergy;
+	}
+
+	public void setCollisionEnergy(double collisionEnergy) {
+		this.collisionEnergy = collisionEnergy;
+	}
+
+	public SpectrumHeader.Polarity getPolarity() {
+		return polarity;
+	}
+
+	public void setPolarity(SpectrumHeader.Polarity polarity) {
+		this.polarity = polarity;
+	}
+
+	/** checks if both a precursor and a product m/z were set **/
+	public boolean isTransition() {
+		return !Double.isNaN(this.precursorMz) && !Double.isNaN(this.productMz);
+	}
+}
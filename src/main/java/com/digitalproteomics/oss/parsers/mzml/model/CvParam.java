@@ -0,0 +1,82 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.model;
+
+/**
+ * Immutable attributes of a cvParam tag, kept in document order.
+ */
+public final class CvParam {
+
+	/** attribute local names **/
+	private final String[] names;
+	/** attribute values, aligned with names **/
+	private final String[] values;
+
+	/**
+	 * @param names attribute local names
+	 * @param values attribute values aligned with {@code names}
+	 * @throws IllegalArgumentException when the arrays are not of the same length
+	 */
+	public CvParam(String[] names, String[] values) {
+		if(names.length != values.length){
+			throw new IllegalArgumentException("Cannot create cvParam from unequal lengths of names and values");
+		}
+		this.names = names.clone();
+		this.values = values.clone();
+	}
+
+	/**
+	 * Gets the value of an attribute
+	 * @param name local name of the attribute
+	 * @return value, or null if the attribute is not present
+	 */
+	public String getAttribute(String name) {
+		for(int i = 0; i < this.names.length; i++){
+			if(this.names[i].equals(name)){
+				return this.values[i];
+			}
+		}
+		return null;
+	}
+
+	public int getAttributeCount() {
+		return this.names.length;
+	}
+
+	public String getAttributeName(int i) {
+		return this.names[i];
+	}
+
+	public String getAttributeValue(int i) {
+		return this.values[i];
+	}
+
+	public String getAccession() {
+		return this.getAttribute("accession");
+	}
+
+	public String getName() {
+		return this.getAttribute("name");
+	}
+
+	public String getValue() {
+		return this.getAttribute("value");
+	}
+
+	public String getUnitAccession() {
+		return this.getAttribute("unitAccession");
+	}
+}
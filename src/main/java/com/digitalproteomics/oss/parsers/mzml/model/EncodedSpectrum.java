@@ -0,0 +1,92 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.model;
+
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DataType;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DecodedValues;
+
+/**
+ * Spectrum header with binary data arrays that are not decoded yet. Reading xml is sequential, while
+ * decoding is not, so encoded spectra can be read by one thread and decoded by others.
+ */
+public class EncodedSpectrum {
+	final static Logger LOGGER = LogManager.getLogger(EncodedSpectrum.class);
+
+	/** container for spectrum header **/
+	private final SpectrumHeader header;
+
+	/** binary data, null if the spectrum has no binaryDataArrayList **/
+	private final List<BinaryDataArray> data;
+
+	public EncodedSpectrum(SpectrumHeader header, List<BinaryDataArray> data) {
+		this.header = header;
+		this.data = data;
+	}
+
+	public SpectrumHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * Gets the encoded arrays
+	 * @return arrays, or null if the spectrum has no binaryDataArrayList
+	 */
+	public List<BinaryDataArray> getData() {
+		return data;
+	}
+
+	/**
+	 * Decodes the m/z and intensity arrays. Other arrays are not decoded.
+	 *
+	 * @return spectrum, without peaks if either array is missing
+	 */
+	public Spectrum decode() {
+		BinaryDataArray mz = BinaryDataArray.find(this.data, DataType.MZ_VALUES);
+		BinaryDataArray intensities = BinaryDataArray.find(this.data, DataType.INTENSITY);
+
+		if(mz == null || intensities == null){
+			LOGGER.log(Level.WARN, "m/z array and intensity was not present for spectrum: " + this.header.getId());
+			return new Spectrum(this.header, new double[0], new double[0]);
+		} else {
+			return new Spectrum(this.header, mz.getDataAsDecodedDoubleArray(), intensities.getDataAsDecodedDoubleArray());
+		}
+	}
+
+	/**
+	 * Gets a view of the decoded m/z values, without allocating an array
+	 *
+	 * @return values, or null if the spectrum has no m/z array
+	 */
+	public DecodedValues getMzValues() {
+		return BinaryDataArray.decodedValuesOf(this.data, DataType.MZ_VALUES);
+	}
+
+	/**
+	 * Gets a view of the decoded intensities, without allocating an array
+	 *
+	 * @return values, or null if the spectrum has no intensity array
+	 */
+	public DecodedValues getIntensityValues() {
+		return BinaryDataArray.decodedValuesOf(this.data, DataType.INTENSITY);
+	}
+}
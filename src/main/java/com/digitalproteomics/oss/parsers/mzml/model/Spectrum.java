@@ -17,18 +17,26 @@ package com.digitalproteomics.oss.parsers.mzml.model;
 
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
 
 /**
  * Spectrum container with a header, a mz array, and an intensity array. 
  * The container members must be set on construction. 
  *
+ * Peaks are stored as primitive arrays, and {@code Peak} instances are only created when requested.
  */
 public class Spectrum {
 	
 	/** container for spectrum header **/
 	private final SpectrumHeader header;
 	
+	/** m/z array, accession="MS:1000514" **/
+	private double[] mz;
+	
+	/** intensity array, accession="MS:1000515" **/
+	private double[] intensities;
+	
 	private List<Peak> peaks;
 	
 	/**
@@ -48,9 +56,32 @@ public class Spectrum {
 			throw new IllegalArgumentException("Cannot create spectrum from unequal lengths of m/z and intensities");
 		}
 		
-		this.peaks = IntStream.range(0, mz.length)
-				.mapToObj(i -> new Peak(mz[i].doubleValue(), intensities[i].doubleValue()))
-				.collect(Collectors.toList());
+		this.mz = new double[mz.length];
+		this.intensities = new double[intensities.length];
+		for(int i = 0; i < mz.length; i++){
+			this.mz[i] = mz[i].doubleValue();
+			this.intensities[i] = intensities[i].doubleValue();
+		}
+	}
+	
+	/**
+	 * Create a Spectrum instance containing a header and primitive peak arrays. The arrays are not copied.
+	 * 
+	 * @param header - meta data for the spectrum
+	 * @param mz - m/z array, accession="MS:1000514"
+	 * @param intensities - intensity array, accession="MS:1000515"
+	 * @throws IllegalArgumentException thrown when the two arrays are not of the same length.
+	 */
+	public Spectrum(SpectrumHeader header, 
+			double[] mz, 
+			double[] intensities) {
+		if(mz.length != intensities.length){
+			throw new IllegalArgumentException("Cannot create spectrum from unequal lengths of m/z and intensities");
+		}
+		
+		this.header = header;
+		this.mz = mz;
+		this.intensities = intensities;
 	}
 	
 	public Spectrum(SpectrumHeader header, List<Peak> peaks) {
@@ -59,6 +90,11 @@ public class Spectrum {
 	}
 
 	public List<Peak> getPeaks() {
+		if(this.peaks == null){
+			this.peaks = IntStream.range(0, this.mz.length)
+					.mapToObj(i -> new Peak(this.mz[i], this.intensities[i]))
+					.collect(Collectors.toList());
+		}
 		return this.peaks;
 	}
 	
@@ -71,7 +107,7 @@ public class Spectrum {
 	 * @return list of m/z 
 	 */
 	public List<Double> getMz() {
-		return this.peaks.stream().map(p -> p.getMz()).collect(Collectors.toList());
+		return DoubleStream.of(this.getMzArray()).boxed().collect(Collectors.toList());
 	}
 
 	/**
@@ -79,6 +115,33 @@ public class Spectrum {
 	 * @return list of intensity
 	 */
 	public List<Double> getIntensities() {
-		return this.peaks.stream().map(p -> p.getI()).collect(Collectors.toList());
+		return DoubleStream.of(this.getIntensityArray()).boxed().collect(Collectors.toList());
+	}
+	
+	/**
+	 * Gets the backing m/z array, accession="MS:1000514". The array must not be modified.
+	 * @return m/z values in file order
+	 */
+	public double[] getMzArray() {
+		if(this.mz == null){
+			this.mz = this.peaks.stream().mapToDouble(p -> p.getMz()).toArray();
+		}
+		return this.mz;
+	}
+	
+	/**
+	 * Gets the backing intensity array, accession="MS:1000515". The array must not be modified.
+	 * @return intensities in file order
+	 */
+	public double[] getIntensityArray() {
+		if(this.intensities == null){
+			this.intensities = this.peaks.stream().mapToDouble(p -> p.getI()).toArray();
+		}
+		return this.intensities;
+	}
+	
+	/** number of peaks in the spectrum **/
+	public int size() {
+		return this.mz != null ? this.mz.length : this.peaks.size();
 	}
 }
@@ -46,6 +46,57 @@ public class SpectrumHeader{
 	 * level of ms, accession="MS:1000511" 
 	 */
 	private int msLevel;
+	/**
+	 * scan polarity, accession="MS:1000465"
+	 */
+	private Polarity polarity = Polarity.UNKNOWN;
+	/**
+	 * total ion current, accession="MS:1000285"
+	 */
+	private double totalIonCurrent;
+	/**
+	 * base peak m/z, accession="MS:1000504"
+	 */
+	private double basePeakMz;
+	/**
+	 * base peak intensity, accession="MS:1000505"
+	 */
+	private double basePeakIntensity;
+	/**
+	 * lowest observed m/z, accession="MS:1000528"
+	 */
+	private double lowestObservedMz;
+	/**
+	 * highest observed m/z, accession="MS:1000527"
+	 */
+	private double highestObservedMz;
+	/**
+	 * precursor isolation window target m/z, accession="MS:1000827", NaN if there is no isolation window
+	 */
+	private double isolationWindowTargetMz = Double.NaN;
+	/**
+	 * precursor isolation window lower offset, accession="MS:1000828", NaN if not reported
+	 */
+	private double isolationWindowLowerOffset = Double.NaN;
+	/**
+	 * precursor isolation window upper offset, accession="MS:1000829", NaN if not reported
+	 */
+	private double isolationWindowUpperOffset = Double.NaN;
+	/**
+	 * FAIMS compensation voltage, accession="MS:1001581", NaN if not reported
+	 */
+	private double compensationVoltage = Double.NaN;
+	
+	/**
+	 * Scan polarity, children of accession="MS:1000465"
+	 */
+	public enum Polarity {
+		UNKNOWN,
+		/** accession="MS:1000130" **/
+		POSITIVE,
+		/** accession="MS:1000129" **/
+		NEGATIVE
+	}
 	
 	public SpectrumHeader(String fileName, int index, String id) {
 		this(fileName, index, id, 0.0, 0, 0.0, 0.0, 0);
@@ -120,5 +171,84 @@ public class SpectrumHeader{
 	public void setMsLevel(int msLevel) {
 		this.msLevel = msLevel;
 	}
-}
 
+	public Polarity getPolarity() {
+		return polarity;
+	}
+
+	public void setPolarity(Polarity polarity) {
+		this.polarity = polarity;
+	}
+
+	public double getTotalIonCurrent() {
+		return totalIonCurrent;
+	}
+
+	public void setTotalIonCurrent(double totalIonCurrent) {
+		this.totalIonCurrent = totalIonCurrent;
+	}
+
+	public double getBasePeakMz() {
+		return basePeakMz;
+	}
+
+	public void setBasePeakMz(double basePeakMz) {
+		this.basePeakMz = basePeakMz;
+	}
+
+	public double getBasePeakIntensity() {
+		return basePeakIntensity;
+	}
+
+	public void setBasePeakIntensity(double basePeakIntensity) {
+		this.basePeakIntensity = basePeakIntensity;
+	}
+
+	public double getLowestObservedMz() {
+		return lowestObservedMz;
+	}
+
+	public void setLowestObservedMz(double lowestObservedMz) {
+		this.lowestObservedMz = lowestObservedMz;
+	}
+
+	public double getHighestObservedMz() {
+		return highestObservedMz;
+	}
+
+	public void setHighestObservedMz(double highestObservedMz) {
+		this.highestObservedMz = highestObservedMz;
+	}
+
+	public double getIsolationWindowTargetMz() {
+		return isolationWindowTargetMz;
+	}
+
+	public void setIsolationWindowTargetMz(double isolationWindowTargetMz) {
+		this.isolationWindowTargetMz = isolationWindowTargetMz;
+	}
+
+	public double getIsolationWindowLowerOffset() {
+		return isolationWindowLowerOffset;
+	}
+
+	public void setIsolationWindowLowerOffset(double isolationWindowLowerOffset) {
+		this.isolationWindowLowerOffset = isolationWindowLowerOffset;
+	}
+
+	public double getIsolationWindowUpperOffset() {
+		return isolationWindowUpperOffset;
+	}
+
+	public void setIsolationWindowUpperOffset(double isolationWindowUpperOffset) {
+		this.isolationWindowUpperOffset = isolationWindowUpperOffset;
+	}
+
+	public double getCompensationVoltage() {
+		return compensationVoltage;
+	}
+
+	public void setCompensationVoltage(double compensationVoltage) {
+		this.compensationVoltage = compensationVoltage;
+	}
+}
@@ -0,0 +1,91 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.model;
+
+/**
+ * Compact summary of a spectrum's peaks, computed while decoding without keeping the peaks.
+ * Values of a spectrum without peaks are 0, or NaN for m/z values.
+ */
+public class SpectrumSummary {
+
+	/** container for spectrum header **/
+	private final SpectrumHeader header;
+
+	private final int peakCount;
+	/** sum of intensities **/
+	private final double totalIonCurrent;
+	private final double basePeakMz;
+	private final double basePeakIntensity;
+	private final double lowestMz;
+	private final double highestMz;
+
+	/** values of reducers, in the order the reducers were given **/
+	private final double[] reduced;
+
+	public SpectrumSummary(SpectrumHeader header,
+			int peakCount,
+			double totalIonCurrent,
+			double basePeakMz,
+			double basePeakIntensity,
+			double lowestMz,
+			double highestMz,
+			double[] reduced) {
+		this.header = header;
+		this.peakCount = peakCount;
+		this.totalIonCurrent = totalIonCurrent;
+		this.basePeakMz = basePeakMz;
+		this.basePeakIntensity = basePeakIntensity;
+		this.lowestMz = lowestMz;
+		this.highestMz = highestMz;
+		this.reduced = reduced;
+	}
+
+	public SpectrumHeader getHeader() {
+		return header;
+	}
+
+	public int getPeakCount() {
+		return peakCount;
+	}
+
+	public double getTotalIonCurrent() {
+		return totalIonCurrent;
+	}
+
+	public double getBasePeakMz() {
+		return basePeakMz;
+	}
+
+	public double getBasePeakIntensity() {
+		return basePeakIntensity;
+	}
+
+	public double getLowestMz() {
+		return lowestMz;
+	}
+
+	public double getHighestMz() {
+		return highestMz;
+	}
+
+	/**
+	 * Gets values written by reducers, each reducer writing {@code PeakReducer.size()} values after the
+	 * values of the reducers before it.
+	 */
+	public double[] getReduced() {
+		return reduced;
+	}
+}
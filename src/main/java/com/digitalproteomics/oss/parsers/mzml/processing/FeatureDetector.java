@@ -0,0 +1,599 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLEncodedSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+
+/**
+ * Detects MS1 features (isotope patterns of mass traces) while streaming spectra. The m/z range is split into
+ * overlapping slices processed by separate worker threads, and each slice builds its mass traces incrementally,
+ * so only traces of a retention time window are resident:
+ *
+ *  1) peaks extend the active trace within ppm tolerance, or start a new trace,
+ *  2) traces without a peak for more than {@code maxGap} scans, or longer than {@code maxTraceWidth}, are closed,
+ *  3) closed traces are grouped into isotope patterns of a charge, once no active trace overlaps them in time.
+ *
+ * A slice reports only features whose monoisotopic m/z is in its own range, and sees peaks of its neighbours
+ * within the overlap, so isotope patterns spanning slices are found once.
+ *
+ * <pre>
+ * List&lt;FeatureDetector.Feature&gt; features = new FeatureDetector().setPpm(10).setThreads(4).detect(xml);
+ * </pre>
+ */
+public class FeatureDetector {
+
+	/**
+	 * Isotope pattern of mass traces
+	 */
+	public static class Feature {
+		private final double mz;
+		private final int charge;
+		private final double apexRt;
+		private final double apexIntensity;
+		private final double rtStart;
+		private final double rtEnd;
+		private final double area;
+		private final int isotopeCount;
+
+		Feature(double mz, int charge, double apexRt, double apexIntensity, double rtStart, double rtEnd, double area,
+				int isotopeCount) {
+			this.mz = mz;
+			this.charge = charge;
+			this.apexRt = apexRt;
+			this.apexIntensity = apexIntensity;
+			this.rtStart = rtStart;
+			this.rtEnd = rtEnd;
+			this.area = area;
+			this.isotopeCount = isotopeCount;
+		}
+
+		/** intensity weighted m/z of the monoisotopic trace **/
+		public double getMz() {
+			return this.mz;
+		}
+
+		/** charge, or 0 for a single trace **/
+		public int getCharge() {
+			return this.charge;
+		}
+
+		/** retention time of the most intense point of the monoisotopic trace, in seconds **/
+		public double getApexRt() {
+			return this.apexRt;
+		}
+
+		public double getApexIntensity() {
+			return this.apexIntensity;
+		}
+
+		public double getRtStart() {
+			return this.rtStart;
+		}
+
+		public double getRtEnd() {
+			return this.rtEnd;
+		}
+
+		/** sum of the trapezoid areas of the pattern's traces over retention time **/
+		public double getArea() {
+			return this.area;
+		}
+
+		/** number of traces in the pattern **/
+		public int getIsotopeCount() {
+			return this.isotopeCount;
+		}
+	}
+
+	private double ppm = 10;
+	private double minIntensity = 0;
+	private int minTracePoints = 3;
+	private int maxGap = 1;
+	private double maxTraceWidth = 120;
+	private int maxCharge = 4;
+	private int minIsotopes = 2;
+	private double minMz = 0;
+	private double maxMz = 3000;
+	private int threads = ParallelPipeline.defaultThreads();
+
+	/** ppm tolerance of a peak to its trace, and of isotopes to their expected m/z, 10 by default **/
+	public FeatureDetector setPpm(double ppm) {
+		this.ppm = ppm;
+		return this;
+	}
+
+	/** peaks below are not traced, 0 by default **/
+	public FeatureDetector setMinIntensity(double minIntensity) {
+		this.minIntensity = minIntensity;
+		return this;
+	}
+
+	/** shorter traces are dropped, 3 by default **/
+	public FeatureDetector setMinTracePoints(int minTracePoints) {
+		this.minTracePoints = minTracePoints;
+		return this;
+	}
+
+	/** scans a trace may miss before it is closed, 1 by default **/
+	public FeatureDetector setMaxGap(int maxGap) {
+		this.maxGap = maxGap;
+		return this;
+	}
+
+	/** traces are closed after this many seconds, which bounds the resident window, 120 by default **/
+	public FeatureDetector setMaxTraceWidth(double maxTraceWidth) {
+		this.maxTraceWidth = maxTraceWidth;
+		return this;
+	}
+
+	/** highest charge of isotope patterns, 4 by default **/
+	public FeatureDetector setMaxCharge(int maxCharge) {
+		this.maxCharge = maxCharge;
+		return this;
+	}
+
+	/** patterns of fewer traces are dropped, 2 by default. With 1, unmatched traces are features of charge 0 **/
+	public FeatureDetector setMinIsotopes(int minIsotopes) {
+		this.minIsotopes = minIsotopes;
+		return this;
+	}
+
+	/** m/z range split into slices, 0 to 3000 by default. Peaks outside are not traced. **/
+	public FeatureDetector setMzRange(double minMz, double maxMz) {
+		this.minMz = minMz;
+		this.maxMz = maxMz;
+		return this;
+	}
+
+	/** number of worker threads, also decoding spectra, the number of processors by default **/
+	public FeatureDetector setThreads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Detects features of the MS1 spectra of a file, read sequentially
+	 */
+	public List<Feature> detect(Path xml) throws IOException {
+		try(MzMLStAXParser<EncodedSpectrum> parser = new MzMLStAXParser<>(xml, XMLEncodedSpectrumBuilder::new, false, false)){
+			return this.detect(parser.iterator());
+		}
+	}
+
+	/**
+	 * Detects features while streaming spectra. Spectra are decoded in parallel, and passed in order to every
+	 * worker through bounded queues.
+	 *
+	 * @param spectra in retention time order, spectra other than MS1 are skipped
+	 * @return features ordered by apex retention time, and then m/z
+	 * @throws IllegalStateException if a worker failed with a checked exception, unchecked exceptions are rethrown
+	 */
+	public List<Feature> detect(Iterator<EncodedSpectrum> spectra) {
+		int workerCount = Math.max(1, this.threads);
+		int sliceCount = workerCount * SLICES_PER_THREAD;
+		double width = (this.maxMz - this.minMz) / sliceCount;
+
+		List<List<Slice>> workers = new ArrayList<>();
+		for(int w = 0; w < workerCount; w++){
+			workers.add(new ArrayList<>());
+		}
+		for(int s = 0; s < sliceCount; s++){
+			double low = this.minMz + s * width;
+			double high = s == sliceCount - 1 ? this.maxMz : low + width;
+			// adjacent slices share the last slice's upper bound
+			workers.get(s % workerCount).add(new Slice(low, high, s == sliceCount - 1));
+		}
+
+		List<BlockingQueue<Spectrum>> queues = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+		List<Future<List<Feature>>> futures = new ArrayList<>();
+		for(List<Slice> slices : workers){
+			BlockingQueue<Spectrum> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+			queues.add(queue);
+			futures.add(executor.submit(() -> this.work(slices, queue)));
+		}
+
+		List<Feature> features = new ArrayList<>();
+		try {
+			Iterator<EncodedSpectrum> ms1 = new MsLevelIterator(spectra, 1);
+			ParallelPipeline.mapOrdered(ms1, EncodedSpectrum::decode, s -> this.put(queues, s), workerCount);
+			this.put(queues, END);
+			for(Future<List<Feature>> f : futures){
+				features.addAll(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while detecting features", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Collections.sort(features, Comparator.comparingDouble(Feature::getApexRt).thenComparingDouble(Feature::getMz));
+		return features;
+	}
+
+	private void put(List<BlockingQueue<Spectrum>> queues, Spectrum spectrum) {
+		try {
+			for(BlockingQueue<Spectrum> queue : queues){
+				queue.put(spectrum);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while passing a spectrum to workers", e);
+		}
+	}
+
+	/**
+	 * Passes spectra of a queue to the slices of a worker until the end marker. After a failure, spectra are
+	 * drained without processing, so the reader never blocks on a full queue.
+	 */
+	private List<Feature> work(List<Slice> slices, BlockingQueue<Spectrum> queue) throws InterruptedException {
+		RuntimeException failure = null;
+		int scan = 0;
+		for(Spectrum s = queue.take(); s != END; s = queue.take()){
+			if(failure != null){
+				continue;
+			}
+			try {
+				for(Slice slice : slices){
+					slice.accept(s, scan);
+				}
+				scan++;
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+		}
+		if(failure != null){
+			throw failure;
+		}
+
+		List<Feature> features = new ArrayList<>();
+		for(Slice slice : slices){
+			slice.finish();
+			features.addAll(slice.features);
+		}
+		return features;
+	}
+
+	/**
+	 * Points of a mass trace, in scan order
+	 */
+	private static class Trace {
+		double[] rt = new double[INITIAL_CAPACITY];
+		double[] mz = new double[INITIAL_CAPACITY];
+		double[] intensities = new double[INITIAL_CAPACITY];
+		int size;
+		int lastScan;
+		/** intensity weighted mean m/z **/
+		double meanMz;
+		double weightSum;
+		int apex;
+		boolean consumed;
+
+		Trace(double rt, double mz, double intensity, int scan) {
+			this.add(rt, mz, intensity, scan);
+		}
+
+		void add(double rt, double mz, double intensity, int scan) {
+			if(this.size == this.rt.length){
+				this.rt = Arrays.copyOf(this.rt, this.size << 1);
+				this.mz = Arrays.copyOf(this.mz, this.size << 1);
+				this.intensities = Arrays.copyOf(this.intensities, this.size << 1);
+			}
+			this.rt[this.size] = rt;
+			this.mz[this.size] = mz;
+			this.intensities[this.size] = intensity;
+			if(intensity > this.intensities[this.apex]){
+				this.apex = this.size;
+			}
+			this.size++;
+			this.lastScan = scan;
+
+			double weight = Math.max(intensity, Double.MIN_NORMAL);
+			this.weightSum += weight;
+			this.meanMz += (mz - this.meanMz) * weight / this.weightSum;
+		}
+
+		double start() {
+			return this.rt[0];
+		}
+
+		double end() {
+			return this.rt[this.size - 1];
+		}
+
+		double apexRt() {
+			return this.rt[this.apex];
+		}
+
+		double apexIntensity() {
+			return this.intensities[this.apex];
+		}
+
+		double area() {
+			double area = 0;
+			for(int i = 1; i < this.size; i++){
+				area += (this.rt[i] - this.rt[i - 1]) * (this.intensities[i] + this.intensities[i - 1]) / 2;
+			}
+			return area;
+		}
+	}
+
+	/**
+	 * Traces and groups peaks of an m/z slice, with its overlap
+	 */
+	private class Slice {
+		/** range of reported monoisotopic m/z **/
+		private final double low;
+		private final double high;
+		private final boolean inclusiveHigh;
+
+		/** open traces sorted by mean m/z **/
+		private List<Trace> active = new ArrayList<>();
+		private List<Trace> next = new ArrayList<>();
+		/** closed traces not yet grouped, sorted by mean m/z when grouped **/
+		private final List<Trace> closed = new ArrayList<>();
+		private final List<Feature> features = new ArrayList<>();
+
+		Slice(double low, double high, boolean inclusiveHigh) {
+			this.low = low;
+			this.high = high;
+			this.inclusiveHigh = inclusiveHigh;
+		}
+
+		void accept(Spectrum spectrum, int scan) {
+			double[] mz = spectrum.getMzArray();
+			double[] intensities = spectrum.getIntensityArray();
+			double rt = spectrum.getHeader().getScanStartTime();
+
+			// 1) extends or starts traces with the peaks of the slice and its overlap
+			int from = SortedBounds.lowerBound(mz, 0, mz.length, this.low - SLICE_OVERLAP);
+			double to = this.high + SLICE_OVERLAP;
+			int opened = this.active.size();
+			for(int i = from; i < mz.length && mz[i] < to; i++){
+				if(intensities[i] <= FeatureDetector.this.minIntensity){
+					continue;
+				}
+				Trace t = this.nearest(mz[i], opened);
+				if(t != null && t.lastScan != scan){
+					t.add(rt, mz[i], intensities[i], scan);
+				} else {
+					this.active.add(new Trace(rt, mz[i], intensities[i], scan));
+				}
+			}
+
+			// 2) closes traces after a gap, or when too wide
+			this.next.clear();
+			for(Trace t : this.active){
+				if(scan - t.lastScan > FeatureDetector.this.maxGap || t.end() - t.start() > FeatureDetector.this.maxTraceWidth){
+					this.close(t);
+				} else {
+					this.next.add(t);
+				}
+			}
+			List<Trace> swap = this.active;
+			this.active = this.next;
+			this.next = swap;
+			this.active.sort(BY_MEAN_MZ);
+
+			// 3) groups closed traces that no active trace overlaps
+			double minActiveStart = Double.POSITIVE_INFINITY;
+			for(Trace t : this.active){
+				minActiveStart = Math.min(minActiveStart, t.start());
+			}
+			this.group(minActiveStart);
+		}
+
+		void finish() {
+			for(Trace t : this.active){
+				this.close(t);
+			}
+			this.active.clear();
+			this.group(Double.POSITIVE_INFINITY);
+		}
+
+		private void close(Trace t) {
+			if(t.size >= FeatureDetector.this.minTracePoints){
+				this.closed.add(t);
+			}
+		}
+
+		/** nearest of the first {@code size} active traces within tolerance, or null **/
+		private Trace nearest(double mz, int size) {
+			double tolerance = mz * FeatureDetector.this.ppm * 1e-6;
+			int i = lowerBound(this.active, size, mz - tolerance);
+			Trace best = null;
+			for(; i < size && this.active.get(i).meanMz <= mz + tolerance; i++){
+				Trace t = this.active.get(i);
+				if(best == null || Math.abs(t.meanMz - mz) < Math.abs(best.meanMz - mz)){
+					best = t;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Groups closed traces ending before any active trace started, most intense first. A trace's isotopes
+		 * are closed traces at multiples of 1.00335 / z in m/z, with an apex within the trace.
+		 */
+		private void group(double minActiveStart) {
+			if(this.closed.isEmpty()){
+				return;
+			}
+			this.closed.sort(BY_MEAN_MZ);
+
+			List<Trace> ready = new ArrayList<>();
+			for(Trace t : this.closed){
+				if(t.end() < minActiveStart){
+					ready.add(t);
+				}
+			}
+			ready.sort(Comparator.comparingDouble(Trace::apexIntensity).reversed());
+
+			List<Trace> pattern = new ArrayList<>();
+			for(Trace t : ready){
+				if(t.consumed){
+					continue;
+				}
+
+				int bestCharge = 0;
+				int bestCount = 1;
+				for(int z = 1; z <= FeatureDetector.this.maxCharge; z++){
+					int count = 1 + this.walk(t, z, 1, null) + this.walk(t, z, -1, null);
+					if(count > bestCount){
+						bestCount = count;
+						bestCharge = z;
+					}
+				}
+				if(bestCount < FeatureDetector.this.minIsotopes){
+					continue;
+				}
+
+				pattern.clear();
+				pattern.add(t);
+				if(bestCharge > 0){
+					this.walk(t, bestCharge, 1, pattern);
+					this.walk(t, bestCharge, -1, pattern);
+				}
+				this.report(pattern, bestCharge);
+			}
+
+			// drops grouped traces, and ungrouped traces that were ready
+			List<Trace> kept = new ArrayList<>();
+			for(Trace t : this.closed){
+				if(!t.consumed && t.end() >= minActiveStart){
+					kept.add(t);
+				}
+			}
+			this.closed.clear();
+			this.closed.addAll(kept);
+		}
+
+		/**
+		 * Counts contiguous isotopes of a trace in one direction
+		 *
+		 * @param pattern receives and consumes found isotopes, or null to only count
+		 */
+		private int walk(Trace t, int charge, int direction, List<Trace> pattern) {
+			int count = 0;
+			double mz = t.meanMz;
+			for(int k = 1; k < MAX_ISOTOPES; k++){
+				Trace isotope = this.findIsotope(t, mz + direction * ISOTOPE_SPACING / charge);
+				if(isotope == null){
+					break;
+				}
+				if(pattern != null){
+					isotope.consumed = true;
+					pattern.add(isotope);
+				}
+				mz = isotope.meanMz;
+				count++;
+			}
+			return count;
+		}
+
+		/** most intense unconsumed closed trace at a m/z, with an apex within the given trace **/
+		private Trace findIsotope(Trace t, double mz) {
+			double tolerance = mz * FeatureDetector.this.ppm * 1e-6;
+			Trace best = null;
+			for(int i = lowerBound(this.closed, this.closed.size(), mz - tolerance);
+					i < this.closed.size() && this.closed.get(i).meanMz <= mz + tolerance; i++){
+				Trace c = this.closed.get(i);
+				if(c != t && !c.consumed && c.apexRt() >= t.start() && c.apexRt() <= t.end()
+						&& (best == null || c.apexIntensity() > best.apexIntensity())){
+					best = c;
+				}
+			}
+			return best;
+		}
+
+		/** reports a pattern if its monoisotopic trace, the lowest m/z, is in the slice's own range **/
+		private void report(List<Trace> pattern, int charge) {
+			Trace mono = pattern.get(0);
+			double area = 0;
+			double rtStart = Double.POSITIVE_INFINITY;
+			double rtEnd = Double.NEGATIVE_INFINITY;
+			for(Trace t : pattern){
+				t.consumed = true;
+				if(t.meanMz < mono.meanMz){
+					mono = t;
+				}
+				area += t.area();
+				rtStart = Math.min(rtStart, t.start());
+				rtEnd = Math.max(rtEnd, t.end());
+			}
+
+			if(mono.meanMz >= this.low && (mono.meanMz < this.high || (this.inclusiveHigh && mono.meanMz <= this.high))){
+				this.features.add(new Feature(mono.meanMz, charge, mono.apexRt(), mono.apexIntensity(), rtStart, rtEnd,
+						area, pattern.size()));
+			}
+		}
+	}
+
+	/** first of the first {@code size} traces with a mean m/z of at least low **/
+	private static int lowerBound(List<Trace> traces, int size, double low) {
+		int from = 0;
+		int to = size;
+		while(from < to){
+			int mid = (from + to) >>> 1;
+			if(traces.get(mid).meanMz < low){
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	private final static Comparator<Trace> BY_MEAN_MZ = Comparator.comparingDouble(t -> t.meanMz);
+
+	/** marks the end of the spectra passed to workers **/
+	private final static Spectrum END = new Spectrum(null, new double[0], new double[0]);
+
+	/** m/z difference of adjacent isotopes at charge 1 (13C - 12C) **/
+	final static double ISOTOPE_SPACING = 1.00335;
+	/** most traces of a pattern **/
+	final static int MAX_ISOTOPES = 6;
+	/** m/z seen beyond each side of a slice, covering the isotopes of a pattern at charge 1 **/
+	final static double SLICE_OVERLAP = MAX_ISOTOPES * ISOTOPE_SPACING;
+	final static int SLICES_PER_THREAD = 4;
+	/** spectra waiting per worker **/
+	final static int QUEUE_CAPACITY = 64;
+	final static int INITIAL_CAPACITY = 16;
+}
@@ -0,0 +1,279 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Iterates several runs as one stream, e.g. the fractions of a sample. Each source is read ahead by its own
+ * thread into a bounded buffer, and the heads of the buffers are merged by scan start time with a priority
+ * queue, or interleaved round robin. Memory is bounded by the read ahead of the sources, so runs are not
+ * loaded to be sorted.
+ *
+ * <pre>
+ * List&lt;MzMLStAXParser&lt;SpectrumHeader&gt;&gt; parsers = ...;
+ * try(MergedIterator&lt;SpectrumHeader&gt; merged = new MergedIterator&lt;&gt;(parsers, SpectrumHeader::getScanStartTime)){
+ *     while(merged.hasNext()){
+ *         MergedIterator.Tagged&lt;SpectrumHeader&gt; next = merged.next();
+ *         // next.getSource() is the position of the parser in parsers
+ *     }
+ * }
+ * </pre>
+ *
+ * Merging by retention time expects each source in retention time order, as spectra of a run are.
+ * Sources are read by the iterator's threads, and are not closed by the iterator.
+ *
+ * @param <T> elements of the sources, e.g. spectra
+ */
+public class MergedIterator<T> implements Iterator<MergedIterator.Tagged<T>>, Closeable {
+
+	/** order of the merged stream **/
+	public enum Order {
+		/** ascending scan start time, ties by source position **/
+		RETENTION_TIME,
+		/** one element of each source in turn, skipping exhausted sources **/
+		ROUND_ROBIN
+	}
+
+	/**
+	 * Element with the position of its source
+	 */
+	public static class Tagged<T> {
+		private final int source;
+		private final T value;
+		private final double scanTime;
+
+		Tagged(int source, T value, double scanTime) {
+			this.source = source;
+			this.value = value;
+			this.scanTime = scanTime;
+		}
+
+		/** position of the source in the list of sources **/
+		public int getSource() {
+			return this.source;
+		}
+
+		public T getValue() {
+			return this.value;
+		}
+
+		public double getScanTime() {
+			return this.scanTime;
+		}
+	}
+
+	/** failure of a reader, passed through its buffer **/
+	private static class Failure {
+		final Throwable cause;
+
+		Failure(Throwable cause) {
+			this.cause = cause;
+		}
+	}
+
+	private final List<BlockingQueue<Object>> buffers = new ArrayList<>();
+	private final ToDoubleFunction<? super T> scanTime;
+	private final Order order;
+	private final ExecutorService readers;
+
+	/** heads of sources for RETENTION_TIME **/
+	private PriorityQueue<Tagged<T>> heads;
+	/** sources whose first element was taken into the heads **/
+	private int started;
+	/** sources not exhausted for ROUND_ROBIN **/
+	private final List<Integer> open = new ArrayList<>();
+	private int turn;
+	/** element of the round robin turn, taken ahead by {@code hasNext} **/
+	private Tagged<T> pending;
+
+	/**
+	 * Merges sources by scan start time, with a read ahead of {@code DEFAULT_READ_AHEAD}
+	 *
+	 * @param sources e.g. parsers of the runs, each iterated once
+	 * @param scanTime scan start time of an element, e.g. {@code SpectrumHeader::getScanStartTime}
+	 */
+	public MergedIterator(List<? extends Iterable<T>> sources, ToDoubleFunction<? super T> scanTime) {
+		this(sources, scanTime, Order.RETENTION_TIME, DEFAULT_READ_AHEAD);
+	}
+
+	/**
+	 * @param sources e.g. parsers of the runs, each iterated once
+	 * @param scanTime scan start time of an element, e.g. {@code SpectrumHeader::getScanStartTime}
+	 * @param order of the merged stream
+	 * @param readAhead elements buffered per source
+	 */
+	public MergedIterator(List<? extends Iterable<T>> sources, ToDoubleFunction<? super T> scanTime, Order order, int readAhead) {
+		this.scanTime = scanTime;
+		this.order = order;
+		this.readers = Executors.newFixedThreadPool(Math.max(1, sources.size()), r -> {
+			Thread t = new Thread(r, "mzml-read-ahead");
+			t.setDaemon(true);
+			return t;
+		});
+
+		for(Iterable<T> source : sources){
+			BlockingQueue<Object> buffer = new ArrayBlockingQueue<>(Math.max(1, readAhead));
+			this.buffers.add(buffer);
+			this.readers.submit(() -> read(source, buffer));
+		}
+		this.readers.shutdown();
+
+		for(int s = 0; s < this.buffers.size(); s++){
+			this.open.add(s);
+		}
+	}
+
+	/**
+	 * Fills a buffer with the elements of a source, then the end marker
+	 */
+	private static <T> void read(Iterable<T> source, BlockingQueue<Object> buffer) {
+		try {
+			try {
+				for(T element : source){
+					buffer.put(element);
+				}
+				buffer.put(END);
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Throwable e) {
+				buffer.put(new Failure(e));
+			}
+		} catch (InterruptedException e) {
+			// closed, the buffer may be full and is no longer taken from
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Takes the next element of a source
+	 *
+	 * @return tagged element, or null if the source is exhausted
+	 * @throws IllegalStateException if interrupted, or wrapping a checked exception of the source's reader.
+	 * Unchecked exceptions and errors of the reader are rethrown, by this and every later take of the source.
+	 */
+	@SuppressWarnings("unchecked")
+	private Tagged<T> take(int source) {
+		Object next;
+		try {
+			next = this.buffers.get(source).take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for source " + source, e);
+		}
+
+		if(next == END){
+			// keeps the end marker for later calls
+			this.buffers.get(source).offer(END);
+			return null;
+		}
+		if(next instanceof Failure){
+			// keeps the failure for later calls, as the source has no further elements
+			this.buffers.get(source).offer(next);
+			Throwable cause = ((Failure) next).cause;
+			if(cause instanceof RuntimeException){
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error){
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+		T value = (T) next;
+		return new Tagged<>(source, value, this.scanTime.applyAsDouble(value));
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(this.order == Order.ROUND_ROBIN){
+			return this.peekRoundRobin();
+		}
+
+		if(this.heads == null){
+			this.heads = new PriorityQueue<>((a, b) -> a.scanTime != b.scanTime
+					? Double.compare(a.scanTime, b.scanTime)
+					: Integer.compare(a.source, b.source));
+		}
+		// resumes at a failed source, so its failure is rethrown by later calls
+		for(; this.started < this.buffers.size(); this.started++){
+			Tagged<T> head = this.take(this.started);
+			if(head != null){
+				this.heads.add(head);
+			}
+		}
+		return !this.heads.isEmpty();
+	}
+
+	/** finds the next source of the turn with an element **/
+	private boolean peekRoundRobin() {
+		while(this.pending == null && !this.open.isEmpty()){
+			this.turn %= this.open.size();
+			this.pending = this.take(this.open.get(this.turn));
+			if(this.pending == null){
+				this.open.remove(this.turn);
+			} else {
+				this.turn++;
+			}
+		}
+		return this.pending != null;
+	}
+
+	@Override
+	public Tagged<T> next() {
+		if(!this.hasNext()){
+			throw new NoSuchElementException();
+		}
+
+		if(this.order == Order.ROUND_ROBIN){
+			Tagged<T> next = this.pending;
+			this.pending = null;
+			return next;
+		}
+
+		// the head is removed once its source is read, so a failure of the source is rethrown by later calls
+		Tagged<T> next = this.heads.peek();
+		Tagged<T> following = this.take(next.source);
+		this.heads.poll();
+		if(following != null){
+			this.heads.add(following);
+		}
+		return next;
+	}
+
+	/**
+	 * Stops the read ahead threads. Sources are not closed.
+	 */
+	@Override
+	public void close() {
+		this.readers.shutdownNow();
+	}
+
+	/** marks an exhausted source **/
+	private final static Object END = new Object();
+
+	/** elements buffered per source by default **/
+	public final static int DEFAULT_READ_AHEAD = 32;
+}
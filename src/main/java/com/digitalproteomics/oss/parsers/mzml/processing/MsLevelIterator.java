@@ -0,0 +1,57 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+
+/**
+ * Filters the spectra of an iterator by MS level, e.g. to pass only MS1 spectra to a {@code ParallelPipeline}.
+ * Spectra of other levels are skipped before their binary data is decoded.
+ */
+public class MsLevelIterator implements Iterator<EncodedSpectrum> {
+	private final Iterator<EncodedSpectrum> spectra;
+	private final int msLevel;
+	private EncodedSpectrum next;
+
+	public MsLevelIterator(Iterator<EncodedSpectrum> spectra, int msLevel) {
+		this.spectra = spectra;
+		this.msLevel = msLevel;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while(this.next == null && this.spectra.hasNext()){
+			EncodedSpectrum s = this.spectra.next();
+			if(s.getHeader().getMsLevel() == this.msLevel){
+				this.next = s;
+			}
+		}
+		return this.next != null;
+	}
+
+	@Override
+	public EncodedSpectrum next() {
+		if(!this.hasNext()){
+			throw new NoSuchElementException();
+		}
+		EncodedSpectrum s = this.next;
+		this.next = null;
+		return s;
+	}
+}
@@ -0,0 +1,93 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Maps elements read sequentially, e.g. spectra from a parser, on several threads, and passes the results
+ * to a sink in source order. The number of elements in flight is bounded, so memory does not grow with the file.
+ */
+public final class ParallelPipeline {
+
+	private ParallelPipeline() {
+	}
+
+	/**
+	 * Maps elements on {@code threads} threads. The source and the sink are used by the calling thread only.
+	 *
+	 * @param source elements, read by the calling thread
+	 * @param mapper applied on worker threads, must be thread safe
+	 * @param sink receives results in source order
+	 * @param threads number of worker threads, 1 maps on the calling thread
+	 * @throws IllegalStateException if the mapper threw a checked exception, unchecked exceptions are rethrown
+	 */
+	public static <E, R> void mapOrdered(Iterator<E> source,
+			Function<? super E, ? extends R> mapper,
+			Consumer<? super R> sink,
+			int threads) {
+		if(threads <= 1){
+			source.forEachRemaining(e -> sink.accept(mapper.apply(e)));
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<? extends R>> inFlight = new ArrayDeque<>();
+		try {
+			while(source.hasNext()){
+				E element = source.next();
+				inFlight.add(executor.submit(() -> mapper.apply(element)));
+				if(inFlight.size() >= threads * IN_FLIGHT_PER_THREAD){
+					sink.accept(take(inFlight));
+				}
+			}
+			while(!inFlight.isEmpty()){
+				sink.accept(take(inFlight));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** default number of worker threads **/
+	public static int defaultThreads() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	private static <R> R take(ArrayDeque<Future<? extends R>> inFlight) {
+		try {
+			return inFlight.poll().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a worker", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/** elements submitted per worker thread before the oldest result is awaited **/
+	final static int IN_FLIGHT_PER_THREAD = 4;
+}
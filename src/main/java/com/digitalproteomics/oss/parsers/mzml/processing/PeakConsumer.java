@@ -0,0 +1,38 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+/**
+ * Visitor receiving each peak of a spectrum once, straight from the decoded binary data.
+ * No {@code Spectrum}, {@code Peak}, or m/z and intensity arrays are created for a consumer.
+ *
+ * Peaks are passed in file order, between a call of {@code begin} and {@code end} for their spectrum.
+ */
+@FunctionalInterface
+public interface PeakConsumer {
+
+	/** called before the first peak of a spectrum **/
+	default void begin(SpectrumHeader header) {
+	}
+
+	void accept(double mz, double intensity);
+
+	/** called after the last peak of a spectrum **/
+	default void end(SpectrumHeader header) {
+	}
+}
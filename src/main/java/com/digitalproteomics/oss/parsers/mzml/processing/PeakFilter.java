@@ -0,0 +1,176 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DecodedValues;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+/**
+ * Selects peaks while decoding: an inclusive m/z window, a minimum intensity, and the N most intense peaks.
+ * Only surviving peaks are copied into the arrays of a spectrum, so discarded peaks never reach the heap.
+ *
+ * <pre>
+ * PeakFilter top150 = new PeakFilter().setMinIntensity(10).setTopN(150);
+ * </pre>
+ *
+ * The m/z window is found by binary search, and requires m/z arrays sorted in ascending order.
+ */
+public class PeakFilter {
+
+	private double minMz = Double.NEGATIVE_INFINITY;
+	private double maxMz = Double.POSITIVE_INFINITY;
+	private double minIntensity = Double.NEGATIVE_INFINITY;
+	private int topN = Integer.MAX_VALUE;
+
+	/** intensities of candidates for top N selection, reused by a thread **/
+	private final static ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[1024]);
+
+	/**
+	 * Keeps peaks within an inclusive m/z window
+	 */
+	public PeakFilter setMzWindow(double minMz, double maxMz) {
+		this.minMz = minMz;
+		this.maxMz = maxMz;
+		return this;
+	}
+
+	/**
+	 * Keeps peaks with an intensity of at least {@code minIntensity}
+	 */
+	public PeakFilter setMinIntensity(double minIntensity) {
+		this.minIntensity = minIntensity;
+		return this;
+	}
+
+	/**
+	 * Keeps the {@code topN} most intense peaks, in m/z order. Of peaks tied at the N-th intensity,
+	 * those of lower m/z are kept.
+	 */
+	public PeakFilter setTopN(int topN) {
+		this.topN = topN;
+		return this;
+	}
+
+	public double getMinMz() {
+		return minMz;
+	}
+
+	public double getMaxMz() {
+		return maxMz;
+	}
+
+	public double getMinIntensity() {
+		return minIntensity;
+	}
+
+	public int getTopN() {
+		return topN;
+	}
+
+	/**
+	 * Creates a spectrum of the surviving peaks
+	 *
+	 * @param mz decoded m/z values in ascending order
+	 * @param intensities decoded intensities paired with m/z
+	 */
+	public Spectrum apply(SpectrumHeader header, DecodedValues mz, DecodedValues intensities) {
+		int n = Math.min(mz.size(), intensities.size());
+		int from = SortedBounds.lowerBound(mz, 0, n, this.minMz);
+		int to = SortedBounds.upperBound(mz, from, n, this.maxMz);
+
+		int survivors = 0;
+		for(int i = from; i < to; i++){
+			if(intensities.get(i) >= this.minIntensity){
+				survivors++;
+			}
+		}
+
+		// with more survivors than N, only peaks above the N-th intensity and enough peaks at it are kept
+		double cutoff = this.minIntensity;
+		int atCutoff = Integer.MAX_VALUE;
+		if(this.topN <= 0){
+			survivors = 0;
+		} else if(survivors > this.topN){
+			double[] scratch = SCRATCH.get();
+			if(scratch.length < survivors){
+				scratch = new double[Math.max(survivors, scratch.length << 1)];
+				SCRATCH.set(scratch);
+			}
+			int k = 0;
+			for(int i = from; i < to; i++){
+				double intensity = intensities.get(i);
+				if(intensity >= this.minIntensity){
+					scratch[k++] = intensity;
+				}
+			}
+			// the N-th largest of k values is the (k - N)-th smallest
+			cutoff = select(scratch, 0, k - 1, k - this.topN);
+			int above = 0;
+			for(int i = 0; i < k; i++){
+				if(scratch[i] > cutoff){
+					above++;
+				}
+			}
+			atCutoff = this.topN - above;
+			survivors = this.topN;
+		}
+
+		double[] keptMz = new double[survivors];
+		double[] keptIntensities = new double[survivors];
+		int kept = 0;
+		for(int i = from; i < to && kept < survivors; i++){
+			double intensity = intensities.get(i);
+			if(intensity > cutoff || (intensity == cutoff && atCutoff-- > 0)){
+				keptMz[kept] = mz.get(i);
+				keptIntensities[kept++] = intensity;
+			}
+		}
+		return new Spectrum(header, keptMz, keptIntensities);
+	}
+
+	/**
+	 * Finds the k-th smallest value of {@code values[left, right]} by quickselect, partially reordering them
+	 */
+	static double select(double[] values, int left, int right, int k) {
+		while(left < right){
+			double pivot = values[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while(i <= j){
+				while(values[i] < pivot){
+					i++;
+				}
+				while(values[j] > pivot){
+					j--;
+				}
+				if(i <= j){
+					double t = values[i];
+					values[i++] = values[j];
+					values[j--] = t;
+				}
+			}
+			if(k <= j){
+				right = j;
+			} else if(k >= i){
+				left = i;
+			} else {
+				return values[k];
+			}
+		}
+		return values[k];
+	}
+}
@@ -0,0 +1,195 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+
+/**
+ * Tolerance aware matching of m/z values against the sorted primitive m/z array of a spectrum, e.g. for
+ * annotating theoretical fragment ions. Matching allocates only the returned match indices, or nothing when
+ * the caller provides them.
+ *
+ * <pre>
+ * int[] matched = new int[theoretical.length];
+ * int n = PeakMatcher.match(spectrum.getMzArray(), theoretical, PeakMatcher.Tolerance.ppm(10), matched);
+ * </pre>
+ *
+ * Observed m/z arrays must be sorted ascending, as written by most converters.
+ */
+public final class PeakMatcher {
+
+	private PeakMatcher() {
+	}
+
+	/**
+	 * Absolute (Da) or relative (ppm) m/z tolerance
+	 */
+	public static final class Tolerance {
+		private final double value;
+		private final boolean ppm;
+
+		private Tolerance(double value, boolean ppm) {
+			this.value = value;
+			this.ppm = ppm;
+		}
+
+		public static Tolerance da(double da) {
+			return new Tolerance(da, false);
+		}
+
+		public static Tolerance ppm(double ppm) {
+			return new Tolerance(ppm, true);
+		}
+
+		public double getValue() {
+			return this.value;
+		}
+
+		public boolean isPpm() {
+			return this.ppm;
+		}
+
+		/** half width of the window around an m/z **/
+		public double getWidth(double mz) {
+			return this.ppm ? mz * this.value * 1e-6 : this.value;
+		}
+	}
+
+	/**
+	 * Finds the peak closest to an m/z
+	 *
+	 * @return index of the closest peak, the lower on ties, or -1 if there are no peaks
+	 */
+	public static int nearest(double[] mz, double target) {
+		if(mz.length == 0){
+			return -1;
+		}
+		int i = SortedBounds.lowerBound(mz, 0, mz.length, target);
+		if(i == mz.length){
+			return i - 1;
+		}
+		if(i > 0 && target - mz[i - 1] <= mz[i] - target){
+			return i - 1;
+		}
+		return i;
+	}
+
+	/**
+	 * Finds the peak closest to an m/z, within a tolerance
+	 *
+	 * @return index of the closest peak, or -1 if no peak is within tolerance
+	 */
+	public static int nearest(double[] mz, double target, Tolerance tolerance) {
+		int i = nearest(mz, target);
+		return i > -1 && Math.abs(mz[i] - target) <= tolerance.getWidth(target) ? i : -1;
+	}
+
+	/**
+	 * Finds all peaks within a tolerance of an m/z. As peaks are sorted, they are the range
+	 * {@code [range[0], range[1])}.
+	 *
+	 * @param range receives the first index, and the index after the last
+	 * @return number of peaks within tolerance
+	 */
+	public static int within(double[] mz, double target, Tolerance tolerance, int[] range) {
+		double width = tolerance.getWidth(target);
+		range[0] = SortedBounds.lowerBound(mz, 0, mz.length, target - width);
+		range[1] = SortedBounds.upperBound(mz, range[0], mz.length, target + width);
+		return range[1] - range[0];
+	}
+
+	/**
+	 * Matches sorted m/z values, e.g. theoretical fragments, to their closest peaks within tolerance, by a merge
+	 * walk of both arrays. The walk is linear in both lengths, unless tolerance windows overlap many peaks.
+	 *
+	 * @param mz observed m/z, sorted ascending
+	 * @param targets m/z to match, sorted ascending
+	 * @param matches receives the index of the closest peak of each target, or -1 if none is within tolerance
+	 * @return number of matched targets
+	 */
+	public static int match(double[] mz, double[] targets, Tolerance tolerance, int[] matches) {
+		int matched = 0;
+		int j = 0;
+		for(int i = 0; i < targets.length; i++){
+			double target = targets[i];
+			double width = tolerance.getWidth(target);
+			// window bounds grow with the targets, so the walk never moves back
+			while(j < mz.length && mz[j] < target - width){
+				j++;
+			}
+
+			int best = -1;
+			double bestDelta = Double.POSITIVE_INFINITY;
+			for(int k = j; k < mz.length && mz[k] <= target + width; k++){
+				double delta = Math.abs(mz[k] - target);
+				if(delta < bestDelta){
+					best = k;
+					bestDelta = delta;
+				}
+			}
+			matches[i] = best;
+			if(best > -1){
+				matched++;
+			}
+		}
+		return matched;
+	}
+
+	/**
+	 * Matches sorted m/z values to their closest peaks within tolerance
+	 *
+	 * @return index of the closest peak of each target, or -1 if none is within tolerance
+	 */
+	public static int[] match(double[] mz, double[] targets, Tolerance tolerance) {
+		int[] matches = new int[targets.length];
+		match(mz, targets, tolerance, matches);
+		return matches;
+	}
+
+	/**
+	 * Matches one list of sorted m/z values against many spectra, in parallel
+	 *
+	 * @return matches of each spectrum (See {@code match(double[], double[], Tolerance)})
+	 */
+	public static int[][] match(List<Spectrum> spectra, double[] targets, Tolerance tolerance) {
+		int[][] matches = new int[spectra.size()][targets.length];
+		IntStream.range(0, spectra.size()).parallel()
+			.forEach(s -> match(spectra.get(s).getMzArray(), targets, tolerance, matches[s]));
+		return matches;
+	}
+
+	/**
+	 * Matches a list of sorted m/z values per spectrum, in parallel
+	 *
+	 * @param targets sorted m/z of each spectrum, by position
+	 * @return matches of each spectrum (See {@code match(double[], double[], Tolerance)})
+	 * @throws IllegalArgumentException if the lists have different sizes
+	 */
+	public static int[][] match(List<Spectrum> spectra, List<double[]> targets, Tolerance tolerance) {
+		if(spectra.size() != targets.size()){
+			throw new IllegalArgumentException("Cannot match " + targets.size() + " target lists to " + spectra.size() + " spectra");
+		}
+		int[][] matches = new int[spectra.size()][];
+		IntStream.range(0, spectra.size()).parallel().forEach(s -> {
+			matches[s] = new int[targets.get(s).length];
+			match(spectra.get(s).getMzArray(), targets.get(s), tolerance, matches[s]);
+		});
+		return matches;
+	}
+}
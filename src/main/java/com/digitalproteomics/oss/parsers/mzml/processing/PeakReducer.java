@@ -0,0 +1,37 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+/**
+ * Accumulates peaks of one spectrum into a fixed number of values, e.g. quantiles of intensities.
+ * Reducers are reset and reused for every spectrum, so steady state reduction does not allocate.
+ */
+public interface PeakReducer extends PeakConsumer {
+
+	/** clears the state of the previous spectrum **/
+	void reset();
+
+	/** number of values written by {@code write} **/
+	int size();
+
+	/**
+	 * Writes the reduced values of the current spectrum
+	 *
+	 * @param values destination
+	 * @param offset position of the first value
+	 */
+	void write(double[] values, int offset);
+}
@@ -0,0 +1,125 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+/**
+ * Common {@code PeakReducer} implementations
+ */
+public final class PeakReducers {
+
+	private PeakReducers() {
+	}
+
+	/**
+	 * Quantiles of intensities, estimated by a {@code QuantileSketch}
+	 *
+	 * @param relativeAccuracy of the sketch, e.g. 0.01
+	 * @param quantiles written in the given order, each within [0, 1]
+	 */
+	public static PeakReducer intensityQuantiles(double relativeAccuracy, double... quantiles) {
+		QuantileSketch sketch = new QuantileSketch(relativeAccuracy);
+		double[] qs = quantiles.clone();
+		return new PeakReducer() {
+			@Override
+			public void reset() {
+				sketch.reset();
+			}
+
+			@Override
+			public void accept(double mz, double intensity) {
+				sketch.add(intensity);
+			}
+
+			@Override
+			public int size() {
+				return qs.length;
+			}
+
+			@Override
+			public void write(double[] values, int offset) {
+				for(int i = 0; i < qs.length; i++){
+					values[offset + i] = sketch.getQuantile(qs[i]);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Summed intensity and peak count within an inclusive m/z window, e.g. of a reporter ion
+	 */
+	public static PeakReducer mzWindow(double low, double high) {
+		return new PeakReducer() {
+			private double sum;
+			private int count;
+
+			@Override
+			public void reset() {
+				this.sum = 0;
+				this.count = 0;
+			}
+
+			@Override
+			public void accept(double mz, double intensity) {
+				if(mz >= low && mz <= high){
+					this.sum += intensity;
+					this.count++;
+				}
+			}
+
+			@Override
+			public int size() {
+				return 2;
+			}
+
+			@Override
+			public void write(double[] values, int offset) {
+				values[offset] = this.sum;
+				values[offset + 1] = this.count;
+			}
+		};
+	}
+
+	/**
+	 * Number of peaks with an intensity of at least {@code threshold}
+	 */
+	public static PeakReducer countAbove(double threshold) {
+		return new PeakReducer() {
+			private int count;
+
+			@Override
+			public void reset() {
+				this.count = 0;
+			}
+
+			@Override
+			public void accept(double mz, double intensity) {
+				if(intensity >= threshold){
+					this.count++;
+				}
+			}
+
+			@Override
+			public int size() {
+				return 1;
+			}
+
+			@Override
+			public void write(double[] values, int offset) {
+				values[offset] = this.count;
+			}
+		};
+	}
+}
@@ -0,0 +1,138 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import java.util.Arrays;
+
+/**
+ * Quantile sketch with a relative accuracy guarantee. Positive values are counted in buckets whose bounds
+ * grow geometrically, so a quantile is within {@code relativeAccuracy} of the exact value while memory only
+ * depends on the range of magnitudes. Values of zero or less are counted as zero.
+ *
+ * Buckets are kept after {@code reset}, so reuse of a sketch does not allocate once its range is covered.
+ */
+public class QuantileSketch {
+
+	private final double relativeAccuracy;
+	private final double gamma;
+	private final double logGamma;
+
+	/** counts of buckets from {@code offset} **/
+	private int[] counts = new int[INITIAL_BUCKETS];
+	private int offset;
+	/** range of used buckets, empty if minIndex > maxIndex **/
+	private int minIndex = Integer.MAX_VALUE;
+	private int maxIndex = Integer.MIN_VALUE;
+
+	private long zeroCount;
+	private long count;
+
+	/**
+	 * @param relativeAccuracy e.g. 0.01 for quantiles within 1% of exact values
+	 * @throws IllegalArgumentException if the accuracy is not within (0, 1)
+	 */
+	public QuantileSketch(double relativeAccuracy) {
+		if(relativeAccuracy <= 0 || relativeAccuracy >= 1){
+			throw new IllegalArgumentException("Relative accuracy must be within (0, 1): " + relativeAccuracy);
+		}
+		this.relativeAccuracy = relativeAccuracy;
+		this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+		this.logGamma = Math.log(this.gamma);
+	}
+
+	public void add(double value) {
+		this.count++;
+		if(value <= 0 || Double.isNaN(value)){
+			this.zeroCount++;
+			return;
+		}
+
+		int index = (int) Math.ceil(Math.log(value) / this.logGamma);
+		if(this.minIndex > this.maxIndex){
+			if(index < this.offset || index >= this.offset + this.counts.length){
+				this.offset = index - this.counts.length / 2;
+			}
+		} else if(index < this.offset || index >= this.offset + this.counts.length){
+			this.grow(index);
+		}
+		this.counts[index - this.offset]++;
+		this.minIndex = Math.min(this.minIndex, index);
+		this.maxIndex = Math.max(this.maxIndex, index);
+	}
+
+	/**
+	 * Gets a quantile of the added values
+	 *
+	 * @param q within [0, 1]
+	 * @return estimate, 0 for values of zero or less, or NaN if no value was added
+	 */
+	public double getQuantile(double q) {
+		if(this.count == 0){
+			return Double.NaN;
+		}
+
+		long rank = (long) Math.floor(q * (this.count - 1));
+		if(rank < this.zeroCount){
+			return 0;
+		}
+		long seen = this.zeroCount;
+		for(int index = this.minIndex; index <= this.maxIndex; index++){
+			seen += this.counts[index - this.offset];
+			if(seen > rank){
+				return 2 * Math.pow(this.gamma, index) / (this.gamma + 1);
+			}
+		}
+		return 2 * Math.pow(this.gamma, this.maxIndex) / (this.gamma + 1);
+	}
+
+	public long getCount() {
+		return this.count;
+	}
+
+	public double getRelativeAccuracy() {
+		return this.relativeAccuracy;
+	}
+
+	/** clears counts, keeping buckets **/
+	public void reset() {
+		if(this.minIndex <= this.maxIndex){
+			Arrays.fill(this.counts, this.minIndex - this.offset, this.maxIndex - this.offset + 1, 0);
+		}
+		this.minIndex = Integer.MAX_VALUE;
+		this.maxIndex = Integer.MIN_VALUE;
+		this.zeroCount = 0;
+		this.count = 0;
+	}
+
+	/** widens buckets to cover an index and all used buckets **/
+	private void grow(int index) {
+		int low = Math.min(index, this.minIndex);
+		int high = Math.max(index, this.maxIndex);
+		int length = this.counts.length;
+		while(length <= high - low){
+			length <<= 1;
+		}
+		int offset = low - (length - (high - low + 1)) / 2;
+
+		int[] counts = new int[length];
+		System.arraycopy(this.counts, this.minIndex - this.offset, counts, this.minIndex - offset,
+				this.maxIndex - this.minIndex + 1);
+		this.counts = counts;
+		this.offset = offset;
+	}
+
+	final static int INITIAL_BUCKETS = 256;
+}
@@ -0,0 +1,80 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DecodedValues;
+
+/**
+ * Binary searches of ascending values, e.g. m/z of a spectrum's peaks. Searches are limited to the positions
+ * {@code [from, to)}, and return {@code to} when no value within it qualifies.
+ */
+final class SortedBounds {
+
+	private SortedBounds() {
+	}
+
+	/** first position within {@code [from, to)} with a value of at least low **/
+	static int lowerBound(double[] values, int from, int to, double low) {
+		while(from < to){
+			int mid = (from + to) >>> 1;
+			if(values[mid] < low){
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	/** first position within {@code [from, to)} with a value greater than high **/
+	static int upperBound(double[] values, int from, int to, double high) {
+		while(from < to){
+			int mid = (from + to) >>> 1;
+			if(values[mid] <= high){
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	/** first position within {@code [from, to)} with a value of at least low **/
+	static int lowerBound(DecodedValues values, int from, int to, double low) {
+		while(from < to){
+			int mid = (from + to) >>> 1;
+			if(values.get(mid) < low){
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	/** first position within {@code [from, to)} with a value greater than high **/
+	static int upperBound(DecodedValues values, int from, int to, double high) {
+		while(from < to){
+			int mid = (from + to) >>> 1;
+			if(values.get(mid) <= high){
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+}
@@ -0,0 +1,416 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+/**
+ * Scores spectra against each other as sparse binned vectors. Spectra are converted once into sorted bin and
+ * unit length intensity arrays, so a comparison is a merge walk over two primitive arrays, without boxing.
+ * Batches of comparisons are prefiltered by precursor m/z (the selected ion m/z of the header), and scored
+ * on a fork/join pool.
+ *
+ * <pre>
+ * SpectralSimilarity similarity = new SpectralSimilarity(0.02).setTransform(Transform.SQRT).setPrecursorTolerance(0.01);
+ * List&lt;SpectralSimilarity.Vector&gt; library = similarity.vectorize(libraryIterator, 4);
+ * List&lt;SpectralSimilarity.Vector&gt; queries = similarity.vectorize(queryIterator, 4);
+ * for(SpectralSimilarity.Match m : similarity.search(queries, library)){
+ * }
+ * </pre>
+ */
+public class SpectralSimilarity {
+
+	/** score of two unit length vectors **/
+	public enum Score {
+		/** dot product, from 0 to 1 **/
+		COSINE,
+		/** 1 - 2 * acos(cosine) / pi, from 0 to 1 **/
+		SPECTRAL_CONTRAST
+	}
+
+	/**
+	 * Sparse binned spectrum: bins in ascending order, and transformed intensities of euclidean length 1
+	 */
+	public static class Vector {
+		private final SpectrumHeader header;
+		private final int[] bins;
+		private final float[] values;
+
+		Vector(SpectrumHeader header, int[] bins, float[] values) {
+			this.header = header;
+			this.bins = bins;
+			this.values = values;
+		}
+
+		public SpectrumHeader getHeader() {
+			return this.header;
+		}
+
+		public int[] getBins() {
+			return this.bins;
+		}
+
+		public float[] getValues() {
+			return this.values;
+		}
+
+		/** number of non-empty bins **/
+		public int size() {
+			return this.bins.length;
+		}
+
+		double getPrecursorMz() {
+			return this.header == null ? Double.NaN : this.header.getSelectedIonMz();
+		}
+	}
+
+	/**
+	 * Scored pair of vectors, by position in the compared lists
+	 */
+	public static class Match {
+		private final int query;
+		private final int reference;
+		private final double score;
+
+		Match(int query, int reference, double score) {
+			this.query = query;
+			this.reference = reference;
+			this.score = score;
+		}
+
+		public int getQuery() {
+			return this.query;
+		}
+
+		public int getReference() {
+			return this.reference;
+		}
+
+		public double getScore() {
+			return this.score;
+		}
+	}
+
+	private final double binWidth;
+	private SpectrumBinner.Transform transform = SpectrumBinner.Transform.NONE;
+	private Score score = Score.COSINE;
+	private double precursorTolerance = Double.POSITIVE_INFINITY;
+	private double minScore = 0;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * @param binWidth width of a bin in m/z
+	 * @throws IllegalArgumentException if the width is not positive
+	 */
+	public SpectralSimilarity(double binWidth) {
+		if(!(binWidth > 0)){
+			throw new IllegalArgumentException("Cannot bin m/z by " + binWidth);
+		}
+		this.binWidth = binWidth;
+	}
+
+	/** transform of bin sums, applied before normalization, NONE by default **/
+	public SpectralSimilarity setTransform(SpectrumBinner.Transform transform) {
+		this.transform = transform;
+		return this;
+	}
+
+	/** COSINE by default **/
+	public SpectralSimilarity setScore(Score score) {
+		this.score = score;
+		return this;
+	}
+
+	/**
+	 * Compares only spectra with precursor m/z within a tolerance, in Da. Infinite by default, so all
+	 * spectra are compared. With a finite tolerance, spectra without a precursor m/z are not compared.
+	 */
+	public SpectralSimilarity setPrecursorTolerance(double precursorTolerance) {
+		this.precursorTolerance = precursorTolerance;
+		return this;
+	}
+
+	/** matches scoring below are left out of batch results, 0 by default, so only disjoint spectra are left out **/
+	public SpectralSimilarity setMinScore(double minScore) {
+		this.minScore = minScore;
+		return this;
+	}
+
+	/** pool scoring batches, the common pool by default **/
+	public SpectralSimilarity setPool(ForkJoinPool pool) {
+		this.pool = pool;
+		return this;
+	}
+
+	/**
+	 * Converts peaks into a vector. Peaks need not be sorted by m/z.
+	 */
+	public Vector vectorize(SpectrumHeader header, double[] mz, double[] intensities) {
+		int n = Math.min(mz.length, intensities.length);
+		int[] bins = new int[n];
+		double[] sums = new double[n];
+		int size = 0;
+
+		boolean sorted = true;
+		for(int i = 0; i < n; i++){
+			int bin = (int) Math.floor(mz[i] / this.binWidth);
+			sorted &= size == 0 || bin >= bins[size - 1];
+			if(size > 0 && bin == bins[size - 1]){
+				sums[size - 1] += intensities[i];
+			} else {
+				bins[size] = bin;
+				sums[size++] = intensities[i];
+			}
+		}
+
+		if(!sorted){
+			// sorts peak positions by bin, and merges bins again
+			long[] keyed = new long[size];
+			for(int i = 0; i < size; i++){
+				keyed[i] = ((long) bins[i] << 32) | i;
+			}
+			Arrays.sort(keyed);
+			double[] unsorted = Arrays.copyOf(sums, size);
+			int merged = 0;
+			for(int i = 0; i < size; i++){
+				int bin = (int) (keyed[i] >> 32);
+				double v = unsorted[(int) keyed[i]];
+				if(merged > 0 && bins[merged - 1] == bin){
+					sums[merged - 1] += v;
+				} else {
+					bins[merged] = bin;
+					sums[merged++] = v;
+				}
+			}
+			size = merged;
+		}
+
+		// keeps positive bins, transformed
+		int kept = 0;
+		double norm = 0;
+		for(int i = 0; i < size; i++){
+			if(sums[i] <= 0){
+				continue;
+			}
+			double v = sums[i];
+			switch(this.transform){
+				case SQRT:
+					v = Math.sqrt(v);
+					break;
+				case LOG1P:
+					v = Math.log1p(v);
+					break;
+				default:
+					break;
+			}
+			bins[kept] = bins[i];
+			sums[kept++] = v;
+			norm += v * v;
+		}
+
+		norm = Math.sqrt(norm);
+		float[] values = new float[kept];
+		for(int i = 0; i < kept; i++){
+			values[i] = (float) (sums[i] / norm);
+		}
+		return new Vector(header, Arrays.copyOf(bins, kept), values);
+	}
+
+	public Vector vectorize(Spectrum spectrum) {
+		return this.vectorize(spectrum.getHeader(), spectrum.getMzArray(), spectrum.getIntensityArray());
+	}
+
+	public Vector vectorize(EncodedSpectrum spectrum) {
+		return this.vectorize(spectrum.decode());
+	}
+
+	/**
+	 * Decodes and converts spectra on several threads
+	 *
+	 * @param spectra e.g. of a {@code MzMLStAXParser<EncodedSpectrum>}, filtered to the wanted ms level
+	 * @param threads number of threads decoding spectra
+	 * @return vectors in iteration order
+	 */
+	public List<Vector> vectorize(Iterator<EncodedSpectrum> spectra, int threads) {
+		List<Vector> vectors = new ArrayList<>();
+		ParallelPipeline.mapOrdered(spectra, this::vectorize, vectors::add, threads);
+		return vectors;
+	}
+
+	/**
+	 * Scores two vectors by a merge walk of their bins
+	 */
+	public double score(Vector a, Vector b) {
+		int[] ab = a.bins;
+		int[] bb = b.bins;
+		double dot = 0;
+		int i = 0;
+		int j = 0;
+		while(i < ab.length && j < bb.length){
+			if(ab[i] < bb[j]){
+				i++;
+			} else if(ab[i] > bb[j]){
+				j++;
+			} else {
+				dot += a.values[i++] * b.values[j++];
+			}
+		}
+		dot = Math.min(dot, 1);
+
+		if(this.score == Score.SPECTRAL_CONTRAST){
+			return 1 - 2 * Math.acos(dot) / Math.PI;
+		}
+		return dot;
+	}
+
+	/**
+	 * Scores every query against the references within the precursor tolerance
+	 *
+	 * @return matches scoring above the minimum score, ordered by query, and then by reference
+	 */
+	public List<Match> search(List<Vector> queries, List<Vector> references) {
+		Vector[] q = queries.toArray(new Vector[queries.size()]);
+		Vector[] r = references.toArray(new Vector[references.size()]);
+		PrecursorOrder order = new PrecursorOrder(r);
+		return this.pool.invoke(new Batch(q, r, order, 0, q.length, false));
+	}
+
+	/**
+	 * Scores every pair of vectors within the precursor tolerance, e.g. for clustering
+	 *
+	 * @return matches of positions {@code query < reference} scoring above the minimum score, ordered by query,
+	 * and then by reference
+	 */
+	public List<Match> pairs(List<Vector> vectors) {
+		Vector[] v = vectors.toArray(new Vector[vectors.size()]);
+		PrecursorOrder order = new PrecursorOrder(v);
+		return this.pool.invoke(new Batch(v, v, order, 0, v.length, true));
+	}
+
+	/**
+	 * References sorted by precursor m/z, for finding those within tolerance with a binary search
+	 */
+	private static class PrecursorOrder {
+		private final int[] positions;
+		private final double[] precursorMzs;
+
+		PrecursorOrder(Vector[] references) {
+			Integer[] sorted = new Integer[references.length];
+			for(int i = 0; i < sorted.length; i++){
+				sorted[i] = i;
+			}
+			// NaN precursors sort last
+			Arrays.sort(sorted, (a, b) -> Double.compare(references[a].getPrecursorMz(), references[b].getPrecursorMz()));
+
+			this.positions = new int[sorted.length];
+			this.precursorMzs = new double[sorted.length];
+			for(int i = 0; i < sorted.length; i++){
+				this.positions[i] = sorted[i];
+				this.precursorMzs[i] = references[sorted[i]].getPrecursorMz();
+			}
+		}
+	}
+
+	/**
+	 * Scores a range of queries, split in halves until small enough
+	 */
+	private class Batch extends RecursiveTask<List<Match>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Vector[] queries;
+		private final Vector[] references;
+		private final PrecursorOrder order;
+		private final int from;
+		private final int to;
+		/** compares only references after the query, for pairs of one list **/
+		private final boolean upper;
+
+		Batch(Vector[] queries, Vector[] references, PrecursorOrder order, int from, int to, boolean upper) {
+			this.queries = queries;
+			this.references = references;
+			this.order = order;
+			this.from = from;
+			this.to = to;
+			this.upper = upper;
+		}
+
+		@Override
+		protected List<Match> compute() {
+			if(this.to - this.from > QUERIES_PER_TASK){
+				int mid = (this.from + this.to) >>> 1;
+				Batch left = new Batch(this.queries, this.references, this.order, this.from, mid, this.upper);
+				left.fork();
+				List<Match> right = new Batch(this.queries, this.references, this.order, mid, this.to, this.upper).compute();
+				List<Match> matches = left.join();
+				matches.addAll(right);
+				return matches;
+			}
+
+			List<Match> matches = new ArrayList<>();
+			int[] candidates = new int[this.references.length];
+			for(int q = this.from; q < this.to; q++){
+				int n = this.candidates(q, candidates);
+				// references in list order
+				Arrays.sort(candidates, 0, n);
+				for(int i = 0; i < n; i++){
+					double s = SpectralSimilarity.this.score(this.queries[q], this.references[candidates[i]]);
+					if(s > 0 && s >= SpectralSimilarity.this.minScore){
+						matches.add(new Match(q, candidates[i], s));
+					}
+				}
+			}
+			return matches;
+		}
+
+		/** collects positions of references to compare with a query **/
+		private int candidates(int q, int[] candidates) {
+			int first = this.upper ? q + 1 : 0;
+			int n = 0;
+			double tolerance = SpectralSimilarity.this.precursorTolerance;
+			if(Double.isInfinite(tolerance)){
+				for(int r = first; r < this.references.length; r++){
+					candidates[n++] = r;
+				}
+				return n;
+			}
+
+			double mz = this.queries[q].getPrecursorMz();
+			if(Double.isNaN(mz)){
+				return 0;
+			}
+			double[] precursorMzs = this.order.precursorMzs;
+			double high = mz + tolerance;
+			for(int i = SortedBounds.lowerBound(precursorMzs, 0, precursorMzs.length, mz - tolerance); i < precursorMzs.length && precursorMzs[i] <= high; i++){
+				if(this.order.positions[i] >= first){
+					candidates[n++] = this.order.positions[i];
+				}
+			}
+			return n;
+		}
+	}
+
+	/** queries scored by one task **/
+	final static int QUERIES_PER_TASK = 16;
+}
@@ -0,0 +1,299 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DecodedValues;
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+/**
+ * Sums or averages spectra within retention time windows, e.g. adjacent MS1 scans to boost the signal of
+ * low abundance features. The sorted m/z arrays of a window are k-way merged, and merged peaks within a ppm
+ * tolerance of the first peak of a group are combined into one peak at their intensity weighted m/z.
+ *
+ * <pre>
+ * SpectrumAverager averager = new SpectrumAverager(5.0, 10).setMode(Mode.MEAN);
+ * Iterator&lt;Spectrum&gt; smoothed = averager.slide(ms1);
+ * </pre>
+ *
+ * Decoded arrays, merge buffers and the merge heap are reused as the window slides, so only the arrays of
+ * returned spectra are allocated. An averager is not thread safe.
+ *
+ * Spectra must have m/z arrays sorted ascending, as written by most converters.
+ */
+public class SpectrumAverager {
+
+	/** intensity of a combined peak **/
+	public enum Mode {
+		/** sum of the grouped intensities **/
+		SUM,
+		/** sum of the grouped intensities divided by the number of spectra in the window **/
+		MEAN
+	}
+
+	private final double rtHalfWidth;
+	private final double ppm;
+	private Mode mode = Mode.SUM;
+
+	/** decoded spectra no longer in a window, for reuse **/
+	private final ArrayDeque<Slot> free = new ArrayDeque<>();
+
+	/** merge buffers **/
+	private double[] mergedMz = new double[INITIAL_CAPACITY];
+	private double[] mergedIntensities = new double[INITIAL_CAPACITY];
+	private int[] heap = new int[INITIAL_CAPACITY];
+	private int[] cursors = new int[INITIAL_CAPACITY];
+
+	/**
+	 * @param rtHalfWidth spectra within this many seconds of a center spectrum are combined
+	 * @param ppm tolerance of grouped peaks, relative to the first peak of a group
+	 */
+	public SpectrumAverager(double rtHalfWidth, double ppm) {
+		this.rtHalfWidth = rtHalfWidth;
+		this.ppm = ppm;
+	}
+
+	/** SUM by default **/
+	public SpectrumAverager setMode(Mode mode) {
+		this.mode = mode;
+		return this;
+	}
+
+	/**
+	 * Decoded peaks of a spectrum, in buffers that are reused
+	 */
+	private static class Slot {
+		SpectrumHeader header;
+		double[] mz = new double[INITIAL_CAPACITY];
+		double[] intensities = new double[INITIAL_CAPACITY];
+		int size;
+	}
+
+	/**
+	 * Combines every spectrum with its neighbours within the retention time half width, in a window that slides
+	 * along the spectra. Spectra are read ahead only as far as the window reaches.
+	 *
+	 * @param spectra e.g. MS1 spectra of a {@code MzMLStAXParser<EncodedSpectrum>}, in retention time order
+	 * @return one combined spectrum per spectrum, with the header of the spectrum at the window's center
+	 */
+	public Iterator<Spectrum> slide(Iterator<EncodedSpectrum> spectra) {
+		return new Iterator<Spectrum>() {
+			/** spectra read and not yet behind the window **/
+			private final List<Slot> window = new ArrayList<>();
+			private int center;
+
+			@Override
+			public boolean hasNext() {
+				return this.center < this.window.size() || spectra.hasNext();
+			}
+
+			@Override
+			public Spectrum next() {
+				if(this.center == this.window.size()){
+					if(!spectra.hasNext()){
+						throw new NoSuchElementException();
+					}
+					this.window.add(SpectrumAverager.this.decode(spectra.next()));
+				}
+
+				double rt = this.window.get(this.center).header.getScanStartTime();
+				while(spectra.hasNext()
+						&& this.window.get(this.window.size() - 1).header.getScanStartTime() <= rt + SpectrumAverager.this.rtHalfWidth){
+					this.window.add(SpectrumAverager.this.decode(spectra.next()));
+				}
+				while(this.window.get(0).header.getScanStartTime() < rt - SpectrumAverager.this.rtHalfWidth){
+					SpectrumAverager.this.free.add(this.window.remove(0));
+					this.center--;
+				}
+
+				int to = this.center + 1;
+				while(to < this.window.size() && this.window.get(to).header.getScanStartTime() <= rt + SpectrumAverager.this.rtHalfWidth){
+					to++;
+				}
+				return SpectrumAverager.this.combine(this.window.get(this.center++).header, this.window.subList(0, to));
+			}
+		};
+	}
+
+	/**
+	 * Combines the spectra of a retention time range using random access
+	 *
+	 * @param parser parser with a scan time index (See {@code MzMLStAXParser})
+	 * @param msLevel of combined spectra
+	 * @return combined spectrum with the header of the middle spectrum of the range, or null if the range has
+	 * no spectra of the ms level
+	 * @throws IllegalStateException if the parser has no scan time index
+	 */
+	public Spectrum combine(MzMLStAXParser<EncodedSpectrum> parser, double rtLow, double rtHigh, int msLevel) {
+		List<Slot> slots = new ArrayList<>();
+		for(int index : parser.getSpectrumIndicesByScanTimeRange(rtLow, rtHigh)){
+			EncodedSpectrum s = parser.getSpectrumByIndex(index);
+			if(s != null && s.getHeader().getMsLevel() == msLevel){
+				slots.add(this.decode(s));
+			}
+		}
+		if(slots.isEmpty()){
+			return null;
+		}
+
+		Spectrum combined = this.combine(slots.get(slots.size() / 2).header, slots);
+		this.free.addAll(slots);
+		return combined;
+	}
+
+	/**
+	 * Decodes the m/z and intensity arrays into a reused slot
+	 */
+	private Slot decode(EncodedSpectrum spectrum) {
+		Slot slot = this.free.isEmpty() ? new Slot() : this.free.poll();
+		slot.header = spectrum.getHeader();
+		slot.size = 0;
+
+		DecodedValues mz = spectrum.getMzValues();
+		DecodedValues intensities = spectrum.getIntensityValues();
+		if(mz == null || intensities == null){
+			return slot;
+		}
+
+		int n = Math.min(mz.size(), intensities.size());
+		if(slot.mz.length < n){
+			slot.mz = new double[n];
+			slot.intensities = new double[n];
+		}
+		for(int i = 0; i < n; i++){
+			slot.mz[i] = mz.get(i);
+			slot.intensities[i] = intensities.get(i);
+		}
+		slot.size = n;
+		return slot;
+	}
+
+	/**
+	 * Merges the peaks of slots by m/z with a heap of slot cursors, and then groups them by ppm tolerance
+	 */
+	private Spectrum combine(SpectrumHeader header, List<Slot> slots) {
+		int k = slots.size();
+		int total = 0;
+		for(Slot s : slots){
+			total += s.size;
+		}
+		if(this.mergedMz.length < total){
+			int capacity = Math.max(total, this.mergedMz.length << 1);
+			this.mergedMz = new double[capacity];
+			this.mergedIntensities = new double[capacity];
+		}
+		if(this.heap.length < k){
+			this.heap = new int[Math.max(k, this.heap.length << 1)];
+			this.cursors = new int[this.heap.length];
+		}
+
+		// 1) k-way merge
+		int heapSize = 0;
+		for(int s = 0; s < k; s++){
+			this.cursors[s] = 0;
+			if(slots.get(s).size > 0){
+				this.heap[heapSize++] = s;
+				this.siftUp(slots, heapSize - 1);
+			}
+		}
+		int merged = 0;
+		while(heapSize > 0){
+			int s = this.heap[0];
+			Slot slot = slots.get(s);
+			this.mergedMz[merged] = slot.mz[this.cursors[s]];
+			this.mergedIntensities[merged++] = slot.intensities[this.cursors[s]++];
+			if(this.cursors[s] == slot.size){
+				this.heap[0] = this.heap[--heapSize];
+			}
+			this.siftDown(slots, heapSize);
+		}
+
+		// 2) groups peaks within tolerance of the first peak of a group, in place
+		int groups = 0;
+		double divisor = this.mode == Mode.MEAN ? k : 1;
+		for(int i = 0; i < merged; ){
+			double first = this.mergedMz[i];
+			double high = first + first * this.ppm * 1e-6;
+			double sum = 0;
+			double weighted = 0;
+			double plain = 0;
+			int j = i;
+			for(; j < merged && this.mergedMz[j] <= high; j++){
+				sum += this.mergedIntensities[j];
+				weighted += this.mergedMz[j] * this.mergedIntensities[j];
+				plain += this.mergedMz[j];
+			}
+			this.mergedMz[groups] = sum > 0 ? weighted / sum : plain / (j - i);
+			this.mergedIntensities[groups++] = sum / divisor;
+			i = j;
+		}
+
+		return new Spectrum(header, Arrays.copyOf(this.mergedMz, groups), Arrays.copyOf(this.mergedIntensities, groups));
+	}
+
+	/** m/z at the cursor of a slot in the heap **/
+	private double key(List<Slot> slots, int h) {
+		int s = this.heap[h];
+		return slots.get(s).mz[this.cursors[s]];
+	}
+
+	private void siftUp(List<Slot> slots, int h) {
+		while(h > 0){
+			int parent = (h - 1) >>> 1;
+			if(this.key(slots, parent) <= this.key(slots, h)){
+				return;
+			}
+			this.swap(parent, h);
+			h = parent;
+		}
+	}
+
+	private void siftDown(List<Slot> slots, int heapSize) {
+		int h = 0;
+		while(true){
+			int smallest = h;
+			int left = 2 * h + 1;
+			if(left < heapSize && this.key(slots, left) < this.key(slots, smallest)){
+				smallest = left;
+			}
+			if(left + 1 < heapSize && this.key(slots, left + 1) < this.key(slots, smallest)){
+				smallest = left + 1;
+			}
+			if(smallest == h){
+				return;
+			}
+			this.swap(h, smallest);
+			h = smallest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		int t = this.heap[a];
+		this.heap[a] = this.heap[b];
+		this.heap[b] = t;
+	}
+
+	final static int INITIAL_CAPACITY = 16;
+}
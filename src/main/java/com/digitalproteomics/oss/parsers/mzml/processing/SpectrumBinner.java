@@ -0,0 +1,211 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DataType;
+import com.digitalproteomics.oss.parsers.mzml.BinaryDataArray.DecodedValues;
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+/**
+ * Decodes spectra straight into fixed width binned intensity vectors, e.g. for model inference. Rows are
+ * written into a caller provided {@code float[]} or {@code FloatBuffer}, which may be direct, and the spectra
+ * of a batch are decoded and binned in parallel. No peak arrays are allocated.
+ *
+ * <pre>
+ * SpectrumBinner binner = new SpectrumBinner(100, 2000, 1.0005).setTransform(Transform.SQRT).setNormalization(Normalization.L2);
+ * FloatBuffer batch = ByteBuffer.allocateDirect(4 * 1024 * binner.getBinCount()).order(ByteOrder.nativeOrder()).asFloatBuffer();
+ * Iterator&lt;EncodedSpectrum&gt; ms2 = ...;
+ * for(List&lt;SpectrumHeader&gt; rows; !(rows = binner.fill(ms2, batch, 1024)).isEmpty(); ){
+ *     // rows.size() vectors of batch are filled
+ * }
+ * </pre>
+ *
+ * Bin {@code i} sums intensities of m/z within {@code [minMz + i * binWidth, minMz + (i + 1) * binWidth)}.
+ */
+public class SpectrumBinner {
+
+	/** transform of bin sums, applied before normalization **/
+	public enum Transform {
+		NONE,
+		SQRT,
+		/** natural logarithm of 1 + intensity **/
+		LOG1P
+	}
+
+	/** scaling of a binned vector **/
+	public enum Normalization {
+		NONE,
+		/** largest bin is 1 **/
+		MAX,
+		/** bins sum to 1 **/
+		SUM,
+		/** euclidean length of 1 **/
+		L2
+	}
+
+	private final double minMz;
+	private final double maxMz;
+	private final double binWidth;
+	private final int binCount;
+
+	private Transform transform = Transform.NONE;
+	private Normalization normalization = Normalization.NONE;
+
+	/**
+	 * @param minMz inclusive lower bound of the first bin
+	 * @param maxMz exclusive upper bound of binned m/z
+	 * @param binWidth width of a bin in m/z
+	 * @throws IllegalArgumentException if the range or width is not positive
+	 */
+	public SpectrumBinner(double minMz, double maxMz, double binWidth) {
+		if(!(maxMz > minMz) || !(binWidth > 0)){
+			throw new IllegalArgumentException("Cannot bin m/z range " + minMz + " to " + maxMz + " by " + binWidth);
+		}
+		this.minMz = minMz;
+		this.maxMz = maxMz;
+		this.binWidth = binWidth;
+		this.binCount = (int) Math.ceil((maxMz - minMz) / binWidth);
+	}
+
+	public SpectrumBinner setTransform(Transform transform) {
+		this.transform = transform;
+		return this;
+	}
+
+	public SpectrumBinner setNormalization(Normalization normalization) {
+		this.normalization = normalization;
+		return this;
+	}
+
+	/** length of a binned vector **/
+	public int getBinCount() {
+		return this.binCount;
+	}
+
+	/**
+	 * Fills rows of a batch with the next spectra of an iterator. Spectra are read on the calling thread, and
+	 * decoded and binned in parallel.
+	 *
+	 * @param spectra e.g. of a {@code MzMLStAXParser<EncodedSpectrum>}, filtered to the wanted ms level
+	 * @param batch rows of {@code getBinCount()} floats from the batch's position
+	 * @param rows maximum number of rows to fill
+	 * @return headers of the spectra of the filled rows, empty once the spectra are exhausted
+	 * @throws IllegalArgumentException if the batch has fewer than {@code rows} rows remaining
+	 */
+	public List<SpectrumHeader> fill(Iterator<EncodedSpectrum> spectra, FloatBuffer batch, int rows) {
+		if(batch.remaining() < (long) rows * this.binCount){
+			throw new IllegalArgumentException("Batch of " + batch.remaining() + " floats cannot hold "
+					+ rows + " rows of " + this.binCount + " bins");
+		}
+
+		List<EncodedSpectrum> read = new ArrayList<>(rows);
+		while(read.size() < rows && spectra.hasNext()){
+			read.add(spectra.next());
+		}
+
+		int position = batch.position();
+		IntStream.range(0, read.size()).parallel()
+			.forEach(i -> this.bin(read.get(i).getData(), batch, position + i * this.binCount));
+
+		List<SpectrumHeader> headers = new ArrayList<>(read.size());
+		for(EncodedSpectrum s : read){
+			headers.add(s.getHeader());
+		}
+		return headers;
+	}
+
+	/**
+	 * Fills rows of a {@code float[]} batch (See {@code fill(Iterator, FloatBuffer, int)}), starting at index 0
+	 */
+	public List<SpectrumHeader> fill(Iterator<EncodedSpectrum> spectra, float[] batch, int rows) {
+		return this.fill(spectra, FloatBuffer.wrap(batch), rows);
+	}
+
+	/**
+	 * Bins binary data arrays of a spectrum into one row
+	 *
+	 * @param data arrays of the spectrum, may be null
+	 * @param row destination, written with absolute puts
+	 * @param offset index of the row's first bin
+	 */
+	public void bin(List<BinaryDataArray> data, FloatBuffer row, int offset) {
+		for(int b = 0; b < this.binCount; b++){
+			row.put(offset + b, 0);
+		}
+
+		DecodedValues mz = BinaryDataArray.decodedValuesOf(data, DataType.MZ_VALUES);
+		DecodedValues intensities = BinaryDataArray.decodedValuesOf(data, DataType.INTENSITY);
+		if(mz == null || intensities == null){
+			return;
+		}
+
+		int n = Math.min(mz.size(), intensities.size());
+		for(int i = 0; i < n; i++){
+			double m = mz.get(i);
+			if(m >= this.minMz && m < this.maxMz){
+				int b = offset + Math.min((int) ((m - this.minMz) / this.binWidth), this.binCount - 1);
+				row.put(b, (float) (row.get(b) + intensities.get(i)));
+			}
+		}
+
+		double norm = 0;
+		for(int b = offset; b < offset + this.binCount; b++){
+			float v = row.get(b);
+			switch(this.transform){
+				case SQRT:
+					v = (float) Math.sqrt(Math.max(v, 0));
+					break;
+				case LOG1P:
+					v = (float) Math.log1p(Math.max(v, 0));
+					break;
+				default:
+					break;
+			}
+			row.put(b, v);
+
+			switch(this.normalization){
+				case MAX:
+					norm = Math.max(norm, v);
+					break;
+				case SUM:
+					norm += v;
+					break;
+				case L2:
+					norm += (double) v * v;
+					break;
+				default:
+					break;
+			}
+		}
+
+		if(this.normalization == Normalization.L2){
+			norm = Math.sqrt(norm);
+		}
+		if(this.normalization != Normalization.NONE && norm > 0){
+			for(int b = offset; b < offset + this.binCount; b++){
+				row.put(b, (float) (row.get(b) / norm));
+			}
+		}
+	}
+}
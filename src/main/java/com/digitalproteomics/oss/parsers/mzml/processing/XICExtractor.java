@@ -0,0 +1,321 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml.processing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLEncodedSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+
+/**
+ * Extracts ion chromatograms (XICs) of many targets from one pass over the MS1 spectra of a file.
+ *
+ * Targets are sorted by their lowest m/z once. Each MS1 spectrum is decoded on a worker thread, and swept
+ * against all targets: the start of a target's m/z range is found by a binary search that begins at the
+ * previous target's start, so a spectrum costs O(targets + peaks) rather than O(targets * peaks).
+ *
+ * <pre>
+ * XICExtractor extractor = new XICExtractor(targets);
+ * List&lt;XICExtractor.Trace&gt; traces = extractor.extract(xml);
+ * </pre>
+ *
+ * m/z arrays of spectra must be sorted in ascending order, as written by msconvert.
+ */
+public class XICExtractor {
+
+	/** targets in the order they were given **/
+	private final Target[] targets;
+	/** positions of targets sorted by lowest m/z **/
+	private final int[] order;
+	/** lowest and highest m/z of each target, in sorted order **/
+	private final double[] lows;
+	private final double[] highs;
+	/** retention time window of each target, in sorted order **/
+	private final double[] rtLows;
+	private final double[] rtHighs;
+
+	private int threads = ParallelPipeline.defaultThreads();
+
+	public XICExtractor(List<Target> targets) {
+		this.targets = targets.toArray(new Target[targets.size()]);
+		this.order = IntStream.range(0, this.targets.length)
+				.boxed()
+				.sorted(Comparator.comparingDouble(i -> this.targets[i].getLowMz()))
+				.mapToInt(Integer::intValue)
+				.toArray();
+
+		int n = this.order.length;
+		this.lows = new double[n];
+		this.highs = new double[n];
+		this.rtLows = new double[n];
+		this.rtHighs = new double[n];
+		for(int i = 0; i < n; i++){
+			Target t = this.targets[this.order[i]];
+			this.lows[i] = t.getLowMz();
+			this.highs[i] = t.getHighMz();
+			this.rtLows[i] = t.getRtLow();
+			this.rtHighs[i] = t.getRtHigh();
+		}
+	}
+
+	/**
+	 * Sets the number of threads decoding spectra, 1 decodes on the calling thread
+	 */
+	public XICExtractor setThreads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Extracts traces from a file, read sequentially
+	 *
+	 * @return a trace for each target, in the order targets were given
+	 * @throws IOException if the file cannot be read
+	 */
+	public List<Trace> extract(Path xml) throws IOException {
+		// checked before parsing, as the parser exits on a missing file
+		Files.size(xml);
+		try(MzMLStAXParser<EncodedSpectrum> parser = new MzMLStAXParser<>(xml, XMLEncodedSpectrumBuilder::new, false, false)){
+			return this.extract(parser.iterator());
+		}
+	}
+
+	/**
+	 * Extracts traces from spectra, e.g. of a {@code MzMLStAXParser<EncodedSpectrum>}. Spectra other than
+	 * MS1 are not decoded.
+	 *
+	 * @return a trace for each target, in the order targets were given
+	 */
+	public List<Trace> extract(Iterator<EncodedSpectrum> spectra) {
+		Accumulator acc = new Accumulator(this.targets.length);
+		Iterator<EncodedSpectrum> ms1 = new MsLevelIterator(spectra, 1);
+		ParallelPipeline.mapOrdered(ms1, this::sweep, acc::add, this.threads);
+
+		List<Trace> traces = new ArrayList<>(this.targets.length);
+		double[] times = Arrays.copyOf(acc.times, acc.scans);
+		for(int i = 0; i < this.targets.length; i++){
+			traces.add(new Trace(this.targets[i], times, acc.hitScans[i], acc.hitIntensities[i], acc.hitCounts[i]));
+		}
+		return traces;
+	}
+
+	/**
+	 * Sums intensities of each target within a spectrum
+	 *
+	 * @return non-zero sums by target
+	 */
+	Hits sweep(EncodedSpectrum encoded) {
+		Spectrum s = encoded.decode();
+		double rt = s.getHeader().getScanStartTime();
+		double[] mz = s.getMzArray();
+		double[] intensities = s.getIntensityArray();
+
+		Hits hits = new Hits(rt);
+		int from = 0;
+		for(int i = 0; i < this.lows.length && from < mz.length; i++){
+			if(rt < this.rtLows[i] || rt > this.rtHighs[i]){
+				continue;
+			}
+			from = SortedBounds.lowerBound(mz, from, mz.length, this.lows[i]);
+
+			double sum = 0;
+			for(int j = from; j < mz.length && mz[j] <= this.highs[i]; j++){
+				sum += intensities[j];
+			}
+			if(sum > 0){
+				hits.add(this.order[i], sum);
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * m/z with a ppm tolerance, and an optional retention time window in units of
+	 * {@code SpectrumHeader.getScanStartTime}
+	 */
+	public static class Target {
+		private final double mz;
+		private final double ppm;
+		private final double rtLow;
+		private final double rtHigh;
+
+		public Target(double mz, double ppm) {
+			this(mz, ppm, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		}
+
+		public Target(double mz, double ppm, double rtLow, double rtHigh) {
+			this.mz = mz;
+			this.ppm = ppm;
+			this.rtLow = rtLow;
+			this.rtHigh = rtHigh;
+		}
+
+		public double getMz() {
+			return mz;
+		}
+
+		public double getPpm() {
+			return ppm;
+		}
+
+		public double getRtLow() {
+			return rtLow;
+		}
+
+		public double getRtHigh() {
+			return rtHigh;
+		}
+
+		public double getLowMz() {
+			return this.mz - this.mz * this.ppm * 1e-6;
+		}
+
+		public double getHighMz() {
+			return this.mz + this.mz * this.ppm * 1e-6;
+		}
+	}
+
+	/**
+	 * Intensities of a target over the MS1 spectra within its retention time window. Only non-zero
+	 * intensities are stored, and the dense arrays are built on request.
+	 */
+	public static class Trace {
+		private final Target target;
+		/** scan start times of all MS1 spectra, shared by traces **/
+		private final double[] scanTimes;
+		/** ordinals of MS1 spectra with a non-zero intensity **/
+		private final int[] scans;
+		private final double[] intensities;
+
+		Trace(Target target, double[] scanTimes, int[] scans, double[] intensities, int size) {
+			this.target = target;
+			this.scanTimes = scanTimes;
+			this.scans = scans == null ? new int[0] : Arrays.copyOf(scans, size);
+			this.intensities = intensities == null ? new double[0] : Arrays.copyOf(intensities, size);
+		}
+
+		public Target getTarget() {
+			return target;
+		}
+
+		/**
+		 * @return scan start times of MS1 spectra within the target's retention time window
+		 */
+		public double[] getTimes() {
+			int[] range = this.range();
+			return Arrays.copyOfRange(this.scanTimes, range[0], range[1]);
+		}
+
+		/**
+		 * @return intensities aligned with {@code getTimes}, 0 where no peak matched
+		 */
+		public double[] getIntensities() {
+			int[] range = this.range();
+			double[] dense = new double[range[1] - range[0]];
+			for(int i = 0; i < this.scans.length; i++){
+				dense[this.scans[i] - range[0]] = this.intensities[i];
+			}
+			return dense;
+		}
+
+		/** number of MS1 spectra with a non-zero intensity **/
+		public int getNonZeroCount() {
+			return this.scans.length;
+		}
+
+		/** positions of MS1 spectra within the retention time window, assuming ascending scan times **/
+		private int[] range() {
+			int from = SortedBounds.lowerBound(this.scanTimes, 0, this.scanTimes.length, this.target.getRtLow());
+			int to = from;
+			while(to < this.scanTimes.length && this.scanTimes[to] <= this.target.getRtHigh()){
+				to++;
+			}
+			return new int[]{from, to};
+		}
+	}
+
+	/** non-zero sums of targets in one spectrum **/
+	static class Hits {
+		final double rt;
+		int[] targets = new int[INITIAL_CAPACITY];
+		double[] intensities = new double[INITIAL_CAPACITY];
+		int size;
+
+		Hits(double rt) {
+			this.rt = rt;
+		}
+
+		void add(int target, double intensity) {
+			if(this.size == this.targets.length){
+				this.targets = Arrays.copyOf(this.targets, this.size << 1);
+				this.intensities = Arrays.copyOf(this.intensities, this.size << 1);
+			}
+			this.targets[this.size] = target;
+			this.intensities[this.size++] = intensity;
+		}
+	}
+
+	/** appends hits of spectra, in file order, to primitive per target arrays **/
+	private static class Accumulator {
+		double[] times = new double[INITIAL_CAPACITY];
+		int scans;
+		final int[][] hitScans;
+		final double[][] hitIntensities;
+		final int[] hitCounts;
+
+		Accumulator(int targets) {
+			this.hitScans = new int[targets][];
+			this.hitIntensities = new double[targets][];
+			this.hitCounts = new int[targets];
+		}
+
+		void add(Hits hits) {
+			if(this.scans == this.times.length){
+				this.times = Arrays.copyOf(this.times, this.scans << 1);
+			}
+			this.times[this.scans] = hits.rt;
+
+			for(int i = 0; i < hits.size; i++){
+				int t = hits.targets[i];
+				int n = this.hitCounts[t];
+				if(this.hitScans[t] == null){
+					this.hitScans[t] = new int[INITIAL_CAPACITY];
+					this.hitIntensities[t] = new double[INITIAL_CAPACITY];
+				} else if(n == this.hitScans[t].length){
+					this.hitScans[t] = Arrays.copyOf(this.hitScans[t], n << 1);
+					this.hitIntensities[t] = Arrays.copyOf(this.hitIntensities[t], n << 1);
+				}
+				this.hitScans[t][n] = this.scans;
+				this.hitIntensities[t][n] = hits.intensities[i];
+				this.hitCounts[t]++;
+			}
+			this.scans++;
+		}
+	}
+
+	/** initial capacity of growing primitive arrays **/
+	final static int INITIAL_CAPACITY = 16;
+}
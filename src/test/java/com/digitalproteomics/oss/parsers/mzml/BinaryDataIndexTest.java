@@ -0,0 +1,76 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+
+public class BinaryDataIndexTest extends TestCase {
+
+	private void checkPeaks(MzMLStAXParser<Spectrum> p, int count) {
+		for(int i = 0; i < count; i++){
+			Spectrum parsed = p.getSpectrumByIndex(i);
+			Spectrum peaks = p.getPeaksByIndex(i);
+
+			assertNotNull(peaks);
+			assertEquals(parsed.getHeader().getId(), peaks.getHeader().getId());
+			assertTrue(Arrays.equals(parsed.getMzArray(), peaks.getMzArray()));
+			assertTrue(Arrays.equals(parsed.getIntensityArray(), peaks.getIntensityArray()));
+		}
+	}
+
+	@Test
+	public void testPeaksByIndexCompressed() throws IOException, URISyntaxException {
+		MzMLStAXParser<Spectrum> p = new MzMLStAXParser<Spectrum>(TestResources.path("small_zlib.pwiz.1.1.mzML"),
+				XMLSpectrumBuilder::new);
+
+		assertTrue(p.loadBinaryDataIndex());
+		checkPeaks(p, 48);
+		p.close();
+	}
+
+	@Test
+	public void testPersistedIndex() throws IOException, URISyntaxException {
+		Path index = Files.createTempFile("tiny", ".bdi");
+		Files.delete(index);
+
+		MzMLStAXParser<Spectrum> p = new MzMLStAXParser<Spectrum>(TestResources.path("tiny.pwiz.1.1.mzML"),
+				XMLSpectrumBuilder::new);
+		assertTrue(p.loadBinaryDataIndex(index));
+		assertTrue(Files.exists(index));
+		p.close();
+
+		p = new MzMLStAXParser<Spectrum>(TestResources.path("tiny.pwiz.1.1.mzML"), XMLSpectrumBuilder::new);
+		assertTrue(p.loadBinaryDataIndex(index));
+		checkPeaks(p, 4);
+
+		// spectrum without data
+		assertEquals(0, p.getPeaksByIndex(2).size());
+		p.close();
+
+		Files.delete(index);
+	}
+}
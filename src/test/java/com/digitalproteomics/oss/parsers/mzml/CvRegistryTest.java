@@ -0,0 +1,87 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
+import com.digitalproteomics.oss.parsers.mzml.cv.CvRegistry;
+import com.digitalproteomics.oss.parsers.mzml.cv.CvTerms;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+public class CvRegistryTest extends TestCase {
+
+	@Test
+	public void testCodes() {
+		assertEquals(CvTerms.MS_LEVEL, CvTerms.code("MS:1000511"));
+		assertEquals(CvTerms.UO_MINUTE, CvTerms.code("UO:0000031"));
+		assertEquals(CvTerms.UNKNOWN, CvTerms.code(null));
+		assertEquals(CvTerms.UNKNOWN, CvTerms.code("MS:10x0511"));
+		assertEquals(CvTerms.UNKNOWN, CvTerms.code("PEFF:0000001"));
+		assertEquals("MS:1000511", CvTerms.accession(CvTerms.MS_LEVEL));
+		assertEquals("UO:0000031", CvTerms.accession(CvTerms.UO_MINUTE));
+	}
+
+	@Test
+	public void testRegistry() {
+		CvRegistry cv = CvRegistry.getInstance();
+
+		assertTrue(cv.size() > 2000);
+		assertEquals("ms level", cv.getName(CvTerms.MS_LEVEL));
+		assertEquals(CvTerms.MS_LEVEL, cv.getCode(cv.getId("MS:1000511")));
+		assertEquals(-1, cv.getId(CvTerms.UO_MINUTE));
+
+		assertTrue(cv.isA(CvTerms.POSITIVE_SCAN, CvTerms.SCAN_POLARITY));
+		assertTrue(cv.isA(CvTerms.ZLIB_COMPRESSION, CvTerms.code("MS:1000572")));
+		assertFalse(cv.isA(CvTerms.SCAN_POLARITY, CvTerms.POSITIVE_SCAN));
+		assertEquals(CvTerms.SCAN_POLARITY, cv.getParents(CvTerms.NEGATIVE_SCAN)[0]);
+
+		int[] units = cv.getUnits(CvTerms.SCAN_START_TIME);
+		assertEquals(2, units.length);
+	}
+
+	@Test
+	public void testConversionFactor() {
+		assertEquals(60.0, CvRegistry.getConversionFactor("UO:0000031"));
+		assertEquals(1.0, CvRegistry.getConversionFactor("UO:0000010"));
+		assertEquals(1.0, CvRegistry.getConversionFactor((String) null));
+		assertEquals(1e-3, CvRegistry.getConversionFactor(CvTerms.UO_MILLISECOND));
+	}
+
+	@Test
+	public void testHeaderTerms() throws IOException, URISyntaxException {
+		Path xml = Paths.get(this.getClass().getClassLoader().getResource("tiny.pwiz.1.1.mzML").toURI());
+		MzMLStAXParser<SpectrumHeader> p = new MzMLStAXParser<SpectrumHeader>(xml, XMLSpectrumHeaderBuilder::new);
+
+		SpectrumHeader h = p.getSpectrumByIndex(0);
+		// polarity is set from a referenceable param group
+		assertEquals(SpectrumHeader.Polarity.POSITIVE, h.getPolarity());
+		assertEquals(445.347, h.getBasePeakMz(), 1e-9);
+		assertEquals(16675500.0, h.getTotalIonCurrent());
+		assertEquals(5.8905 * 60.0, h.getScanStartTime(), 1e-9);
+
+		h = p.getSpectrumByIndex(3);
+		assertEquals(42.05, h.getScanStartTime(), 1e-9);
+		p.close();
+	}
+}
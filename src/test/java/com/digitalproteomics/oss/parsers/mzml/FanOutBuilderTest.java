@@ -0,0 +1,130 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.FanOutBuilderFactory;
+import com.digitalproteomics.oss.parsers.mzml.builders.FanOutBuilderFactory.Slot;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLStreamProjection;
+import com.digitalproteomics.oss.parsers.mzml.cv.CvTerms;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+public class FanOutBuilderTest extends TestCase {
+
+	@Test
+	public void testSinglePass() throws IOException, URISyntaxException {
+		Path xml = TestResources.path("small_zlib.pwiz.1.1.mzML");
+
+		FanOutBuilderFactory fanOut = new FanOutBuilderFactory();
+		Slot<SpectrumHeader> headers = fanOut.add(XMLSpectrumHeaderBuilder::new);
+		Slot<Spectrum> spectra = fanOut.add(XMLSpectrumBuilder::new);
+		List<Spectrum> sunk = new ArrayList<>();
+		Slot<Spectrum> sinked = fanOut.add(XMLSpectrumBuilder::new, sunk::add);
+
+		MzMLStAXParser<FanOutBuilderFactory.Result> p = new MzMLStAXParser<>(xml, fanOut);
+		MzMLStAXParser<Spectrum> single = new MzMLStAXParser<Spectrum>(xml, XMLSpectrumBuilder::new);
+
+		int i = 0;
+		for(FanOutBuilderFactory.Result r : p){
+			assertEquals(3, r.size());
+			Spectrum expected = single.getSpectrumByIndex(i);
+			SpectrumHeader h = r.get(headers);
+			Spectrum s = r.get(spectra);
+
+			assertEquals(expected.getHeader().getId(), h.getId());
+			assertEquals(expected.getHeader().getScanStartTime(), h.getScanStartTime());
+			assertEquals(expected.getHeader().getMsLevel(), s.getHeader().getMsLevel());
+			assertTrue(Arrays.equals(expected.getMzArray(), s.getMzArray()));
+			assertTrue(Arrays.equals(expected.getIntensityArray(), s.getIntensityArray()));
+
+			// binary data is decoded once, and shared
+			assertSame(s.getMzArray(), r.get(sinked).getMzArray());
+			assertSame(r.get(sinked), sunk.get(i));
+			i++;
+		}
+		assertEquals(48, i);
+
+		// random access drives all builders too
+		FanOutBuilderFactory.Result r = p.getSpectrumByIndex(3);
+		assertEquals(single.getSpectrumByIndex(3).getHeader().getId(), r.get(headers).getId());
+		assertEquals(49, sunk.size());
+
+		p.close();
+		single.close();
+	}
+
+	@Test
+	public void testForeignSlot() throws IOException, URISyntaxException {
+		FanOutBuilderFactory fanOut = new FanOutBuilderFactory();
+		fanOut.add(XMLSpectrumHeaderBuilder::new);
+		Slot<SpectrumHeader> foreign = new FanOutBuilderFactory().add(XMLSpectrumHeaderBuilder::new);
+
+		MzMLStAXParser<FanOutBuilderFactory.Result> p = new MzMLStAXParser<>(TestResources.path("tiny.pwiz.1.1.mzML"), fanOut);
+		try {
+			p.getSpectrumByIndex(0).get(foreign);
+			fail("Foreign slot was accepted");
+		} catch (IllegalArgumentException e) {
+		}
+		p.close();
+	}
+
+	private int countScanTimes(List<String> events) {
+		return Collections.frequency(events, "<cvParam MS:1000016");
+	}
+
+	@Test
+	public void testMixedSkips() throws IOException, URISyntaxException {
+		Path xml = TestResources.path("tiny.pwiz.1.1.mzML");
+		int[] scanTime = new int[]{CvTerms.SCAN_START_TIME};
+		XMLStreamProjection skipping = new XMLStreamProjection(Arrays.asList("cvParam"), Arrays.asList("scan"), scanTime, false);
+		XMLStreamProjection keeping = new XMLStreamProjection(Arrays.asList("cvParam"), null, scanTime, false);
+
+		int alone = 0;
+		MzMLStAXParser<List<String>> single = new MzMLStAXParser<>(xml, (f, xr) -> new XMLStreamProjectionTest.EventBuilder(skipping));
+		for(List<String> events : single){
+			alone += this.countScanTimes(events);
+		}
+		single.close();
+		assertEquals(0, alone);
+
+		FanOutBuilderFactory fanOut = new FanOutBuilderFactory();
+		Slot<List<String>> skipped = fanOut.add((f, xr) -> new XMLStreamProjectionTest.EventBuilder(skipping));
+		Slot<List<String>> kept = fanOut.add((f, xr) -> new XMLStreamProjectionTest.EventBuilder(keeping));
+		MzMLStAXParser<FanOutBuilderFactory.Result> p = new MzMLStAXParser<>(xml, fanOut);
+		int seen = 0;
+		for(FanOutBuilderFactory.Result r : p){
+			// the subtree skipped by one builder is withheld from it, though the other builder needs it
+			assertEquals(0, this.countScanTimes(r.get(skipped)));
+			seen += this.countScanTimes(r.get(kept));
+		}
+		p.close();
+		assertEquals(3, seen);
+	}
+}
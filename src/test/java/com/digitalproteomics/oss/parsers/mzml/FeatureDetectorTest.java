@@ -0,0 +1,141 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+import com.digitalproteomics.oss.parsers.mzml.processing.FeatureDetector;
+
+public class FeatureDetectorTest extends TestCase {
+
+	/** monoisotopic m/z, charge, and apex scan of the simulated features **/
+	final static double[][] FEATURES = {
+		{500.25, 2, 20},
+		{749.6, 1, 30},
+		{800.4, 1, 50}
+	};
+	final static double[] ISOTOPE_RATIOS = {1.0, 0.8, 0.4};
+
+	private BinaryDataArray encode(BinaryDataArray.DataType type, double[] values) {
+		ByteBuffer bb = ByteBuffer.allocate(8 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+		for(double v : values){
+			bb.putDouble(v);
+		}
+		BinaryDataArray arr = new BinaryDataArray(type, BinaryDataArray.Precision.FLOAT64BIT, BinaryDataArray.Compression.NONE);
+		arr.setEncodedData(Base64.getEncoder().encode(bb.array()));
+		return arr;
+	}
+
+	/** MS1 scans of one second, with gaussian elution profiles of the features, noise peaks and MS2 scans **/
+	private List<EncodedSpectrum> simulate() {
+		Random random = new Random(7);
+		List<EncodedSpectrum> spectra = new ArrayList<>();
+		for(int scan = 0; scan < 80; scan++){
+			List<double[]> peaks = new ArrayList<>();
+			for(double[] f : FEATURES){
+				double profile = Math.exp(-Math.pow(scan - f[2], 2) / (2 * 4 * 4));
+				if(profile < 0.01){
+					continue;
+				}
+				for(int k = 0; k < ISOTOPE_RATIOS.length; k++){
+					peaks.add(new double[]{f[0] + k * 1.00335 / f[1] + 1e-6 * random.nextGaussian(),
+							1e5 * profile * ISOTOPE_RATIOS[k]});
+				}
+			}
+			for(int n = 0; n < 20; n++){
+				peaks.add(new double[]{100 + 2800 * random.nextDouble(), 1000 * random.nextDouble()});
+			}
+			peaks.sort((a, b) -> Double.compare(a[0], b[0]));
+
+			double[] mz = new double[peaks.size()];
+			double[] intensities = new double[peaks.size()];
+			for(int i = 0; i < mz.length; i++){
+				mz[i] = peaks.get(i)[0];
+				intensities[i] = peaks.get(i)[1];
+			}
+
+			SpectrumHeader header = new SpectrumHeader("simulated", spectra.size(), "scan=" + scan);
+			header.setMsLevel(1);
+			header.setScanStartTime(scan);
+			spectra.add(new EncodedSpectrum(header, Arrays.asList(
+					this.encode(BinaryDataArray.DataType.MZ_VALUES, mz),
+					this.encode(BinaryDataArray.DataType.INTENSITY, intensities))));
+
+			SpectrumHeader ms2 = new SpectrumHeader("simulated", spectra.size(), "scan=" + scan + ".2");
+			ms2.setMsLevel(2);
+			ms2.setScanStartTime(scan + 0.5);
+			spectra.add(new EncodedSpectrum(ms2, Arrays.asList(
+					this.encode(BinaryDataArray.DataType.MZ_VALUES, new double[]{500.25}),
+					this.encode(BinaryDataArray.DataType.INTENSITY, new double[]{1e6}))));
+		}
+		return spectra;
+	}
+
+	@Test
+	public void testSimulatedFeatures() {
+		List<EncodedSpectrum> spectra = this.simulate();
+		for(int threads : new int[]{1, 2, 3}){
+			// with 2 threads, 749.6 and its isotopes cross the slice boundary at 750
+			List<FeatureDetector.Feature> features = new FeatureDetector()
+					.setPpm(10)
+					.setMinTracePoints(5)
+					.setThreads(threads)
+					.detect(spectra.iterator());
+			assertEquals("threads " + threads, FEATURES.length, features.size());
+
+			for(int i = 0; i < FEATURES.length; i++){
+				FeatureDetector.Feature f = features.get(i);
+				assertEquals(FEATURES[i][0], f.getMz(), FEATURES[i][0] * 5e-6);
+				assertEquals((int) FEATURES[i][1], f.getCharge());
+				assertEquals(FEATURES[i][2], f.getApexRt(), 1e-9);
+				assertEquals(ISOTOPE_RATIOS.length, f.getIsotopeCount());
+				assertTrue(f.getRtStart() < f.getApexRt() && f.getApexRt() < f.getRtEnd());
+				// gaussian area of sigma 4, summed over isotopes
+				double expectedArea = 1e5 * 4 * Math.sqrt(2 * Math.PI) * (1.0 + 0.8 + 0.4);
+				assertEquals(expectedArea, f.getArea(), 0.05 * expectedArea);
+			}
+		}
+	}
+
+	@Test
+	public void testFile() throws URISyntaxException, IOException {
+		List<FeatureDetector.Feature> features = new FeatureDetector().setThreads(2).setMinTracePoints(2)
+				.detect(TestResources.path("small_zlib.pwiz.1.1.mzML"));
+		for(int i = 0; i < features.size(); i++){
+			FeatureDetector.Feature f = features.get(i);
+			assertTrue(f.getCharge() >= 1 && f.getCharge() <= 4);
+			assertTrue(f.getIsotopeCount() >= 2);
+			assertTrue(f.getArea() >= 0);
+			if(i > 0){
+				assertTrue(features.get(i - 1).getApexRt() <= f.getApexRt());
+			}
+		}
+	}
+}
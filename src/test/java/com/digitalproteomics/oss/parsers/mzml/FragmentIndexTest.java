@@ -0,0 +1,135 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.index.FragmentIndex;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+
+public class FragmentIndexTest extends TestCase {
+
+	private List<Spectrum> readMs2(Path xml) throws IOException {
+		List<Spectrum> spectra = new ArrayList<>();
+		try(MzMLStAXParser<Spectrum> parser = new MzMLStAXParser<>(xml, XMLSpectrumBuilder::new)){
+			for(Spectrum s : parser){
+				if(s.getHeader().getMsLevel() == 2){
+					spectra.add(s);
+				}
+			}
+		}
+		return spectra;
+	}
+
+	/** counts query fragments with a positive peak in a bin of the tolerance window **/
+	private int bruteForceShared(Spectrum s, double[] query, double tolerance, double binWidth) {
+		int shared = 0;
+		for(double q : query){
+			long from = (long) Math.floor((q - tolerance) / binWidth);
+			long to = (long) Math.floor((q + tolerance) / binWidth);
+			for(int i = 0; i < s.size(); i++){
+				long bin = (long) Math.floor(s.getMzArray()[i] / binWidth);
+				if(s.getIntensityArray()[i] > 0 && bin >= from && bin <= to){
+					shared++;
+					break;
+				}
+			}
+		}
+		return shared;
+	}
+
+	@Test
+	public void testQueryMatchesBruteForce() throws URISyntaxException, IOException {
+		Path xml = TestResources.path("lipid.mzML");
+		double binWidth = 0.01;
+		double tolerance = 0.02;
+
+		List<Spectrum> spectra = this.readMs2(xml);
+		assertTrue(spectra.size() > 1);
+		FragmentIndex index = FragmentIndex.build(xml, binWidth);
+		assertEquals(spectra.size(), index.getSpectrumCount());
+
+		for(int k = 0; k < spectra.size(); k++){
+			Spectrum s = spectra.get(k);
+			assertEquals(s.getHeader().getId(), index.getSpectrumId(k));
+			assertEquals(s.getHeader().getIndex(), index.getSpectrumIndex(k));
+			if(s.size() == 0){
+				continue;
+			}
+
+			// queries the first peaks of the spectrum, and an m/z without peaks
+			int n = Math.min(5, s.size());
+			double[] query = new double[n + 1];
+			System.arraycopy(s.getMzArray(), 0, query, 0, n);
+			query[n] = 1e6;
+
+			FragmentIndex.Candidates candidates = index.query(query, tolerance, 1);
+			int found = 0;
+			for(int j = 0; j < spectra.size(); j++){
+				if(this.bruteForceShared(spectra.get(j), query, tolerance, binWidth) > 0){
+					found++;
+				}
+			}
+			assertEquals(found, candidates.size());
+			for(int c = 0; c < candidates.size(); c++){
+				Spectrum candidate = spectra.get(candidates.getSpectra()[c]);
+				assertEquals(this.bruteForceShared(candidate, query, tolerance, binWidth), candidates.getSharedCounts()[c]);
+				if(c > 0){
+					assertTrue(candidates.getSharedCounts()[c - 1] >= candidates.getSharedCounts()[c]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMinShared() throws URISyntaxException, IOException {
+		FragmentIndex index = FragmentIndex.build(TestResources.path("lipid.mzML"), 0.01);
+		double[] query = {100.0, 200.0, 300.0};
+		FragmentIndex.Candidates all = index.query(query, 1000, 1);
+		assertEquals(index.getSpectrumCount() - this.emptySpectra(), all.size());
+		for(int c = 0; c < all.size(); c++){
+			assertTrue(all.getSharedCounts()[c] <= query.length);
+		}
+
+		FragmentIndex.Candidates none = index.query(query, 1000, query.length + 1);
+		assertEquals(0, none.size());
+		// counters are reset between queries
+		assertEquals(all.size(), index.query(query, 1000, 1).size());
+	}
+
+	private int emptySpectra() throws URISyntaxException, IOException {
+		int empty = 0;
+		for(Spectrum s : this.readMs2(TestResources.path("lipid.mzML"))){
+			boolean positive = false;
+			for(double v : s.getIntensityArray()){
+				positive |= v > 0;
+			}
+			if(!positive){
+				empty++;
+			}
+		}
+		return empty;
+	}
+}
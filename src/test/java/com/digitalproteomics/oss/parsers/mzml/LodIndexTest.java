@@ -0,0 +1,129 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLChromatogramBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.index.LodIndex;
+import com.digitalproteomics.oss.parsers.mzml.index.LodPyramid;
+import com.digitalproteomics.oss.parsers.mzml.model.Chromatogram;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+
+public class LodIndexTest extends TestCase {
+
+	/** checks that the envelope covers the points within the range **/
+	private void assertEnvelope(LodPyramid.Envelope e, double[] x, double[] y, double low, double high) {
+		for(int i = 0; i < x.length; i++){
+			if(x[i] < low || x[i] > high){
+				continue;
+			}
+			boolean covered = false;
+			for(int b = 0; b < e.size(); b++){
+				if(x[i] >= e.getXStart()[b] && x[i] <= e.getXEnd()[b]){
+					assertTrue(y[i] >= e.getMin()[b] && y[i] <= e.getMax()[b]);
+					covered = true;
+				}
+			}
+			assertTrue(covered);
+		}
+	}
+
+	@Test
+	public void testPyramid() {
+		double[] x = new double[1000];
+		double[] y = new double[1000];
+		for(int i = 0; i < x.length; i++){
+			x[i] = i * 0.5;
+			y[i] = Math.sin(i) * i;
+		}
+
+		LodPyramid pyramid = LodPyramid.of(x, y);
+		assertEquals(5, pyramid.getLevelCount());
+		assertEquals(250, pyramid.getLevel(1).size());
+		assertEquals(1, pyramid.getLevel(5).size());
+
+		for(int pixels : new int[]{1, 10, 100, 1000}){
+			LodPyramid.Envelope e = pyramid.query(100, 300, pixels);
+			assertTrue(e.size() <= pixels);
+			assertEnvelope(e, x, y, 100, 300);
+		}
+		assertEquals(0, LodPyramid.of(new double[0], new double[0]).query(0, 1, 10).size());
+	}
+
+	@Test
+	public void testPersisted() throws IOException, URISyntaxException {
+		Path xml = TestResources.path("small_zlib.pwiz.1.1.mzML");
+		Path index = Files.createTempFile("small_zlib", ".lod");
+		try {
+			Files.delete(index);
+			LodIndex lod = LodIndex.load(xml, index);
+			assertEquals(48, lod.getSpectrumCount());
+			assertEquals(1, lod.getChromatogramIds().size());
+
+			MzMLStAXParser<Spectrum> p = new MzMLStAXParser<>(xml, XMLSpectrumBuilder::new);
+			Spectrum s = p.getSpectrumByIndex(5);
+			LodPyramid pyramid = lod.getSpectrumPyramid(5);
+			assertEquals(s.size(), pyramid.getSourceLength());
+			assertEnvelope(pyramid.query(400, 800, 50), s.getMzArray(), s.getIntensityArray(), 400, 800);
+
+			Iterator<Chromatogram> chromatograms = p.chromatogramIterator(XMLChromatogramBuilder::new);
+			Chromatogram c = chromatograms.next();
+			pyramid = lod.getChromatogramPyramid(lod.getChromatogramIds().get(0));
+			assertEquals(c.getTimes().length, pyramid.getSourceLength());
+			LodPyramid.Envelope whole = pyramid.query(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 8);
+			assertTrue(whole.size() <= 8);
+			assertEnvelope(whole, c.getTimes(), c.getIntensities(), Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+			assertNull(lod.getChromatogramPyramid("unknown"));
+			p.close();
+			lod.close();
+
+			// a current index is reopened
+			long modified = Files.getLastModifiedTime(index).toMillis();
+			lod = LodIndex.load(xml, index);
+			assertEquals(modified, Files.getLastModifiedTime(index).toMillis());
+			assertEquals(48, lod.getSpectrumCount());
+			lod.close();
+		} finally {
+			Files.deleteIfExists(index);
+		}
+	}
+
+	@Test
+	public void testMissingFile() throws IOException {
+		Path dir = Files.createTempDirectory("lod");
+		try {
+			LodIndex.load(dir.resolve("missing.mzML"), dir.resolve("missing.lod"));
+			fail("Missing files must not be indexed");
+		} catch (NoSuchFileException e) {
+		}
+		// no partial index is left
+		try(DirectoryStream<Path> written = Files.newDirectoryStream(dir)) {
+			assertFalse(written.iterator().hasNext());
+		}
+	}
+}
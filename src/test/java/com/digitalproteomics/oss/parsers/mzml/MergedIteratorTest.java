@@ -0,0 +1,175 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+import com.digitalproteomics.oss.parsers.mzml.processing.MergedIterator;
+
+public class MergedIteratorTest extends TestCase {
+
+	/** runs in retention time order **/
+	final static String[] RUNS = {"small_zlib.pwiz.1.1.mzML", "lipid.mzML", "small_zlib.pwiz.1.1.mzML"};
+
+	private List<MzMLStAXParser<SpectrumHeader>> open() throws URISyntaxException {
+		List<MzMLStAXParser<SpectrumHeader>> parsers = new ArrayList<>();
+		for(String run : RUNS){
+			parsers.add(new MzMLStAXParser<>(TestResources.path(run), XMLSpectrumHeaderBuilder::new, false, false));
+		}
+		return parsers;
+	}
+
+	private List<List<String>> readEach() throws URISyntaxException, IOException {
+		List<List<String>> ids = new ArrayList<>();
+		for(MzMLStAXParser<SpectrumHeader> parser : this.open()){
+			List<String> run = new ArrayList<>();
+			for(SpectrumHeader h : parser){
+				run.add(h.getId());
+			}
+			ids.add(run);
+			parser.close();
+		}
+		return ids;
+	}
+
+	@Test
+	public void testRetentionTimeOrder() throws URISyntaxException, IOException {
+		List<List<String>> expected = this.readEach();
+		List<List<String>> seen = new ArrayList<>();
+		for(int s = 0; s < RUNS.length; s++){
+			seen.add(new ArrayList<>());
+		}
+
+		List<MzMLStAXParser<SpectrumHeader>> parsers = this.open();
+		try(MergedIterator<SpectrumHeader> merged = new MergedIterator<>(parsers, SpectrumHeader::getScanStartTime,
+				MergedIterator.Order.RETENTION_TIME, 2)){
+			double last = Double.NEGATIVE_INFINITY;
+			while(merged.hasNext()){
+				MergedIterator.Tagged<SpectrumHeader> next = merged.next();
+				assertTrue(next.getScanTime() >= last);
+				assertEquals(next.getValue().getScanStartTime(), next.getScanTime());
+				last = next.getScanTime();
+				seen.get(next.getSource()).add(next.getValue().getId());
+			}
+			assertFalse(merged.hasNext());
+		} finally {
+			for(MzMLStAXParser<SpectrumHeader> p : parsers){
+				p.close();
+			}
+		}
+		// each run keeps its own order
+		assertEquals(expected, seen);
+	}
+
+	@Test
+	public void testRoundRobin() throws URISyntaxException, IOException {
+		List<List<String>> expected = this.readEach();
+		List<Integer> sources = new ArrayList<>();
+		List<MzMLStAXParser<SpectrumHeader>> parsers = this.open();
+		try(MergedIterator<SpectrumHeader> merged = new MergedIterator<>(parsers, SpectrumHeader::getScanStartTime,
+				MergedIterator.Order.ROUND_ROBIN, 1)){
+			while(merged.hasNext()){
+				sources.add(merged.next().getSource());
+			}
+		} finally {
+			for(MzMLStAXParser<SpectrumHeader> p : parsers){
+				p.close();
+			}
+		}
+
+		int shortest = Integer.MAX_VALUE;
+		int total = 0;
+		for(List<String> run : expected){
+			shortest = Math.min(shortest, run.size());
+			total += run.size();
+		}
+		assertEquals(total, sources.size());
+		for(int i = 0; i < shortest * RUNS.length; i++){
+			assertEquals(i % RUNS.length, (int) sources.get(i));
+		}
+		for(int s = 0; s < RUNS.length; s++){
+			assertEquals(expected.get(s).size(), Collections.frequency(sources, s));
+		}
+	}
+
+	@Test
+	public void testFailingSource() {
+		Iterable<SpectrumHeader> failing = () -> {
+			throw new IllegalArgumentException("unreadable");
+		};
+		try(MergedIterator<SpectrumHeader> merged = new MergedIterator<>(Arrays.asList(failing),
+				SpectrumHeader::getScanStartTime)){
+			merged.hasNext();
+			fail("Expected the reader's exception");
+		} catch (IllegalArgumentException e) {
+			assertEquals("unreadable", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testFailureRethrownOnEveryCall() {
+		Iterable<SpectrumHeader> failing = () -> {
+			throw new AssertionError("unreadable");
+		};
+		for(MergedIterator.Order order : MergedIterator.Order.values()){
+			try(MergedIterator<SpectrumHeader> merged = new MergedIterator<>(Arrays.asList(failing),
+					SpectrumHeader::getScanStartTime, order, 1)){
+				for(int call = 0; call < 3; call++){
+					try {
+						merged.hasNext();
+						fail("Expected the reader's error");
+					} catch (AssertionError e) {
+						assertEquals("unreadable", e.getMessage());
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCloseEarly() throws InterruptedException {
+		List<Thread> readers = Collections.synchronizedList(new ArrayList<>());
+		Iterable<Integer> endless = () -> {
+			readers.add(Thread.currentThread());
+			return IntStream.iterate(0, i -> i + 1).iterator();
+		};
+		try(MergedIterator<Integer> merged = new MergedIterator<>(Arrays.asList(endless, endless), i -> i,
+				MergedIterator.Order.RETENTION_TIME, 4)){
+			for(int i = 0; i < 10; i++){
+				assertEquals(i / 2, (int) merged.next().getValue());
+			}
+		}
+
+		// readers blocked on full buffers stop once closed
+		assertEquals(2, readers.size());
+		for(Thread reader : readers){
+			reader.join(10000);
+			assertFalse(reader.isAlive());
+		}
+	}
+}
@@ -1,10 +1,17 @@
 package com.digitalproteomics.oss.parsers.mzml;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLChromatogramBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
 import com.digitalproteomics.oss.parsers.mzml.model.Chromatogram;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
 import junit.framework.TestCase;
 
 public class MzMLChromatogramStAXParserTest extends TestCase {
@@ -28,4 +35,91 @@ public class MzMLChromatogramStAXParserTest extends TestCase {
         }
         assertEquals(1, c);
     }
-}
\ No newline at end of file
+
+    private List<String> chromatogramIds(String resource) throws URISyntaxException, IOException {
+        URL url = this.getClass().getClassLoader().getResource(resource);
+        assertNotNull(url);
+
+        List<String> ids = new ArrayList<>();
+        MzMLChromatogramStAXParser p = new MzMLChromatogramStAXParser(Paths.get(url.toURI()));
+        for (Chromatogram chr : p) {
+            assertNotNull(chr.getTimes());
+            assertEquals(chr.getTimes().length, chr.getIntensities().length);
+            ids.add(chr.getId());
+        }
+        p.close();
+        return ids;
+    }
+
+    public void testIndexedChromatograms() throws URISyntaxException, IOException {
+        // seeks to the chromatogramList of an indexed file
+        assertEquals(Arrays.asList("total ion current chromatogram", "sic"), chromatogramIds("tiny.pwiz.1.1.mzML"));
+        // reads the whole file without an index, where both chromatograms are annotated as TIC
+        assertEquals(Arrays.asList("total ion current chromatogram", "total ion current chromatogram"),
+                chromatogramIds("sample_small.mzML"));
+    }
+
+    public void testSpectraThenChromatograms() throws URISyntaxException, IOException {
+        URL url = this.getClass().getClassLoader().getResource("tiny.pwiz.1.1.mzML");
+        MzMLStAXParser<SpectrumHeader> p = new MzMLStAXParser<SpectrumHeader>(Paths.get(url.toURI()),
+                XMLSpectrumHeaderBuilder::new);
+
+        List<String> ids = new ArrayList<>();
+        p.forEach(h -> ids.add(h.getId()),
+                XMLChromatogramBuilder::new,
+                c -> ids.add(c.getId()));
+
+        assertEquals(Arrays.asList("scan=19", "scan=20", "scan=21", "sample=1 period=1 cycle=22 experiment=1",
+                "total ion current chromatogram", "sic"), ids);
+
+        // spectra iteration stops at the end of the spectrumList
+        int c = 0;
+        for (SpectrumHeader h : p) {
+            c++;
+        }
+        assertEquals(4, c);
+        p.close();
+    }
+
+    public void testRandomAccess() throws URISyntaxException, IOException {
+        URL url = this.getClass().getClassLoader().getResource("tiny.pwiz.1.1.mzML");
+        MzMLChromatogramStAXParser p = new MzMLChromatogramStAXParser(Paths.get(url.toURI()));
+
+        List<Chromatogram> iterated = new ArrayList<>();
+        p.forEach(iterated::add);
+        assertEquals(Arrays.asList("tic", "sic"), p.getChromatogramIds());
+
+        for (int i = 0; i < iterated.size(); i++) {
+            Chromatogram chr = p.getChromatogramByIndex(i);
+            assertEquals(iterated.get(i).getId(), chr.getId());
+            assertTrue(Arrays.equals(iterated.get(i).getTimes(), chr.getTimes()));
+            assertTrue(Arrays.equals(iterated.get(i).getIntensities(), chr.getIntensities()));
+        }
+
+        assertTrue(Arrays.equals(iterated.get(1).getIntensities(), p.getChromatogramById("sic").getIntensities()));
+        assertNull(p.getChromatogramById("missing"));
+
+        // returned in the order requested
+        List<Chromatogram> chrs = p.getChromatograms(Arrays.asList("sic", "missing", "tic"));
+        assertEquals(2, chrs.size());
+        assertEquals(10, chrs.get(0).getTimes().length);
+        assertEquals(15, chrs.get(1).getTimes().length);
+        p.close();
+    }
+
+    public void testNoFileReadOnConstruction() throws URISyntaxException, IOException {
+        // a missing file is only reported when chromatograms are read
+        MzMLChromatogramStAXParser missing = new MzMLChromatogramStAXParser(Paths.get("missing.mzML"));
+        assertFalse(missing.iterator().hasNext());
+        assertNull(missing.getChromatogramByIndex(0));
+        assertTrue(missing.getChromatogramIds().isEmpty());
+        missing.close();
+
+        // a file without an index is iterated without random access
+        URL url = this.getClass().getClassLoader().getResource("sample_small.mzML");
+        MzMLChromatogramStAXParser p = new MzMLChromatogramStAXParser(Paths.get(url.toURI()));
+        assertTrue(p.getChromatogramIds().isEmpty());
+        assertTrue(p.iterator().hasNext());
+        p.close();
+    }
+}
@@ -0,0 +1,93 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+public class ParentIndexTest extends TestCase {
+
+	private void assertTinyParents(MzMLStAXParser<SpectrumHeader> parser) {
+		assertEquals(-1, parser.getParentIndex(0));
+		assertEquals(0, parser.getParentIndex(1));
+		assertEquals(-1, parser.getParentIndex(2));
+		assertEquals(-1, parser.getParentIndex(3));
+
+		SpectrumHeader parent = parser.getParentSpectrum(1);
+		assertEquals("scan=19", parent.getId());
+		assertEquals(1, parent.getMsLevel());
+		// cached
+		assertSame(parent, parser.getParentSpectrum(1));
+		assertNull(parser.getParentSpectrum(0));
+
+		List<SpectrumHeader> chain = parser.getPrecursorChain(1);
+		assertEquals(1, chain.size());
+		assertSame(parent, chain.get(0));
+		assertTrue(parser.getPrecursorChain(0).isEmpty());
+	}
+
+	@Test
+	public void testParentsBySpectrumRef() throws URISyntaxException, IOException {
+		// the offset of scan=19, the only parent, is correct in this file
+		Path xml = TestResources.path("tiny.pwiz.err.idx.mzML");
+		try(MzMLStAXParser<SpectrumHeader> parser = new MzMLStAXParser<>(xml, XMLSpectrumHeaderBuilder::new)){
+			assertTinyParents(parser);
+		}
+
+		// links are set with the scan time index
+		try(MzMLStAXParser<SpectrumHeader> parser = new MzMLStAXParser<>(xml, XMLSpectrumHeaderBuilder::new, true, true)){
+			assertTinyParents(parser);
+			assertEquals(1, parser.getSpectrumIndicesByScanTimeRange(0, Double.MAX_VALUE).stream().filter(i -> i == 1).count());
+		}
+	}
+
+	@Test
+	public void testParentsByMsLevelOrder() throws URISyntaxException, IOException {
+		// an unknown spectrumRef of the same length keeps the offsets of the index
+		String text = new String(Files.readAllBytes(TestResources.path("tiny.pwiz.err.idx.mzML")), StandardCharsets.UTF_8);
+		assertTrue(text.contains("spectrumRef=\"scan=19\""));
+		Path xml = Files.createTempFile("parents", ".mzML");
+		try {
+			Files.write(xml, text.replace("spectrumRef=\"scan=19\"", "spectrumRef=\"scan=99\"").getBytes(StandardCharsets.UTF_8));
+			try(MzMLStAXParser<SpectrumHeader> parser = new MzMLStAXParser<>(xml, XMLSpectrumHeaderBuilder::new)){
+				assertTinyParents(parser);
+			}
+		} finally {
+			Files.delete(xml);
+		}
+	}
+
+	@Test
+	public void testNoIndex() throws URISyntaxException, IOException {
+		try(MzMLStAXParser<SpectrumHeader> parser = new MzMLStAXParser<>(TestResources.path("tiny.pwiz.mzML"),
+				XMLSpectrumHeaderBuilder::new, false, false)){
+			assertFalse(parser.loadParentIndex());
+			assertEquals(-1, parser.getParentIndex(1));
+			assertTrue(parser.getPrecursorChain(1).isEmpty());
+		}
+	}
+}
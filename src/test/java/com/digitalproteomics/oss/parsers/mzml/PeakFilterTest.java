@@ -0,0 +1,114 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLFilteredSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.processing.PeakFilter;
+
+public class PeakFilterTest extends TestCase {
+
+	/** filters a spectrum's arrays without the decode-time path **/
+	private double[][] expected(Spectrum s, PeakFilter f) {
+		double[] mz = s.getMzArray();
+		double[] intensities = s.getIntensityArray();
+		List<Integer> kept = new ArrayList<>();
+		for(int i = 0; i < mz.length; i++){
+			if(mz[i] >= f.getMinMz() && mz[i] <= f.getMaxMz() && intensities[i] >= f.getMinIntensity()){
+				kept.add(i);
+			}
+		}
+		int[] top = kept.stream()
+				.sorted(Comparator.<Integer>comparingDouble(i -> -intensities[i]).thenComparingInt(i -> i))
+				.limit(f.getTopN())
+				.mapToInt(Integer::intValue)
+				.sorted()
+				.toArray();
+		return new double[][]{
+			IntStream.of(top).mapToDouble(i -> mz[i]).toArray(),
+			IntStream.of(top).mapToDouble(i -> intensities[i]).toArray()
+		};
+	}
+
+	@Test
+	public void testFilters() throws IOException, URISyntaxException {
+		Path xml = TestResources.path("small_zlib.pwiz.1.1.mzML");
+		PeakFilter[] filters = {
+			new PeakFilter(),
+			new PeakFilter().setMzWindow(400, 600),
+			new PeakFilter().setMinIntensity(500),
+			new PeakFilter().setTopN(20),
+			new PeakFilter().setMzWindow(300, 1200).setMinIntensity(10).setTopN(50),
+			new PeakFilter().setTopN(0)
+		};
+
+		List<Spectrum> spectra = new ArrayList<>();
+		MzMLStAXParser<Spectrum> p = new MzMLStAXParser<>(xml, XMLSpectrumBuilder::new);
+		p.forEach(spectra::add);
+		p.close();
+
+		for(PeakFilter filter : filters){
+			MzMLStAXParser<Spectrum> filtered = new MzMLStAXParser<>(xml, XMLFilteredSpectrumBuilder.factory(filter));
+			Iterator<Spectrum> it = spectra.iterator();
+			for(Spectrum s : filtered){
+				double[][] expected = this.expected(it.next(), filter);
+				assertTrue(Arrays.equals(expected[0], s.getMzArray()));
+				assertTrue(Arrays.equals(expected[1], s.getIntensityArray()));
+			}
+			assertFalse(it.hasNext());
+			filtered.close();
+		}
+
+		// by ms level
+		PeakFilter top5 = new PeakFilter().setTopN(5);
+		MzMLStAXParser<Spectrum> filtered = new MzMLStAXParser<>(xml,
+				XMLFilteredSpectrumBuilder.factory(msLevel -> msLevel == 2 ? top5 : null));
+		Iterator<Spectrum> it = spectra.iterator();
+		for(Spectrum s : filtered){
+			Spectrum full = it.next();
+			assertEquals(full.getHeader().getMsLevel() == 2 ? Math.min(5, full.size()) : full.size(), s.size());
+		}
+		filtered.close();
+	}
+
+	@Test
+	public void testTies() throws IOException, URISyntaxException {
+		Spectrum s = new Spectrum(null, new double[]{1, 2, 3, 4, 5, 6}, new double[]{5, 7, 5, 7, 5, 1});
+		double[][] expected = this.expected(s, new PeakFilter().setTopN(3));
+		assertTrue(Arrays.equals(new double[]{1, 2, 4}, expected[0]));
+
+		Spectrum top3 = new PeakFilter().setTopN(3).apply(null,
+				BinaryDataArray.valuesOf(s.getMzArray()),
+				BinaryDataArray.valuesOf(s.getIntensityArray()));
+		assertTrue(Arrays.equals(expected[0], top3.getMzArray()));
+		assertTrue(Arrays.equals(expected[1], top3.getIntensityArray()));
+	}
+}
@@ -0,0 +1,102 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.processing.PeakMatcher;
+import com.digitalproteomics.oss.parsers.mzml.processing.PeakMatcher.Tolerance;
+
+public class PeakMatcherTest extends TestCase {
+
+	@Test
+	public void testNearestAndWithin() {
+		double[] mz = {100.0, 100.01, 200.0, 300.0};
+		assertEquals(0, PeakMatcher.nearest(mz, 50));
+		assertEquals(1, PeakMatcher.nearest(mz, 100.008));
+		assertEquals(2, PeakMatcher.nearest(mz, 250));
+		assertEquals(3, PeakMatcher.nearest(mz, 1000));
+		assertEquals(-1, PeakMatcher.nearest(new double[0], 100));
+
+		assertEquals(-1, PeakMatcher.nearest(mz, 200.1, Tolerance.da(0.05)));
+		assertEquals(2, PeakMatcher.nearest(mz, 200.1, Tolerance.da(0.1)));
+		assertEquals(-1, PeakMatcher.nearest(mz, 300.01, Tolerance.ppm(10)));
+		assertEquals(3, PeakMatcher.nearest(mz, 300.002, Tolerance.ppm(10)));
+
+		int[] range = new int[2];
+		assertEquals(2, PeakMatcher.within(mz, 100.005, Tolerance.da(0.01), range));
+		assertEquals(0, range[0]);
+		assertEquals(2, range[1]);
+		assertEquals(0, PeakMatcher.within(mz, 150, Tolerance.ppm(20), range));
+	}
+
+	@Test
+	public void testMatchAgainstBruteForce() throws URISyntaxException, IOException {
+		List<Spectrum> spectra = new ArrayList<>();
+		try(MzMLStAXParser<Spectrum> parser = new MzMLStAXParser<>(TestResources.path("lipid.mzML"), XMLSpectrumBuilder::new)){
+			for(Spectrum s : parser){
+				spectra.add(s);
+			}
+		}
+
+		// targets near peaks of the first spectrum, and between them
+		double[] source = spectra.get(0).getMzArray();
+		double[] targets = new double[2 * source.length];
+		for(int i = 0; i < source.length; i++){
+			targets[2 * i] = source[i] + 0.003;
+			targets[2 * i + 1] = source[i] + 0.5;
+		}
+		Arrays.sort(targets);
+
+		Tolerance tolerance = Tolerance.ppm(20);
+		int[][] batch = PeakMatcher.match(spectra, targets, tolerance);
+		assertEquals(spectra.size(), batch.length);
+		int total = 0;
+		for(int s = 0; s < spectra.size(); s++){
+			double[] mz = spectra.get(s).getMzArray();
+			int[] matches = batch[s];
+			for(int t = 0; t < targets.length; t++){
+				int expected = PeakMatcher.nearest(mz, targets[t], tolerance);
+				if(expected < 0){
+					assertEquals(-1, matches[t]);
+				} else {
+					total++;
+					assertEquals(Math.abs(mz[expected] - targets[t]), Math.abs(mz[matches[t]] - targets[t]), 0);
+				}
+			}
+		}
+		assertTrue(total >= source.length);
+
+		List<double[]> perSpectrum = new ArrayList<>();
+		for(int s = 0; s < spectra.size(); s++){
+			perSpectrum.add(targets);
+		}
+		int[][] lists = PeakMatcher.match(spectra, perSpectrum, tolerance);
+		for(int s = 0; s < spectra.size(); s++){
+			assertTrue(Arrays.equals(batch[s], lists[s]));
+		}
+	}
+}
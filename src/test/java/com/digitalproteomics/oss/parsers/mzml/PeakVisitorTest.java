@@ -0,0 +1,104 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLPeakVisitorBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+import com.digitalproteomics.oss.parsers.mzml.processing.PeakConsumer;
+
+public class PeakVisitorTest extends TestCase {
+
+	/** sums intensities and counts peaks of each spectrum **/
+	private static class Summing implements PeakConsumer {
+		List<String> ids = new ArrayList<>();
+		List<Double> sums = new ArrayList<>();
+		List<Integer> counts = new ArrayList<>();
+		double sum;
+		int count;
+		boolean open;
+
+		@Override
+		public void begin(SpectrumHeader header) {
+			assertFalse(this.open);
+			this.open = true;
+			this.sum = 0;
+			this.count = 0;
+		}
+
+		@Override
+		public void accept(double mz, double intensity) {
+			assertTrue(this.open);
+			this.sum += intensity;
+			this.count++;
+		}
+
+		@Override
+		public void end(SpectrumHeader header) {
+			this.open = false;
+			this.ids.add(header.getId());
+			this.sums.add(this.sum);
+			this.counts.add(this.count);
+		}
+	}
+
+	@Test
+	public void testVisit() throws IOException, URISyntaxException {
+		Path xml = TestResources.path("small_zlib.pwiz.1.1.mzML");
+
+		List<Spectrum> ms1 = new ArrayList<>();
+		MzMLStAXParser<Spectrum> spectra = new MzMLStAXParser<>(xml, XMLSpectrumBuilder::new);
+		for(Spectrum s : spectra){
+			if(s.getHeader().getMsLevel() == 1){
+				ms1.add(s);
+			}
+		}
+		spectra.close();
+
+		Summing summing = new Summing();
+		MzMLStAXParser<SpectrumHeader> p = new MzMLStAXParser<>(xml,
+				XMLPeakVisitorBuilder.factory(summing, h -> h.getMsLevel() == 1));
+		int headers = 0;
+		for(SpectrumHeader h : p){
+			headers++;
+		}
+		p.close();
+
+		assertEquals(48, headers);
+		assertEquals(ms1.size(), summing.ids.size());
+		for(int i = 0; i < ms1.size(); i++){
+			Spectrum s = ms1.get(i);
+			double sum = 0;
+			for(double intensity : s.getIntensityArray()){
+				sum += intensity;
+			}
+			assertEquals(s.getHeader().getId(), summing.ids.get(i));
+			assertEquals(s.size(), (int) summing.counts.get(i));
+			assertEquals(sum, summing.sums.get(i), 1e-6 * sum);
+		}
+	}
+}
@@ -27,12 +27,23 @@ import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 **/
 
+import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.junit.Test;
 
 import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+import com.digitalproteomics.oss.parsers.mzml.builders.FromXMLStreamBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.ReferenceableParamGroup;
 import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
 import com.digitalproteomics.oss.parsers.mzml.MzMLStAXParser;
 
@@ -58,4 +69,85 @@ public class ReferenceableParamGroupTest extends TestCase {
        }
     }
 
+	@Test
+	public void testReplayedParams() throws XMLStreamException {
+		URL url = this.getClass().getClassLoader().getResource("tiny.pwiz.1.1.mzML");
+		assertNotNull(url);
+
+		MzMLStAXParser<SpectrumHeader> p  = null;
+		try {
+			p = new MzMLStAXParser<SpectrumHeader>(Paths.get(url.toURI()), 
+					XMLSpectrumHeaderBuilder::new,
+					false, 
+					false);
+		} catch (URISyntaxException e) {
+			fail(e.toString());
+		}
+
+		// groups are collected while iterating
+		p.iterator();
+		ReferenceableParamGroup group = p.refParams.get("CommonMS1SpectrumParams");
+		assertNotNull(group);
+		assertEquals(2, group.getCvParams().size());
+		assertEquals("MS:1000579", group.getCvParams().get(0).getAccession());
+		assertEquals("positive scan", group.getCvParams().get(1).getName());
+
+		XMLStreamReader xr = group.getParams();
+		int[] events = {XMLStreamConstants.START_ELEMENT, XMLStreamConstants.END_ELEMENT, 
+				XMLStreamConstants.START_ELEMENT, XMLStreamConstants.END_ELEMENT, 
+				XMLStreamConstants.END_DOCUMENT};
+		for(int event : events){
+			assertTrue(xr.hasNext());
+			assertEquals(event, xr.next());
+			if(event == XMLStreamConstants.START_ELEMENT){
+				assertEquals("cvParam", xr.getLocalName());
+				assertEquals("MS", xr.getAttributeValue(null, "cvRef"));
+			}
+		}
+		assertFalse(xr.hasNext());
+	}
+
+
+	/** collects accessions of all cvParams in a spectrum **/
+	private static class AccessionBuilder implements FromXMLStreamBuilder<List<String>> {
+		List<String> accessions = new ArrayList<>();
+
+		AccessionBuilder(String fileName, XMLStreamReader xr) {
+		}
+
+		@Override
+		public void accept(XMLStreamReader xr) {
+			if(xr.getEventType() == XMLStreamConstants.START_ELEMENT && xr.getLocalName().equals("cvParam")){
+				this.accessions.add(xr.getAttributeValue(null, "accession"));
+			}
+		}
+
+		@Override
+		public List<String> build() {
+			return this.accessions;
+		}
+	}
+
+	@Test
+	public void testRandomAccessParams() throws URISyntaxException, IOException {
+		URL url = this.getClass().getClassLoader().getResource("tiny.pwiz.1.1.mzML");
+		assertNotNull(url);
+
+		MzMLStAXParser<List<String>> p = new MzMLStAXParser<List<String>>(Paths.get(url.toURI()), 
+				AccessionBuilder::new);
+
+		List<List<String>> random = IntStream.range(0, 4)
+				.parallel()
+				.mapToObj(p::getSpectrumByIndex)
+				.collect(Collectors.toList());
+		assertTrue(random.get(0).contains("MS:1000579"));
+		assertTrue(random.get(1).contains("MS:1000580"));
+
+		int i = 0;
+		for(List<String> sequential : p){
+			assertEquals(sequential, random.get(i++));
+		}
+		assertEquals(4, i);
+		p.close();
+	}
 }
@@ -0,0 +1,164 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLEncodedSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+import com.digitalproteomics.oss.parsers.mzml.processing.SpectralSimilarity;
+import com.digitalproteomics.oss.parsers.mzml.processing.SpectrumBinner;
+
+public class SpectralSimilarityTest extends TestCase {
+
+	private List<Spectrum> readMs2(Path xml) throws IOException {
+		List<Spectrum> spectra = new ArrayList<>();
+		try(MzMLStAXParser<EncodedSpectrum> parser = new MzMLStAXParser<>(xml, XMLEncodedSpectrumBuilder::new)){
+			for(EncodedSpectrum s : parser){
+				if(s.getHeader().getMsLevel() == 2){
+					spectra.add(s.decode());
+				}
+			}
+		}
+		return spectra;
+	}
+
+	/** cosine of square root intensities summed in hashed bins **/
+	private double bruteForceCosine(Spectrum a, Spectrum b, double binWidth) {
+		Map<Long, Double> x = this.bins(a, binWidth);
+		Map<Long, Double> y = this.bins(b, binWidth);
+		double dot = 0;
+		double nx = 0;
+		double ny = 0;
+		for(Map.Entry<Long, Double> e : x.entrySet()){
+			nx += e.getValue() * e.getValue();
+			if(y.containsKey(e.getKey())){
+				dot += e.getValue() * y.get(e.getKey());
+			}
+		}
+		for(double v : y.values()){
+			ny += v * v;
+		}
+		return nx == 0 || ny == 0 ? 0 : dot / Math.sqrt(nx * ny);
+	}
+
+	private Map<Long, Double> bins(Spectrum s, double binWidth) {
+		Map<Long, Double> sums = new HashMap<>();
+		for(int i = 0; i < s.size(); i++){
+			sums.merge((long) Math.floor(s.getMzArray()[i] / binWidth), s.getIntensityArray()[i], Double::sum);
+		}
+		Map<Long, Double> roots = new HashMap<>();
+		for(Map.Entry<Long, Double> e : sums.entrySet()){
+			if(e.getValue() > 0){
+				roots.put(e.getKey(), Math.sqrt(e.getValue()));
+			}
+		}
+		return roots;
+	}
+
+	@Test
+	public void testSearchMatchesBruteForce() throws URISyntaxException, IOException {
+		double binWidth = 0.05;
+		List<Spectrum> spectra = this.readMs2(TestResources.path("lipid.mzML"));
+		assertTrue(spectra.size() > 1);
+
+		SpectralSimilarity similarity = new SpectralSimilarity(binWidth).setTransform(SpectrumBinner.Transform.SQRT);
+		List<SpectralSimilarity.Vector> vectors = new ArrayList<>();
+		for(Spectrum s : spectra){
+			vectors.add(similarity.vectorize(s));
+		}
+
+		List<SpectralSimilarity.Match> matches = similarity.search(vectors, vectors);
+		int expected = 0;
+		int m = 0;
+		for(int q = 0; q < spectra.size(); q++){
+			for(int r = 0; r < spectra.size(); r++){
+				double cosine = this.bruteForceCosine(spectra.get(q), spectra.get(r), binWidth);
+				if(cosine > 0){
+					expected++;
+					SpectralSimilarity.Match match = matches.get(m++);
+					assertEquals(q, match.getQuery());
+					assertEquals(r, match.getReference());
+					assertEquals(cosine, match.getScore(), 1e-5);
+				}
+			}
+		}
+		assertEquals(expected, matches.size());
+	}
+
+	@Test
+	public void testPairsAndPrecursorTolerance() throws URISyntaxException, IOException {
+		SpectralSimilarity similarity = new SpectralSimilarity(0.05).setScore(SpectralSimilarity.Score.SPECTRAL_CONTRAST);
+		List<SpectralSimilarity.Vector> vectors;
+		try(MzMLStAXParser<EncodedSpectrum> parser = new MzMLStAXParser<>(TestResources.path("lipid.mzML"),
+				XMLEncodedSpectrumBuilder::new, false, false)){
+			vectors = similarity.vectorize(parser.iterator(), 2);
+		}
+
+		for(SpectralSimilarity.Vector v : vectors){
+			if(v.size() > 0){
+				assertEquals(1.0, similarity.score(v, v), 1e-3);
+			}
+		}
+
+		List<SpectralSimilarity.Match> all = similarity.pairs(vectors);
+		for(SpectralSimilarity.Match match : all){
+			assertTrue(match.getQuery() < match.getReference());
+			assertTrue(match.getScore() > 0 && match.getScore() <= 1);
+		}
+
+		double tolerance = 0.5;
+		similarity.setPrecursorTolerance(tolerance);
+		int expected = 0;
+		for(SpectralSimilarity.Match match : all){
+			SpectrumHeader q = vectors.get(match.getQuery()).getHeader();
+			SpectrumHeader r = vectors.get(match.getReference()).getHeader();
+			if(Math.abs(q.getSelectedIonMz() - r.getSelectedIonMz()) <= tolerance){
+				expected++;
+			}
+		}
+		assertEquals(expected, similarity.pairs(vectors).size());
+
+		similarity.setMinScore(1.1);
+		assertTrue(similarity.pairs(vectors).isEmpty());
+	}
+
+	@Test
+	public void testUnsortedPeaks() {
+		SpectralSimilarity similarity = new SpectralSimilarity(1);
+		SpectralSimilarity.Vector sorted = similarity.vectorize(null, new double[]{100.2, 100.7, 150.1, 200.5}, new double[]{1, 2, 3, 4});
+		SpectralSimilarity.Vector unsorted = similarity.vectorize(null, new double[]{200.5, 100.2, 150.1, 100.7}, new double[]{4, 1, 3, 2});
+		assertEquals(3, sorted.size());
+		assertEquals(100, sorted.getBins()[0]);
+		for(int i = 0; i < sorted.size(); i++){
+			assertEquals(sorted.getBins()[i], unsorted.getBins()[i]);
+			assertEquals(sorted.getValues()[i], unsorted.getValues()[i], 1e-6);
+		}
+		assertEquals(1.0, similarity.score(sorted, unsorted), 1e-6);
+	}
+}
@@ -0,0 +1,149 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLEncodedSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.processing.SpectrumAverager;
+
+public class SpectrumAveragerTest extends TestCase {
+
+	private List<EncodedSpectrum> readMs1(Path xml) throws IOException {
+		List<EncodedSpectrum> spectra = new ArrayList<>();
+		try(MzMLStAXParser<EncodedSpectrum> parser = new MzMLStAXParser<>(xml, XMLEncodedSpectrumBuilder::new, false, false)){
+			for(EncodedSpectrum s : parser){
+				if(s.getHeader().getMsLevel() == 1){
+					spectra.add(s);
+				}
+			}
+		}
+		return spectra;
+	}
+
+	/** pools peaks of the window, sorts them, and groups them as the averager does **/
+	private double[][] bruteForce(List<Spectrum> window, double ppm, boolean mean) {
+		List<double[]> peaks = new ArrayList<>();
+		for(Spectrum s : window){
+			for(int i = 0; i < s.size(); i++){
+				peaks.add(new double[]{s.getMzArray()[i], s.getIntensityArray()[i]});
+			}
+		}
+		peaks.sort((a, b) -> Double.compare(a[0], b[0]));
+
+		List<double[]> groups = new ArrayList<>();
+		for(int i = 0; i < peaks.size(); ){
+			double high = peaks.get(i)[0] * (1 + ppm * 1e-6);
+			double sum = 0;
+			double weighted = 0;
+			double plain = 0;
+			int j = i;
+			for(; j < peaks.size() && peaks.get(j)[0] <= high; j++){
+				sum += peaks.get(j)[1];
+				weighted += peaks.get(j)[0] * peaks.get(j)[1];
+				plain += peaks.get(j)[0];
+			}
+			groups.add(new double[]{sum > 0 ? weighted / sum : plain / (j - i), mean ? sum / window.size() : sum});
+			i = j;
+		}
+		return groups.toArray(new double[groups.size()][]);
+	}
+
+	@Test
+	public void testSlidingWindow() throws URISyntaxException, IOException {
+		List<EncodedSpectrum> ms1 = this.readMs1(TestResources.path("small_zlib.pwiz.1.1.mzML"));
+		assertTrue(ms1.size() > 3);
+		List<Spectrum> decoded = new ArrayList<>();
+		for(EncodedSpectrum s : ms1){
+			decoded.add(s.decode());
+		}
+
+		// about 3 scans per window
+		double halfWidth = 1.01 * (decoded.get(1).getHeader().getScanStartTime() - decoded.get(0).getHeader().getScanStartTime());
+		for(SpectrumAverager.Mode mode : SpectrumAverager.Mode.values()){
+			SpectrumAverager averager = new SpectrumAverager(halfWidth, 20).setMode(mode);
+			Iterator<Spectrum> averaged = averager.slide(ms1.iterator());
+			for(int c = 0; c < decoded.size(); c++){
+				assertTrue(averaged.hasNext());
+				Spectrum s = averaged.next();
+				double rt = decoded.get(c).getHeader().getScanStartTime();
+				assertEquals(decoded.get(c).getHeader().getId(), s.getHeader().getId());
+
+				List<Spectrum> window = new ArrayList<>();
+				for(Spectrum d : decoded){
+					if(Math.abs(d.getHeader().getScanStartTime() - rt) <= halfWidth){
+						window.add(d);
+					}
+				}
+				double[][] expected = this.bruteForce(window, 20, mode == SpectrumAverager.Mode.MEAN);
+				assertEquals(expected.length, s.size());
+				for(int i = 0; i < expected.length; i++){
+					assertEquals(expected[i][0], s.getMzArray()[i], 1e-9);
+					assertEquals(expected[i][1], s.getIntensityArray()[i], 1e-6 * Math.max(1, expected[i][1]));
+				}
+			}
+			assertFalse(averaged.hasNext());
+		}
+	}
+
+	@Test
+	public void testZeroWidthKeepsSpectra() throws URISyntaxException, IOException {
+		List<EncodedSpectrum> ms1 = this.readMs1(TestResources.path("small_zlib.pwiz.1.1.mzML"));
+		Iterator<Spectrum> averaged = new SpectrumAverager(0, 0).slide(ms1.iterator());
+		for(EncodedSpectrum s : ms1){
+			Spectrum expected = s.decode();
+			Spectrum actual = averaged.next();
+			assertEquals(expected.size(), actual.size());
+			for(int i = 0; i < expected.size(); i++){
+				assertEquals(expected.getMzArray()[i], actual.getMzArray()[i]);
+				assertEquals(expected.getIntensityArray()[i], actual.getIntensityArray()[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testCombineRange() throws URISyntaxException, IOException {
+		Path xml = TestResources.path("small_zlib.pwiz.1.1.mzML");
+		List<EncodedSpectrum> ms1 = this.readMs1(xml);
+		double low = ms1.get(0).getHeader().getScanStartTime();
+		double high = ms1.get(2).getHeader().getScanStartTime();
+		List<Spectrum> window = new ArrayList<>();
+		for(int i = 0; i < 3; i++){
+			window.add(ms1.get(i).decode());
+		}
+
+		try(MzMLStAXParser<EncodedSpectrum> parser = new MzMLStAXParser<>(xml, XMLEncodedSpectrumBuilder::new, true, true)){
+			Spectrum s = new SpectrumAverager(0, 10).combine(parser, low, high, 1);
+			double[][] expected = this.bruteForce(window, 10, false);
+			assertEquals(expected.length, s.size());
+			for(int i = 0; i < expected.length; i++){
+				assertEquals(expected[i][1], s.getIntensityArray()[i], 1e-6 * Math.max(1, expected[i][1]));
+			}
+			assertNull(new SpectrumAverager(0, 10).combine(parser, low, high, 5));
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLEncodedSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+import com.digitalproteomics.oss.parsers.mzml.processing.SpectrumBinner;
+import com.digitalproteomics.oss.parsers.mzml.processing.SpectrumBinner.Normalization;
+import com.digitalproteomics.oss.parsers.mzml.processing.SpectrumBinner.Transform;
+
+public class SpectrumBinnerTest extends TestCase {
+
+	/** bins, takes square roots, and scales to unit length without the decode-time path **/
+	private double[] expected(Spectrum s, int bins) {
+		double[] v = new double[bins];
+		for(int i = 0; i < s.size(); i++){
+			double mz = s.getMzArray()[i];
+			if(mz >= 100 && mz < 2000){
+				v[(int) ((mz - 100) / 0.5)] += s.getIntensityArray()[i];
+			}
+		}
+		double norm = 0;
+		for(int b = 0; b < bins; b++){
+			v[b] = Math.sqrt(v[b]);
+			norm += v[b] * v[b];
+		}
+		norm = Math.sqrt(norm);
+		for(int b = 0; b < bins && norm > 0; b++){
+			v[b] /= norm;
+		}
+		return v;
+	}
+
+	@Test
+	public void testFill() throws IOException, URISyntaxException {
+		Path xml = TestResources.path("small_zlib.pwiz.1.1.mzML");
+		SpectrumBinner binner = new SpectrumBinner(100, 2000, 0.5)
+				.setTransform(Transform.SQRT)
+				.setNormalization(Normalization.L2);
+		assertEquals(3800, binner.getBinCount());
+
+		List<Spectrum> spectra = new ArrayList<>();
+		MzMLStAXParser<Spectrum> p = new MzMLStAXParser<>(xml, XMLSpectrumBuilder::new);
+		p.forEach(spectra::add);
+		p.close();
+
+		int rows = 5;
+		float[] array = new float[rows * binner.getBinCount()];
+		FloatBuffer direct = ByteBuffer.allocateDirect(4 * array.length).order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+		MzMLStAXParser<EncodedSpectrum> a = new MzMLStAXParser<>(xml, XMLEncodedSpectrumBuilder::new);
+		MzMLStAXParser<EncodedSpectrum> b = new MzMLStAXParser<>(xml, XMLEncodedSpectrumBuilder::new);
+		Iterator<EncodedSpectrum> first = a.iterator();
+		Iterator<EncodedSpectrum> second = b.iterator();
+
+		int n = 0;
+		List<SpectrumHeader> headers;
+		while(!(headers = binner.fill(first, array, rows)).isEmpty()){
+			assertEquals(headers.size(), binner.fill(second, direct, rows).size());
+			for(int r = 0; r < headers.size(); r++){
+				Spectrum s = spectra.get(n++);
+				assertEquals(s.getHeader().getId(), headers.get(r).getId());
+
+				double[] expected = this.expected(s, binner.getBinCount());
+				for(int bin = 0; bin < expected.length; bin++){
+					int i = r * binner.getBinCount() + bin;
+					assertEquals(expected[bin], array[i], 1e-5);
+					assertEquals(array[i], direct.get(i));
+				}
+			}
+		}
+		assertEquals(48, n);
+		a.close();
+		b.close();
+
+		try {
+			binner.fill(first, new float[10], 1);
+			fail("Undersized batch was accepted");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
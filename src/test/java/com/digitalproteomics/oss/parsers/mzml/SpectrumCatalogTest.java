@@ -0,0 +1,177 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
+import com.digitalproteomics.oss.parsers.mzml.index.SpectrumCatalog;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+public class SpectrumCatalogTest extends TestCase {
+
+	private List<SpectrumHeader> readHeaders(Path xml) throws IOException {
+		List<SpectrumHeader> headers = new ArrayList<>();
+		try(MzMLStAXParser<SpectrumHeader> parser = new MzMLStAXParser<>(xml, XMLSpectrumHeaderBuilder::new, false, false)) {
+			for(SpectrumHeader h : parser){
+				headers.add(h);
+			}
+		}
+		return headers;
+	}
+
+	/** an indexed file, a file without an index, and a copy of the indexed file that can be modified **/
+	private List<Path> runs(Path dir) throws URISyntaxException, IOException {
+		Path copy = dir.resolve("copy.mzML");
+		Files.copy(TestResources.path("small_zlib.pwiz.1.1.mzML"), copy);
+		return Arrays.asList(TestResources.path("small_zlib.pwiz.1.1.mzML"), TestResources.path("lipid.mzML"), copy);
+	}
+
+	@Test
+	public void testQueries() throws URISyntaxException, IOException {
+		Path dir = Files.createTempDirectory("catalog");
+		List<Path> xmls = this.runs(dir);
+		SpectrumCatalog catalog = SpectrumCatalog.load(xmls, dir.resolve("runs.catalog"));
+
+		int total = 0;
+		for(int f = 0; f < xmls.size(); f++){
+			List<SpectrumHeader> headers = this.readHeaders(xmls.get(f));
+			assertEquals(headers.size(), catalog.getFile(f).getSpectrumCount());
+			total += headers.size();
+			for(SpectrumHeader h : headers){
+				long id = SpectrumCatalog.toId(f, h.getIndex());
+				assertEquals(f, SpectrumCatalog.getFileOrdinal(id));
+				assertEquals(h.getIndex(), SpectrumCatalog.getSpectrumIndex(id));
+				assertEquals(h.getScanStartTime(), catalog.getScanTime(id));
+				assertEquals(h.getMsLevel(), catalog.getMsLevel(id));
+				if(h.getMsLevel() == 1){
+					assertTrue(Double.isNaN(catalog.getPrecursorMz(id)));
+				}
+			}
+		}
+		assertEquals(total, catalog.size());
+		assertEquals(-1, catalog.getOffset(SpectrumCatalog.toId(1, 0)));
+		assertTrue(catalog.getOffset(SpectrumCatalog.toId(0, 0)) > 0);
+
+		long[] all = catalog.findByScanTime(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		assertEquals(total, all.length);
+		for(int i = 1; i < all.length; i++){
+			assertTrue(catalog.getScanTime(all[i - 1]) <= catalog.getScanTime(all[i]));
+		}
+		for(long id : catalog.findByScanTime(0, 1e9, 2)){
+			assertEquals(2, catalog.getMsLevel(id));
+		}
+
+		// every lipid MS2 spectrum is found by its own precursor
+		for(SpectrumHeader h : this.readHeaders(xmls.get(1))){
+			if(h.getMsLevel() == 2){
+				long[] found = catalog.findByPrecursor(h.getSelectedIonMz(), 5, 2);
+				assertTrue(Arrays.stream(found).anyMatch(id -> id == SpectrumCatalog.toId(1, h.getIndex())));
+				for(long id : found){
+					assertTrue(Math.abs(catalog.getPrecursorMz(id) - h.getSelectedIonMz()) <= h.getSelectedIonMz() * 5e-6);
+				}
+			}
+		}
+		assertEquals(0, catalog.findByPrecursor(1e6, 10).length);
+	}
+
+	@Test
+	public void testReads() throws URISyntaxException, IOException {
+		Path dir = Files.createTempDirectory("catalog");
+		List<Path> xmls = this.runs(dir);
+		SpectrumCatalog catalog = SpectrumCatalog.load(xmls, dir.resolve("runs.catalog"));
+
+		// alternates between files, through a single open file
+		long[] ids = catalog.findByScanTime(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 1);
+		ids = Arrays.stream(ids).filter(id -> SpectrumCatalog.getFileOrdinal(id) != 1).toArray();
+		try(SpectrumCatalog.Reader<SpectrumHeader> reader = catalog.newReader(XMLSpectrumHeaderBuilder::new, 1)) {
+			List<SpectrumHeader> read = reader.get(ids, 3);
+			assertEquals(ids.length, read.size());
+			for(int i = 0; i < ids.length; i++){
+				assertEquals(SpectrumCatalog.getSpectrumIndex(ids[i]), read.get(i).getIndex());
+				assertEquals(catalog.getScanTime(ids[i]), read.get(i).getScanStartTime());
+				assertEquals(catalog.getFile(SpectrumCatalog.getFileOrdinal(ids[i])).getPath().toString(),
+						read.get(i).getFileName());
+			}
+			assertTrue(reader.getOpenFileCount() <= 1);
+
+			// no offsets without an index
+			assertNull(reader.get(SpectrumCatalog.toId(1, 0)));
+		}
+	}
+
+	@Test
+	public void testStaleness() throws URISyntaxException, IOException {
+		Path dir = Files.createTempDirectory("catalog");
+		List<Path> xmls = this.runs(dir);
+		Path path = dir.resolve("runs.catalog");
+		SpectrumCatalog.load(xmls, path);
+		long written = Files.getLastModifiedTime(path).toMillis();
+
+		SpectrumCatalog reopened = SpectrumCatalog.load(xmls, path);
+		assertTrue(reopened.isCurrent(xmls));
+		assertEquals(written, Files.getLastModifiedTime(path).toMillis());
+		assertFalse(reopened.isCurrent(xmls.subList(0, 2)));
+
+		Files.setLastModifiedTime(xmls.get(2), FileTime.fromMillis(written - 60000));
+		assertTrue(reopened.getFile(2).isStale());
+		assertFalse(reopened.isCurrent(xmls));
+		try(SpectrumCatalog.Reader<SpectrumHeader> reader = reopened.newReader(XMLSpectrumHeaderBuilder::new, 2)) {
+			try {
+				reader.get(SpectrumCatalog.toId(2, 0));
+				fail("Stale files must not be read");
+			} catch (IllegalStateException e) {
+			}
+			// the handle reserved for the stale file is dropped
+			assertEquals(0, reader.getOpenFileCount());
+		}
+
+		SpectrumCatalog rebuilt = SpectrumCatalog.load(xmls, path);
+		assertTrue(rebuilt.isCurrent(xmls));
+		assertEquals(reopened.size(), rebuilt.size());
+		assertTrue(Arrays.equals(reopened.getIds(), rebuilt.getIds()));
+		// the catalog is replaced by a move, leaving no partial file
+		try(DirectoryStream<Path> partial = Files.newDirectoryStream(dir, "*.tmp")) {
+			assertFalse(partial.iterator().hasNext());
+		}
+	}
+
+	@Test
+	public void testMissingFile() throws URISyntaxException, IOException {
+		Path dir = Files.createTempDirectory("catalog");
+		List<Path> xmls = new ArrayList<>(this.runs(dir));
+		xmls.add(dir.resolve("missing.mzML"));
+		try {
+			SpectrumCatalog.load(xmls, dir.resolve("runs.catalog"));
+			fail("Missing files must not be cataloged");
+		} catch (NoSuchFileException e) {
+		}
+		assertFalse(Files.exists(dir.resolve("runs.catalog")));
+	}
+}
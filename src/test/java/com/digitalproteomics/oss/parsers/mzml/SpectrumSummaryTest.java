@@ -0,0 +1,114 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumSummaryBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumSummary;
+import com.digitalproteomics.oss.parsers.mzml.processing.PeakReducer;
+import com.digitalproteomics.oss.parsers.mzml.processing.PeakReducers;
+import com.digitalproteomics.oss.parsers.mzml.processing.QuantileSketch;
+
+public class SpectrumSummaryTest extends TestCase {
+
+	@Test
+	public void testQuantileSketch() {
+		QuantileSketch sketch = new QuantileSketch(0.01);
+		Random r = new Random(7);
+		for(int round = 0; round < 2; round++){
+			double[] values = new double[10000];
+			for(int i = 0; i < values.length; i++){
+				values[i] = i % 10 == 0 ? 0 : Math.exp(r.nextGaussian() * 5 + round * 10);
+				sketch.add(values[i]);
+			}
+			Arrays.sort(values);
+
+			for(double q : new double[]{0, 0.05, 0.25, 0.5, 0.9, 0.99, 1}){
+				double exact = values[(int) Math.floor(q * (values.length - 1))];
+				assertEquals(exact, sketch.getQuantile(q), exact * 0.01 + 1e-12);
+			}
+			assertEquals(values.length, sketch.getCount());
+			sketch.reset();
+		}
+		assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+	}
+
+	@Test
+	public void testSummary() throws IOException, URISyntaxException {
+		Path xml = TestResources.path("small_zlib.pwiz.1.1.mzML");
+		MzMLStAXParser<SpectrumSummary> summaries = new MzMLStAXParser<>(xml,
+				XMLSpectrumSummaryBuilder.factory(() -> new PeakReducer[]{
+						PeakReducers.intensityQuantiles(0.01, 0.5, 1),
+						PeakReducers.mzWindow(400, 500),
+						PeakReducers.countAbove(1000)
+				}));
+		MzMLStAXParser<Spectrum> spectra = new MzMLStAXParser<>(xml, XMLSpectrumBuilder::new);
+
+		Iterator<Spectrum> it = spectra.iterator();
+		int n = 0;
+		for(SpectrumSummary summary : summaries){
+			Spectrum s = it.next();
+			double[] mz = s.getMzArray();
+			double[] intensities = s.getIntensityArray();
+			assertEquals(s.getHeader().getId(), summary.getHeader().getId());
+			assertEquals(s.size(), summary.getPeakCount());
+
+			double tic = 0;
+			double window = 0;
+			int above = 0;
+			int base = 0;
+			for(int i = 0; i < mz.length; i++){
+				tic += intensities[i];
+				window += mz[i] >= 400 && mz[i] <= 500 ? intensities[i] : 0;
+				above += intensities[i] >= 1000 ? 1 : 0;
+				base = intensities[i] > intensities[base] ? i : base;
+			}
+			assertEquals(tic, summary.getTotalIonCurrent(), 1e-6 * tic);
+			if(mz.length > 0){
+				assertEquals(mz[base], summary.getBasePeakMz());
+				assertEquals(intensities[base], summary.getBasePeakIntensity());
+				assertEquals(mz[0], summary.getLowestMz());
+				assertEquals(mz[mz.length - 1], summary.getHighestMz());
+			}
+
+			double[] reduced = summary.getReduced();
+			assertEquals(5, reduced.length);
+			assertEquals(intensities[base], reduced[1], intensities[base] * 0.01);
+			assertEquals(window, reduced[2], 1e-6 * Math.max(window, 1));
+			assertEquals(above, (int) reduced[4]);
+			n++;
+		}
+		assertEquals(48, n);
+
+		// random access shares the reducers of the thread
+		assertEquals(spectra.getSpectrumByIndex(3).size(), summaries.getSpectrumByIndex(3).getPeakCount());
+
+		summaries.close();
+		spectra.close();
+	}
+}
@@ -0,0 +1,133 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.index.TileIndex;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+
+public class TileIndexTest extends TestCase {
+
+	@Test
+	public void testQuery() throws IOException, URISyntaxException {
+		Path xml = TestResources.path("small_zlib.pwiz.1.1.mzML");
+		Path index = Files.createTempFile("small_zlib", ".tiles");
+
+		List<Spectrum> ms1 = new ArrayList<>();
+		MzMLStAXParser<Spectrum> p = new MzMLStAXParser<>(xml, XMLSpectrumBuilder::new);
+		for(Spectrum s : p){
+			if(s.getHeader().getMsLevel() == 1){
+				ms1.add(s);
+			}
+		}
+		p.close();
+
+		double rtLow = ms1.get(2).getHeader().getScanStartTime();
+		double rtHigh = ms1.get(6).getHeader().getScanStartTime();
+		double rtWidth = (rtHigh - rtLow) / 3;
+
+		try {
+			Files.delete(index);
+			TileIndex tiles = TileIndex.load(xml, index, rtWidth, 25);
+			assertTrue(Files.exists(index));
+			assertEquals(ms1.size(), tiles.getSpectrumCount());
+
+			TileIndex.Region region = tiles.query(rtLow, rtHigh, 500, 620);
+			int n = 0;
+			double max = 0;
+			for(Spectrum s : ms1){
+				double rt = s.getHeader().getScanStartTime();
+				for(int i = 0; i < s.size(); i++){
+					double mz = s.getMzArray()[i];
+					double intensity = s.getIntensityArray()[i];
+					if(rt >= rtLow && rt <= rtHigh && mz >= 500 && mz <= 620 && intensity != 0){
+						n++;
+						max = Math.max(max, intensity);
+					}
+				}
+			}
+			assertTrue(n > 0);
+			assertEquals(n, region.size());
+			for(int i = 0; i < region.size(); i++){
+				assertTrue(region.getTimes()[i] >= rtLow && region.getTimes()[i] <= rtHigh);
+				assertTrue(region.getMz()[i] >= 500 && region.getMz()[i] <= 620);
+			}
+
+			// tile maxima cover the region, and may include peaks of the tiles outside of it
+			double tileMax = 0;
+			for(double[] row : tiles.getMaxima(rtLow, rtHigh, 500, 620)){
+				for(double m : row){
+					tileMax = Math.max(tileMax, m);
+				}
+			}
+			assertTrue(tileMax >= max);
+
+			// unbounded regions are clamped to the indexed bins
+			int peaks = 0;
+			for(Spectrum s : ms1){
+				for(double intensity : s.getIntensityArray()){
+					peaks += intensity != 0 ? 1 : 0;
+				}
+			}
+			double inf = Double.POSITIVE_INFINITY;
+			assertEquals(peaks, tiles.query(-inf, inf, -inf, inf).size());
+			double[][] all = tiles.getMaxima(-inf, inf, -inf, inf);
+			assertTrue(all.length > 0 && all.length <= tiles.getTiles(-inf, inf, -inf, inf).size());
+			assertEquals(0, tiles.getMaxima(-inf, -1, -inf, inf).length);
+			tiles.close();
+
+			// a current index is reopened, other tile sizes rebuild it
+			tiles = TileIndex.load(xml, index, rtWidth, 25);
+			assertEquals(n, tiles.query(rtLow, rtHigh, 500, 620).size());
+			tiles.close();
+
+			tiles = TileIndex.load(xml, index, rtWidth, 10);
+			assertEquals(10.0, tiles.getMzWidth());
+			assertEquals(n, tiles.query(rtLow, rtHigh, 500, 620).size());
+			tiles.close();
+		} finally {
+			Files.deleteIfExists(index);
+		}
+	}
+
+	@Test
+	public void testMissingFile() throws IOException {
+		Path dir = Files.createTempDirectory("tiles");
+		Path index = dir.resolve("missing.tiles");
+		try {
+			TileIndex.load(dir.resolve("missing.mzML"), index, 1, 25);
+			fail("Missing files must not be indexed");
+		} catch (NoSuchFileException e) {
+		}
+		// no partial index is left
+		try(DirectoryStream<Path> written = Files.newDirectoryStream(dir)) {
+			assertFalse(written.iterator().hasNext());
+		}
+	}
+}
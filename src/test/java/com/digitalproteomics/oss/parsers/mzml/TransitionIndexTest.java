@@ -0,0 +1,65 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
+import com.digitalproteomics.oss.parsers.mzml.index.TransitionIndex;
+import com.digitalproteomics.oss.parsers.mzml.model.Chromatogram;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+public class TransitionIndexTest extends TestCase {
+
+	@Test
+	public void testFind() throws IOException, URISyntaxException {
+		MzMLStAXParser<SpectrumHeader> p = new MzMLStAXParser<>(TestResources.path("tiny.pwiz.1.1.mzML"), XMLSpectrumHeaderBuilder::new);
+		TransitionIndex index = new TransitionIndex(p);
+
+		// the tic has no precursor, and is not indexed
+		assertEquals(1, index.size());
+
+		List<TransitionIndex.Transition> matches = index.find(456.71, 678.89, 0.05, 0.05);
+		assertEquals(1, matches.size());
+		TransitionIndex.Transition t = matches.get(0);
+		assertEquals("sic", t.getHeader().getId());
+		assertEquals(1, t.getHeader().getIndex());
+		assertEquals(456.7, t.getHeader().getPrecursorMz(), 1e-9);
+		assertEquals(678.9, t.getHeader().getProductMz(), 1e-9);
+		assertTrue(Double.isNaN(t.getHeader().getCollisionEnergy()));
+
+		assertTrue(index.find(456.7, 678.9, 0.01, 0.01, SpectrumHeader.Polarity.POSITIVE).isEmpty());
+		assertEquals(1, index.find(456.7, 678.9, 0.01, 0.01, SpectrumHeader.Polarity.UNKNOWN).size());
+		assertTrue(index.find(456.8, 678.9, 0.01, 0.01).isEmpty());
+		assertTrue(index.find(456.7, 679.0, 0.01, 0.01).isEmpty());
+		assertEquals(1, index.findByPrecursor(456.7, 0.01).size());
+
+		// arrays are read once, on request
+		Chromatogram c = t.getChromatogram();
+		assertEquals(10, c.getTimes().length);
+		assertEquals(10, c.getIntensities().length);
+		assertSame(c, t.getChromatogram());
+		assertEquals(678.9, c.getHeader().getProductMz(), 1e-9);
+
+		p.close();
+	}
+}
@@ -0,0 +1,165 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
+import com.digitalproteomics.oss.parsers.mzml.index.WindowPartitions;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+public class WindowPartitionsTest extends TestCase {
+
+	final static double[] TARGETS = {412.5, 437.5, 462.5};
+	final static double[] VOLTAGES = {-45, -60};
+	final static int CYCLES = 5;
+
+	/**
+	 * Writes an indexed file of DIA cycles: an MS1, and then an MS2 per isolation window, for each FAIMS
+	 * compensation voltage
+	 */
+	private Path writeDia() throws IOException {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+				+ "<indexedmzML xmlns=\"http://psi.hupo.org/ms/mzml\">\n<mzML>\n<run id=\"dia\">\n<spectrumList count=\"0\">\n");
+		List<Integer> offsets = new ArrayList<>();
+		int index = 0;
+		for(int c = 0; c < CYCLES; c++){
+			for(double cv : VOLTAGES){
+				for(int w = -1; w < TARGETS.length; w++){
+					offsets.add(xml.toString().getBytes(StandardCharsets.UTF_8).length);
+					xml.append("<spectrum index=\"" + index + "\" id=\"scan=" + index + "\" defaultArrayLength=\"0\">\n")
+						.append(this.cvParam("MS:1000511", w < 0 ? "1" : "2"))
+						.append(this.cvParam("MS:1001581", String.valueOf(cv)))
+						.append("<scanList count=\"1\"><scan>").append(this.cvParam("MS:1000016", String.valueOf(index))).append("</scan></scanList>\n");
+					if(w > -1){
+						xml.append("<precursorList count=\"1\"><precursor><isolationWindow>\n")
+							.append(this.cvParam("MS:1000827", String.valueOf(TARGETS[w])))
+							.append(this.cvParam("MS:1000828", "12.5"))
+							.append(this.cvParam("MS:1000829", "12.5"))
+							.append("</isolationWindow></precursor></precursorList>\n");
+					}
+					xml.append("</spectrum>\n");
+					index++;
+				}
+			}
+		}
+		xml.append("</spectrumList>\n</run>\n</mzML>\n<indexList count=\"1\">\n<index name=\"spectrum\">\n");
+		for(int i = 0; i < offsets.size(); i++){
+			xml.append("<offset idRef=\"scan=" + i + "\">" + offsets.get(i) + "</offset>\n");
+		}
+		xml.append("</index>\n</indexList>\n</indexedmzML>\n");
+
+		Path path = Files.createTempFile("dia", ".mzML");
+		Files.write(path, xml.toString().getBytes(StandardCharsets.UTF_8));
+		return path;
+	}
+
+	private String cvParam(String accession, String value) {
+		return "<cvParam cvRef=\"MS\" accession=\"" + accession + "\" name=\"\" value=\"" + value + "\"/>\n";
+	}
+
+	@Test
+	public void testPartitionByWindowAndVoltage() throws IOException {
+		Path xml = this.writeDia();
+		try(MzMLStAXParser<SpectrumHeader> parser = new MzMLStAXParser<>(xml, XMLSpectrumHeaderBuilder::new)){
+			WindowPartitions partitions = new WindowPartitions(xml, true, true);
+			assertEquals(VOLTAGES.length * (TARGETS.length + 1), partitions.size());
+
+			List<WindowPartitions.Window> windows = partitions.getWindows();
+			// MS1 partitions first, by voltage
+			assertEquals(1, windows.get(0).getMsLevel());
+			assertEquals(-60.0, windows.get(0).getCompensationVoltage());
+			assertTrue(Double.isNaN(windows.get(0).getTargetMz()));
+			WindowPartitions.Window first = windows.get(VOLTAGES.length);
+			assertEquals(2, first.getMsLevel());
+			assertEquals(400.0, first.getLowMz());
+			assertEquals(425.0, first.getHighMz());
+
+			Map<WindowPartitions.Window, List<SpectrumHeader>> read = new ConcurrentHashMap<>();
+			partitions.forEach(parser, (window, spectra) -> {
+				List<SpectrumHeader> headers = new ArrayList<>();
+				spectra.forEachRemaining(headers::add);
+				read.put(window, headers);
+			}, 3);
+
+			for(WindowPartitions.Window w : windows){
+				List<SpectrumHeader> headers = read.get(w);
+				assertEquals(CYCLES, headers.size());
+				int[] indices = partitions.getSpectrumIndices(w);
+				for(int i = 0; i < CYCLES; i++){
+					SpectrumHeader h = headers.get(i);
+					assertEquals(indices[i], h.getIndex());
+					assertEquals(w.getMsLevel(), h.getMsLevel());
+					assertEquals(w.getCompensationVoltage(), h.getCompensationVoltage());
+					if(i > 0){
+						assertTrue(h.getScanStartTime() > headers.get(i - 1).getScanStartTime());
+					}
+					if(w.getMsLevel() == 2){
+						assertEquals(w.getTargetMz(), h.getIsolationWindowTargetMz());
+					}
+				}
+			}
+
+			List<WindowPartitions.Window> found = partitions.findWindows(2, 430);
+			assertEquals(VOLTAGES.length, found.size());
+			for(WindowPartitions.Window w : found){
+				assertEquals(437.5, w.getTargetMz());
+			}
+		} finally {
+			Files.delete(xml);
+		}
+	}
+
+	@Test
+	public void testPartitionByWindowOnly() throws IOException {
+		Path xml = this.writeDia();
+		try(MzMLStAXParser<SpectrumHeader> parser = new MzMLStAXParser<>(xml, XMLSpectrumHeaderBuilder::new)){
+			WindowPartitions partitions = new WindowPartitions(xml, true, false);
+			assertEquals(TARGETS.length + 1, partitions.size());
+
+			List<Integer> seen = new ArrayList<>();
+			for(WindowPartitions.Window w : partitions.getWindows()){
+				assertTrue(Double.isNaN(w.getCompensationVoltage()));
+				Iterator<SpectrumHeader> spectra = partitions.iterator(w, parser);
+				int n = 0;
+				while(spectra.hasNext()){
+					seen.add(spectra.next().getIndex());
+					n++;
+				}
+				assertEquals(CYCLES * VOLTAGES.length, n);
+			}
+			Collections.sort(seen);
+			for(int i = 0; i < seen.size(); i++){
+				assertEquals(i, (int) seen.get(i));
+			}
+		} finally {
+			Files.delete(xml);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLEncodedSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.model.EncodedSpectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.processing.MsLevelIterator;
+import com.digitalproteomics.oss.parsers.mzml.processing.XICExtractor;
+
+public class XICExtractorTest extends TestCase {
+
+	@Test
+	public void testExtract() throws IOException, URISyntaxException {
+		Path xml = TestResources.path("small_zlib.pwiz.1.1.mzML");
+
+		List<Spectrum> ms1 = new ArrayList<>();
+		MzMLStAXParser<Spectrum> p = new MzMLStAXParser<>(xml, XMLSpectrumBuilder::new);
+		for(Spectrum s : p){
+			if(s.getHeader().getMsLevel() == 1){
+				ms1.add(s);
+			}
+		}
+		p.close();
+
+		// targets at peaks of a spectrum, a missing mass, and one with a retention time window
+		List<XICExtractor.Target> targets = new ArrayList<>();
+		double[] mz = ms1.get(0).getMzArray();
+		for(int i = 0; i < mz.length; i += mz.length / 50){
+			targets.add(new XICExtractor.Target(mz[i], 10));
+		}
+		targets.add(new XICExtractor.Target(5000, 10));
+		double rtLow = ms1.get(1).getHeader().getScanStartTime();
+		double rtHigh = ms1.get(3).getHeader().getScanStartTime();
+		targets.add(new XICExtractor.Target(mz[mz.length / 2], 20, rtLow, rtHigh));
+
+		for(int threads : new int[]{1, 4}){
+			List<XICExtractor.Trace> traces = new XICExtractor(targets).setThreads(threads).extract(xml);
+			assertEquals(targets.size(), traces.size());
+
+			for(XICExtractor.Trace trace : traces){
+				XICExtractor.Target t = trace.getTarget();
+				double[] times = trace.getTimes();
+				double[] intensities = trace.getIntensities();
+
+				int n = 0;
+				for(Spectrum s : ms1){
+					double rt = s.getHeader().getScanStartTime();
+					if(rt < t.getRtLow() || rt > t.getRtHigh()){
+						continue;
+					}
+					double expected = 0;
+					for(int j = 0; j < s.size(); j++){
+						if(s.getMzArray()[j] >= t.getLowMz() && s.getMzArray()[j] <= t.getHighMz()){
+							expected += s.getIntensityArray()[j];
+						}
+					}
+					assertEquals(rt, times[n]);
+					assertEquals(expected, intensities[n], 1e-6);
+					n++;
+				}
+				assertEquals(n, times.length);
+			}
+
+			assertEquals(0, traces.get(targets.size() - 2).getNonZeroCount());
+			assertEquals(3, traces.get(targets.size() - 1).getTimes().length);
+			assertTrue(traces.stream().anyMatch(trace -> trace.getNonZeroCount() > 1));
+		}
+	}
+
+	@Test
+	public void testMsLevelIterator() throws IOException, URISyntaxException {
+		Path xml = TestResources.path("small_zlib.pwiz.1.1.mzML");
+
+		int expected = 0;
+		MzMLStAXParser<Spectrum> p = new MzMLStAXParser<>(xml, XMLSpectrumBuilder::new);
+		for(Spectrum s : p){
+			if(s.getHeader().getMsLevel() == 2){
+				expected++;
+			}
+		}
+		p.close();
+
+		try(MzMLStAXParser<EncodedSpectrum> parser = new MzMLStAXParser<>(xml, XMLEncodedSpectrumBuilder::new)){
+			Iterator<EncodedSpectrum> ms2 = new MsLevelIterator(parser.iterator(), 2);
+			int n = 0;
+			while(ms2.hasNext()){
+				assertEquals(2, ms2.next().getHeader().getMsLevel());
+				n++;
+			}
+			assertEquals(expected, n);
+
+			try {
+				ms2.next();
+				fail("exhausted iterator returned a spectrum");
+			} catch(NoSuchElementException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testMissingFile() throws IOException {
+		XICExtractor extractor = new XICExtractor(Arrays.asList(new XICExtractor.Target(500, 10)));
+		try {
+			extractor.extract(Files.createTempDirectory("xic").resolve("missing.mzML"));
+			fail("Missing files must not be read");
+		} catch (NoSuchFileException e) {
+		}
+	}
+}
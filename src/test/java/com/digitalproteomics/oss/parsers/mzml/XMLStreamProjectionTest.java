@@ -0,0 +1,184 @@
+/******************************************************************************
+   Copyright 2017 Digital Proteomics, LLC
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+******************************************************************************/
+package com.digitalproteomics.oss.parsers.mzml;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.Test;
+
+import com.digitalproteomics.oss.parsers.mzml.builders.FromXMLStreamBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLSpectrumHeaderBuilder;
+import com.digitalproteomics.oss.parsers.mzml.builders.XMLStreamProjection;
+import com.digitalproteomics.oss.parsers.mzml.model.Spectrum;
+import com.digitalproteomics.oss.parsers.mzml.model.SpectrumHeader;
+
+public class XMLStreamProjectionTest extends TestCase {
+
+	/** records delivered events as strings **/
+	static class EventBuilder implements FromXMLStreamBuilder<List<String>> {
+		final List<String> events = new ArrayList<>();
+		final XMLStreamProjection projection;
+
+		EventBuilder(XMLStreamProjection projection) {
+			this.projection = projection;
+		}
+
+		@Override
+		public void accept(XMLStreamReader xr) {
+			if(xr.getEventType() == XMLStreamConstants.START_ELEMENT){
+				String acc = xr.getLocalName().equals("cvParam") ? " " + xr.getAttributeValue(null, "accession") : "";
+				this.events.add("<" + xr.getLocalName() + acc);
+			} else if(xr.getEventType() == XMLStreamConstants.END_ELEMENT){
+				this.events.add("</" + xr.getLocalName());
+			} else if(xr.getEventType() == XMLStreamConstants.CHARACTERS){
+				this.events.add("text");
+			}
+		}
+
+		@Override
+		public XMLStreamProjection getProjection() {
+			return this.projection;
+		}
+
+		@Override
+		public List<String> build() {
+			return this.events;
+		}
+	}
+
+	private void assertHeaderEquals(SpectrumHeader expected, SpectrumHeader actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getMsLevel(), actual.getMsLevel());
+		assertEquals(expected.getScanStartTime(), actual.getScanStartTime());
+		assertEquals(expected.getSelectedIonMz(), actual.getSelectedIonMz());
+		assertEquals(expected.getSelectedIonCharge(), actual.getSelectedIonCharge());
+		assertEquals(expected.getPolarity(), actual.getPolarity());
+		assertEquals(expected.getTotalIonCurrent(), actual.getTotalIonCurrent());
+	}
+
+	@Test
+	public void testProjectedEvents() throws IOException, URISyntaxException {
+		XMLStreamProjection projection = new XMLStreamProjection(Arrays.asList("cvParam", "precursor"),
+				Arrays.asList("binaryDataArrayList"),
+				Arrays.asList("MS:1000511", "MS:1000130"),
+				false);
+		MzMLStAXParser<List<String>> p = new MzMLStAXParser<List<String>>(TestResources.path("tiny.pwiz.1.1.mzML"),
+				(f, xr) -> new EventBuilder(projection));
+
+		// ms level, and positive scan from a referenceable param group
+		List<String> expected = Arrays.asList("<cvParam MS:1000130", "</cvParam", "<cvParam MS:1000511", "</cvParam");
+		assertEquals(expected, p.iterator().next());
+		assertEquals(expected, p.getSpectrumByIndex(0));
+
+		List<String> ms2 = p.getSpectrumByIndex(1);
+		assertTrue(ms2.contains("<precursor"));
+		assertTrue(ms2.contains("</precursor"));
+		assertFalse(ms2.contains("text"));
+		p.close();
+	}
+
+	@Test
+	public void testHeadersMatchUnprojected() throws IOException, URISyntaxException {
+		MzMLStAXParser<SpectrumHeader> projected = new MzMLStAXParser<SpectrumHeader>(TestResources.path("small_zlib.pwiz.1.1.mzML"),
+				XMLSpectrumHeaderBuilder::projected);
+		MzMLStAXParser<SpectrumHeader> unprojected = new MzMLStAXParser<SpectrumHeader>(TestResources.path("small_zlib.pwiz.1.1.mzML"),
+				XMLSpectrumHeaderBuilder::new);
+
+		Iterator<SpectrumHeader> it = projected.iterator();
+		int i = 0;
+		for(SpectrumHeader expected : unprojected){
+			assertHeaderEquals(expected, it.next());
+			assertHeaderEquals(expected, projected.getSpectrumByIndex(i++));
+		}
+		assertFalse(it.hasNext());
+		assertEquals(48, i);
+
+		projected.close();
+		unprojected.close();
+	}
+
+	@Test
+	public void testSpectrumBuilderProjection() throws IOException, URISyntaxException {
+		MzMLStAXParser<Spectrum> p = new MzMLStAXParser<Spectrum>(TestResources.path("small_zlib.pwiz.1.1.mzML"),
+				XMLSpectrumBuilder::projected);
+		MzMLStAXParser<Spectrum> unprojected = new MzMLStAXParser<Spectrum>(TestResources.path("small_zlib.pwiz.1.1.mzML"),
+				XMLSpectrumBuilder::new);
+
+		Spectrum s = p.getSpectrumByIndex(5);
+		assertTrue(s.size() > 0);
+		assertEquals(s.size(), s.getIntensityArray().length);
+		assertTrue(Arrays.equals(unprojected.getSpectrumByIndex(5).getIntensityArray(), s.getIntensityArray()));
+		p.close();
+		unprojected.close();
+	}
+
+	@Test
+	public void testPublicBuildersConsumeAllEvents() throws IOException, URISyntaxException {
+		// subclasses of the public builders keep receiving every element
+		List<String> names = new ArrayList<>();
+		MzMLStAXParser<SpectrumHeader> p = new MzMLStAXParser<SpectrumHeader>(TestResources.path("tiny.pwiz.1.1.mzML"),
+				(f, xr) -> new XMLSpectrumHeaderBuilder(f, xr) {
+					@Override
+					public void accept(XMLStreamReader xr) {
+						super.accept(xr);
+						if(xr.getEventType() == XMLStreamConstants.START_ELEMENT){
+							names.add(xr.getLocalName());
+						}
+					}
+				});
+		p.getSpectrumByIndex(1);
+		assertTrue(names.contains("scanWindowList"));
+		assertTrue(names.contains("binaryDataArrayList"));
+		p.close();
+	}
+
+	@Test
+	public void testRemoveElements() {
+		String xml = "<spectrum id=\"a\"><scanList count=\"1\"><scan/></scanList><binaryDataArrayList count=\"2\">"
+				+ "<binaryDataArray><binary>AAAA</binary></binaryDataArray></binaryDataArrayList><binaryDataArrayListing/>"
+				+ "<precursorList/></spectrum>";
+		byte[] bytes = xml.getBytes(StandardCharsets.US_ASCII);
+
+		byte[] pruned = ElementReader.removeElements(bytes, 1, Arrays.asList("binaryDataArrayList", "precursorList"));
+		assertEquals("<spectrum id=\"a\"><scanList count=\"1\"><scan/></scanList><binaryDataArrayListing/></spectrum>",
+				new String(pruned, StandardCharsets.US_ASCII));
+
+		assertSame(bytes, ElementReader.removeElements(bytes, 1, Arrays.asList("productList")));
+	}
+
+	@Test
+	public void testRemoveElementsWithPrefixedChildren() {
+		String xml = "<spectrum id=\"a\"><scanList count=\"1\"><scan x=\"1\"><scanWindowList count=\"1\">"
+				+ "<scanWindow/></scanWindowList><cvParam x=\"in\"/></scan ></scanList><cvParam x=\"out\"/></spectrum>";
+		byte[] bytes = xml.getBytes(StandardCharsets.US_ASCII);
+
+		byte[] pruned = ElementReader.removeElements(bytes, 1, Arrays.asList("scan"));
+		assertEquals("<spectrum id=\"a\"><scanList count=\"1\"></scanList><cvParam x=\"out\"/></spectrum>",
+				new String(pruned, StandardCharsets.US_ASCII));
+	}
+}